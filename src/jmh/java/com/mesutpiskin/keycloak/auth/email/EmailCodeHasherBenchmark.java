@@ -0,0 +1,73 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of storing and validating hashed email codes against the
+ * plain comparison.
+ * <p>
+ * Run with {@code mvn -Pbenchmark verify}.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailCodeHasherBenchmark {
+
+    private static final String CODE = "482913";
+
+    private SecretKey key;
+    private Function<String, SecretKey> keys;
+    private String storedHash;
+
+    @Setup
+    public void setUp() {
+        key = new SecretKeySpec("0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef"
+                .getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+        keys = kid -> key;
+        storedHash = EmailCodeHasher.hash("kid", key, EmailCodeHasher.newSalt(), CODE);
+    }
+
+    @Benchmark
+    public String hash() {
+        return EmailCodeHasher.hash("kid", key, EmailCodeHasher.newSalt(), CODE);
+    }
+
+    @Benchmark
+    public boolean validateHashed() {
+        return EmailCodeHasher.matches(storedHash, CODE, keys);
+    }
+
+    @Benchmark
+    public boolean rejectHashed() {
+        return EmailCodeHasher.matches(storedHash, "000000", keys);
+    }
+
+    @Benchmark
+    public boolean validatePlain() {
+        return EmailCodeHasher.matches(CODE, CODE, keys);
+    }
+}
@@ -0,0 +1,160 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.cache.CachedRealmModel;
+import org.keycloak.provider.ProviderEvent;
+
+/**
+ * Per-realm index from authenticator provider id to the id of the
+ * configuration of its first execution.
+ * <p>
+ * Finding the configuration of an authenticator outside its flow means
+ * walking every execution of every flow of the realm. The index does that walk
+ * once per realm and afterwards resolves the configuration by id. A realm's
+ * index is dropped when the realm is reloaded into the realm cache, which
+ * happens after any change to its flows, executions or configurations, and
+ * when the realm is removed. Each lookup also checks the indexed execution by
+ * id, so an execution that was removed or re-pointed to another configuration
+ * triggers a rebuild even where no event reaches this node. An index built
+ * while its realm was invalidated is not kept.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class AuthenticatorConfigIndex {
+
+    private static final Logger logger = Logger.getLogger(AuthenticatorConfigIndex.class);
+
+    private static final Map<String, Map<String, Indexed>> INDEX = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented whenever a realm's index is dropped, so that an index built
+     * from the realm as it was before is not stored.
+     */
+    private static final Map<String, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+
+    /**
+     * The first execution of an authenticator and its configuration.
+     *
+     * @param executionId the execution id
+     * @param configId    the configuration id, or null if it has none
+     */
+    private record Indexed(String executionId, String configId) {
+
+        boolean matches(AuthenticationExecutionModel execution, String providerId) {
+            return execution != null && providerId.equals(execution.getAuthenticator())
+                    && Objects.equals(configId, execution.getAuthenticatorConfig());
+        }
+    }
+
+    private AuthenticatorConfigIndex() {
+        throw new UnsupportedOperationException("AuthenticatorConfigIndex is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Finds the configuration of the first execution of an authenticator.
+     *
+     * @param realm      the realm
+     * @param providerId the authenticator provider id
+     * @return the configuration, or null if the first execution has none or the
+     *         authenticator is not used in the realm
+     */
+    public static AuthenticatorConfigModel find(RealmModel realm, String providerId) {
+        Map<String, Indexed> index = INDEX.get(realm.getId());
+        if (index == null) {
+            index = rebuild(realm);
+        }
+        Indexed indexed = index.get(providerId);
+        if (indexed == null) {
+            return null;
+        }
+        AuthenticatorConfigModel config = indexed.configId() != null
+                ? realm.getAuthenticatorConfigById(indexed.configId())
+                : null;
+        if ((indexed.configId() != null && config == null)
+                || !indexed.matches(realm.getAuthenticationExecutionById(indexed.executionId()), providerId)) {
+            logger.debugf("Indexed execution %s of realm %s changed; rebuilding the index", indexed.executionId(),
+                    realm.getName());
+            indexed = rebuild(realm).get(providerId);
+            config = indexed != null && indexed.configId() != null
+                    ? realm.getAuthenticatorConfigById(indexed.configId())
+                    : null;
+        }
+        return config;
+    }
+
+    /**
+     * Drops the index of a realm that was reloaded or removed.
+     *
+     * @param event the provider event
+     */
+    public static void onEvent(ProviderEvent event) {
+        if (event instanceof CachedRealmModel.RealmCachedEvent cached) {
+            invalidate(cached.getRealm().getId());
+        } else if (event instanceof RealmModel.RealmRemovedEvent removed) {
+            invalidate(removed.getRealm().getId());
+            GENERATIONS.remove(removed.getRealm().getId());
+        }
+    }
+
+    /**
+     * Drops the index of a realm.
+     *
+     * @param realmId the realm id
+     */
+    public static void invalidate(String realmId) {
+        generation(realmId).incrementAndGet();
+        INDEX.remove(realmId);
+    }
+
+    /**
+     * Drops all indexes.
+     */
+    public static void clear() {
+        INDEX.clear();
+        GENERATIONS.clear();
+    }
+
+    /**
+     * Builds the realm's index and stores it unless the realm was invalidated
+     * meanwhile. The walk runs outside the map so that other realms are not
+     * blocked by it.
+     */
+    private static Map<String, Indexed> rebuild(RealmModel realm) {
+        String realmId = realm.getId();
+        AtomicLong generation = generation(realmId);
+        long before = generation.get();
+        Map<String, Indexed> index = build(realm);
+        INDEX.put(realmId, index);
+        if (generation.get() != before) {
+            // invalidated during the walk; the index may describe the old flows
+            INDEX.remove(realmId, index);
+        }
+        return index;
+    }
+
+    private static AtomicLong generation(String realmId) {
+        return GENERATIONS.computeIfAbsent(realmId, id -> new AtomicLong());
+    }
+
+    private static Map<String, Indexed> build(RealmModel realm) {
+        Map<String, Indexed> index = new HashMap<>();
+        realm.getAuthenticationFlowsStream()
+                .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
+                .filter(exec -> exec.getAuthenticator() != null)
+                .forEach(exec -> index.putIfAbsent(exec.getAuthenticator(),
+                        new Indexed(exec.getId(), exec.getAuthenticatorConfig())));
+        return Map.copyOf(index);
+    }
+}
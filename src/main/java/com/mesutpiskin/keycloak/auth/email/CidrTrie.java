@@ -0,0 +1,257 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Set of IPv4 and IPv6 networks held in compressed binary prefix tries.
+ * <p>
+ * Trusted networks used to be expressed as header regular expressions listing
+ * every address, which get slower and harder to maintain with every entry.
+ * Networks are instead inserted bit by bit into a trie per address family,
+ * with chains of single-child nodes collapsed into one node, so checking an
+ * address walks at most its 32 or 128 bits regardless of how many networks
+ * the set holds.
+ * </p>
+ * <p>
+ * Only address literals are parsed; host names are rejected and never
+ * resolved.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+final class CidrTrie {
+
+    private static final Logger logger = Logger.getLogger(CidrTrie.class);
+
+    private final Node ipv4 = new Node(new byte[4], 0, false);
+    private final Node ipv6 = new Node(new byte[16], 0, false);
+    private int size;
+
+    /**
+     * A trie node covering the first {@code length} bits of {@code key}.
+     */
+    private static final class Node {
+
+        final byte[] key;
+        final int length;
+        boolean terminal;
+        Node zero;
+        Node one;
+
+        Node(byte[] key, int length, boolean terminal) {
+            this.key = key;
+            this.length = length;
+            this.terminal = terminal;
+        }
+
+        Node child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        void child(int bit, Node node) {
+            if (bit == 0) {
+                zero = node;
+            } else {
+                one = node;
+            }
+        }
+    }
+
+    /**
+     * Parses a list of networks in CIDR notation, e.g.
+     * {@code 10.0.0.0/8, 192.168.1.7, 2001:db8::/32}. Entries are separated by
+     * commas, whitespace or {@code ##}; a bare address is a single-address
+     * network. Invalid entries are logged and skipped.
+     *
+     * @param networks the list, may be null
+     * @return the set, or null if the list holds no valid network
+     */
+    static CidrTrie parse(String networks) {
+        if (networks == null || networks.isBlank()) {
+            return null;
+        }
+        CidrTrie trie = new CidrTrie();
+        for (String entry : networks.split("[,\\s]+|##")) {
+            if (!entry.isEmpty() && !trie.add(entry)) {
+                logger.warnf("Ignoring invalid network '%s' in conditional OTP configuration", entry);
+            }
+        }
+        return trie.size > 0 ? trie : null;
+    }
+
+    /**
+     * Adds a network.
+     *
+     * @param cidr the network in CIDR notation or a single address
+     * @return false if the network is invalid
+     */
+    boolean add(String cidr) {
+        int slash = cidr.indexOf('/');
+        byte[] address = parseAddress(slash < 0 ? cidr : cidr.substring(0, slash));
+        if (address == null) {
+            return false;
+        }
+        int bits = address.length * 8;
+        int length = bits;
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(cidr.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (length < 0 || length > bits) {
+                return false;
+            }
+        }
+        insert(address.length == 4 ? ipv4 : ipv6, address, length);
+        size++;
+        return true;
+    }
+
+    /**
+     * Checks whether an address belongs to one of the networks.
+     *
+     * @param address the address as returned by {@link #parseAddress(String)}
+     * @return true if a network contains the address
+     */
+    boolean contains(byte[] address) {
+        Node node = address.length == 4 ? ipv4 : ipv6;
+        int bits = address.length * 8;
+        while (true) {
+            if (node.terminal) {
+                return true;
+            }
+            if (node.length == bits) {
+                return false;
+            }
+            Node child = node.child(bit(address, node.length));
+            if (child == null || !samePrefix(child.key, address, node.length + 1, child.length)) {
+                return false;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @return the number of networks added
+     */
+    int size() {
+        return size;
+    }
+
+    private static void insert(Node root, byte[] key, int length) {
+        Node node = root;
+        while (true) {
+            if (node.terminal) {
+                // already covered by a shorter network
+                return;
+            }
+            if (length == node.length) {
+                node.terminal = true;
+                return;
+            }
+            int bit = bit(key, node.length);
+            Node child = node.child(bit);
+            if (child == null) {
+                node.child(bit, new Node(key, length, true));
+                return;
+            }
+            int common = commonPrefix(child.key, key, node.length + 1, Math.min(child.length, length));
+            if (common == child.length) {
+                node = child;
+                continue;
+            }
+            Node split = new Node(key, common, common == length);
+            split.child(bit(child.key, common), child);
+            if (common < length) {
+                split.child(bit(key, common), new Node(key, length, true));
+            }
+            node.child(bit, split);
+            return;
+        }
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address literal, as found in a connection or a
+     * forwarded header. Brackets and ports are removed and IPv4-mapped IPv6
+     * addresses are returned as IPv4.
+     *
+     * @param literal the address
+     * @return the address bytes, or null if the value is not an address literal
+     */
+    static byte[] parseAddress(String literal) {
+        if (literal == null) {
+            return null;
+        }
+        String value = literal.trim();
+        if (value.startsWith("[")) {
+            int close = value.indexOf(']');
+            if (close < 0) {
+                return null;
+            }
+            value = value.substring(1, close);
+        } else if (value.indexOf(':') >= 0 && value.indexOf(':') == value.lastIndexOf(':')
+                && value.indexOf('.') > 0) {
+            // IPv4 address with a port
+            value = value.substring(0, value.indexOf(':'));
+        }
+        if (value.indexOf(':') < 0) {
+            return parseIpv4(value);
+        }
+        try {
+            // brackets make the JDK reject anything but an IPv6 literal instead of resolving it
+            InetAddress address = InetAddress.getByName('[' + value + ']');
+            return address instanceof Inet4Address ? address.getAddress()
+                    : address.getAddress().length == 16 ? address.getAddress() : null;
+        } catch (UnknownHostException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4(String value) {
+        byte[] address = new byte[4];
+        int part = 0;
+        int octet = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || part == 4) {
+                    return null;
+                }
+                address[part++] = (byte) octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return part == 4 ? address : null;
+    }
+
+    private static int bit(byte[] key, int index) {
+        return (key[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    private static boolean samePrefix(byte[] a, byte[] b, int from, int to) {
+        return commonPrefix(a, b, from, to) == to;
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bit(a, i) != bit(b, i)) {
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -1,25 +1,8 @@
 package com.mesutpiskin.keycloak.auth.email;
 
-import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.ABSTAIN;
-import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.SHOW_OTP;
-import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.SKIP_OTP;
-import static org.keycloak.models.utils.KeycloakModelUtils.getRoleFromString;
-
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.keycloak.authentication.AuthenticationFlowContext;
-import org.keycloak.models.AuthenticatorConfigModel;
-import org.keycloak.models.RealmModel;
-import org.keycloak.models.RoleModel;
-import org.keycloak.models.UserModel;
-
-import jakarta.ws.rs.core.MultivaluedMap;
 
 /**
  * Conditional email authenticator that decides whether to enforce OTP based on
@@ -37,8 +20,12 @@ import jakarta.ws.rs.core.MultivaluedMap;
  * <li>User OTP control attribute</li>
  * <li>User role (skip or force roles)</li>
  * <li>HTTP header patterns</li>
+ * <li>Client network (untrusted or trusted CIDR lists)</li>
+ * <li>Remembered device cookie</li>
  * <li>Default fallback configuration</li>
  * </ol>
+ * The configuration is compiled into an {@link OtpDecisionPlan} holding only
+ * the enabled factors, which is reused until the configuration changes.
  * </p>
  *
  * @author Mesut Pişkin
@@ -82,6 +69,29 @@ public class ConditionalEmailAuthenticatorForm extends EmailAuthenticatorForm {
      */
     public static final String FORCE_OTP_FOR_HTTP_HEADER = "forceOtpForHeaderPattern";
 
+    /**
+     * Configuration key for the networks (CIDR list) whose clients skip OTP.
+     */
+    public static final String SKIP_OTP_FOR_NETWORKS = "skipOtpForNetworks";
+
+    /**
+     * Configuration key for the networks (CIDR list) whose clients must enter
+     * OTP; takes precedence over {@link #SKIP_OTP_FOR_NETWORKS}.
+     */
+    public static final String FORCE_OTP_FOR_NETWORKS = "forceOtpForNetworks";
+
+    /**
+     * Configuration key for the request header carrying the client address,
+     * e.g. {@code X-Forwarded-For}; the connection address is used if unset.
+     */
+    public static final String CLIENT_ADDRESS_HEADER = "clientAddressHeader";
+
+    /**
+     * Configuration key for the number of days a browser skips OTP after a
+     * code was entered in it; empty or 0 disables remembering devices.
+     */
+    public static final String REMEMBER_DEVICE_DAYS = "rememberDeviceDays";
+
     /**
      * Configuration key for the default OTP outcome when no other condition
      * matches.
@@ -89,9 +99,10 @@ public class ConditionalEmailAuthenticatorForm extends EmailAuthenticatorForm {
     public static final String DEFAULT_OTP_OUTCOME = "defaultOtpOutcome";
 
     /**
-     * Cache for compiled regex patterns to avoid recompilation overhead.
+     * Bounded cache for compiled header patterns to avoid recompilation overhead.
      */
-    private static final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
+    private static final PatternCache patternCache = new PatternCache(PatternCache.DEFAULT_MAX_ENTRIES,
+            Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
 
     /**
      * Enum representing the decision outcome for OTP enforcement.
@@ -116,46 +127,15 @@ public class ConditionalEmailAuthenticatorForm extends EmailAuthenticatorForm {
     @Override
     public void authenticate(AuthenticationFlowContext context) {
 
-        AuthenticatorConfigModel model = context.getAuthenticatorConfig();
-        Map<String, String> config = model != null ? model.getConfig() : Collections.emptyMap();
-
-        if (tryConcludeBasedOn(voteForUserOtpControlAttribute(context.getUser(), config), context)) {
-            return;
-        }
-
-        if (tryConcludeBasedOn(voteForUserRole(context.getRealm(), context.getUser(), config), context)) {
-            return;
-        }
-
-        if (tryConcludeBasedOn(
-                voteForHttpHeaderMatchesPattern(context.getHttpRequest().getHttpHeaders().getRequestHeaders(), config),
-                context)) {
-            return;
-        }
+        OtpDecisionPlan plan = OtpDecisionPlan.of(context.getRealm(), context.getAuthenticatorConfig());
 
-        if (tryConcludeBasedOn(voteForDefaultFallback(config), context)) {
+        if (tryConcludeBasedOn(plan.decide(context), context)) {
             return;
         }
 
         showOtpForm(context);
     }
 
-    private OtpDecision voteForDefaultFallback(Map<String, String> config) {
-
-        if (!config.containsKey(DEFAULT_OTP_OUTCOME)) {
-            return ABSTAIN;
-        }
-
-        switch (config.get(DEFAULT_OTP_OUTCOME)) {
-            case SKIP:
-                return SKIP_OTP;
-            case FORCE:
-                return SHOW_OTP;
-            default:
-                return ABSTAIN;
-        }
-    }
-
     private boolean tryConcludeBasedOn(OtpDecision state, AuthenticationFlowContext context) {
 
         switch (state) {
@@ -173,115 +153,24 @@ public class ConditionalEmailAuthenticatorForm extends EmailAuthenticatorForm {
         }
     }
 
-    private void showOtpForm(AuthenticationFlowContext context) {
-        super.authenticate(context);
-    }
-
-    private OtpDecision voteForUserOtpControlAttribute(UserModel user, Map<String, String> config) {
-
-        if (!config.containsKey(OTP_CONTROL_USER_ATTRIBUTE)) {
-            return ABSTAIN;
-        }
-
-        String attributeName = config.get(OTP_CONTROL_USER_ATTRIBUTE);
-        if (attributeName == null) {
-            return ABSTAIN;
-        }
-
-        Optional<String> value = user.getAttributeStream(attributeName).findFirst();
-        if (!value.isPresent()) {
-            return ABSTAIN;
-        }
-
-        switch (value.get().trim()) {
-            case SKIP:
-                return SKIP_OTP;
-            case FORCE:
-                return SHOW_OTP;
-            default:
-                return ABSTAIN;
-        }
-    }
-
-    private OtpDecision voteForHttpHeaderMatchesPattern(MultivaluedMap<String, String> requestHeaders,
-            Map<String, String> config) {
-
-        if (!config.containsKey(FORCE_OTP_FOR_HTTP_HEADER) && !config.containsKey(SKIP_OTP_FOR_HTTP_HEADER)) {
-            return ABSTAIN;
-        }
-
-        // Inverted to allow white-lists, e.g. for specifying trusted remote hosts:
-        // X-Forwarded-Host: (1.2.3.4|1.2.3.5)
-        if (containsMatchingRequestHeader(requestHeaders, config.get(SKIP_OTP_FOR_HTTP_HEADER))) {
-            return SKIP_OTP;
-        }
-
-        if (containsMatchingRequestHeader(requestHeaders, config.get(FORCE_OTP_FOR_HTTP_HEADER))) {
-            return SHOW_OTP;
-        }
-
-        return ABSTAIN;
-    }
-
-    private boolean containsMatchingRequestHeader(MultivaluedMap<String, String> requestHeaders, String headerPattern) {
-
-        if (headerPattern == null) {
-            return false;
-        }
-
-        Pattern pattern;
-        try {
-            pattern = patternCache.computeIfAbsent(headerPattern,
-                    p -> Pattern.compile(p, Pattern.DOTALL | Pattern.CASE_INSENSITIVE));
-        } catch (PatternSyntaxException e) {
-            logger.errorf("Invalid pattern syntax for header matching: %s", headerPattern);
-            return false;
-        }
-
-        for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
-
-            String key = entry.getKey();
-
-            for (String value : entry.getValue()) {
-
-                String headerEntry = key.trim() + ": " + value.trim();
-
-                if (pattern.matcher(headerEntry).matches()) {
-                    return true;
-                }
-            }
+    @Override
+    protected void codeVerified(AuthenticationFlowContext context) {
+        int days = OtpDecisionPlan.of(context.getRealm(), context.getAuthenticatorConfig()).rememberDeviceDays();
+        if (days > 0) {
+            TrustedDeviceCookie.issue(context, days);
         }
-
-        return false;
     }
 
-    private OtpDecision voteForUserRole(RealmModel realm, UserModel user, Map<String, String> config) {
-
-        if (!config.containsKey(SKIP_OTP_ROLE) && !config.containsKey(FORCE_OTP_ROLE)) {
-            return ABSTAIN;
-        }
-
-        if (userHasRole(realm, user, config.get(SKIP_OTP_ROLE))) {
-            return SKIP_OTP;
-        }
-
-        if (userHasRole(realm, user, config.get(FORCE_OTP_ROLE))) {
-            return SHOW_OTP;
-        }
-
-        return ABSTAIN;
+    private void showOtpForm(AuthenticationFlowContext context) {
+        super.authenticate(context);
     }
 
-    private boolean userHasRole(RealmModel realm, UserModel user, String roleName) {
-
-        if (roleName == null) {
-            return false;
-        }
-
-        RoleModel role = getRoleFromString(realm, roleName);
-        if (role != null) {
-            return user.hasRole(role);
-        }
-        return false;
+    /**
+     * Returns the cache of compiled header patterns, e.g. to read its counters.
+     *
+     * @return the pattern cache
+     */
+    static PatternCache patternCache() {
+        return patternCache;
     }
 }
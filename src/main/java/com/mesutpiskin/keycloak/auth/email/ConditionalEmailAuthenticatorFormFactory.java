@@ -12,6 +12,7 @@ import static org.keycloak.authentication.authenticators.browser.ConditionalOtpF
 import static org.keycloak.provider.ProviderConfigProperty.LIST_TYPE;
 import static org.keycloak.provider.ProviderConfigProperty.ROLE_TYPE;
 import static org.keycloak.provider.ProviderConfigProperty.STRING_TYPE;
+import static org.keycloak.provider.ProviderConfigProperty.TEXT_TYPE;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -19,6 +20,7 @@ import java.util.List;
 
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 
 public class ConditionalEmailAuthenticatorFormFactory extends EmailAuthenticatorFormFactory {
@@ -74,7 +76,8 @@ public class ConditionalEmailAuthenticatorFormFactory extends EmailAuthenticator
          skipOtpForHttpHeader.setLabel("Skip OTP for Header");
          skipOtpForHttpHeader.setHelpText("OTP is skipped if a HTTP request header does matches the given pattern." +
                  "Can be used to specify trusted networks via: X-Forwarded-Host: (1.2.3.4|1.2.3.5)." +
-                 "In this case requests from 1.2.3.4 and 1.2.3.5 come from a trusted source.");
+                 "In this case requests from 1.2.3.4 and 1.2.3.5 come from a trusted source. " +
+                 "Patterns starting with a header name and a colon only check that header.");
          skipOtpForHttpHeader.setDefaultValue("");
          list.add(skipOtpForHttpHeader);
 
@@ -82,10 +85,46 @@ public class ConditionalEmailAuthenticatorFormFactory extends EmailAuthenticator
          forceOtpForHttpHeader.setType(STRING_TYPE);
          forceOtpForHttpHeader.setName(FORCE_OTP_FOR_HTTP_HEADER);
          forceOtpForHttpHeader.setLabel("Force OTP for Header");
-         forceOtpForHttpHeader.setHelpText("OTP required if a HTTP request header matches the given pattern.");
+         forceOtpForHttpHeader.setHelpText("OTP required if a HTTP request header matches the given pattern. " +
+                 "Patterns starting with a header name and a colon only check that header.");
          forceOtpForHttpHeader.setDefaultValue("");
          list.add(forceOtpForHttpHeader);
 
+         ProviderConfigProperty skipOtpForNetworks = new ProviderConfigProperty();
+         skipOtpForNetworks.setType(TEXT_TYPE);
+         skipOtpForNetworks.setName(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_NETWORKS);
+         skipOtpForNetworks.setLabel("Skip OTP for Networks");
+         skipOtpForNetworks.setHelpText("OTP is skipped for clients in one of these networks, given in CIDR notation " +
+                 "(IPv4 or IPv6) and separated by commas or new lines, e.g. 10.0.0.0/8, 2001:db8::/32.");
+         list.add(skipOtpForNetworks);
+
+         ProviderConfigProperty forceOtpForNetworks = new ProviderConfigProperty();
+         forceOtpForNetworks.setType(TEXT_TYPE);
+         forceOtpForNetworks.setName(ConditionalEmailAuthenticatorForm.FORCE_OTP_FOR_NETWORKS);
+         forceOtpForNetworks.setLabel("Force OTP for Networks");
+         forceOtpForNetworks.setHelpText("OTP is required for clients in one of these networks, even if they are " +
+                 "also in a network that skips OTP.");
+         list.add(forceOtpForNetworks);
+
+         ProviderConfigProperty clientAddressHeader = new ProviderConfigProperty();
+         clientAddressHeader.setType(STRING_TYPE);
+         clientAddressHeader.setName(ConditionalEmailAuthenticatorForm.CLIENT_ADDRESS_HEADER);
+         clientAddressHeader.setLabel("Client Address Header");
+         clientAddressHeader.setHelpText("Request header holding the client address for the network checks, e.g. " +
+                 "X-Forwarded-For; its last entry, added by the proxy in front of Keycloak, is used. Only set " +
+                 "this if a trusted proxy always sets the header. Defaults to the connection address, which " +
+                 "honours Keycloak's proxy-headers option.");
+         list.add(clientAddressHeader);
+
+         ProviderConfigProperty rememberDeviceDays = new ProviderConfigProperty();
+         rememberDeviceDays.setType(STRING_TYPE);
+         rememberDeviceDays.setName(ConditionalEmailAuthenticatorForm.REMEMBER_DEVICE_DAYS);
+         rememberDeviceDays.setLabel("Remember Device (days)");
+         rememberDeviceDays.setHelpText("After a code is entered, OTP is skipped in the same browser for this many " +
+                 "days unless an earlier check forces it. The browser keeps a signed cookie; rotate the realm's " +
+                 "HMAC key to forget all devices. Empty or 0 disables this.");
+         list.add(rememberDeviceDays);
+
          ProviderConfigProperty defaultOutcome = new ProviderConfigProperty();
          defaultOutcome.setType(LIST_TYPE);
          defaultOutcome.setName(DEFAULT_OTP_OUTCOME);
@@ -101,4 +140,19 @@ public class ConditionalEmailAuthenticatorFormFactory extends EmailAuthenticator
     public Authenticator create(KeycloakSession session) {
         return SINGLETON;
     }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        super.postInit(factory);
+        factory.register(RoleMembershipCache::onEvent);
+        factory.register(OtpDecisionPlan::onEvent);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        OtpDecisionPlan.clear();
+        RoleMembershipCache.clear();
+        ConditionalEmailAuthenticatorForm.patternCache().clear();
+    }
 }
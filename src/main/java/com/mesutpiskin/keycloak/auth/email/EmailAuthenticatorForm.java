@@ -20,6 +20,12 @@ import org.keycloak.authentication.authenticators.browser.AbstractUsernameFormAu
 import org.keycloak.common.util.SecretGenerator;
 import org.keycloak.credential.CredentialProvider;
 
+import com.mesutpiskin.keycloak.auth.email.model.EmailDeliveryRequest;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryDispatcher;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryService;
+import com.mesutpiskin.keycloak.auth.email.service.outbox.EmailOutbox;
+
 import org.jboss.logging.Logger;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
@@ -55,7 +61,6 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
         implements CredentialValidator<EmailAuthenticatorCredentialProvider> {
 
     protected static final Logger logger = Logger.getLogger(EmailAuthenticatorForm.class);
-    private static final String CODE_ATTEMPTS = "emailCodeAttempts";
 
     /**
      * Initiates the authentication process by presenting the email OTP challenge to
@@ -89,8 +94,16 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
      */
     @Override
     protected Response challenge(AuthenticationFlowContext context, String error, String field) {
-        generateAndSendEmailCode(context);
-        LoginFormsProvider form = prepareForm(context, null);
+        return challenge(context, EmailCodeState.read(context.getAuthenticationSession()), error, field);
+    }
+
+    /**
+     * Creates the challenge response for an already read code state, sending a
+     * new code if there is none.
+     */
+    private Response challenge(AuthenticationFlowContext context, EmailCodeState state, String error, String field) {
+        EmailCodeState current = state != null ? state : generateAndSendEmailCode(context);
+        LoginFormsProvider form = prepareForm(context, current, null);
         applyFormMessage(form, error, field);
         return form.createForm("email-code-form.ftl");
     }
@@ -99,11 +112,10 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
      * Generates a random email code and sends it to the user's registered email
      * address.
      * <p>
-     * If a code has already been generated for this session, this method returns
-     * early
-     * to prevent duplicate emails. The code is stored in the authentication session
-     * along
-     * with its expiration time and resend cooldown period.
+     * The code, or its keyed hash when {@link EmailConstants#HASH_CODE} is
+     * enabled, is stored in the authentication session together with its
+     * expiration time and resend cooldown period as a single
+     * {@link EmailCodeState} note.
      * </p>
      * <p>
      * In simulation mode, the code is logged instead of being emailed, useful for
@@ -111,70 +123,27 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
      * </p>
      *
      * @param context the authentication flow context
+     * @return the state of the new code
      */
-    private void generateAndSendEmailCode(AuthenticationFlowContext context) {
-        AuthenticatorConfigModel config = context.getAuthenticatorConfig();
+    private EmailCodeState generateAndSendEmailCode(AuthenticationFlowContext context) {
+        EmailAuthenticatorSettings settings = EmailAuthenticatorSettings.of(context.getAuthenticatorConfig());
         AuthenticationSessionModel session = context.getAuthenticationSession();
+        int ttl = settings.getTtl();
 
-        if (session.getAuthNote(EmailConstants.CODE) != null) {
-            // skip sending email code
-            return;
-        }
-
-        Map<String, String> configValues = config != null && config.getConfig() != null
-                ? config.getConfig()
-                : Map.of();
-
-        int length = resolvePositiveInt(configValues, EmailConstants.CODE_LENGTH, EmailConstants.DEFAULT_LENGTH);
-        int ttl = resolvePositiveInt(configValues, EmailConstants.CODE_TTL, EmailConstants.DEFAULT_TTL);
-        int resendCooldown = resolvePositiveInt(configValues, EmailConstants.RESEND_COOLDOWN,
-                EmailConstants.DEFAULT_RESEND_COOLDOWN);
-
-        String code = SecretGenerator.getInstance().randomString(length, SecretGenerator.DIGITS);
-        if (config != null && Boolean.parseBoolean(config.getConfig().get(EmailConstants.SIMULATION_MODE))) {
+        String code = SecretGenerator.getInstance().randomString(settings.getCodeLength(), SecretGenerator.DIGITS);
+        if (settings.isSimulationMode()) {
             logger.infof("***** SIMULATION MODE ***** Email code send to %s for user %s is: %s",
                     context.getUser().getEmail(), context.getUser().getUsername(), code);
         } else {
             sendEmailWithCode(context, code, ttl);
         }
-        session.setAuthNote(EmailConstants.CODE, code);
-        long now = System.currentTimeMillis();
-        session.setAuthNote(EmailConstants.CODE_TTL, Long.toString(now + (ttl * 1000L)));
-        session.setAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER, Long.toString(now + (resendCooldown * 1000L)));
-    }
-
-    /**
-     * Resolves a positive integer configuration value with validation and fallback.
-     * <p>
-     * Parses the configuration value for the given key. If the value is missing,
-     * blank,
-     * not a valid integer, or non-positive, returns the default value and logs a
-     * warning.
-     * </p>
-     *
-     * @param configValues the configuration map
-     * @param key          the configuration key to resolve
-     * @param defaultValue the fallback value if parsing fails or value is invalid
-     * @return the parsed positive integer or the default value
-     */
-    private int resolvePositiveInt(Map<String, String> configValues, String key, int defaultValue) {
-        String raw = configValues.get(key);
-        if (raw == null || raw.isBlank()) {
-            return defaultValue;
-        }
-        try {
-            int parsed = Integer.parseInt(raw.trim());
-            if (parsed <= 0) {
-                logger.warnf("Configuration value for %s was non-positive ('%s'); falling back to default %d", key, raw,
-                        defaultValue);
-                return defaultValue;
-            }
-            return parsed;
-        } catch (NumberFormatException ex) {
-            logger.warnf("Configuration value for %s was invalid ('%s'); falling back to default %d", key, raw,
-                    defaultValue);
-            return defaultValue;
-        }
+        String storedCode = settings.isHashCode()
+                ? EmailCodeHasher.hash(context.getSession(), context.getRealm(), code)
+                : code;
+        EmailCodeState state = EmailCodeState.issue(storedCode, System.currentTimeMillis(), ttl,
+                settings.getResendCooldown());
+        state.write(session);
+        return state;
     }
 
     /**
@@ -195,30 +164,41 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
             return;
         }
 
+        EmailCodeState state = EmailCodeState.read(context.getAuthenticationSession());
         MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
-        if (handleFormShortcuts(context, formData)) {
+        if (handleFormShortcuts(context, state, formData)) {
             return;
         }
 
-        if (isValidCodeContext(context, userModel, formData)) {
+        if (isValidCodeContext(context, state, userModel, formData)) {
             resetEmailCode(context);
+            codeVerified(context);
             context.success();
         }
     }
 
-    private boolean handleFormShortcuts(AuthenticationFlowContext context, MultivaluedMap<String, String> formData) {
+    /**
+     * Called after the user entered a valid code, before the authenticator
+     * succeeds. Does nothing by default.
+     *
+     * @param context the authentication flow context
+     */
+    protected void codeVerified(AuthenticationFlowContext context) {
+    }
+
+    private boolean handleFormShortcuts(AuthenticationFlowContext context, EmailCodeState state,
+            MultivaluedMap<String, String> formData) {
         if (formData.containsKey("resend")) {
-            AuthenticationSessionModel session = context.getAuthenticationSession();
-            Long remainingSeconds = getRemainingSeconds(session);
-            if (remainingSeconds != null && remainingSeconds > 0L) {
-                LoginFormsProvider form = prepareForm(context, remainingSeconds);
+            long remainingSeconds = state != null ? state.remainingCooldownSeconds(System.currentTimeMillis()) : 0L;
+            if (remainingSeconds > 0L) {
+                LoginFormsProvider form = prepareForm(context, state, remainingSeconds);
                 applyFormMessage(form, "email-authenticator-resend-cooldown", null, remainingSeconds);
                 context.challenge(form.createForm("email-code-form.ftl"));
                 return true;
             }
 
             resetEmailCode(context);
-            context.challenge(challenge(context, null));
+            context.challenge(challenge(context, null, null, null));
             return true;
         }
 
@@ -231,107 +211,64 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
         return false;
     }
 
-    private record CodeContext(String storedCode, Long expiresAt, String submittedCode) {
-    }
-
-    private CodeContext buildCodeContext(AuthenticationSessionModel session, MultivaluedMap<String, String> formData) {
-        String storedCode = session.getAuthNote(EmailConstants.CODE);
-        String ttlNote = session.getAuthNote(EmailConstants.CODE_TTL);
-        Long expiresAt = null;
-        if (ttlNote != null) {
-            try {
-                expiresAt = Long.parseLong(ttlNote);
-            } catch (NumberFormatException ex) {
-                logger.warnf("Invalid TTL value '%s' found for email authenticator; treating as expired", ttlNote);
-            }
-        }
-
-        String submittedRaw = formData.getFirst(EmailConstants.CODE);
-        String submittedCode = submittedRaw == null ? null : submittedRaw.strip();
-
-        return new CodeContext(storedCode, expiresAt, submittedCode);
-    }
-
-    private boolean isValidCodeContext(AuthenticationFlowContext context, UserModel user,
+    private boolean isValidCodeContext(AuthenticationFlowContext context, EmailCodeState state, UserModel user,
             MultivaluedMap<String, String> formData) {
-        CodeContext codeContext = buildCodeContext(context.getAuthenticationSession(), formData);
-        if (codeContext.storedCode() == null || codeContext.expiresAt() == null) {
+        if (state == null) {
             context.getEvent().user(user).error(Errors.INVALID_USER_CREDENTIALS);
-            Response challengeResponse = challenge(context, Messages.INVALID_ACCESS_CODE, EmailConstants.CODE);
+            Response challengeResponse = challenge(context, null, Messages.INVALID_ACCESS_CODE, EmailConstants.CODE);
             context.failureChallenge(AuthenticationFlowError.INVALID_CREDENTIALS, challengeResponse);
             return false;
         }
 
-        if (codeContext.submittedCode() == null || codeContext.submittedCode().isEmpty()) {
-            context.challenge(challenge(context, Messages.MISSING_TOTP, EmailConstants.CODE));
+        String submittedRaw = formData.getFirst(EmailConstants.CODE);
+        String submittedCode = submittedRaw == null ? null : submittedRaw.strip();
+        if (submittedCode == null || submittedCode.isEmpty()) {
+            context.challenge(challenge(context, state, Messages.MISSING_TOTP, EmailConstants.CODE));
             return false;
         }
 
-        if (codeContext.expiresAt() < System.currentTimeMillis()) {
+        if (state.expiresAt() < System.currentTimeMillis()) {
             context.getEvent().user(user).error(Errors.EXPIRED_CODE);
-            Response challengeResponse = challenge(context, Messages.EXPIRED_ACTION_TOKEN_SESSION_EXISTS,
+            Response challengeResponse = challenge(context, state, Messages.EXPIRED_ACTION_TOKEN_SESSION_EXISTS,
                     EmailConstants.CODE);
             context.failureChallenge(AuthenticationFlowError.EXPIRED_CODE, challengeResponse);
             return false;
         }
 
-        if (codeContext.submittedCode().equals(codeContext.storedCode()))
+        if (EmailCodeHasher.matches(context.getSession(), context.getRealm(), state.code(), submittedCode))
             return true;
 
         context.getEvent().user(user).error(Errors.INVALID_USER_CREDENTIALS);
 
-        AuthenticationSessionModel session = context.getAuthenticationSession();
-        int attempts = incrementAttempts(session);
-
-        AuthenticatorConfigModel config = context.getAuthenticatorConfig();
-        Map<String, String> configValues = config != null && config.getConfig() != null
-                ? config.getConfig()
-                : Map.of();
-        int maxAttempts = resolvePositiveInt(configValues, EmailConstants.MAX_ATTEMPTS,
-                EmailConstants.DEFAULT_MAX_ATTEMPTS);
+        EmailCodeState failed = state.withFailedAttempt();
 
-        if (attempts >= maxAttempts) {
+        int maxAttempts = EmailAuthenticatorSettings.of(context.getAuthenticatorConfig()).getMaxAttempts();
+        if (failed.attempts() >= maxAttempts) {
             resetEmailCode(context);
-            LoginFormsProvider form = prepareForm(context, null);
+            LoginFormsProvider form = prepareForm(context, null, null);
             form.setAttribute("maxAttemptsReached", true);
             applyFormMessage(form, "email-authenticator-too-many-attempts", EmailConstants.CODE);
             Response challengeResponse = form.createForm("email-code-form.ftl");
             context.failureChallenge(AuthenticationFlowError.INVALID_CREDENTIALS, challengeResponse);
         } else {
-            Response challengeResponse = challenge(context, Messages.INVALID_ACCESS_CODE, EmailConstants.CODE);
+            failed.write(context.getAuthenticationSession());
+            Response challengeResponse = challenge(context, failed, Messages.INVALID_ACCESS_CODE, EmailConstants.CODE);
             context.failureChallenge(AuthenticationFlowError.INVALID_CREDENTIALS, challengeResponse);
         }
         return false;
     }
 
-    private LoginFormsProvider prepareForm(AuthenticationFlowContext context, Long remainingSeconds) {
-        AuthenticationSessionModel session = context.getAuthenticationSession();
+    private LoginFormsProvider prepareForm(AuthenticationFlowContext context, EmailCodeState state,
+            Long remainingSeconds) {
         LoginFormsProvider form = context.form().setExecution(context.getExecution().getId());
-        Long secondsToExpose = remainingSeconds != null ? remainingSeconds : getRemainingSeconds(session);
-        if (secondsToExpose != null && secondsToExpose > 0L)
+        long secondsToExpose = remainingSeconds != null ? remainingSeconds
+                : state != null ? state.remainingCooldownSeconds(System.currentTimeMillis()) : 0L;
+        if (secondsToExpose > 0L)
             form.setAttribute("resendAvailableInSeconds", secondsToExpose);
 
         return form;
     }
 
-    private Long getRemainingSeconds(AuthenticationSessionModel session) {
-        String rawResendAfter = session.getAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-        if (rawResendAfter == null) {
-            return null;
-        }
-        Long resendAt = null;
-        try {
-            resendAt = Long.parseLong(rawResendAfter);
-        } catch (NumberFormatException ex) {
-            logger.warnf("Invalid resend availability timestamp '%s' for email authenticator; allowing resend",
-                    rawResendAfter);
-            session.removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-            return null;
-        }
-        long remainingMillis = resendAt - System.currentTimeMillis();
-        return Math.max(0L, (remainingMillis + EmailConstants.MILLIS_ROUNDING_OFFSET) / 1000L);
-    }
-
     private void applyFormMessage(LoginFormsProvider form, String messageKey, String field, Object... messageParams) {
         if (messageKey == null) {
             return;
@@ -348,25 +285,7 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
     }
 
     private void resetEmailCode(AuthenticationFlowContext context) {
-        AuthenticationSessionModel session = context.getAuthenticationSession();
-        session.removeAuthNote(EmailConstants.CODE);
-        session.removeAuthNote(EmailConstants.CODE_TTL);
-        session.removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-        session.removeAuthNote(CODE_ATTEMPTS);
-    }
-
-    private int incrementAttempts(AuthenticationSessionModel session) {
-        String raw = session.getAuthNote(CODE_ATTEMPTS);
-        int attempts = 1;
-        if (raw != null) {
-            try {
-                attempts = Integer.parseInt(raw) + 1;
-            } catch (NumberFormatException ignored) {
-                // corrupt value, start over
-            }
-        }
-        session.setAuthNote(CODE_ATTEMPTS, Integer.toString(attempts));
-        return attempts;
+        EmailCodeState.clear(context.getAuthenticationSession());
     }
 
     @Override
@@ -421,62 +340,66 @@ public class EmailAuthenticatorForm extends AbstractUsernameFormAuthenticator
         String realmName = realm.getDisplayName() != null ? realm.getDisplayName() : realm.getName();
         String subject = realmName + " access code";
 
-        com.mesutpiskin.keycloak.auth.email.model.EmailMessage message = com.mesutpiskin.keycloak.auth.email.model.EmailMessage
-                .builder()
+        EmailMessage message = EmailMessage.builder()
                 .to(user.getEmail())
                 .subject(subject)
                 .templateData(templateData)
                 .build();
 
-        // Determine email provider from config
         AuthenticatorConfigModel config = context.getAuthenticatorConfig();
-        Map<String, String> configMap = config != null && config.getConfig() != null
-                ? config.getConfig()
-                : Map.of();
+        Map<String, String> configMap = EmailAuthenticatorSettings.of(config).getDeliveryConfig();
 
-        String providerTypeStr = configMap.getOrDefault(
-                EmailConstants.EMAIL_PROVIDER_TYPE,
-                EmailConstants.DEFAULT_EMAIL_PROVIDER);
-        com.mesutpiskin.keycloak.auth.email.model.EmailProviderType providerType = com.mesutpiskin.keycloak.auth.email.model.EmailProviderType
-                .fromString(providerTypeStr);
+        String deliveryMode = configMap.get(EmailConstants.DELIVERY_MODE);
+        if (EmailConstants.DELIVERY_MODE_OUTBOX.equalsIgnoreCase(deliveryMode)
+                && enqueueOutbox(context, config, message, ttl)) {
+            return;
+        }
+        if (EmailConstants.DELIVERY_MODE_ASYNC.equalsIgnoreCase(deliveryMode)
+                && dispatchAsync(realm, user, configMap, message)) {
+            return;
+        }
 
         try {
-            // Create email sender based on configuration
-            com.mesutpiskin.keycloak.auth.email.service.EmailSender emailSender = com.mesutpiskin.keycloak.auth.email.service.EmailSenderFactory
-                    .createEmailSender(
-                            providerType,
-                            configMap,
-                            session,
-                            realm,
-                            user);
-
-            // Send email
-            emailSender.sendEmail(message);
-            logger.infof("Email sent successfully via %s to %s",
-                    emailSender.getProviderName(), user.getEmail());
-
+            EmailDeliveryService.deliver(session, realm, user, configMap, message);
         } catch (EmailException e) {
-            // Fallback to Keycloak SMTP if enabled
-            boolean fallbackEnabled = com.mesutpiskin.keycloak.auth.email.service.EmailSenderFactory
-                    .isFallbackEnabled(configMap);
-
-            if (fallbackEnabled
-                    && providerType != com.mesutpiskin.keycloak.auth.email.model.EmailProviderType.KEYCLOAK) {
-                logger.warnf(e, "Primary email provider (%s) failed, falling back to Keycloak SMTP",
-                        providerType.getDisplayName());
-                try {
-                    com.mesutpiskin.keycloak.auth.email.service.EmailSender fallbackSender = new com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender(
-                            session, realm, user);
-                    fallbackSender.sendEmail(message);
-                    logger.infof("Email sent successfully via fallback Keycloak SMTP to %s", user.getEmail());
-                } catch (EmailException fallbackEx) {
-                    logger.errorf(fallbackEx, "Fallback email provider also failed. realm=%s user=%s",
-                            realm.getId(), user.getUsername());
-                }
-            } else {
-                logger.errorf(e, "Failed to send access code email. realm=%s user=%s",
-                        realm.getId(), user.getUsername());
-            }
+            logger.errorf(e, "Failed to send access code email. realm=%s user=%s",
+                    realm.getId(), user.getUsername());
+        }
+    }
+
+    /**
+     * Records the email in the delivery outbox as part of the login
+     * transaction.
+     *
+     * @return true if the email was recorded, false if the outbox is not
+     *         running and the caller must deliver it itself
+     */
+    private boolean enqueueOutbox(AuthenticationFlowContext context, AuthenticatorConfigModel config,
+            EmailMessage message, int ttl) {
+        EmailOutbox outbox = EmailOutbox.getInstance();
+        if (outbox == null) {
+            logger.warn("Email outbox is not running; sending access code email synchronously");
+            return false;
+        }
+        outbox.enqueue(context.getSession(), context.getAuthenticationSession(), context.getRealm(),
+                context.getUser(), config != null ? config.getId() : null, message, ttl);
+        return true;
+    }
+
+    /**
+     * Hands the message to the background dispatcher.
+     *
+     * @return true if the dispatcher took over the delivery, false if it must be
+     *         sent on the request thread
+     */
+    private boolean dispatchAsync(RealmModel realm, UserModel user, Map<String, String> configMap,
+            EmailMessage message) {
+        EmailDeliveryDispatcher dispatcher = EmailDeliveryDispatcher.getInstance();
+        if (dispatcher == null) {
+            logger.warn("ASYNC delivery mode configured but the email delivery dispatcher is not running; "
+                    + "sending synchronously");
+            return false;
         }
+        return dispatcher.dispatch(new EmailDeliveryRequest(realm.getId(), user.getId(), configMap, message));
     }
 }
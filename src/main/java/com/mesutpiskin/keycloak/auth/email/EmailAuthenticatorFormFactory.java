@@ -9,12 +9,30 @@ import org.keycloak.models.AuthenticationExecutionModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+
+import com.mesutpiskin.keycloak.auth.email.service.CircuitBreakerRegistry;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryDispatcher;
+import com.mesutpiskin.keycloak.auth.email.service.HedgingEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.MicroBatcher;
+import com.mesutpiskin.keycloak.auth.email.service.ProviderRouter;
+import com.mesutpiskin.keycloak.auth.email.service.TokenBucketRegistry;
+import com.mesutpiskin.keycloak.auth.email.service.impl.AwsSesBulkEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.EmailBodyCache;
+import com.mesutpiskin.keycloak.auth.email.service.impl.EmailProviderClients;
+import com.mesutpiskin.keycloak.auth.email.service.impl.PooledSmtpEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.SendGridBatchingEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.SmtpTransportPool;
+import com.mesutpiskin.keycloak.auth.email.service.outbox.EmailOutbox;
 
 public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
 
     public static final String PROVIDER_ID = "email-authenticator";
     public static final EmailAuthenticatorForm SINGLETON = new EmailAuthenticatorForm();
 
+    private EmailDeliveryDispatcher.Settings dispatcherSettings;
+    private EmailOutbox.Settings outboxSettings;
+
     @Override
     public String getId() {
         return PROVIDER_ID;
@@ -57,7 +75,15 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
                 new ProviderConfigProperty(EmailConstants.EMAIL_PROVIDER_TYPE, "Email Provider",
                         "Select the email service provider to use for sending verification codes.",
                         ProviderConfigProperty.LIST_TYPE, EmailConstants.DEFAULT_EMAIL_PROVIDER,
-                        List.of("KEYCLOAK", "SENDGRID", "AWS_SES", "MAILGUN").toArray(new String[0])),
+                        List.of("KEYCLOAK", "SENDGRID", "AWS_SES", "MAILGUN", "ROUTED").toArray(new String[0])),
+                new ProviderConfigProperty(EmailConstants.ROUTING_PROVIDERS, "Routing Providers",
+                        "Providers used when Email Provider is set to ROUTED, as TYPE:weight entries separated by "
+                                + "commas (e.g. SENDGRID:3,AWS_SES:2,KEYCLOAK:1). Each provider uses its settings below.",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.SMTP_CONNECTION_POOL, "Reuse SMTP Connections",
+                        "If enabled, the Keycloak SMTP provider keeps a pool of authenticated connections to the "
+                                + "realm's SMTP server instead of connecting for every email.",
+                        ProviderConfigProperty.BOOLEAN_TYPE, "false"),
 
                 // SendGrid configuration
                 new ProviderConfigProperty(EmailConstants.SENDGRID_API_KEY, "SendGrid API Key",
@@ -69,6 +95,23 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
                 new ProviderConfigProperty(EmailConstants.SENDGRID_FROM_NAME, "SendGrid From Name",
                         "Sender display name for SendGrid (optional, defaults to from email).",
                         ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.SENDGRID_MAX_CONNECTIONS, "SendGrid Max Connections",
+                        "Maximum number of pooled keep-alive connections to the SendGrid API.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_SENDGRID_MAX_CONNECTIONS)),
+                new ProviderConfigProperty(EmailConstants.SENDGRID_CONNECT_TIMEOUT, "SendGrid Connect Timeout (ms)",
+                        "Connect timeout in milliseconds for requests to the SendGrid API.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_SENDGRID_CONNECT_TIMEOUT)),
+                new ProviderConfigProperty(EmailConstants.SENDGRID_SOCKET_TIMEOUT, "SendGrid Socket Timeout (ms)",
+                        "Read timeout in milliseconds for requests to the SendGrid API.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_SENDGRID_SOCKET_TIMEOUT)),
+                new ProviderConfigProperty(EmailConstants.SENDGRID_BATCH_LINGER, "SendGrid Batch Linger (ms)",
+                        "If set, codes sent within this many milliseconds are combined into one SendGrid request "
+                                + "with a personalization per recipient. No code waits longer than this. "
+                                + "Leave empty to send every code on its own.",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.SENDGRID_BATCH_SIZE, "SendGrid Batch Size",
+                        "Maximum number of recipients per batched SendGrid request (up to 1000).",
+                        ProviderConfigProperty.STRING_TYPE, "1000"),
 
                 // AWS SES configuration
                 new ProviderConfigProperty(EmailConstants.AWS_SES_REGION, "AWS SES Region",
@@ -86,10 +129,69 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
                 new ProviderConfigProperty(EmailConstants.AWS_SES_FROM_NAME, "AWS SES From Name",
                         "Sender display name for AWS SES (optional, defaults to from email).",
                         ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.AWS_SES_ENDPOINT, "AWS SES Endpoint",
+                        "Endpoint override for AWS SES, e.g. a VPC endpoint (optional, defaults to the regional endpoint).",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.AWS_SES_ASYNC_CLIENT, "AWS SES Async Client",
+                        "Use the non-blocking AWS SES client. Combined with ASYNC delivery mode, sends are tracked "
+                                + "by a few event-loop threads instead of blocking a worker per email.",
+                        ProviderConfigProperty.BOOLEAN_TYPE, "false"),
+                new ProviderConfigProperty(EmailConstants.AWS_SES_BULK_LINGER, "AWS SES Bulk Linger (ms)",
+                        "If set, codes sent within this many milliseconds are delivered together with one SES "
+                                + "SendBulkTemplatedEmail request. No code waits longer than this. "
+                                + "Leave empty to send every code on its own.",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.AWS_SES_BULK_SIZE, "AWS SES Bulk Batch Size",
+                        "Maximum number of destinations per SES bulk request (up to 50).",
+                        ProviderConfigProperty.STRING_TYPE, "50"),
+                new ProviderConfigProperty(EmailConstants.AWS_SES_TEMPLATE_NAME, "AWS SES Template Name",
+                        "Name of the SES template registered for code emails in bulk mode. "
+                                + "It is created or updated on first use.",
+                        ProviderConfigProperty.STRING_TYPE, "keycloak-email-otp-code"),
 
                 new ProviderConfigProperty(EmailConstants.ENABLE_FALLBACK, "Enable Fallback to Keycloak SMTP",
                         "If enabled, falls back to Keycloak SMTP when the primary provider fails.",
                         ProviderConfigProperty.BOOLEAN_TYPE, String.valueOf(EmailConstants.DEFAULT_ENABLE_FALLBACK)),
+                new ProviderConfigProperty(EmailConstants.CIRCUIT_BREAKER_ENABLED, "Enable Circuit Breaker",
+                        "If enabled, a failing or slow primary provider is skipped for a while and emails go straight "
+                                + "to the fallback, with a few trial sends to detect recovery.",
+                        ProviderConfigProperty.BOOLEAN_TYPE, "false"),
+                new ProviderConfigProperty(EmailConstants.CIRCUIT_BREAKER_FAILURE_RATE, "Circuit Breaker Failure Rate (%)",
+                        "Percentage of failed sends among the last 20 that opens the circuit breaker.",
+                        ProviderConfigProperty.STRING_TYPE, "50"),
+                new ProviderConfigProperty(EmailConstants.CIRCUIT_BREAKER_SLOW_CALL, "Circuit Breaker Slow Send (ms)",
+                        "Sends slower than this count as slow; the breaker opens when 80% of recent sends are slow.",
+                        ProviderConfigProperty.STRING_TYPE, "5000"),
+                new ProviderConfigProperty(EmailConstants.CIRCUIT_BREAKER_OPEN_DURATION, "Circuit Breaker Open Duration (seconds)",
+                        "How long the primary provider is skipped before trial sends are made.",
+                        ProviderConfigProperty.STRING_TYPE, "30"),
+                new ProviderConfigProperty(EmailConstants.HEDGING_ENABLED, "Enable Hedged Sends",
+                        "If enabled together with the fallback, an email the primary provider has not accepted "
+                                + "within its usual latency is also sent via Keycloak SMTP; the first success wins.",
+                        ProviderConfigProperty.BOOLEAN_TYPE, "false"),
+                new ProviderConfigProperty(EmailConstants.HEDGING_PERCENTILE, "Hedging Percentile",
+                        "Latency percentile of the primary provider after which the hedged send starts.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_HEDGING_PERCENTILE)),
+                new ProviderConfigProperty(EmailConstants.HEDGING_DELAY, "Hedging Initial Delay (ms)",
+                        "Hedge delay used until enough latencies of the primary provider have been observed.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_HEDGING_DELAY)),
+                new ProviderConfigProperty(EmailConstants.PROVIDER_RATE_LIMIT, "Provider Rate Limit (sends/second)",
+                        "Maximum sustained send rate of the SendGrid or AWS SES account, e.g. the SES maximum send "
+                                + "rate. Sends above it wait for a free slot. Leave empty to disable throttling.",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.PROVIDER_RATE_BURST, "Provider Rate Burst",
+                        "Number of sends allowed back to back before the rate limit applies. Defaults to the rate limit.",
+                        ProviderConfigProperty.STRING_TYPE, null),
+                new ProviderConfigProperty(EmailConstants.PROVIDER_RATE_MAX_WAIT, "Provider Rate Max Wait (ms)",
+                        "Longest time a send waits for the rate limit before it fails over.",
+                        ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_PROVIDER_RATE_MAX_WAIT)),
+                new ProviderConfigProperty(EmailConstants.DELIVERY_MODE, "Delivery Mode",
+                        "SYNC sends the email before the code form is rendered. ASYNC renders the form immediately "
+                                + "and hands the email to a background dispatcher. OUTBOX records the email in a "
+                                + "durable outbox that is delivered with retries until the code expires.",
+                        ProviderConfigProperty.LIST_TYPE, EmailConstants.DEFAULT_DELIVERY_MODE,
+                        EmailConstants.DELIVERY_MODE_SYNC, EmailConstants.DELIVERY_MODE_ASYNC,
+                        EmailConstants.DELIVERY_MODE_OUTBOX),
 
                 // Existing OTP configuration
                 new ProviderConfigProperty(EmailConstants.CODE_LENGTH, "Code Length",
@@ -101,6 +203,11 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
                 new ProviderConfigProperty(EmailConstants.SIMULATION_MODE, "Simulation Mode (dev only)",
                         "In simulation mode, the mail won't be sent, but printed to the server logs",
                         ProviderConfigProperty.BOOLEAN_TYPE, String.valueOf(EmailConstants.DEFAULT_SIMULATION_MODE)),
+                new ProviderConfigProperty(EmailConstants.HASH_CODE, "Hash Stored Code",
+                        "Store only an HMAC of the code, keyed with the realm's HS512 key, in the authentication "
+                                + "session instead of the code itself, so replicated or persisted sessions never "
+                                + "contain the code.",
+                        ProviderConfigProperty.BOOLEAN_TYPE, String.valueOf(EmailConstants.DEFAULT_HASH_CODE)),
                 new ProviderConfigProperty(EmailConstants.RESEND_COOLDOWN, "Resend Cooldown (seconds)",
                         "The minimum number of seconds a user must wait before requesting a new code.",
                         ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_RESEND_COOLDOWN)),
@@ -109,9 +216,128 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
                         ProviderConfigProperty.STRING_TYPE, String.valueOf(EmailConstants.DEFAULT_MAX_ATTEMPTS)));
     }
 
+    @Override
+    public List<ProviderConfigProperty> getConfigMetadata() {
+        return ProviderConfigurationBuilder.create()
+                .property()
+                .name(EmailConstants.ASYNC_WORKER_THREADS)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Number of background threads delivering emails in ASYNC delivery mode.")
+                .defaultValue(EmailConstants.DEFAULT_ASYNC_WORKER_THREADS)
+                .add()
+                .property()
+                .name(EmailConstants.ASYNC_QUEUE_DEPTH)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of emails waiting for a background thread.")
+                .defaultValue(EmailConstants.DEFAULT_ASYNC_QUEUE_DEPTH)
+                .add()
+                .property()
+                .name(EmailConstants.ASYNC_REJECTION_POLICY)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .helpText("What to do when the queue is full: deliver on the request thread, drop the new email "
+                        + "or drop the oldest queued email.")
+                .options(List.of("CALLER_RUNS", "DISCARD", "DISCARD_OLDEST"))
+                .defaultValue(EmailConstants.DEFAULT_ASYNC_REJECTION_POLICY)
+                .add()
+                .property()
+                .name(EmailConstants.ASYNC_MAX_CONCURRENCY_PER_PROVIDER)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of emails sent to a single email provider at the same time.")
+                .defaultValue(EmailConstants.DEFAULT_ASYNC_MAX_CONCURRENCY_PER_PROVIDER)
+                .add()
+                .property()
+                .name(EmailConstants.OUTBOX_STORE)
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .helpText("Where OUTBOX delivery mode records pending emails: the Keycloak database or, for "
+                        + "development only, the memory of the local node.")
+                .options(List.of("JPA", "MEMORY"))
+                .defaultValue(EmailConstants.DEFAULT_OUTBOX_STORE)
+                .add()
+                .property()
+                .name(EmailConstants.OUTBOX_POLL_INTERVAL)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Seconds between two scans of the outbox for due emails.")
+                .defaultValue(EmailConstants.DEFAULT_OUTBOX_POLL_INTERVAL)
+                .add()
+                .property()
+                .name(EmailConstants.OUTBOX_BATCH_SIZE)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of outbox emails claimed per scan.")
+                .defaultValue(EmailConstants.DEFAULT_OUTBOX_BATCH_SIZE)
+                .add()
+                .property()
+                .name(EmailConstants.OUTBOX_INITIAL_BACKOFF)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Seconds before the first retry of a failed outbox email; doubled on every failure.")
+                .defaultValue(EmailConstants.DEFAULT_OUTBOX_INITIAL_BACKOFF)
+                .add()
+                .property()
+                .name(EmailConstants.OUTBOX_MAX_BACKOFF)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Upper bound in seconds of the delay between two outbox retries.")
+                .defaultValue(EmailConstants.DEFAULT_OUTBOX_MAX_BACKOFF)
+                .add()
+                .property()
+                .name(EmailConstants.CLIENT_IDLE_TIMEOUT)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Seconds after which an unused email provider client and its connections are closed.")
+                .defaultValue(EmailConstants.DEFAULT_CLIENT_IDLE_TIMEOUT)
+                .add()
+                .property()
+                .name(EmailConstants.SMTP_POOL_MAX_CONNECTIONS)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of pooled SMTP connections per realm.")
+                .defaultValue(EmailConstants.DEFAULT_SMTP_POOL_MAX_CONNECTIONS)
+                .add()
+                .property()
+                .name(EmailConstants.SMTP_POOL_MAX_MESSAGES)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Number of emails sent over a pooled SMTP connection before it is replaced.")
+                .defaultValue(EmailConstants.DEFAULT_SMTP_POOL_MAX_MESSAGES)
+                .add()
+                .property()
+                .name(EmailConstants.SMTP_POOL_IDLE_TIMEOUT)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Seconds after which an idle pooled SMTP connection is closed.")
+                .defaultValue(EmailConstants.DEFAULT_SMTP_POOL_IDLE_TIMEOUT)
+                .add()
+                .property()
+                .name(EmailConstants.SMTP_BATCH_SIZE)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of emails sent back to back over one pooled SMTP connection during "
+                        + "bursts. 1 disables batching.")
+                .defaultValue(EmailConstants.DEFAULT_SMTP_BATCH_SIZE)
+                .add()
+                .property()
+                .name(EmailConstants.SMTP_BATCH_LINGER)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Milliseconds an email waits for others to join its SMTP batch.")
+                .defaultValue(EmailConstants.DEFAULT_SMTP_BATCH_LINGER)
+                .add()
+                .property()
+                .name(EmailConstants.EMAIL_BODY_CACHE_SIZE)
+                .type(ProviderConfigProperty.INTEGER_TYPE)
+                .helpText("Maximum number of compiled code emails kept across realms and locales. Compiled emails "
+                        + "are not cached while Keycloak's theme template cache is disabled.")
+                .defaultValue(EmailConstants.DEFAULT_EMAIL_BODY_CACHE_SIZE)
+                .add()
+                .build();
+    }
+
     @Override
     public void close() {
-        // NOOP
+        EmailDeliveryDispatcher.shutdown();
+        EmailOutbox.shutdown();
+        EmailProviderClients.closeAll();
+        CircuitBreakerRegistry.clear();
+        HedgingEmailSender.shutdown();
+        ProviderRouter.clear();
+        TokenBucketRegistry.clear();
+        SendGridBatchingEmailSender.clear();
+        AwsSesBulkEmailSender.clear();
+        EmailBodyCache.clear();
+        EmailAuthenticatorSettings.clear();
+        MicroBatcher.shutdown();
     }
 
     @Override
@@ -119,13 +345,67 @@ public class EmailAuthenticatorFormFactory implements AuthenticatorFactory {
         return SINGLETON;
     }
 
+    /**
+     * Reads the delivery settings shared by all authenticators of this
+     * extension.
+     * <p>
+     * Subclasses such as the conditional authenticator are initialized with
+     * their own scope, but the dispatcher, outbox, pools and caches are static
+     * and shared, so every factory reads them from the
+     * {@value #PROVIDER_ID} scope.
+     * </p>
+     *
+     * @param config the scope of this factory
+     */
     @Override
     public void init(Config.Scope config) {
-        // NOOP
+        Config.Scope shared = getClass() == EmailAuthenticatorFormFactory.class ? config
+                : Config.scope("authenticator", EmailAuthenticatorFormFactory.PROVIDER_ID);
+        dispatcherSettings = new EmailDeliveryDispatcher.Settings(
+                positiveOrDefault(shared.getInt(EmailConstants.ASYNC_WORKER_THREADS),
+                        EmailConstants.DEFAULT_ASYNC_WORKER_THREADS),
+                positiveOrDefault(shared.getInt(EmailConstants.ASYNC_QUEUE_DEPTH),
+                        EmailConstants.DEFAULT_ASYNC_QUEUE_DEPTH),
+                EmailDeliveryDispatcher.RejectionPolicy.fromString(shared.get(EmailConstants.ASYNC_REJECTION_POLICY,
+                        EmailConstants.DEFAULT_ASYNC_REJECTION_POLICY)),
+                positiveOrDefault(shared.getInt(EmailConstants.ASYNC_MAX_CONCURRENCY_PER_PROVIDER),
+                        EmailConstants.DEFAULT_ASYNC_MAX_CONCURRENCY_PER_PROVIDER));
+        outboxSettings = new EmailOutbox.Settings(
+                EmailOutbox.StoreType.fromString(shared.get(EmailConstants.OUTBOX_STORE,
+                        EmailConstants.DEFAULT_OUTBOX_STORE)),
+                1000L * positiveOrDefault(shared.getInt(EmailConstants.OUTBOX_POLL_INTERVAL),
+                        EmailConstants.DEFAULT_OUTBOX_POLL_INTERVAL),
+                positiveOrDefault(shared.getInt(EmailConstants.OUTBOX_BATCH_SIZE),
+                        EmailConstants.DEFAULT_OUTBOX_BATCH_SIZE),
+                1000L * positiveOrDefault(shared.getInt(EmailConstants.OUTBOX_INITIAL_BACKOFF),
+                        EmailConstants.DEFAULT_OUTBOX_INITIAL_BACKOFF),
+                1000L * positiveOrDefault(shared.getInt(EmailConstants.OUTBOX_MAX_BACKOFF),
+                        EmailConstants.DEFAULT_OUTBOX_MAX_BACKOFF));
+        PooledSmtpEmailSender.configure(new SmtpTransportPool.Settings(
+                positiveOrDefault(shared.getInt(EmailConstants.SMTP_POOL_MAX_CONNECTIONS),
+                        EmailConstants.DEFAULT_SMTP_POOL_MAX_CONNECTIONS),
+                positiveOrDefault(shared.getInt(EmailConstants.SMTP_POOL_MAX_MESSAGES),
+                        EmailConstants.DEFAULT_SMTP_POOL_MAX_MESSAGES),
+                1000L * positiveOrDefault(shared.getInt(EmailConstants.SMTP_POOL_IDLE_TIMEOUT),
+                        EmailConstants.DEFAULT_SMTP_POOL_IDLE_TIMEOUT),
+                positiveOrDefault(shared.getInt(EmailConstants.SMTP_BATCH_SIZE),
+                        EmailConstants.DEFAULT_SMTP_BATCH_SIZE),
+                positiveOrDefault(shared.getInt(EmailConstants.SMTP_BATCH_LINGER),
+                        EmailConstants.DEFAULT_SMTP_BATCH_LINGER)));
+        EmailProviderClients.configure(1000L * positiveOrDefault(shared.getInt(EmailConstants.CLIENT_IDLE_TIMEOUT),
+                EmailConstants.DEFAULT_CLIENT_IDLE_TIMEOUT));
+        EmailBodyCache.configure(Config.scope("theme").getBoolean("cacheTemplates", true),
+                positiveOrDefault(shared.getInt(EmailConstants.EMAIL_BODY_CACHE_SIZE),
+                        EmailConstants.DEFAULT_EMAIL_BODY_CACHE_SIZE));
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        // NOOP
+        EmailDeliveryDispatcher.start(dispatcherSettings, factory);
+        EmailOutbox.start(outboxSettings, factory);
+    }
+
+    private static int positiveOrDefault(Integer value, int defaultValue) {
+        return value != null && value > 0 ? value : defaultValue;
     }
 }
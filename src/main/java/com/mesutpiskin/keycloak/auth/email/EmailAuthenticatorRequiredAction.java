@@ -1,7 +1,6 @@
 package com.mesutpiskin.keycloak.auth.email;
 
 import java.lang.reflect.Method;
-import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,17 +12,14 @@ import org.keycloak.authentication.RequiredActionProvider;
 import org.keycloak.common.util.SecretGenerator;
 import org.keycloak.email.EmailException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.RequiredActionConfigModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.sessions.AuthenticationSessionModel;
 
 import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
-import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
-import com.mesutpiskin.keycloak.auth.email.service.EmailSender;
-import com.mesutpiskin.keycloak.auth.email.service.EmailSenderFactory;
-import com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender;
-
-import org.keycloak.models.AuthenticatorConfigModel;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryService;
 
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
@@ -34,7 +30,6 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
     private static final String SETUP_TEMPLATE = "email-authenticator-setup-form.ftl";
     private static final String VERIFY_TEMPLATE = "email-authenticator-setup-verify-form.ftl";
     private static final Logger logger = Logger.getLogger(EmailAuthenticatorRequiredAction.class);
-    private static final String CODE_ATTEMPTS = "emailCodeAttempts";
 
     private enum CodeValidationResult {
         VALID, EXPIRED, INVALID, MISSING
@@ -67,10 +62,11 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
         UserModel user = context.getUser();
         AuthenticationSessionModel session = context.getAuthenticationSession();
         MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
+        EmailCodeState state = EmailCodeState.read(session);
 
         // Handle cancel
         if (formData.containsKey("cancel") || formData.containsKey("cancel-aia")) {
-            if (session.getAuthNote(EmailConstants.CODE) != null) {
+            if (state != null) {
                 // OTP was sent — cancel goes back to setup form
                 resetSetupCode(session);
                 requiredActionChallenge(context);
@@ -91,9 +87,9 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
 
         // Handle resend
         if (formData.containsKey("resend")) {
-            Long remainingSeconds = getRemainingCooldownSeconds(session);
-            if (remainingSeconds != null && remainingSeconds > 0L) {
-                challengeVerifyForm(context, "email-authenticator-resend-cooldown", remainingSeconds);
+            long remainingSeconds = state != null ? state.remainingCooldownSeconds(System.currentTimeMillis()) : 0L;
+            if (remainingSeconds > 0L) {
+                challengeVerifyForm(context, state, "email-authenticator-resend-cooldown", remainingSeconds);
                 return;
             }
             resetSetupCode(session);
@@ -102,7 +98,7 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
         }
 
         // Phase 1: OTP not yet sent — user clicked "Enable Email Authenticator"
-        if (session.getAuthNote(EmailConstants.CODE) == null) {
+        if (state == null) {
             if (userMissingEmail(user)) {
                 context.challenge(context.form()
                         .setError("email-authenticator-setup-missing-email")
@@ -124,7 +120,7 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
         String submittedRaw = formData.getFirst(EmailConstants.CODE);
         String submittedCode = submittedRaw == null ? null : submittedRaw.strip();
 
-        CodeValidationResult result = isValidSetupCode(session, submittedCode);
+        CodeValidationResult result = isValidSetupCode(context, state, submittedCode);
         switch (result) {
             case VALID:
                 resetSetupCode(session);
@@ -143,24 +139,23 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
                 break;
             case EXPIRED:
                 resetSetupCode(session);
-                challengeVerifyForm(context, Messages.EXPIRED_CODE);
+                challengeVerifyForm(context, null, Messages.EXPIRED_CODE);
                 break;
             case MISSING:
-                challengeVerifyForm(context, Messages.MISSING_CODE);
+                challengeVerifyForm(context, state, Messages.MISSING_CODE);
                 break;
             case INVALID:
-                Map<String, String> configMap = findAuthenticatorConfig(context);
-                int maxAttempts = resolvePositiveInt(configMap, EmailConstants.MAX_ATTEMPTS,
-                        EmailConstants.DEFAULT_MAX_ATTEMPTS);
-                int attempts = incrementAttempts(session);
-                if (attempts >= maxAttempts) {
+                int maxAttempts = findAuthenticatorSettings(context).getMaxAttempts();
+                EmailCodeState failed = state.withFailedAttempt();
+                if (failed.attempts() >= maxAttempts) {
                     resetSetupCode(session);
                     var form = context.form();
                     form.setAttribute("maxAttemptsReached", true);
                     form.setError(Messages.TOO_MANY_ATTEMPTS);
                     context.challenge(form.createForm(VERIFY_TEMPLATE));
                 } else {
-                    challengeVerifyForm(context, Messages.INVALID_CODE);
+                    failed.write(session);
+                    challengeVerifyForm(context, failed, Messages.INVALID_CODE);
                 }
                 break;
         }
@@ -182,16 +177,13 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
         KeycloakSession keycloakSession = context.getSession();
         RealmModel realm = context.getRealm();
 
-        Map<String, String> configMap = findAuthenticatorConfig(context);
-
-        int length = resolvePositiveInt(configMap, EmailConstants.CODE_LENGTH, EmailConstants.DEFAULT_LENGTH);
-        int ttl = resolvePositiveInt(configMap, EmailConstants.CODE_TTL, EmailConstants.DEFAULT_TTL);
-        int resendCooldown = resolvePositiveInt(configMap, EmailConstants.RESEND_COOLDOWN,
-                EmailConstants.DEFAULT_RESEND_COOLDOWN);
+        EmailAuthenticatorSettings settings = findAuthenticatorSettings(context);
+        Map<String, String> configMap = settings.getDeliveryConfig();
+        int ttl = settings.getTtl();
 
-        String code = SecretGenerator.getInstance().randomString(length, SecretGenerator.DIGITS);
+        String code = SecretGenerator.getInstance().randomString(settings.getCodeLength(), SecretGenerator.DIGITS);
 
-        if (Boolean.parseBoolean(configMap.get(EmailConstants.SIMULATION_MODE))) {
+        if (settings.isSimulationMode()) {
             logger.infof("***** SIMULATION MODE ***** Setup verification code for user %s is: %s",
                     user.getUsername(), code);
         } else {
@@ -209,7 +201,7 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
                         .templateData(templateData)
                         .build();
 
-                sendEmail(message, configMap, keycloakSession, realm, user);
+                EmailDeliveryService.deliver(keycloakSession, realm, user, configMap, message);
             } catch (EmailException e) {
                 logger.errorf(e, "Failed to send setup verification email for user %s", user.getId());
                 context.challenge(context.form()
@@ -219,87 +211,41 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
             }
         }
 
-        long now = System.currentTimeMillis();
-        session.setAuthNote(EmailConstants.CODE, code);
-        session.setAuthNote(EmailConstants.CODE_TTL, Long.toString(now + (ttl * 1000L)));
-        session.setAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER, Long.toString(now + (resendCooldown * 1000L)));
+        String storedCode = settings.isHashCode()
+                ? EmailCodeHasher.hash(keycloakSession, realm, code)
+                : code;
+        EmailCodeState state = EmailCodeState.issue(storedCode, System.currentTimeMillis(), ttl,
+                settings.getResendCooldown());
+        state.write(session);
 
-        challengeVerifyForm(context, null);
-    }
-
-    private void sendEmail(EmailMessage message, Map<String, String> configMap,
-            KeycloakSession session, RealmModel realm, UserModel user) throws EmailException {
-        String providerTypeStr = configMap.getOrDefault(
-                EmailConstants.EMAIL_PROVIDER_TYPE,
-                EmailConstants.DEFAULT_EMAIL_PROVIDER);
-        EmailProviderType providerType = EmailProviderType.fromString(providerTypeStr);
-
-        try {
-            EmailSender emailSender = EmailSenderFactory.createEmailSender(
-                    providerType, configMap, session, realm, user);
-            emailSender.sendEmail(message);
-            logger.infof("Setup verification email sent via %s to %s",
-                    emailSender.getProviderName(), user.getEmail());
-        } catch (EmailException e) {
-            boolean fallbackEnabled = EmailSenderFactory.isFallbackEnabled(configMap);
-            if (fallbackEnabled && providerType != EmailProviderType.KEYCLOAK) {
-                logger.warnf(e, "Primary email provider (%s) failed for setup, falling back to Keycloak SMTP",
-                        providerType.getDisplayName());
-                EmailSender fallbackSender = new KeycloakEmailSender(session, realm, user);
-                fallbackSender.sendEmail(message);
-                logger.infof("Setup verification email sent via fallback Keycloak SMTP to %s", user.getEmail());
-            } else {
-                throw e;
-            }
-        }
+        challengeVerifyForm(context, state, null);
     }
 
-    private Map<String, String> findAuthenticatorConfig(RequiredActionContext context) {
+    private EmailAuthenticatorSettings findAuthenticatorSettings(RequiredActionContext context) {
         RealmModel realm = context.getRealm();
 
-        return realm.getAuthenticationFlowsStream()
-                .flatMap(flow -> realm.getAuthenticationExecutionsStream(flow.getId()))
-                .filter(exec -> EmailAuthenticatorFormFactory.PROVIDER_ID.equals(exec.getAuthenticator()))
-                .map(exec -> {
-                    String configId = exec.getAuthenticatorConfig();
-                    if (configId != null) {
-                        AuthenticatorConfigModel config = realm.getAuthenticatorConfigById(configId);
-                        if (config != null && config.getConfig() != null) {
-                            return config.getConfig();
-                        }
-                    }
-                    return Map.<String, String>of();
-                })
-                .findFirst()
-                .orElse(Map.of());
-    }
-
-    private int resolvePositiveInt(Map<String, String> configValues, String key, int defaultValue) {
-        String raw = configValues.get(key);
-        if (raw == null || raw.isBlank()) {
-            return defaultValue;
-        }
-        try {
-            int parsed = Integer.parseInt(raw.trim());
-            if (parsed <= 0) {
-                logger.warnf("Configuration value for %s was non-positive ('%s'); falling back to default %d",
-                        key, raw, defaultValue);
-                return defaultValue;
+        RequiredActionConfigModel actionConfig = context.getConfig();
+        String alias = actionConfig != null ? actionConfig.getConfigValue(EmailConstants.AUTHENTICATOR_CONFIG_ALIAS)
+                : null;
+        if (alias != null && !alias.isBlank()) {
+            AuthenticatorConfigModel pinned = realm.getAuthenticatorConfigByAlias(alias.trim());
+            if (pinned != null) {
+                return EmailAuthenticatorSettings.of(pinned);
             }
-            return parsed;
-        } catch (NumberFormatException ex) {
-            logger.warnf("Configuration value for %s was invalid ('%s'); falling back to default %d",
-                    key, raw, defaultValue);
-            return defaultValue;
+            logger.warnf("Email authenticator configuration '%s' not found in realm %s; using the first "
+                    + "email authenticator execution instead", alias, realm.getName());
         }
+
+        return EmailAuthenticatorSettings.of(
+                AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
     }
 
-    private void challengeVerifyForm(RequiredActionContext context, String error, Object... errorParams) {
-        AuthenticationSessionModel session = context.getAuthenticationSession();
+    private void challengeVerifyForm(RequiredActionContext context, EmailCodeState state, String error,
+            Object... errorParams) {
         var form = context.form();
 
-        Long remaining = getRemainingCooldownSeconds(session);
-        if (remaining != null && remaining > 0L) {
+        long remaining = state != null ? state.remainingCooldownSeconds(System.currentTimeMillis()) : 0L;
+        if (remaining > 0L) {
             form.setAttribute("resendAvailableInSeconds", remaining);
         }
 
@@ -312,31 +258,12 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
     }
 
     private void resetSetupCode(AuthenticationSessionModel session) {
-        session.removeAuthNote(EmailConstants.CODE);
-        session.removeAuthNote(EmailConstants.CODE_TTL);
-        session.removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-        session.removeAuthNote(CODE_ATTEMPTS);
-    }
-
-    private int incrementAttempts(AuthenticationSessionModel session) {
-        String raw = session.getAuthNote(CODE_ATTEMPTS);
-        int attempts = 1;
-        if (raw != null) {
-            try {
-                attempts = Integer.parseInt(raw) + 1;
-            } catch (NumberFormatException ignored) {
-                // corrupt value, start over
-            }
-        }
-        session.setAuthNote(CODE_ATTEMPTS, Integer.toString(attempts));
-        return attempts;
+        EmailCodeState.clear(session);
     }
 
-    private CodeValidationResult isValidSetupCode(AuthenticationSessionModel session, String submittedCode) {
-        String storedCode = session.getAuthNote(EmailConstants.CODE);
-        String ttlNote = session.getAuthNote(EmailConstants.CODE_TTL);
-
-        if (storedCode == null || ttlNote == null) {
+    private CodeValidationResult isValidSetupCode(RequiredActionContext context, EmailCodeState state,
+            String submittedCode) {
+        if (state == null) {
             return CodeValidationResult.MISSING;
         }
 
@@ -344,41 +271,17 @@ public class EmailAuthenticatorRequiredAction implements RequiredActionProvider,
             return CodeValidationResult.MISSING;
         }
 
-        long expiresAt;
-        try {
-            expiresAt = Long.parseLong(ttlNote);
-        } catch (NumberFormatException ex) {
-            logger.warnf("Invalid TTL value '%s' in setup verification; treating as expired", ttlNote);
-            return CodeValidationResult.EXPIRED;
-        }
-
-        if (expiresAt < System.currentTimeMillis()) {
+        if (state.expiresAt() < System.currentTimeMillis()) {
             return CodeValidationResult.EXPIRED;
         }
 
-        if (MessageDigest.isEqual(submittedCode.getBytes(), storedCode.getBytes())) {
+        if (EmailCodeHasher.matches(context.getSession(), context.getRealm(), state.code(), submittedCode)) {
             return CodeValidationResult.VALID;
         }
 
         return CodeValidationResult.INVALID;
     }
 
-    private Long getRemainingCooldownSeconds(AuthenticationSessionModel session) {
-        String rawResendAfter = session.getAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-        if (rawResendAfter == null) {
-            return null;
-        }
-        try {
-            long resendAt = Long.parseLong(rawResendAfter);
-            long remainingMillis = resendAt - System.currentTimeMillis();
-            return Math.max(0L, (remainingMillis + EmailConstants.MILLIS_ROUNDING_OFFSET) / 1000L);
-        } catch (NumberFormatException ex) {
-            logger.warnf("Invalid resend availability timestamp '%s'; allowing resend", rawResendAfter);
-            session.removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
-            return null;
-        }
-    }
-
     private boolean hasExistingCredential(UserModel user) {
         return user.credentialManager()
                 .getStoredCredentialsByTypeStream(EmailAuthenticatorCredentialModel.TYPE_ID)
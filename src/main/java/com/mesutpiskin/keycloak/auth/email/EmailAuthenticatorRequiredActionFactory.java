@@ -1,9 +1,12 @@
 package com.mesutpiskin.keycloak.auth.email;
 
+import java.util.List;
+
 import org.keycloak.authentication.RequiredActionFactory;
 import org.keycloak.authentication.RequiredActionProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.ProviderConfigProperty;
 
 public class EmailAuthenticatorRequiredActionFactory implements RequiredActionFactory {
 
@@ -24,6 +27,21 @@ public class EmailAuthenticatorRequiredActionFactory implements RequiredActionFa
         return "Set up Email Authenticator";
     }
 
+    @Override
+    public boolean isConfigurable() {
+        return true;
+    }
+
+    @Override
+    public List<ProviderConfigProperty> getConfigMetadata() {
+        return List.of(
+                new ProviderConfigProperty(EmailConstants.AUTHENTICATOR_CONFIG_ALIAS, "Authenticator Config Alias",
+                        "Alias of the email authenticator configuration whose code length, TTL, cooldown and "
+                                + "attempt limit the setup uses. Defaults to the configuration of the first email "
+                                + "authenticator execution found in the realm's flows.",
+                        ProviderConfigProperty.STRING_TYPE, null));
+    }
+
     @Override
     public void init(org.keycloak.Config.Scope config) {
         // No configuration needed
@@ -31,11 +49,11 @@ public class EmailAuthenticatorRequiredActionFactory implements RequiredActionFa
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
-        // No post init needed
+        factory.register(AuthenticatorConfigIndex::onEvent);
     }
 
     @Override
     public void close() {
-        // No resources to close
+        AuthenticatorConfigIndex.clear();
     }
 }
\ No newline at end of file
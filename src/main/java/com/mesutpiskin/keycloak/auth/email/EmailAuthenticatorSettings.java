@@ -0,0 +1,208 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+/**
+ * Parsed code settings of an email authenticator configuration.
+ * <p>
+ * The authenticator form and the setup required action used to trim and parse
+ * the code length, TTL, resend cooldown and attempt limit on every request,
+ * logging a warning for every invalid value each time. Settings are now parsed
+ * once per configuration and cached by configuration id together with the raw
+ * values they were parsed from; a configuration whose values changed is parsed
+ * again on its next use, so warnings are logged once per change.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailAuthenticatorSettings {
+
+    private static final Logger logger = Logger.getLogger(EmailAuthenticatorSettings.class);
+
+    /**
+     * Maximum number of cached configurations; the cache is cleared when full.
+     */
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Settings of an authenticator without configuration.
+     */
+    public static final EmailAuthenticatorSettings DEFAULTS = new EmailAuthenticatorSettings(null, Map.of());
+
+    private static final Map<String, EmailAuthenticatorSettings> CACHE = new ConcurrentHashMap<>();
+
+    private final Map<String, String> config;
+    private final Map<String, String> deliveryConfig;
+    private final int codeLength;
+    private final int ttl;
+    private final int resendCooldown;
+    private final int maxAttempts;
+    private final boolean simulationMode;
+    private final boolean hashCode;
+
+    private EmailAuthenticatorSettings(String configId, Map<String, String> config) {
+        this.config = Collections.unmodifiableMap(new HashMap<>(config));
+        this.deliveryConfig = configId != null ? withConfigId(config, configId) : this.config;
+        this.codeLength = positiveInt(config, EmailConstants.CODE_LENGTH, EmailConstants.DEFAULT_LENGTH);
+        this.ttl = positiveInt(config, EmailConstants.CODE_TTL, EmailConstants.DEFAULT_TTL);
+        this.resendCooldown = positiveInt(config, EmailConstants.RESEND_COOLDOWN,
+                EmailConstants.DEFAULT_RESEND_COOLDOWN);
+        this.maxAttempts = positiveInt(config, EmailConstants.MAX_ATTEMPTS, EmailConstants.DEFAULT_MAX_ATTEMPTS);
+        this.simulationMode = Boolean.parseBoolean(config.get(EmailConstants.SIMULATION_MODE));
+        this.hashCode = Boolean.parseBoolean(config.get(EmailConstants.HASH_CODE));
+    }
+
+    /**
+     * Returns the settings of an authenticator configuration.
+     *
+     * @param model the configuration, may be null
+     * @return the settings
+     */
+    public static EmailAuthenticatorSettings of(AuthenticatorConfigModel model) {
+        if (model == null) {
+            return DEFAULTS;
+        }
+        return of(model.getId(), model.getConfig());
+    }
+
+    /**
+     * Returns the settings of configuration values.
+     *
+     * @param configId the configuration id used as cache key, or null to parse
+     *                 without caching
+     * @param config   the configuration values, may be null
+     * @return the settings
+     */
+    public static EmailAuthenticatorSettings of(String configId, Map<String, String> config) {
+        if (config == null || config.isEmpty()) {
+            return DEFAULTS;
+        }
+        if (configId == null) {
+            return new EmailAuthenticatorSettings(null, config);
+        }
+        EmailAuthenticatorSettings cached = CACHE.get(configId);
+        if (cached != null && cached.config.equals(config)) {
+            return cached;
+        }
+        EmailAuthenticatorSettings parsed = new EmailAuthenticatorSettings(configId, config);
+        if (CACHE.size() >= MAX_ENTRIES) {
+            CACHE.clear();
+        }
+        CACHE.put(configId, parsed);
+        return parsed;
+    }
+
+    /**
+     * Removes all cached settings.
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * Returns the configuration values together with the configuration id
+     * under {@link EmailConstants#AUTHENTICATOR_CONFIG_ID}.
+     *
+     * @param config   the configuration values
+     * @param configId the configuration id
+     * @return the values to hand to the delivery path, unmodifiable
+     */
+    public static Map<String, String> withConfigId(Map<String, String> config, String configId) {
+        Map<String, String> values = new HashMap<>(config);
+        values.put(EmailConstants.AUTHENTICATOR_CONFIG_ID, configId);
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return the raw configuration values, unmodifiable
+     */
+    public Map<String, String> getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the configuration values to hand to the delivery path, including
+     *         the configuration id if known; unmodifiable
+     */
+    public Map<String, String> getDeliveryConfig() {
+        return deliveryConfig;
+    }
+
+    /**
+     * @return the number of digits of a code
+     */
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    /**
+     * @return the code lifetime in seconds
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return the seconds before a new code may be requested
+     */
+    public int getResendCooldown() {
+        return resendCooldown;
+    }
+
+    /**
+     * @return the number of invalid attempts after which a code is invalidated
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return true if codes are logged instead of sent
+     */
+    public boolean isSimulationMode() {
+        return simulationMode;
+    }
+
+    /**
+     * @return true if only a hash of the code is stored
+     */
+    public boolean isHashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Resolves a positive integer configuration value with validation and
+     * fallback.
+     * <p>
+     * If the value is missing, blank, not a valid integer, or non-positive,
+     * returns the default value; invalid values are logged as a warning.
+     * </p>
+     */
+    private static int positiveInt(Map<String, String> configValues, String key, int defaultValue) {
+        String raw = configValues.get(key);
+        if (raw == null || raw.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(raw.trim());
+            if (parsed <= 0) {
+                logger.warnf("Configuration value for %s was non-positive ('%s'); falling back to default %d", key, raw,
+                        defaultValue);
+                return defaultValue;
+            }
+            return parsed;
+        } catch (NumberFormatException ex) {
+            logger.warnf("Configuration value for %s was invalid ('%s'); falling back to default %d", key, raw,
+                    defaultValue);
+            return defaultValue;
+        }
+    }
+}
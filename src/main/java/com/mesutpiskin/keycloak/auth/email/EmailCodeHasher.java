@@ -0,0 +1,205 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jboss.logging.Logger;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Keyed hashing of email codes stored in the authentication session.
+ * <p>
+ * Authentication sessions are replicated to every node and, with persistent
+ * sessions, written to the database. When hashing is enabled only
+ * {@code hmac$<kid>$<salt>$<mac>} is stored, where the MAC is an HMAC-SHA256
+ * over a random salt and the code, keyed with the realm's active HS512 key.
+ * The key id is kept so that codes issued before a key rotation still verify
+ * while the old key is available. Realms without an HMAC key fall back to a
+ * key generated when the node starts, which only verifies on the same node;
+ * this is logged once per realm.
+ * </p>
+ * <p>
+ * Codes stored without a hash are compared as is, so enabling or disabling
+ * hashing does not invalidate codes that are already sent. All comparisons are
+ * constant time.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailCodeHasher {
+
+    private static final Logger logger = Logger.getLogger(EmailCodeHasher.class);
+
+    static final String PREFIX = "hmac$";
+    static final String NODE_KID = "node";
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final char SEPARATOR = '$';
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecretKey NODE_KEY = generateNodeKey();
+    private static final Set<String> NODE_KEY_REALMS = ConcurrentHashMap.newKeySet();
+
+    private EmailCodeHasher() {
+        throw new UnsupportedOperationException("EmailCodeHasher is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Hashes a code with the realm's active HMAC key.
+     *
+     * @param session the Keycloak session
+     * @param realm   the realm
+     * @param code    the code
+     * @return the value to store instead of the code
+     */
+    public static String hash(KeycloakSession session, RealmModel realm, String code) {
+        KeyWrapper key = signingKey(session, realm);
+        return hash(key.getKid(), key.getSecretKey(), newSalt(), code);
+    }
+
+    /**
+     * Checks a submitted code against a stored code or code hash.
+     *
+     * @param session   the Keycloak session
+     * @param realm     the realm
+     * @param stored    the stored code or code hash
+     * @param submitted the submitted code
+     * @return true if the submitted code matches
+     */
+    public static boolean matches(KeycloakSession session, RealmModel realm, String stored, String submitted) {
+        return matches(stored, submitted, kid -> key(session, realm, kid));
+    }
+
+    /**
+     * Returns the realm's active HS512 key, or the node key if there is none.
+     *
+     * @param session the Keycloak session
+     * @param realm   the realm
+     * @return the key id and key
+     */
+    static KeyWrapper signingKey(KeycloakSession session, RealmModel realm) {
+        KeyWrapper key = activeKey(session, realm);
+        if (key != null) {
+            return key;
+        }
+        KeyWrapper node = new KeyWrapper();
+        node.setKid(NODE_KID);
+        node.setSecretKey(NODE_KEY);
+        return node;
+    }
+
+    /**
+     * Returns the key with the given id, as issued by
+     * {@link #signingKey(KeycloakSession, RealmModel)}.
+     *
+     * @param session the Keycloak session
+     * @param realm   the realm
+     * @param kid     the key id
+     * @return the key, or null if it is no longer available
+     */
+    static SecretKey key(KeycloakSession session, RealmModel realm, String kid) {
+        return NODE_KID.equals(kid) ? NODE_KEY : realmKey(session, realm, kid);
+    }
+
+    static String hash(String kid, SecretKey key, byte[] salt, String code) {
+        return PREFIX + kid + SEPARATOR + ENCODER.encodeToString(salt) + SEPARATOR
+                + ENCODER.encodeToString(mac(key, salt, code));
+    }
+
+    static boolean matches(String stored, String submitted, Function<String, SecretKey> keys) {
+        if (stored == null || submitted == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    submitted.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int macStart = stored.lastIndexOf(SEPARATOR);
+        int saltStart = stored.lastIndexOf(SEPARATOR, macStart - 1);
+        if (saltStart < PREFIX.length()) {
+            logger.warn("Invalid stored email code hash; rejecting code");
+            return false;
+        }
+        SecretKey key = keys.apply(stored.substring(PREFIX.length(), saltStart));
+        if (key == null) {
+            logger.warnf("HMAC key '%s' of stored email code hash is no longer available; rejecting code",
+                    stored.substring(PREFIX.length(), saltStart));
+            return false;
+        }
+        try {
+            byte[] salt = DECODER.decode(stored.substring(saltStart + 1, macStart));
+            byte[] expected = DECODER.decode(stored.substring(macStart + 1));
+            return MessageDigest.isEqual(expected, mac(key, salt, submitted));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid stored email code hash; rejecting code");
+            return false;
+        }
+    }
+
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    static byte[] mac(SecretKey key, byte[] salt, String code) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key.getEncoded(), MAC_ALGORITHM));
+            mac.update(salt);
+            return mac.doFinal(code.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not compute email code hash", e);
+        }
+    }
+
+    private static KeyWrapper activeKey(KeycloakSession session, RealmModel realm) {
+        try {
+            KeyWrapper key = session.keys().getActiveKey(realm, KeyUse.SIG, Algorithm.HS512);
+            if (key != null && key.getSecretKey() != null) {
+                NODE_KEY_REALMS.remove(realm.getId());
+                return key;
+            }
+        } catch (RuntimeException e) {
+            logger.debugf("No active HS512 key in realm %s: %s", realm.getName(), e.getMessage());
+        }
+        if (NODE_KEY_REALMS.add(realm.getId())) {
+            logger.warnf("Realm %s has no active HS512 key; signing email codes and remembered-device cookies "
+                    + "with a node-local key, which only verifies on this node", realm.getName());
+        }
+        return null;
+    }
+
+    private static SecretKey realmKey(KeycloakSession session, RealmModel realm, String kid) {
+        KeyWrapper key = session.keys().getKey(realm, kid, KeyUse.SIG, Algorithm.HS512);
+        return key != null ? key.getSecretKey() : null;
+    }
+
+    private static SecretKey generateNodeKey() {
+        try {
+            return KeyGenerator.getInstance(MAC_ALGORITHM).generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not generate node email code key", e);
+        }
+    }
+}
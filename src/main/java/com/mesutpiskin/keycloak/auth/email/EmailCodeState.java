@@ -0,0 +1,201 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import org.jboss.logging.Logger;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * The state of an email code, stored as a single authentication session note.
+ * <p>
+ * Earlier versions kept the code, its expiry, the resend availability and the
+ * failed attempts in four notes, each parsed on every request and each
+ * replicated separately across the cluster when changed. The state is now
+ * packed into one note ({@link EmailConstants#CODE_STATE}) that is read and
+ * written as a whole:
+ * </p>
+ *
+ * <pre>
+ * 1:&lt;expiresAt&gt;:&lt;resendAvailableAfter&gt;:&lt;attempts&gt;:&lt;code&gt;
+ * </pre>
+ * <p>
+ * where the leading digit is the format version and the numbers are base 36.
+ * Sessions still holding the legacy notes, for example during a rolling
+ * upgrade, are migrated to the packed note when they are first read.
+ * </p>
+ *
+ * @param code                 the code sent to the user, or its hash (see
+ *                             {@link EmailCodeHasher})
+ * @param expiresAt            epoch milliseconds after which the code is
+ *                             expired
+ * @param resendAvailableAfter epoch milliseconds after which a new code may be
+ *                             requested
+ * @param attempts             number of failed attempts so far
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public record EmailCodeState(String code, long expiresAt, long resendAvailableAfter, int attempts) {
+
+    private static final Logger logger = Logger.getLogger(EmailCodeState.class);
+
+    private static final String VERSION = "1";
+    private static final char SEPARATOR = ':';
+
+    /**
+     * Legacy authentication session note key for the number of failed attempts.
+     */
+    static final String LEGACY_ATTEMPTS = "emailCodeAttempts";
+
+    /**
+     * Creates the state of a newly sent code.
+     *
+     * @param code                  the code
+     * @param now                   the current time in epoch milliseconds
+     * @param ttlSeconds            the code lifetime in seconds
+     * @param resendCooldownSeconds the resend cooldown in seconds
+     * @return the state
+     */
+    public static EmailCodeState issue(String code, long now, int ttlSeconds, int resendCooldownSeconds) {
+        return new EmailCodeState(code, now + (ttlSeconds * 1000L), now + (resendCooldownSeconds * 1000L), 0);
+    }
+
+    /**
+     * Returns this state with one more failed attempt.
+     *
+     * @return the new state
+     */
+    public EmailCodeState withFailedAttempt() {
+        return new EmailCodeState(code, expiresAt, resendAvailableAfter, attempts + 1);
+    }
+
+    /**
+     * Returns the whole seconds until a new code may be requested.
+     *
+     * @param now the current time in epoch milliseconds
+     * @return the remaining seconds, 0 if a resend is already possible
+     */
+    public long remainingCooldownSeconds(long now) {
+        long remainingMillis = resendAvailableAfter - now;
+        return Math.max(0L, (remainingMillis + EmailConstants.MILLIS_ROUNDING_OFFSET) / 1000L);
+    }
+
+    /**
+     * Packs the state into its note value.
+     *
+     * @return the note value
+     */
+    public String encode() {
+        return VERSION + SEPARATOR + Long.toString(expiresAt, 36) + SEPARATOR
+                + Long.toString(resendAvailableAfter, 36) + SEPARATOR + Integer.toString(attempts, 36) + SEPARATOR
+                + code;
+    }
+
+    /**
+     * Unpacks a note value.
+     *
+     * @param value the note value
+     * @return the state, or null if the value is not a valid packed state
+     */
+    public static EmailCodeState decode(String value) {
+        if (value == null || !value.startsWith(VERSION + SEPARATOR)) {
+            return null;
+        }
+        int first = VERSION.length() + 1;
+        int second = value.indexOf(SEPARATOR, first);
+        int third = second < 0 ? -1 : value.indexOf(SEPARATOR, second + 1);
+        int fourth = third < 0 ? -1 : value.indexOf(SEPARATOR, third + 1);
+        if (fourth < 0 || fourth == value.length() - 1) {
+            return null;
+        }
+        try {
+            return new EmailCodeState(value.substring(fourth + 1),
+                    Long.parseLong(value, first, second, 36),
+                    Long.parseLong(value, second + 1, third, 36),
+                    Integer.parseInt(value, third + 1, fourth, 36));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the code state of an authentication session, migrating the legacy
+     * notes if present.
+     *
+     * @param session the authentication session
+     * @return the state, or null if no code has been sent
+     */
+    public static EmailCodeState read(AuthenticationSessionModel session) {
+        String packed = session.getAuthNote(EmailConstants.CODE_STATE);
+        if (packed != null) {
+            EmailCodeState state = decode(packed);
+            if (state == null) {
+                // The note may hold the plaintext code, so its value is not logged
+                logger.warn("Invalid email code state; discarding it");
+                session.removeAuthNote(EmailConstants.CODE_STATE);
+            }
+            return state;
+        }
+
+        String legacyCode = session.getAuthNote(EmailConstants.CODE);
+        if (legacyCode == null) {
+            return null;
+        }
+        EmailCodeState state = new EmailCodeState(legacyCode,
+                parseLegacy(session.getAuthNote(EmailConstants.CODE_TTL), 0L),
+                parseLegacy(session.getAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER), 0L),
+                (int) parseLegacy(session.getAuthNote(LEGACY_ATTEMPTS), 0L));
+        removeLegacyNotes(session);
+        state.write(session);
+        return state;
+    }
+
+    /**
+     * Stores the state in an authentication session.
+     *
+     * @param session the authentication session
+     */
+    public void write(AuthenticationSessionModel session) {
+        session.setAuthNote(EmailConstants.CODE_STATE, encode());
+    }
+
+    /**
+     * Removes the code state from an authentication session, including any
+     * legacy notes.
+     *
+     * @param session the authentication session
+     */
+    public static void clear(AuthenticationSessionModel session) {
+        session.removeAuthNote(EmailConstants.CODE_STATE);
+        if (session.getAuthNote(EmailConstants.CODE) != null) {
+            removeLegacyNotes(session);
+        }
+    }
+
+    private static void removeLegacyNotes(AuthenticationSessionModel session) {
+        session.removeAuthNote(EmailConstants.CODE);
+        session.removeAuthNote(EmailConstants.CODE_TTL);
+        session.removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
+        session.removeAuthNote(LEGACY_ATTEMPTS);
+    }
+
+    /**
+     * Parses a legacy decimal note; a missing or corrupt expiry becomes 0,
+     * which treats the code as expired, as before.
+     */
+    private static long parseLegacy(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid legacy email code note value '%s'; using %d", value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EmailCodeState{expiresAt=" + expiresAt + ", resendAvailableAfter=" + resendAvailableAfter
+                + ", attempts=" + attempts + '}';
+    }
+}
@@ -36,6 +36,25 @@ public final class EmailConstants {
 	 */
 	public static final String SIMULATION_MODE = "simulationMode";
 
+	/**
+	 * Configuration key for storing only a keyed hash of the code in the
+	 * authentication session instead of the code itself.
+	 */
+	public static final String HASH_CODE = "hashStoredCode";
+
+	/**
+	 * Required action configuration key for the alias of the email
+	 * authenticator configuration whose code settings the setup uses.
+	 */
+	public static final String AUTHENTICATOR_CONFIG_ALIAS = "authenticatorConfigAlias";
+
+	/**
+	 * Key under which the authenticator passes the id of its configuration to
+	 * the delivery path, e.g. to tell configurations sharing a sender address
+	 * apart. Set internally; it is not an admin setting.
+	 */
+	public static final String AUTHENTICATOR_CONFIG_ID = "authenticatorConfigId";
+
 	/**
 	 * Configuration key for the cooldown period in seconds between resend requests.
 	 * Users must wait this duration before requesting a new code.
@@ -48,6 +67,13 @@ public final class EmailConstants {
 	 */
 	public static final String CODE_RESEND_AVAILABLE_AFTER = "emailCodeResendAvailableAfter";
 
+	/**
+	 * Authentication session note key for the packed code state (code, expiry,
+	 * resend availability and failed attempts), which replaces the separate
+	 * code, TTL, resend and attempts notes.
+	 */
+	public static final String CODE_STATE = "emailCodeState";
+
 	/**
 	 * Default code length (number of digits).
 	 */
@@ -63,6 +89,11 @@ public final class EmailConstants {
 	 */
 	public static final boolean DEFAULT_SIMULATION_MODE = false;
 
+	/**
+	 * Default code hashing setting (disabled, the code is stored as is).
+	 */
+	public static final boolean DEFAULT_HASH_CODE = false;
+
 	/**
 	 * Default resend cooldown in seconds (30 seconds).
 	 */
@@ -83,10 +114,22 @@ public final class EmailConstants {
 
 	/**
 	 * Configuration key for selecting the email provider type.
-	 * Valid values: KEYCLOAK, SENDGRID, AWS_SES, MAILGUN
+	 * Valid values: KEYCLOAK, SENDGRID, AWS_SES, MAILGUN, ROUTED
 	 */
 	public static final String EMAIL_PROVIDER_TYPE = "emailProviderType";
 
+	/**
+	 * Configuration key for the providers used by the ROUTED provider type, as a
+	 * comma separated list of TYPE[:weight] entries, e.g. "SENDGRID:3,AWS_SES:1".
+	 */
+	public static final String ROUTING_PROVIDERS = "routingProviders";
+
+	/**
+	 * Configuration key for reusing pooled SMTP connections with the KEYCLOAK
+	 * provider. Optional, defaults to false.
+	 */
+	public static final String SMTP_CONNECTION_POOL = "smtpConnectionPool";
+
 	/**
 	 * Configuration key for SendGrid API key.
 	 * Required when EMAIL_PROVIDER_TYPE is set to SENDGRID.
@@ -105,6 +148,50 @@ public final class EmailConstants {
 	 */
 	public static final String SENDGRID_FROM_NAME = "sendgridFromName";
 
+	/**
+	 * Configuration key for the maximum number of pooled connections to the
+	 * SendGrid API.
+	 */
+	public static final String SENDGRID_MAX_CONNECTIONS = "sendgridMaxConnections";
+
+	/**
+	 * Configuration key for the SendGrid connect timeout in milliseconds.
+	 */
+	public static final String SENDGRID_CONNECT_TIMEOUT = "sendgridConnectTimeoutMillis";
+
+	/**
+	 * Configuration key for the SendGrid socket read timeout in milliseconds.
+	 */
+	public static final String SENDGRID_SOCKET_TIMEOUT = "sendgridSocketTimeoutMillis";
+
+	/**
+	 * Default maximum number of pooled SendGrid connections.
+	 */
+	public static final int DEFAULT_SENDGRID_MAX_CONNECTIONS = 20;
+
+	/**
+	 * Default SendGrid connect timeout in milliseconds.
+	 */
+	public static final int DEFAULT_SENDGRID_CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * Default SendGrid socket read timeout in milliseconds.
+	 */
+	public static final int DEFAULT_SENDGRID_SOCKET_TIMEOUT = 10000;
+
+	/**
+	 * Configuration key for the longest time in milliseconds a code waits to be
+	 * combined with others into one SendGrid request. Optional; empty or 0
+	 * disables batching.
+	 */
+	public static final String SENDGRID_BATCH_LINGER = "sendgridBatchLingerMillis";
+
+	/**
+	 * Configuration key for the maximum number of recipients per batched SendGrid
+	 * request (at most 1000).
+	 */
+	public static final String SENDGRID_BATCH_SIZE = "sendgridBatchSize";
+
 	/**
 	 * Configuration key for AWS SES region.
 	 * Required when EMAIL_PROVIDER_TYPE is set to AWS_SES.
@@ -135,6 +222,37 @@ public final class EmailConstants {
 	 */
 	public static final String AWS_SES_FROM_NAME = "awsSesFromName";
 
+	/**
+	 * Configuration key for an AWS SES endpoint override (e.g. a VPC endpoint).
+	 * Optional, defaults to the regional endpoint.
+	 */
+	public static final String AWS_SES_ENDPOINT = "awsSesEndpoint";
+
+	/**
+	 * Configuration key enabling the non-blocking AWS SES client.
+	 * Optional, defaults to false.
+	 */
+	public static final String AWS_SES_ASYNC_CLIENT = "awsSesAsyncClient";
+
+	/**
+	 * Configuration key for the longest time in milliseconds a code waits to be
+	 * combined with others into one SES bulk templated request. Optional; empty
+	 * or 0 disables bulk sending.
+	 */
+	public static final String AWS_SES_BULK_LINGER = "awsSesBulkLingerMillis";
+
+	/**
+	 * Configuration key for the maximum number of destinations per SES bulk
+	 * request (at most 50).
+	 */
+	public static final String AWS_SES_BULK_SIZE = "awsSesBulkBatchSize";
+
+	/**
+	 * Configuration key for the name of the SES template registered for code
+	 * emails. Optional.
+	 */
+	public static final String AWS_SES_TEMPLATE_NAME = "awsSesTemplateName";
+
 	/**
 	 * Configuration key for enabling fallback to Keycloak SMTP.
 	 * When true, if the primary provider fails, the system will
@@ -152,6 +270,279 @@ public final class EmailConstants {
 	 */
 	public static final boolean DEFAULT_ENABLE_FALLBACK = true;
 
+	/**
+	 * Configuration key for enabling the circuit breaker of the primary provider.
+	 * Optional, defaults to false.
+	 */
+	public static final String CIRCUIT_BREAKER_ENABLED = "circuitBreakerEnabled";
+
+	/**
+	 * Configuration key for the failure percentage that opens the circuit breaker.
+	 */
+	public static final String CIRCUIT_BREAKER_FAILURE_RATE = "circuitBreakerFailureRate";
+
+	/**
+	 * Configuration key for the duration in milliseconds above which a send
+	 * counts as slow for the circuit breaker.
+	 */
+	public static final String CIRCUIT_BREAKER_SLOW_CALL = "circuitBreakerSlowCallMillis";
+
+	/**
+	 * Configuration key for the number of seconds the circuit breaker stays open
+	 * before trial sends are made.
+	 */
+	public static final String CIRCUIT_BREAKER_OPEN_DURATION = "circuitBreakerOpenSeconds";
+
+	/**
+	 * Configuration key for hedging slow primary sends with Keycloak SMTP.
+	 * Optional, defaults to false. Requires ENABLE_FALLBACK.
+	 */
+	public static final String HEDGING_ENABLED = "hedgingEnabled";
+
+	/**
+	 * Configuration key for the latency percentile of the primary provider after
+	 * which a hedged send is started.
+	 */
+	public static final String HEDGING_PERCENTILE = "hedgingPercentile";
+
+	/**
+	 * Configuration key for the hedge delay in milliseconds used until enough
+	 * latencies of the primary provider have been observed.
+	 */
+	public static final String HEDGING_DELAY = "hedgingDelayMillis";
+
+	/**
+	 * Default hedging percentile.
+	 */
+	public static final int DEFAULT_HEDGING_PERCENTILE = 95;
+
+	/**
+	 * Default initial hedge delay in milliseconds.
+	 */
+	public static final int DEFAULT_HEDGING_DELAY = 1000;
+
+	/**
+	 * Configuration key for the sustained send rate (sends per second) of the
+	 * provider account. Optional; empty or 0 disables throttling.
+	 */
+	public static final String PROVIDER_RATE_LIMIT = "providerRateLimit";
+
+	/**
+	 * Configuration key for the number of sends allowed back to back before the
+	 * rate limit applies. Defaults to the rate limit.
+	 */
+	public static final String PROVIDER_RATE_BURST = "providerRateBurst";
+
+	/**
+	 * Configuration key for the longest time in milliseconds a send waits for
+	 * the rate limit before failing over.
+	 */
+	public static final String PROVIDER_RATE_MAX_WAIT = "providerRateMaxWaitMillis";
+
+	/**
+	 * Default maximum wait for the rate limit in milliseconds.
+	 */
+	public static final int DEFAULT_PROVIDER_RATE_MAX_WAIT = 2000;
+
+	// Delivery Configuration
+
+	/**
+	 * Configuration key for the delivery mode of the access code email.
+	 * Valid values: SYNC, ASYNC, OUTBOX
+	 */
+	public static final String DELIVERY_MODE = "deliveryMode";
+
+	/**
+	 * Delivery mode in which the email is sent on the login request thread.
+	 */
+	public static final String DELIVERY_MODE_SYNC = "SYNC";
+
+	/**
+	 * Delivery mode in which the email is handed to the background dispatcher and
+	 * the form is rendered immediately.
+	 */
+	public static final String DELIVERY_MODE_ASYNC = "ASYNC";
+
+	/**
+	 * Delivery mode in which the email is recorded in the durable outbox and
+	 * delivered with retries by a background worker.
+	 */
+	public static final String DELIVERY_MODE_OUTBOX = "OUTBOX";
+
+	/**
+	 * Default delivery mode (synchronous for backward compatibility).
+	 */
+	public static final String DEFAULT_DELIVERY_MODE = DELIVERY_MODE_SYNC;
+
+	/**
+	 * Provider option for the number of background delivery worker threads.
+	 */
+	public static final String ASYNC_WORKER_THREADS = "asyncWorkerThreads";
+
+	/**
+	 * Provider option for the maximum number of queued deliveries.
+	 */
+	public static final String ASYNC_QUEUE_DEPTH = "asyncQueueDepth";
+
+	/**
+	 * Provider option for the policy applied when the delivery queue is full.
+	 * Valid values: CALLER_RUNS, DISCARD, DISCARD_OLDEST
+	 */
+	public static final String ASYNC_REJECTION_POLICY = "asyncRejectionPolicy";
+
+	/**
+	 * Provider option for the maximum number of concurrent deliveries per email
+	 * provider.
+	 */
+	public static final String ASYNC_MAX_CONCURRENCY_PER_PROVIDER = "asyncMaxConcurrencyPerProvider";
+
+	/**
+	 * Default number of background delivery worker threads.
+	 */
+	public static final int DEFAULT_ASYNC_WORKER_THREADS = 8;
+
+	/**
+	 * Default maximum number of queued deliveries.
+	 */
+	public static final int DEFAULT_ASYNC_QUEUE_DEPTH = 1000;
+
+	/**
+	 * Default policy applied when the delivery queue is full.
+	 */
+	public static final String DEFAULT_ASYNC_REJECTION_POLICY = "CALLER_RUNS";
+
+	/**
+	 * Default maximum number of concurrent deliveries per email provider.
+	 */
+	public static final int DEFAULT_ASYNC_MAX_CONCURRENCY_PER_PROVIDER = 4;
+
+	/**
+	 * Provider option for the outbox store.
+	 * Valid values: JPA, MEMORY
+	 */
+	public static final String OUTBOX_STORE = "outboxStore";
+
+	/**
+	 * Provider option for the number of seconds between two outbox drains.
+	 */
+	public static final String OUTBOX_POLL_INTERVAL = "outboxPollIntervalSeconds";
+
+	/**
+	 * Provider option for the maximum number of outbox entries claimed per drain.
+	 */
+	public static final String OUTBOX_BATCH_SIZE = "outboxBatchSize";
+
+	/**
+	 * Provider option for the delay in seconds before the first outbox retry.
+	 */
+	public static final String OUTBOX_INITIAL_BACKOFF = "outboxInitialBackoffSeconds";
+
+	/**
+	 * Provider option for the upper bound in seconds of the outbox retry delay.
+	 */
+	public static final String OUTBOX_MAX_BACKOFF = "outboxMaxBackoffSeconds";
+
+	/**
+	 * Default outbox store.
+	 */
+	public static final String DEFAULT_OUTBOX_STORE = "JPA";
+
+	/**
+	 * Default number of seconds between two outbox drains.
+	 */
+	public static final int DEFAULT_OUTBOX_POLL_INTERVAL = 5;
+
+	/**
+	 * Default maximum number of outbox entries claimed per drain.
+	 */
+	public static final int DEFAULT_OUTBOX_BATCH_SIZE = 50;
+
+	/**
+	 * Default delay in seconds before the first outbox retry.
+	 */
+	public static final int DEFAULT_OUTBOX_INITIAL_BACKOFF = 5;
+
+	/**
+	 * Default upper bound in seconds of the outbox retry delay.
+	 */
+	public static final int DEFAULT_OUTBOX_MAX_BACKOFF = 60;
+
+	/**
+	 * Provider option for the number of seconds after which an unused email
+	 * provider client is closed.
+	 */
+	public static final String CLIENT_IDLE_TIMEOUT = "clientIdleTimeoutSeconds";
+
+	/**
+	 * Default idle timeout for email provider clients in seconds (15 minutes).
+	 */
+	public static final int DEFAULT_CLIENT_IDLE_TIMEOUT = 900;
+
+	/**
+	 * Provider option for the maximum number of compiled code emails cached
+	 * across realms and locales.
+	 */
+	public static final String EMAIL_BODY_CACHE_SIZE = "emailBodyCacheSize";
+
+	/**
+	 * Default number of cached compiled code emails.
+	 */
+	public static final int DEFAULT_EMAIL_BODY_CACHE_SIZE = 256;
+
+	/**
+	 * Provider option for the maximum number of pooled SMTP connections per realm.
+	 */
+	public static final String SMTP_POOL_MAX_CONNECTIONS = "smtpPoolMaxConnections";
+
+	/**
+	 * Default maximum number of pooled SMTP connections per realm.
+	 */
+	public static final int DEFAULT_SMTP_POOL_MAX_CONNECTIONS = 4;
+
+	/**
+	 * Provider option for the number of emails sent over a pooled SMTP connection
+	 * before it is replaced.
+	 */
+	public static final String SMTP_POOL_MAX_MESSAGES = "smtpPoolMaxMessages";
+
+	/**
+	 * Default number of emails per pooled SMTP connection.
+	 */
+	public static final int DEFAULT_SMTP_POOL_MAX_MESSAGES = 100;
+
+	/**
+	 * Provider option for the number of seconds after which an idle pooled SMTP
+	 * connection is closed.
+	 */
+	public static final String SMTP_POOL_IDLE_TIMEOUT = "smtpPoolIdleTimeoutSeconds";
+
+	/**
+	 * Default idle timeout for pooled SMTP connections in seconds.
+	 */
+	public static final int DEFAULT_SMTP_POOL_IDLE_TIMEOUT = 60;
+
+	/**
+	 * Provider option for the maximum number of emails sent back to back over
+	 * one pooled SMTP connection. 1 disables batching.
+	 */
+	public static final String SMTP_BATCH_SIZE = "smtpBatchSize";
+
+	/**
+	 * Default SMTP batch size (batching disabled).
+	 */
+	public static final int DEFAULT_SMTP_BATCH_SIZE = 1;
+
+	/**
+	 * Provider option for the number of milliseconds an email waits for others
+	 * to join its SMTP batch.
+	 */
+	public static final String SMTP_BATCH_LINGER = "smtpBatchLingerMillis";
+
+	/**
+	 * Default SMTP batch linger time in milliseconds.
+	 */
+	public static final int DEFAULT_SMTP_BATCH_LINGER = 20;
+
 	/**
 	 * Millisecond rounding offset used for converting milliseconds to seconds.
 	 * Adding 999ms before division ensures proper ceiling rounding.
@@ -0,0 +1,246 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import jakarta.ws.rs.core.MultivaluedMap;
+
+/**
+ * A conditional OTP header rule.
+ * <p>
+ * Header patterns are written against the line {@code Name: value} of a
+ * request header. Matching them literally means building that line for every
+ * value of every header and running the regular expression on it. Most
+ * patterns, like {@code X-Forwarded-Host: (1.2.3.4|1.2.3.5)}, start with the
+ * name of the one header they are about. Such a pattern is split into the
+ * header name and a value pattern: only the values of that header are looked
+ * up, and the value pattern runs on a view of the trimmed value without
+ * building a new string. Patterns that do not start with a literal header name
+ * and a colon, or that have a top-level alternation, keep the full-line match.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+abstract class HeaderRule {
+
+    /**
+     * Compiles a header pattern.
+     *
+     * @param headerPattern the pattern, may be null
+     * @param patterns      the cache to compile regular expressions with
+     * @return the rule, or null if the pattern is blank or invalid
+     */
+    static HeaderRule compile(String headerPattern, PatternCache patterns) {
+        if (headerPattern == null || headerPattern.isBlank()) {
+            return null;
+        }
+        String headerName = scopedHeaderName(headerPattern);
+        if (headerName != null) {
+            Pattern valuePattern = patterns.get(headerPattern.substring(headerName.length() + 1));
+            if (valuePattern != null) {
+                return new Scoped(headerName, valuePattern);
+            }
+        }
+        Pattern linePattern = patterns.get(headerPattern);
+        return linePattern != null ? new FullLine(linePattern) : null;
+    }
+
+    /**
+     * Checks the request headers against the rule.
+     *
+     * @param requestHeaders the request headers
+     * @return true if a header matches
+     */
+    abstract boolean matches(MultivaluedMap<String, String> requestHeaders);
+
+    /**
+     * @return the header the rule is scoped to, or null if it checks all
+     *         headers
+     */
+    abstract String headerName();
+
+    /**
+     * Returns the literal header name a pattern starts with, provided the rest
+     * of the pattern only applies to that header's value.
+     */
+    static String scopedHeaderName(String headerPattern) {
+        int colon = headerPattern.indexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        for (int i = 0; i < colon; i++) {
+            char c = headerPattern.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+                return null;
+            }
+        }
+        return hasTopLevelAlternation(headerPattern, colon + 1) ? null : headerPattern.substring(0, colon);
+    }
+
+    /**
+     * Scans for a {@code |} outside of groups and character classes, which
+     * would make part of the pattern apply to the whole line. Quoted sections
+     * are treated as alternations to stay on the safe side.
+     */
+    private static boolean hasTopLevelAlternation(String regex, int from) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = from; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return true;
+                }
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int trimmedStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimmedEnd(String value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Rule that only checks the values of one header.
+     */
+    private static final class Scoped extends HeaderRule {
+
+        private final String headerName;
+        private final Pattern valuePattern;
+
+        Scoped(String headerName, Pattern valuePattern) {
+            this.headerName = headerName;
+            this.valuePattern = valuePattern;
+        }
+
+        @Override
+        boolean matches(MultivaluedMap<String, String> requestHeaders) {
+            List<String> values = requestHeaders.get(headerName);
+            if (values == null) {
+                // request header maps are usually case-insensitive; fall back for those that are not
+                for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
+                    if (entry.getKey().trim().equalsIgnoreCase(headerName) && matchesAny(entry.getValue())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return matchesAny(values);
+        }
+
+        private boolean matchesAny(List<String> values) {
+            for (String value : values) {
+                int start = trimmedStart(value);
+                if (valuePattern.matcher(new ValueView(value, start, trimmedEnd(value, start))).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        String headerName() {
+            return headerName;
+        }
+    }
+
+    /**
+     * Rule that matches the full {@code Name: value} line of every header.
+     */
+    private static final class FullLine extends HeaderRule {
+
+        private final Pattern linePattern;
+
+        FullLine(Pattern linePattern) {
+            this.linePattern = linePattern;
+        }
+
+        @Override
+        boolean matches(MultivaluedMap<String, String> requestHeaders) {
+            StringBuilder line = new StringBuilder(64);
+            for (Map.Entry<String, List<String>> entry : requestHeaders.entrySet()) {
+                String key = entry.getKey();
+                int keyStart = trimmedStart(key);
+                int keyEnd = trimmedEnd(key, keyStart);
+                for (String value : entry.getValue()) {
+                    int valueStart = trimmedStart(value);
+                    line.setLength(0);
+                    line.append(key, keyStart, keyEnd).append(": ")
+                            .append(value, valueStart, trimmedEnd(value, valueStart));
+                    if (linePattern.matcher(line).matches()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        String headerName() {
+            return null;
+        }
+    }
+
+    /**
+     * The part of a header line after the colon, i.e. a space followed by the
+     * trimmed value, as a view of the value.
+     */
+    private static final class ValueView implements CharSequence {
+
+        private final String value;
+        private final int start;
+        private final int end;
+
+        ValueView(String value, int start, int end) {
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start + 1;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index == 0 ? ' ' : value.charAt(start + index - 1);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return ' ' + value.substring(start, end);
+        }
+    }
+}
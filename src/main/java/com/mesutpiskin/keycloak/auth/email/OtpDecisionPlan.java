@@ -0,0 +1,339 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.ABSTAIN;
+import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.SHOW_OTP;
+import static com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision.SKIP_OTP;
+import static org.keycloak.models.utils.KeycloakModelUtils.getRoleFromString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleContainerModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderEvent;
+
+import com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision;
+
+import jakarta.ws.rs.core.MultivaluedMap;
+
+/**
+ * Compiled form of a conditional email authenticator configuration.
+ * <p>
+ * Interpreting the configuration on every login means looking up every key,
+ * switching on outcome strings, resolving role names and fetching compiled
+ * patterns. A plan does that once: it holds only the voters the configuration
+ * enables, in evaluation order, with roles resolved to ids, header patterns
+ * compiled into {@link HeaderRule}s, networks loaded into {@link CidrTrie}s,
+ * remembered devices checked through a {@link TrustedDeviceCookie} and
+ * outcomes turned into
+ * {@link OtpDecision} values. Plans are cached by configuration id together
+ * with the values they were compiled from, so an updated configuration is
+ * compiled again on its next use, and dropped when a role is removed.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+final class OtpDecisionPlan {
+
+    /**
+     * Maximum number of cached plans; the cache is cleared when full.
+     */
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Plan of an authenticator without configuration.
+     */
+    static final OtpDecisionPlan EMPTY = new OtpDecisionPlan(Map.of(), new Voter[0], 0);
+
+    private static final Map<String, OtpDecisionPlan> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * One stage of the decision.
+     */
+    @FunctionalInterface
+    interface Voter {
+
+        /**
+         * Votes on the current login.
+         *
+         * @param context the authentication flow context
+         * @return the decision, {@link OtpDecision#ABSTAIN} to defer to the next
+         *         voter
+         */
+        OtpDecision vote(AuthenticationFlowContext context);
+    }
+
+    private final Map<String, String> source;
+    private final Voter[] voters;
+    private final int rememberDeviceDays;
+
+    private OtpDecisionPlan(Map<String, String> source, Voter[] voters, int rememberDeviceDays) {
+        this.source = source;
+        this.voters = voters;
+        this.rememberDeviceDays = rememberDeviceDays;
+    }
+
+    /**
+     * Returns the plan of an authenticator configuration, compiling it if it is
+     * not cached or has changed.
+     *
+     * @param realm the realm the configuration belongs to
+     * @param model the configuration, may be null
+     * @return the plan
+     */
+    static OtpDecisionPlan of(RealmModel realm, AuthenticatorConfigModel model) {
+        if (model == null || model.getConfig() == null || model.getConfig().isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, String> config = model.getConfig();
+        String configId = model.getId();
+        if (configId == null) {
+            return compile(realm, config);
+        }
+        OtpDecisionPlan cached = CACHE.get(configId);
+        if (cached != null && cached.source.equals(config)) {
+            return cached;
+        }
+        ConditionalEmailAuthenticatorForm.patternCache().invalidateOnChange(configId,
+                config.get(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_HTTP_HEADER) + '\n'
+                        + config.get(ConditionalEmailAuthenticatorForm.FORCE_OTP_FOR_HTTP_HEADER));
+        OtpDecisionPlan compiled = compile(realm, config);
+        if (CACHE.size() >= MAX_ENTRIES) {
+            CACHE.clear();
+        }
+        CACHE.put(configId, compiled);
+        return compiled;
+    }
+
+    /**
+     * Removes all cached plans.
+     */
+    static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * Drops the cached plans when a role is removed, so that a role recreated
+     * under the same name is resolved to its new id.
+     *
+     * @param event the provider event
+     */
+    static void onEvent(ProviderEvent event) {
+        if (event instanceof RoleContainerModel.RoleRemovedEvent) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * Evaluates the voters in order.
+     *
+     * @param context the authentication flow context
+     * @return the first decision that is not {@link OtpDecision#ABSTAIN}, or
+     *         {@link OtpDecision#ABSTAIN} if every voter abstains
+     */
+    OtpDecision decide(AuthenticationFlowContext context) {
+        for (Voter voter : voters) {
+            OtpDecision decision = voter.vote(context);
+            if (decision != ABSTAIN) {
+                return decision;
+            }
+        }
+        return ABSTAIN;
+    }
+
+    /**
+     * @return the number of voters of this plan
+     */
+    int size() {
+        return voters.length;
+    }
+
+    /**
+     * @return the number of days a browser is remembered after a code is
+     *         entered, 0 if remembering is disabled
+     */
+    int rememberDeviceDays() {
+        return rememberDeviceDays;
+    }
+
+    private static OtpDecisionPlan compile(RealmModel realm, Map<String, String> config) {
+        List<Voter> voters = new ArrayList<>(4);
+
+        String attributeName = config.get(ConditionalEmailAuthenticatorForm.OTP_CONTROL_USER_ATTRIBUTE);
+        if (attributeName != null) {
+            voters.add(context -> voteForUserOtpControlAttribute(context.getUser(), attributeName));
+        }
+
+        RoleReference skipRole = RoleReference.resolve(realm, config.get(ConditionalEmailAuthenticatorForm.SKIP_OTP_ROLE));
+        RoleReference forceRole = RoleReference.resolve(realm,
+                config.get(ConditionalEmailAuthenticatorForm.FORCE_OTP_ROLE));
+        if (skipRole != null || forceRole != null) {
+            voters.add(context -> voteForUserRole(context.getRealm(), context.getUser(), skipRole, forceRole));
+        }
+
+        PatternCache patterns = ConditionalEmailAuthenticatorForm.patternCache();
+        HeaderRule skipRule = HeaderRule.compile(config.get(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_HTTP_HEADER),
+                patterns);
+        HeaderRule forceRule = HeaderRule.compile(
+                config.get(ConditionalEmailAuthenticatorForm.FORCE_OTP_FOR_HTTP_HEADER), patterns);
+        if (skipRule != null || forceRule != null) {
+            voters.add(context -> voteForHttpHeaderMatchesPattern(
+                    context.getHttpRequest().getHttpHeaders().getRequestHeaders(), skipRule, forceRule));
+        }
+
+        CidrTrie trustedNetworks = CidrTrie.parse(config.get(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_NETWORKS));
+        CidrTrie untrustedNetworks = CidrTrie.parse(
+                config.get(ConditionalEmailAuthenticatorForm.FORCE_OTP_FOR_NETWORKS));
+        if (trustedNetworks != null || untrustedNetworks != null) {
+            String addressHeader = config.get(ConditionalEmailAuthenticatorForm.CLIENT_ADDRESS_HEADER);
+            String header = addressHeader == null || addressHeader.isBlank() ? null : addressHeader.trim();
+            voters.add(context -> voteForClientNetwork(clientAddress(context, header), trustedNetworks,
+                    untrustedNetworks));
+        }
+
+        int rememberDeviceDays = positiveInt(config.get(ConditionalEmailAuthenticatorForm.REMEMBER_DEVICE_DAYS));
+        if (rememberDeviceDays > 0) {
+            voters.add(context -> TrustedDeviceCookie.isTrusted(context, rememberDeviceDays) ? SKIP_OTP : ABSTAIN);
+        }
+
+        OtpDecision fallback = outcome(config.get(ConditionalEmailAuthenticatorForm.DEFAULT_OTP_OUTCOME));
+        if (fallback != ABSTAIN) {
+            voters.add(context -> fallback);
+        }
+
+        return new OtpDecisionPlan(Collections.unmodifiableMap(new HashMap<>(config)), voters.toArray(new Voter[0]),
+                rememberDeviceDays);
+    }
+
+    private static int positiveInt(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static OtpDecision outcome(String value) {
+        if (value == null) {
+            return ABSTAIN;
+        }
+        switch (value) {
+            case ConditionalEmailAuthenticatorForm.SKIP:
+                return SKIP_OTP;
+            case ConditionalEmailAuthenticatorForm.FORCE:
+                return SHOW_OTP;
+            default:
+                return ABSTAIN;
+        }
+    }
+
+    private static OtpDecision voteForUserOtpControlAttribute(UserModel user, String attributeName) {
+        Optional<String> value = user.getAttributeStream(attributeName).findFirst();
+        return value.isPresent() ? outcome(value.get().trim()) : ABSTAIN;
+    }
+
+    private static OtpDecision voteForUserRole(RealmModel realm, UserModel user, RoleReference skipRole,
+            RoleReference forceRole) {
+        if (skipRole != null && skipRole.grantedTo(realm, user)) {
+            return SKIP_OTP;
+        }
+        if (forceRole != null && forceRole.grantedTo(realm, user)) {
+            return SHOW_OTP;
+        }
+        return ABSTAIN;
+    }
+
+    private static OtpDecision voteForHttpHeaderMatchesPattern(MultivaluedMap<String, String> requestHeaders,
+            HeaderRule skipRule, HeaderRule forceRule) {
+        // Inverted to allow white-lists, e.g. for specifying trusted remote hosts:
+        // X-Forwarded-Host: (1.2.3.4|1.2.3.5)
+        if (skipRule != null && skipRule.matches(requestHeaders)) {
+            return SKIP_OTP;
+        }
+        if (forceRule != null && forceRule.matches(requestHeaders)) {
+            return SHOW_OTP;
+        }
+        return ABSTAIN;
+    }
+
+    private static OtpDecision voteForClientNetwork(byte[] address, CidrTrie trustedNetworks,
+            CidrTrie untrustedNetworks) {
+        if (address == null) {
+            return ABSTAIN;
+        }
+        // untrusted first, so that a client in both lists still has to enter the code
+        if (untrustedNetworks != null && untrustedNetworks.contains(address)) {
+            return SHOW_OTP;
+        }
+        if (trustedNetworks != null && trustedNetworks.contains(address)) {
+            return SKIP_OTP;
+        }
+        return ABSTAIN;
+    }
+
+    /**
+     * Returns the client address from the configured header, or from the
+     * connection.
+     * <p>
+     * Proxies append the address they received the request from, so only the
+     * right-most entry was set by the proxy in front of Keycloak; entries to
+     * its left may have been sent by the client itself.
+     * </p>
+     */
+    private static byte[] clientAddress(AuthenticationFlowContext context, String header) {
+        if (header != null) {
+            List<String> values = context.getHttpRequest().getHttpHeaders().getRequestHeaders().get(header);
+            if (values != null && !values.isEmpty()) {
+                String forwarded = values.get(values.size() - 1);
+                return CidrTrie.parseAddress(forwarded.substring(forwarded.lastIndexOf(',') + 1));
+            }
+        }
+        return context.getConnection() != null ? CidrTrie.parseAddress(context.getConnection().getRemoteAddr())
+                : null;
+    }
+
+    /**
+     * A configured role, resolved to its id when the plan is compiled. Roles
+     * that do not exist yet, or whose id no longer exists because the role was
+     * removed on another node, are looked up by name on every login until the
+     * plan is compiled again.
+     */
+    private record RoleReference(String name, String id) {
+
+        static RoleReference resolve(RealmModel realm, String name) {
+            if (name == null) {
+                return null;
+            }
+            RoleModel role = getRoleFromString(realm, name);
+            return new RoleReference(name, role != null ? role.getId() : null);
+        }
+
+        boolean grantedTo(RealmModel realm, UserModel user) {
+            if (id != null) {
+                if (RoleMembershipCache.hasRole(realm, user, id)) {
+                    return true;
+                }
+                if (realm.getRoleById(id) != null) {
+                    return false;
+                }
+                // Removed, possibly recreated under the same name
+            }
+            RoleModel role = getRoleFromString(realm, name);
+            return role != null && user.hasRole(role);
+        }
+    }
+}
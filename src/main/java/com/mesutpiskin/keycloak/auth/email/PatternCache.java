@@ -0,0 +1,168 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Bounded cache of compiled regular expressions.
+ * <p>
+ * Entries are evicted in least recently used order once the cache holds
+ * {@code maxEntries} patterns. Invalid expressions are cached as well, so they
+ * are compiled and logged once instead of on every request. Hit, miss and
+ * eviction counts are kept and logged when the cache is cleared because a
+ * configuration changed, and at {@code DEBUG} level on every eviction.
+ * </p>
+ * <p>
+ * Callers that cache what they build from the patterns, such as
+ * {@link OtpDecisionPlan}, only look patterns up while building it, so the
+ * counters describe those builds rather than individual requests.
+ * </p>
+ * <p>
+ * Callers that read their expressions from a configuration report a signature
+ * of that configuration through {@link #invalidateOnChange(String, String)}; a
+ * changed signature clears the cache so that patterns of an old configuration
+ * do not linger.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class PatternCache {
+
+    private static final Logger logger = Logger.getLogger(PatternCache.class);
+
+    /**
+     * Default maximum number of cached patterns.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private final int flags;
+    private final Map<String, Optional<Pattern>> entries;
+    private final Map<String, String> signatures = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries maximum number of cached patterns, valid or not
+     * @param flags      the {@link Pattern} flags to compile with
+     */
+    public PatternCache(int maxEntries, int flags) {
+        this.flags = flags;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<Pattern>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    logger.debugf("Evicted pattern %s from full pattern cache (size=%d, hits=%d, misses=%d, "
+                            + "evictions=%d)", eldest.getKey(), maxEntries, getHits(), getMisses(), getEvictions());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled pattern of an expression.
+     *
+     * @param regex the expression
+     * @return the pattern, or null if the expression is invalid
+     */
+    public Pattern get(String regex) {
+        Optional<Pattern> cached;
+        synchronized (entries) {
+            cached = entries.get(regex);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached.orElse(null);
+        }
+
+        misses.increment();
+        Optional<Pattern> compiled;
+        try {
+            compiled = Optional.of(Pattern.compile(regex, flags));
+        } catch (PatternSyntaxException e) {
+            logger.errorf("Invalid pattern syntax for header matching: %s", regex);
+            compiled = Optional.empty();
+        }
+        synchronized (entries) {
+            entries.put(regex, compiled);
+        }
+        return compiled.orElse(null);
+    }
+
+    /**
+     * Clears the cache if the signature of a configuration differs from the
+     * one last reported for it.
+     *
+     * @param owner     the configuration, e.g. its id
+     * @param signature the patterns the configuration currently holds
+     */
+    public void invalidateOnChange(String owner, String signature) {
+        String previous = signatures.put(owner, signature);
+        if (previous != null && !previous.equals(signature)) {
+            logger.infof("Patterns of configuration %s changed; clearing %s", owner, this);
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Removes all patterns and configuration signatures.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        signatures.clear();
+    }
+
+    /**
+     * @return the number of cached patterns, valid or not
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that compiled the expression
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of patterns evicted to respect the size limit
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PatternCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+                + getEvictions() + '}';
+    }
+}
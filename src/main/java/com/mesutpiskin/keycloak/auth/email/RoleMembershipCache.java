@@ -0,0 +1,156 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleContainerModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderEvent;
+
+/**
+ * Short-lived cache of whether users hold the roles the conditional OTP rules
+ * check.
+ * <p>
+ * {@link UserModel#hasRole(RoleModel)} walks composite roles and group
+ * inheritance on every call. Each role checked in a realm gets a bit, and each
+ * user a bitmap of the roles already checked and of those granted, so repeated
+ * logins answer from two bit operations. Entries are dropped when Keycloak
+ * reports a role grant or revocation, a group membership change or the
+ * removal of the user, and are otherwise kept for {@link #TTL_MILLIS}. The TTL
+ * bounds staleness for changes that publish no event, such as composite role
+ * or group role mapping updates, and for changes made on other cluster nodes.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+final class RoleMembershipCache {
+
+    /**
+     * Time a user's cached memberships stay valid.
+     */
+    static final long TTL_MILLIS = 30_000L;
+
+    /**
+     * Maximum number of cached users per realm; the realm's entries are cleared
+     * when full.
+     */
+    static final int MAX_USERS = 10_000;
+
+    /**
+     * Number of roles per realm that get a bit; further roles are checked
+     * directly.
+     */
+    static final int MAX_ROLES = Long.SIZE;
+
+    private static final Map<String, RealmEntry> REALMS = new ConcurrentHashMap<>();
+
+    private record Membership(long checked, long granted, long expiresAt) {
+    }
+
+    private static final class RealmEntry {
+        final Map<String, Integer> slots = new ConcurrentHashMap<>();
+        final Map<String, Membership> users = new ConcurrentHashMap<>();
+    }
+
+    private RoleMembershipCache() {
+        throw new UnsupportedOperationException("RoleMembershipCache is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Checks whether a user holds a role, directly or through composites and
+     * groups.
+     *
+     * @param realm  the realm
+     * @param user   the user
+     * @param roleId the role id
+     * @return true if the user has the role
+     */
+    static boolean hasRole(RealmModel realm, UserModel user, String roleId) {
+        RealmEntry entry = REALMS.computeIfAbsent(realm.getId(), id -> new RealmEntry());
+        int slot = slot(entry, roleId);
+        if (slot < 0) {
+            return check(realm, user, roleId);
+        }
+        long bit = 1L << slot;
+        long now = System.currentTimeMillis();
+        Membership cached = entry.users.get(user.getId());
+        if (cached != null && cached.expiresAt() > now && (cached.checked() & bit) != 0) {
+            return (cached.granted() & bit) != 0;
+        }
+
+        boolean granted = check(realm, user, roleId);
+        if (cached == null && entry.users.size() >= MAX_USERS) {
+            entry.users.clear();
+        }
+        entry.users.compute(user.getId(), (id, current) -> {
+            if (current == null || current.expiresAt() <= now) {
+                return new Membership(bit, granted ? bit : 0L, now + TTL_MILLIS);
+            }
+            return new Membership(current.checked() | bit,
+                    granted ? current.granted() | bit : current.granted() & ~bit, current.expiresAt());
+        });
+        return granted;
+    }
+
+    /**
+     * Drops cached memberships affected by a role, group or user change.
+     *
+     * @param event the provider event
+     */
+    static void onEvent(ProviderEvent event) {
+        if (event instanceof RoleModel.RoleGrantedEvent granted) {
+            invalidate(granted.getRealm(), granted.getUser());
+        } else if (event instanceof RoleModel.RoleRevokedEvent revoked) {
+            invalidate(revoked.getRealm(), revoked.getUser());
+        } else if (event instanceof GroupModel.GroupMemberJoinEvent joined) {
+            invalidate(joined.getRealm(), joined.getUser());
+        } else if (event instanceof GroupModel.GroupMemberLeaveEvent left) {
+            invalidate(left.getRealm(), left.getUser());
+        } else if (event instanceof UserModel.UserRemovedEvent removed) {
+            invalidate(removed.getRealm(), removed.getUser());
+        } else if (event instanceof GroupModel.GroupEvent group) {
+            REALMS.remove(group.getRealm().getId());
+        } else if (event instanceof RoleContainerModel.RoleRemovedEvent) {
+            REALMS.clear();
+        } else if (event instanceof RealmModel.RealmRemovedEvent removed) {
+            REALMS.remove(removed.getRealm().getId());
+        }
+    }
+
+    /**
+     * Removes all cached memberships.
+     */
+    static void clear() {
+        REALMS.clear();
+    }
+
+    private static void invalidate(RealmModel realm, UserModel user) {
+        RealmEntry entry = REALMS.get(realm.getId());
+        if (entry != null) {
+            entry.users.remove(user.getId());
+        }
+    }
+
+    private static int slot(RealmEntry entry, String roleId) {
+        Integer slot = entry.slots.get(roleId);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (entry) {
+            if (entry.slots.size() >= MAX_ROLES) {
+                return -1;
+            }
+            return entry.slots.computeIfAbsent(roleId, id -> entry.slots.size());
+        }
+    }
+
+    private static boolean check(RealmModel realm, UserModel user, String roleId) {
+        RoleModel role = realm.getRoleById(roleId);
+        return role != null && user.hasRole(role);
+    }
+}
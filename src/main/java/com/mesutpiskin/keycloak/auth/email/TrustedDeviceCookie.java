@@ -0,0 +1,187 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+
+import org.jboss.logging.Logger;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.AuthenticationManager;
+
+import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.NewCookie;
+
+/**
+ * Signed "remember this browser" cookie of the conditional email authenticator.
+ * <p>
+ * After a code is entered the browser receives
+ * {@code 1.<kid>.<credentialId>.<issuedAt>.<mac>}, where the MAC is an
+ * HMAC-SHA256 over the realm id, user id, device fingerprint, credential id and
+ * issue time, keyed with the same realm key as {@link EmailCodeHasher}. The
+ * fingerprint is a hash of the {@code User-Agent} header and is not part of the
+ * cookie, and the user id comes from the login, so a cookie only verifies for
+ * the user and browser it was issued to.
+ * </p>
+ * <p>
+ * Verification only recomputes the MAC and checks the age against the
+ * currently configured number of days; it needs neither the database nor the
+ * user session. Remembered devices are therefore revoked by lowering that
+ * number or by rotating the realm's HMAC key, not by removing the credential.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+final class TrustedDeviceCookie {
+
+    private static final Logger logger = Logger.getLogger(TrustedDeviceCookie.class);
+
+    /**
+     * Name of the cookie.
+     */
+    static final String COOKIE_NAME = "KC_EMAIL_OTP_DEVICE";
+
+    static final String VERSION = "1";
+
+    /**
+     * Tolerated clock difference between nodes for the issue time.
+     */
+    static final long CLOCK_SKEW_SECONDS = 60;
+
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final char SEPARATOR = '.';
+    private static final byte[] DOMAIN = "email-otp-trusted-device".getBytes(StandardCharsets.UTF_8);
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private TrustedDeviceCookie() {
+        throw new UnsupportedOperationException("TrustedDeviceCookie is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Sets the cookie for the current user and browser.
+     *
+     * @param context the authentication flow context
+     * @param days    how long the browser is remembered
+     */
+    static void issue(AuthenticationFlowContext context, int days) {
+        KeycloakSession session = context.getSession();
+        RealmModel realm = context.getRealm();
+        UserModel user = context.getUser();
+        String credentialId = user.credentialManager()
+                .getStoredCredentialsByTypeStream(EmailAuthenticatorCredentialModel.TYPE_ID)
+                .findFirst()
+                .map(CredentialModel::getId)
+                .orElse("");
+        KeyWrapper key = EmailCodeHasher.signingKey(session, realm);
+        String value = sign(key.getKid(), key.getSecretKey(), realm.getId(), user.getId(), credentialId,
+                fingerprint(context.getHttpRequest().getHttpHeaders()), System.currentTimeMillis() / 1000);
+
+        NewCookie cookie = new NewCookie.Builder(COOKIE_NAME)
+                .maxAge((int) Math.min(Integer.MAX_VALUE, days * SECONDS_PER_DAY))
+                .secure("https".equalsIgnoreCase(context.getUriInfo().getBaseUri().getScheme()))
+                .httpOnly(true)
+                .sameSite(NewCookie.SameSite.LAX)
+                .value(value)
+                .path(AuthenticationManager.getRealmCookiePath(realm, context.getUriInfo()))
+                .build();
+        session.getContext().getHttpResponse().setCookieIfAbsent(cookie);
+        logger.debugf("Remembering device of user %s for %d days", user.getId(), days);
+    }
+
+    /**
+     * Checks whether the request carries a valid cookie for the current user.
+     *
+     * @param context the authentication flow context
+     * @param days    how long a browser is remembered
+     * @return true if the browser is remembered
+     */
+    static boolean isTrusted(AuthenticationFlowContext context, int days) {
+        HttpHeaders headers = context.getHttpRequest().getHttpHeaders();
+        Cookie cookie = headers.getCookies().get(COOKIE_NAME);
+        if (cookie == null) {
+            return false;
+        }
+        KeycloakSession session = context.getSession();
+        RealmModel realm = context.getRealm();
+        return verify(cookie.getValue(), realm.getId(), context.getUser().getId(), fingerprint(headers),
+                System.currentTimeMillis() / 1000, days * SECONDS_PER_DAY,
+                kid -> EmailCodeHasher.key(session, realm, kid));
+    }
+
+    static String sign(String kid, SecretKey key, String realmId, String userId, String credentialId,
+            String fingerprint, long issuedAt) {
+        String encodedKid = encode(kid);
+        String encodedCredentialId = encode(credentialId);
+        String issued = Long.toString(issuedAt, Character.MAX_RADIX);
+        return VERSION + SEPARATOR + encodedKid + SEPARATOR + encodedCredentialId + SEPARATOR + issued + SEPARATOR
+                + ENCODER.encodeToString(mac(key, realmId, userId, fingerprint, credentialId, issued));
+    }
+
+    static boolean verify(String value, String realmId, String userId, String fingerprint, long now,
+            long maxAgeSeconds, Function<String, SecretKey> keys) {
+        if (value == null || userId == null) {
+            return false;
+        }
+        String[] parts = value.split("\\.", -1);
+        if (parts.length != 5 || !VERSION.equals(parts[0])) {
+            return false;
+        }
+        try {
+            long issuedAt = Long.parseLong(parts[3], Character.MAX_RADIX);
+            if (issuedAt > now + CLOCK_SKEW_SECONDS || now - issuedAt >= maxAgeSeconds) {
+                return false;
+            }
+            SecretKey key = keys.apply(decode(parts[1]));
+            if (key == null) {
+                logger.debug("Key of trusted device cookie is no longer available");
+                return false;
+            }
+            byte[] expected = DECODER.decode(parts[4]);
+            return MessageDigest.isEqual(expected,
+                    mac(key, realmId, userId, fingerprint, decode(parts[2]), parts[3]));
+        } catch (IllegalArgumentException e) {
+            logger.debug("Invalid trusted device cookie");
+            return false;
+        }
+    }
+
+    /**
+     * Returns a hash of the {@code User-Agent} header.
+     */
+    static String fingerprint(HttpHeaders headers) {
+        String userAgent = headers.getHeaderString(HttpHeaders.USER_AGENT);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return ENCODER.encodeToString(
+                    digest.digest((userAgent != null ? userAgent : "").getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not compute device fingerprint", e);
+        }
+    }
+
+    private static byte[] mac(SecretKey key, String realmId, String userId, String fingerprint, String credentialId,
+            String issued) {
+        return EmailCodeHasher.mac(key, DOMAIN,
+                String.join("|", realmId, userId, fingerprint, credentialId, issued));
+    }
+
+    private static String encode(String value) {
+        return ENCODER.encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return new String(DECODER.decode(value), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A code email compiled into subject, text and HTML bodies with slots for the
+ * username and code.
+ * <p>
+ * Messages rendered from a compiled email carry it along, so that providers
+ * substituting the values themselves (SendGrid personalizations, SES
+ * templates) can send the same localized email to many recipients.
+ * </p>
+ *
+ * @param id      identifies the family and version the email was compiled
+ *                for
+ * @param family  identifies the realm, locale and template the email was
+ *                compiled for and the values that are the same for every
+ *                code (such as the TTL); unlike the id, it stays the same
+ *                when the theme or messages change
+ * @param subject the subject
+ * @param text    the plain text body, or null
+ * @param html    the HTML body, or null
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public record CompiledEmail(String id, String family, CompiledEmailBody subject, CompiledEmailBody text,
+        CompiledEmailBody html) {
+
+    /**
+     * Names of the per-message values, in slot order.
+     */
+    public static final List<String> SLOTS = List.of("username", "code");
+
+    /**
+     * Tells whether every value used by the email can be spliced in as is.
+     *
+     * @param values the values in slot order
+     * @return true if no used value needs escaping
+     */
+    public boolean accepts(String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (uses(i) && (values[i] == null || !isPlain(values[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts the per-message values from template data.
+     *
+     * @param templateData the template data
+     * @return the values in slot order; values that are not strings are null
+     */
+    public static String[] values(Map<String, Object> templateData) {
+        String[] values = new String[SLOTS.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = templateData.get(SLOTS.get(i)) instanceof String value ? value : null;
+        }
+        return values;
+    }
+
+    private boolean uses(int slot) {
+        return subject.uses(slot) || (text != null && text.uses(slot)) || (html != null && html.uses(slot));
+    }
+
+    /**
+     * Tells whether a value renders identically in every output format, so
+     * that it can be spliced in without escaping.
+     */
+    static boolean isPlain(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
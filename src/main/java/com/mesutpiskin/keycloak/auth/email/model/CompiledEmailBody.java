@@ -0,0 +1,116 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An email body compiled into static text with slots for per-message values.
+ * <p>
+ * The body is rendered once with a unique marker in place of each value; the
+ * rendered text is then split at the markers. Rendering a message copies the
+ * static parts and the message's values into one array, without going through
+ * the template engine again.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class CompiledEmailBody {
+
+    private final String[] parts;
+    private final int[] slots;
+    private final int staticLength;
+
+    private CompiledEmailBody(String[] parts, int[] slots) {
+        this.parts = parts;
+        this.slots = slots;
+        int length = 0;
+        for (String part : parts) {
+            length += part.length();
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * Splits a body rendered with markers into static parts and slots.
+     *
+     * @param rendered the body rendered with {@code markers[i]} in place of
+     *                 value {@code i}; may be null
+     * @param markers  the markers, which must not occur in the template itself
+     * @return the compiled body, or null if {@code rendered} is null
+     */
+    public static CompiledEmailBody compile(String rendered, String... markers) {
+        if (rendered == null) {
+            return null;
+        }
+        List<String> parts = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int next = -1;
+            int slot = -1;
+            for (int i = 0; i < markers.length; i++) {
+                int index = rendered.indexOf(markers[i], from);
+                if (index >= 0 && (next < 0 || index < next)) {
+                    next = index;
+                    slot = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            parts.add(rendered.substring(from, next));
+            slots.add(slot);
+            from = next + markers[slot].length();
+        }
+        parts.add(rendered.substring(from));
+        return new CompiledEmailBody(parts.toArray(new String[0]),
+                slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Tells whether the body contains value {@code slot}.
+     *
+     * @param slot the value index
+     * @return true if the value occurs in the body
+     */
+    public boolean uses(int slot) {
+        for (int s : slots) {
+            if (s == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the body with the given values.
+     *
+     * @param values the values, indexed like the markers given to
+     *               {@link #compile}
+     * @return the rendered body
+     */
+    public String render(String... values) {
+        if (slots.length == 0) {
+            return parts[0];
+        }
+        int length = staticLength;
+        for (int slot : slots) {
+            length += values[slot].length();
+        }
+        char[] out = new char[length];
+        int pos = 0;
+        for (int i = 0; i < slots.length; i++) {
+            pos = copy(parts[i], out, pos);
+            pos = copy(values[slots[i]], out, pos);
+        }
+        copy(parts[slots.length], out, pos);
+        return new String(out);
+    }
+
+    private static int copy(String value, char[] out, int pos) {
+        value.getChars(0, value.length(), out, pos);
+        return pos + value.length();
+    }
+}
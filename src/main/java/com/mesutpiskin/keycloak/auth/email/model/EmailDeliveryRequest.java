@@ -0,0 +1,39 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import com.mesutpiskin.keycloak.auth.email.EmailConstants;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable unit of work handed to the background delivery pipeline.
+ * <p>
+ * Only identifiers are captured for the realm and user, because the
+ * {@code KeycloakSession} of the login request is closed by the time the
+ * delivery runs. The worker resolves them again in its own session.
+ * </p>
+ *
+ * @param realmId the id of the realm the user belongs to
+ * @param userId  the id of the user receiving the code
+ * @param config  a snapshot of the authenticator configuration
+ * @param message the email message to deliver
+ */
+public record EmailDeliveryRequest(String realmId, String userId, Map<String, String> config,
+        EmailMessage message) {
+
+    public EmailDeliveryRequest {
+        Objects.requireNonNull(realmId, "Realm id cannot be null");
+        Objects.requireNonNull(userId, "User id cannot be null");
+        Objects.requireNonNull(message, "Email message cannot be null");
+        config = config != null ? Map.copyOf(config) : Map.of();
+    }
+
+    /**
+     * Resolves the primary provider type configured for this delivery.
+     *
+     * @return the configured provider type, KEYCLOAK when not set
+     */
+    public EmailProviderType providerType() {
+        return EmailProviderType.fromString(config.get(EmailConstants.EMAIL_PROVIDER_TYPE));
+    }
+}
@@ -25,6 +25,7 @@ public final class EmailMessage {
     private final String htmlBody;
     private final String textBody;
     private final Map<String, Object> templateData;
+    private final CompiledEmail compiledEmail;
 
     private EmailMessage(Builder builder) {
         this.to = Objects.requireNonNull(builder.to, "Recipient email cannot be null");
@@ -35,6 +36,7 @@ public final class EmailMessage {
         this.templateData = builder.templateData != null
                 ? Collections.unmodifiableMap(new HashMap<>(builder.templateData))
                 : Collections.emptyMap();
+        this.compiledEmail = builder.compiledEmail;
     }
 
     public String getTo() {
@@ -57,6 +59,10 @@ public final class EmailMessage {
         return textBody;
     }
 
+    public CompiledEmail getCompiledEmail() {
+        return compiledEmail;
+    }
+
     public Map<String, Object> getTemplateData() {
         return templateData;
     }
@@ -80,6 +86,7 @@ public final class EmailMessage {
         private String htmlBody;
         private String textBody;
         private Map<String, Object> templateData;
+        private CompiledEmail compiledEmail;
 
         private Builder() {
         }
@@ -150,6 +157,17 @@ public final class EmailMessage {
             return this;
         }
 
+        /**
+         * Sets the compiled email the subject and bodies were rendered from.
+         *
+         * @param compiledEmail the compiled email
+         * @return this builder instance
+         */
+        public Builder compiledEmail(CompiledEmail compiledEmail) {
+            this.compiledEmail = compiledEmail;
+            return this;
+        }
+
         /**
          * Builds and returns an immutable EmailMessage instance.
          *
@@ -161,6 +179,32 @@ public final class EmailMessage {
         }
     }
 
+    /**
+     * Returns whether the body is to be built from the code template data
+     * (username, code and ttl) rather than from an HTML or text body, which
+     * lets API providers share one body template across messages.
+     *
+     * @return true if the message has no body and complete code template data
+     */
+    public boolean isRenderedFromTemplateData() {
+        return (htmlBody == null || htmlBody.isEmpty())
+                && (textBody == null || textBody.isEmpty())
+                && templateData.get("username") != null
+                && templateData.get("code") != null
+                && templateData.get("ttl") != null;
+    }
+
+    /**
+     * Returns whether the message differs from other code emails only in the
+     * code template values, either because it was rendered from a compiled
+     * email or because its body is to be built from the template data.
+     *
+     * @return true if providers may send the message as part of a batch
+     */
+    public boolean hasSharedBody() {
+        return compiledEmail != null || isRenderedFromTemplateData();
+    }
+
     @Override
     public String toString() {
         return "EmailMessage{" +
@@ -37,7 +37,14 @@ public enum EmailProviderType {
      * Mailgun email service provider using Mailgun's REST API.
      * Requires Mailgun API key and domain configuration.
      */
-    MAILGUN("Mailgun");
+    MAILGUN("Mailgun"),
+
+    /**
+     * Spreads emails across several of the providers above according to
+     * configured weights and their observed health and latency.
+     * Requires the routing provider list and each listed provider's settings.
+     */
+    ROUTED("Weighted Routing");
 
     private final String displayName;
 
@@ -0,0 +1,57 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import java.util.Objects;
+
+/**
+ * Access code email recorded in the delivery outbox.
+ * <p>
+ * The authenticator configuration is referenced by id rather than copied, so
+ * provider secrets are never written to the outbox. Entries are deduplicated
+ * by {@code dedupeKey}: a newer code for the same authentication session
+ * replaces the pending one.
+ * </p>
+ *
+ * @param id            unique entry id
+ * @param dedupeKey     identity of the authentication session the code belongs to
+ * @param realmId       the id of the realm the user belongs to
+ * @param userId        the id of the user receiving the code
+ * @param configId      the id of the authenticator configuration, or null for defaults
+ * @param message       the email message to deliver
+ * @param createdAt     creation time in epoch milliseconds
+ * @param expiresAt     time at which the code expires, in epoch milliseconds
+ * @param attempts      number of failed delivery attempts so far
+ * @param nextAttemptAt earliest time of the next delivery attempt, in epoch milliseconds
+ */
+public record OutboxEntry(String id, String dedupeKey, String realmId, String userId, String configId,
+        EmailMessage message, long createdAt, long expiresAt, int attempts, long nextAttemptAt) {
+
+    public OutboxEntry {
+        Objects.requireNonNull(id, "Entry id cannot be null");
+        Objects.requireNonNull(dedupeKey, "Dedupe key cannot be null");
+        Objects.requireNonNull(realmId, "Realm id cannot be null");
+        Objects.requireNonNull(userId, "User id cannot be null");
+        Objects.requireNonNull(message, "Email message cannot be null");
+    }
+
+    /**
+     * Checks whether the code carried by this entry has expired.
+     *
+     * @param now the current time in epoch milliseconds
+     * @return true if the code can no longer be used
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * Returns a copy scheduled for another attempt.
+     *
+     * @param attempts      the new number of failed attempts
+     * @param nextAttemptAt the time of the next attempt in epoch milliseconds
+     * @return the rescheduled entry
+     */
+    public OutboxEntry withSchedule(int attempts, long nextAttemptAt) {
+        return new OutboxEntry(id, dedupeKey, realmId, userId, configId, message, createdAt, expiresAt,
+                attempts, nextAttemptAt);
+    }
+}
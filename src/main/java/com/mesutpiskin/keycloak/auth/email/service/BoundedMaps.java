@@ -0,0 +1,50 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Factory of the size-bounded maps backing the registries shared by all
+ * sender instances.
+ * <p>
+ * Entries are evicted in least recently used order, so state of provider
+ * accounts that are no longer configured does not pile up. Every method of the
+ * returned map, including {@code compute}, is synchronized on the map.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+final class BoundedMaps {
+
+    /**
+     * Default maximum number of entries of a registry.
+     */
+    static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private BoundedMaps() {
+        throw new UnsupportedOperationException("BoundedMaps is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Creates a synchronized map holding at most {@code maxEntries} entries.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param <K>        the key type
+     * @param <V>        the value type
+     * @return the bounded map
+     */
+    static <K, V> Map<K, V> lru(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+}
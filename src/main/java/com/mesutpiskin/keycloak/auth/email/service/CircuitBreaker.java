@@ -0,0 +1,249 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import org.jboss.logging.Logger;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker guarding a single email provider configuration.
+ * <p>
+ * Outcomes of the most recent calls are kept in a count-based rolling window.
+ * Once the window holds enough calls and either the failure rate or the rate
+ * of slow calls reaches its threshold, the breaker opens and callers route
+ * straight to the fallback. After the open duration a limited number of trial
+ * calls is let through (half-open); if all of them succeed the breaker closes
+ * again, otherwise it re-opens.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+    /**
+     * Breaker states.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Breaker thresholds.
+     *
+     * @param windowSize              number of recent calls kept in the rolling window
+     * @param minimumCalls            calls required in the window before the breaker can open
+     * @param failureRateThreshold    failure percentage that opens the breaker
+     * @param slowCallThresholdMillis duration above which a call counts as slow
+     * @param slowCallRateThreshold   slow call percentage that opens the breaker
+     * @param openDurationMillis      time the breaker stays open before trial calls
+     * @param halfOpenTrialCalls      number of trial calls in the half-open state
+     */
+    public record Settings(int windowSize, int minimumCalls, int failureRateThreshold, long slowCallThresholdMillis,
+            int slowCallRateThreshold, long openDurationMillis, int halfOpenTrialCalls) {
+
+        /**
+         * Settings used when none are configured.
+         */
+        public static final Settings DEFAULT = new Settings(20, 10, 50, 5000L, 80, 30_000L, 3);
+
+        public Settings {
+            if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize || halfOpenTrialCalls <= 0
+                    || slowCallThresholdMillis <= 0 || openDurationMillis <= 0) {
+                throw new IllegalArgumentException("Invalid circuit breaker settings");
+            }
+            if (failureRateThreshold <= 0 || failureRateThreshold > 100
+                    || slowCallRateThreshold <= 0 || slowCallRateThreshold > 100) {
+                throw new IllegalArgumentException("Circuit breaker rate thresholds must be between 1 and 100");
+            }
+        }
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final LongSupplier clock;
+
+    // Rolling window; guarded by this
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int position;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    /**
+     * Creates a breaker using the system clock.
+     *
+     * @param name     a short name used in log messages
+     * @param settings the breaker thresholds
+     */
+    public CircuitBreaker(String name, Settings settings) {
+        this(name, settings, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(String name, Settings settings, LongSupplier clock) {
+        this.name = name;
+        this.settings = settings;
+        this.clock = clock;
+        this.failed = new boolean[settings.windowSize()];
+        this.slow = new boolean[settings.windowSize()];
+    }
+
+    /**
+     * Asks whether a call to the guarded provider may be made.
+     *
+     * @return true if the call may proceed, false if the breaker is open or all
+     *         trial calls are already in flight
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() < openUntil) {
+                    return false;
+                }
+                transitionTo(State.HALF_OPEN);
+                trialsStarted = 1;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (trialsStarted < settings.halfOpenTrialCalls()) {
+                    trialsStarted++;
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Tells whether a call would currently be permitted, without taking a
+     * permission.
+     *
+     * @return false if the breaker is open or all trial calls are already in
+     *         flight
+     */
+    public synchronized boolean isCallPermitted() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return clock.getAsLong() >= openUntil;
+            case HALF_OPEN:
+            default:
+                return trialsStarted < settings.halfOpenTrialCalls();
+        }
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @param durationMillis the duration of the call
+     */
+    public synchronized void onSuccess(long durationMillis) {
+        boolean slowCall = durationMillis >= settings.slowCallThresholdMillis();
+        if (state == State.HALF_OPEN) {
+            if (slowCall) {
+                open();
+            } else if (++trialsSucceeded >= settings.halfOpenTrialCalls()) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false, slowCall);
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @param durationMillis the duration of the call
+     */
+    public synchronized void onFailure(long durationMillis) {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true, durationMillis >= settings.slowCallThresholdMillis());
+    }
+
+    /**
+     * Records a call that was cancelled before it completed, for example the
+     * slower of two hedged sends. It counts neither as a success nor as a
+     * failure; a half-open trial it held becomes available again.
+     */
+    public synchronized void onCancelled() {
+        if (state == State.HALF_OPEN && trialsStarted > 0) {
+            trialsStarted--;
+        }
+    }
+
+    /**
+     * Returns the current state.
+     *
+     * @return the breaker state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the thresholds of this breaker.
+     *
+     * @return the breaker settings
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    private void record(boolean failure, boolean slowCall) {
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (recorded == failed.length) {
+            failures -= failed[position] ? 1 : 0;
+            slowCalls -= slow[position] ? 1 : 0;
+        } else {
+            recorded++;
+        }
+        failed[position] = failure;
+        slow[position] = slowCall;
+        failures += failure ? 1 : 0;
+        slowCalls += slowCall ? 1 : 0;
+        position = (position + 1) % failed.length;
+
+        if (recorded >= settings.minimumCalls()
+                && (failures * 100 >= settings.failureRateThreshold() * recorded
+                        || slowCalls * 100 >= settings.slowCallRateThreshold() * recorded)) {
+            logger.warnf("Circuit breaker for %s opened (failures=%d, slowCalls=%d, calls=%d)", name, failures,
+                    slowCalls, recorded);
+            open();
+        }
+    }
+
+    private void open() {
+        openUntil = clock.getAsLong() + settings.openDurationMillis();
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State newState) {
+        if (state != newState) {
+            logger.infof("Circuit breaker for %s: %s -> %s", name, state, newState);
+        }
+        state = newState;
+        trialsStarted = 0;
+        trialsSucceeded = 0;
+        if (newState == State.CLOSED) {
+            position = 0;
+            recorded = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import java.util.Map;
+
+/**
+ * Holder of the circuit breakers shared by all sender instances, keyed by
+ * provider account. At most {@link BoundedMaps#DEFAULT_MAX_ENTRIES} breakers
+ * are kept; the least recently used one is dropped first.
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class CircuitBreakerRegistry {
+
+    private static final Map<String, CircuitBreaker> BREAKERS = BoundedMaps.lru(BoundedMaps.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private CircuitBreakerRegistry() {
+        throw new UnsupportedOperationException("CircuitBreakerRegistry is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Returns the breaker for the key, creating it on first use. A breaker
+     * whose thresholds no longer match the configuration is replaced.
+     *
+     * @param key      the provider account identity
+     * @param name     a short name used in log messages
+     * @param settings the configured thresholds
+     * @return the shared breaker
+     */
+    public static CircuitBreaker get(String key, String name, CircuitBreaker.Settings settings) {
+        return BREAKERS.compute(key, (k, existing) -> existing != null && existing.getSettings().equals(settings)
+                ? existing
+                : new CircuitBreaker(name, settings));
+    }
+
+    /**
+     * Removes every breaker.
+     */
+    public static void clear() {
+        BREAKERS.clear();
+    }
+}
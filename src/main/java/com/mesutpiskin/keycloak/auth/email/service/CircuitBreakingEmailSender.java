@@ -0,0 +1,104 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorator that records the outcome and duration of every send in a
+ * {@link CircuitBreaker}.
+ * <p>
+ * The breaker's permission is taken when the send starts, right before the
+ * provider is called, so that every permission is matched by an outcome.
+ * Sends that never reach this decorator, e.g. because the throttle in front
+ * of it refused them, do not use up a half-open trial.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class CircuitBreakingEmailSender implements EmailSender {
+
+    private final EmailSender delegate;
+    private final CircuitBreaker breaker;
+
+    /**
+     * Constructs a new CircuitBreakingEmailSender.
+     *
+     * @param delegate the guarded sender
+     * @param breaker  the breaker recording its outcomes
+     */
+    public CircuitBreakingEmailSender(EmailSender delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        if (!breaker.tryAcquirePermission()) {
+            throw rejected();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            delegate.sendEmail(message);
+        } catch (EmailException | RuntimeException e) {
+            breaker.onFailure(System.currentTimeMillis() - start);
+            throw e;
+        }
+        breaker.onSuccess(System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        if (!breaker.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(rejected());
+        }
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> send;
+        try {
+            send = delegate.sendEmailAsync(message);
+        } catch (RuntimeException e) {
+            send = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> source = send;
+        CompletableFuture<Void> guarded = new CompletableFuture<>();
+        source.whenComplete((result, error) -> {
+            long duration = System.currentTimeMillis() - start;
+            if (error == null) {
+                breaker.onSuccess(duration);
+                guarded.complete(null);
+                return;
+            }
+            if (error instanceof CancellationException) {
+                breaker.onCancelled();
+            } else {
+                breaker.onFailure(duration);
+            }
+            guarded.completeExceptionally(error);
+        });
+        // Cancelling the returned future cancels the provider send where it allows it
+        guarded.whenComplete((result, error) -> {
+            if (guarded.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return guarded;
+    }
+
+    private EmailException rejected() {
+        return new EmailException("Circuit breaker for " + delegate.getProviderName() + " is open; not sending");
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+}
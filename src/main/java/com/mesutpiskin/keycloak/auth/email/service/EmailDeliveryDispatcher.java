@@ -0,0 +1,414 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailDeliveryRequest;
+import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, executor-backed dispatcher that delivers access code emails off the
+ * login request thread.
+ * <p>
+ * Deliveries are queued on a fixed-size worker pool. Each worker opens its own
+ * {@code KeycloakSession}, resolves the realm and user again and starts the
+ * send through {@link EmailDeliveryService#deliverAsync}. Providers with a
+ * non-blocking client release the worker as soon as the request is handed
+ * off; a failed send is resubmitted to the pool as a Keycloak SMTP fallback in
+ * a fresh session. The number of deliveries in flight against a single
+ * provider is capped independently of the pool size: deliveries beyond the
+ * cap wait in a queue of their provider, without holding a worker, and are
+ * resubmitted when a delivery of any provider completes.
+ * </p>
+ * <p>
+ * A single dispatcher is shared by all authenticator factories. It is started
+ * in {@code postInit} and stopped when the factories are closed.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailDeliveryDispatcher {
+
+    private static final Logger logger = Logger.getLogger(EmailDeliveryDispatcher.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    private static volatile EmailDeliveryDispatcher instance;
+
+    /**
+     * Policy applied when a delivery cannot be queued because the queue is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The login request thread delivers the email itself.
+         */
+        CALLER_RUNS,
+
+        /**
+         * The new delivery is dropped; the user can request a new code.
+         */
+        DISCARD,
+
+        /**
+         * The oldest queued delivery is dropped in favour of the new one.
+         */
+        DISCARD_OLDEST;
+
+        /**
+         * Parses a policy name, returning CALLER_RUNS for unknown values.
+         *
+         * @param value the policy name
+         * @return the matching policy or CALLER_RUNS as default
+         */
+        public static RejectionPolicy fromString(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return CALLER_RUNS;
+            }
+            try {
+                return RejectionPolicy.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warnf("Unknown rejection policy '%s'; falling back to %s", value, CALLER_RUNS);
+                return CALLER_RUNS;
+            }
+        }
+    }
+
+    /**
+     * Sizing of the dispatcher.
+     *
+     * @param workerThreads              number of worker threads
+     * @param queueDepth                 maximum number of queued deliveries
+     * @param rejectionPolicy            policy applied when the queue is full
+     * @param maxConcurrencyPerProvider  maximum concurrent deliveries per provider
+     */
+    public record Settings(int workerThreads, int queueDepth, RejectionPolicy rejectionPolicy,
+            int maxConcurrencyPerProvider) {
+
+        public Settings {
+            if (workerThreads <= 0 || queueDepth <= 0 || maxConcurrencyPerProvider <= 0) {
+                throw new IllegalArgumentException("Dispatcher sizes must be positive");
+            }
+            if (rejectionPolicy == null) {
+                rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+            }
+        }
+    }
+
+    /**
+     * Starts a single delivery on a worker thread.
+     */
+    @FunctionalInterface
+    interface DeliveryHandler {
+        /**
+         * @param request   the delivery to start
+         * @param fallbacks runs Keycloak SMTP fallbacks on the dispatcher,
+         *                  queueing them instead of running them on the
+         *                  calling thread when the pool is saturated
+         * @return a future completed when the delivery has finished
+         */
+        CompletableFuture<Void> deliver(EmailDeliveryRequest request, Executor fallbacks);
+    }
+
+    private final Settings settings;
+    private final DeliveryHandler handler;
+    private final ThreadPoolExecutor executor;
+    private final Map<EmailProviderType, Lane> lanes = new EnumMap<>(EmailProviderType.class);
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final Executor fallbacks = task -> submit(lanes.get(EmailProviderType.KEYCLOAK), () -> {
+        task.run();
+        return CompletableFuture.completedFuture(null);
+    });
+
+    /**
+     * Deliveries of one provider: the permits for deliveries in flight and the
+     * deliveries waiting for one.
+     */
+    private static final class Lane {
+        final Semaphore permits;
+        final Deque<Supplier<CompletableFuture<Void>>> waiting = new ConcurrentLinkedDeque<>();
+
+        Lane(int maxConcurrency) {
+            this.permits = new Semaphore(maxConcurrency);
+        }
+    }
+
+    EmailDeliveryDispatcher(Settings settings, DeliveryHandler handler) {
+        this.settings = settings;
+        this.handler = handler;
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(settings.workerThreads(), settings.workerThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(settings.queueDepth()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "email-otp-delivery-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        for (EmailProviderType type : EmailProviderType.values()) {
+            lanes.put(type, new Lane(settings.maxConcurrencyPerProvider()));
+        }
+    }
+
+    /**
+     * Starts the shared dispatcher. Subsequent calls are ignored while a
+     * dispatcher is running.
+     *
+     * @param settings       the dispatcher sizing
+     * @param sessionFactory the session factory used to open worker sessions
+     */
+    public static synchronized void start(Settings settings, KeycloakSessionFactory sessionFactory) {
+        if (instance != null) {
+            logger.debug("Email delivery dispatcher already running");
+            return;
+        }
+        instance = new EmailDeliveryDispatcher(settings, (request, fallbacks) -> deliverInNewSession(sessionFactory, request, fallbacks));
+        logger.infof("Started email delivery dispatcher (workers=%d, queueDepth=%d, rejectionPolicy=%s, "
+                + "maxConcurrencyPerProvider=%d)", settings.workerThreads(), settings.queueDepth(),
+                settings.rejectionPolicy(), settings.maxConcurrencyPerProvider());
+    }
+
+    /**
+     * Returns the shared dispatcher.
+     *
+     * @return the running dispatcher, or null if it has not been started
+     */
+    public static EmailDeliveryDispatcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * Stops the shared dispatcher, waiting briefly for queued deliveries.
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.close();
+        instance = null;
+    }
+
+    /**
+     * Queues a delivery.
+     *
+     * @param request the delivery to run
+     * @return true if the delivery was queued or dropped according to the
+     *         rejection policy, false if the caller must deliver it itself
+     */
+    public boolean dispatch(EmailDeliveryRequest request) {
+        Lane lane = lanes.get(request.providerType());
+        Runnable task = () -> runWithPermit(lane, () -> deliver(request));
+        if (waitingCount.get() >= settings.queueDepth()) {
+            return handleRejection(request, task);
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return handleRejection(request, task);
+        }
+    }
+
+    private boolean handleRejection(EmailDeliveryRequest request, Runnable task) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        switch (settings.rejectionPolicy()) {
+            case DISCARD:
+                logger.warnf("Email delivery queue full; dropping access code email to %s",
+                        request.message().getTo());
+                return true;
+            case DISCARD_OLDEST:
+                dropOldest(lanes.get(request.providerType()));
+                try {
+                    executor.execute(task);
+                    logger.warn("Email delivery queue full; dropped the oldest queued access code email");
+                } catch (RejectedExecutionException e) {
+                    logger.warnf("Email delivery queue full; dropping access code email to %s",
+                            request.message().getTo());
+                }
+                return true;
+            case CALLER_RUNS:
+            default:
+                logger.debug("Email delivery queue full; delivering on the request thread");
+                return false;
+        }
+    }
+
+    private void dropOldest(Lane lane) {
+        if (lane.waiting.pollFirst() != null) {
+            waitingCount.decrementAndGet();
+        } else {
+            executor.getQueue().poll();
+        }
+    }
+
+    private void submit(Lane lane, Supplier<CompletableFuture<Void>> delivery) {
+        try {
+            executor.execute(() -> runWithPermit(lane, delivery));
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                logger.warn("Email delivery dispatcher is shut down; dropping follow-up delivery");
+                return;
+            }
+            enqueue(lane, delivery);
+        }
+    }
+
+    private void runWithPermit(Lane lane, Supplier<CompletableFuture<Void>> delivery) {
+        if (lane.permits.tryAcquire()) {
+            start(lane, delivery);
+        } else {
+            enqueue(lane, delivery);
+        }
+    }
+
+    private void enqueue(Lane lane, Supplier<CompletableFuture<Void>> delivery) {
+        lane.waiting.addLast(delivery);
+        waitingCount.incrementAndGet();
+        // a delivery may have completed since the permit was refused
+        startWaiting();
+    }
+
+    private void start(Lane lane, Supplier<CompletableFuture<Void>> delivery) {
+        CompletableFuture<Void> running;
+        try {
+            running = delivery.get();
+        } catch (RuntimeException e) {
+            running = CompletableFuture.failedFuture(e);
+        }
+        running.whenComplete((result, error) -> {
+            lane.permits.release();
+            startWaiting();
+        });
+    }
+
+    /**
+     * Resubmits waiting deliveries of every provider that has a free permit.
+     * Stops when the pool is saturated; the next completing delivery resumes.
+     */
+    private void startWaiting() {
+        for (Lane lane : lanes.values()) {
+            while (!lane.waiting.isEmpty() && lane.permits.tryAcquire()) {
+                Supplier<CompletableFuture<Void>> next = lane.waiting.pollFirst();
+                if (next == null) {
+                    lane.permits.release();
+                    break;
+                }
+                waitingCount.decrementAndGet();
+                try {
+                    executor.execute(() -> start(lane, next));
+                } catch (RejectedExecutionException e) {
+                    lane.permits.release();
+                    if (executor.isShutdown()) {
+                        return;
+                    }
+                    lane.waiting.addFirst(next);
+                    waitingCount.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<Void> deliver(EmailDeliveryRequest request) {
+        CompletableFuture<Void> delivery;
+        try {
+            delivery = handler.deliver(request, fallbacks);
+        } catch (RuntimeException e) {
+            delivery = CompletableFuture.failedFuture(e);
+        }
+        return delivery.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.errorf(error, "Unexpected error while delivering access code email. realm=%s user=%s",
+                        request.realmId(), request.userId());
+            }
+        });
+    }
+
+    private static CompletableFuture<Void> deliverInNewSession(KeycloakSessionFactory sessionFactory,
+            EmailDeliveryRequest request, Executor fallbacks) {
+        CompletableFuture<Void> primary = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(request.realmId());
+            if (realm == null) {
+                logger.warnf("Realm %s no longer exists; skipping access code email", request.realmId());
+                return CompletableFuture.completedFuture(null);
+            }
+            session.getContext().setRealm(realm);
+            UserModel user = session.users().getUserById(realm, request.userId());
+            if (user == null) {
+                logger.warnf("User %s no longer exists in realm %s; skipping access code email",
+                        request.userId(), request.realmId());
+                return CompletableFuture.completedFuture(null);
+            }
+            return EmailDeliveryService.deliverAsync(session, realm, user, request.config(), request.message(),
+                    () -> fallbacks.execute(() -> deliverFallbackInNewSession(sessionFactory, request)));
+        });
+
+        return primary.handle((result, error) -> {
+            if (error != null) {
+                logger.errorf(error, "Failed to send access code email. realm=%s user=%s",
+                        request.realmId(), request.userId());
+            }
+            return null;
+        });
+    }
+
+    private static void deliverFallbackInNewSession(KeycloakSessionFactory sessionFactory,
+            EmailDeliveryRequest request) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(request.realmId());
+            UserModel user = realm != null ? session.users().getUserById(realm, request.userId()) : null;
+            if (user == null) {
+                return;
+            }
+            session.getContext().setRealm(realm);
+            try {
+                EmailDeliveryService.deliverFallback(session, realm, user, request.message());
+            } catch (EmailException e) {
+                logger.errorf(e, "Failed to send access code email via fallback. realm=%s user=%s",
+                        request.realmId(), user.getUsername());
+            }
+        });
+    }
+
+    /**
+     * Returns the number of deliveries waiting in the queue or for their
+     * provider.
+     *
+     * @return the queue size
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size() + waitingCount.get();
+    }
+
+    void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warnf("Email delivery dispatcher did not drain within %d seconds; %d deliveries dropped",
+                        SHUTDOWN_TIMEOUT_SECONDS, executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.EmailConstants;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.LocalizedEmailRenderer;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends an email through the configured provider, applying the Keycloak SMTP
+ * fallback when the primary provider fails.
+ * <p>
+ * This is the single delivery path shared by the authenticator form, the
+ * required action and the background dispatcher.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailDeliveryService {
+
+    private static final Logger logger = Logger.getLogger(EmailDeliveryService.class);
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private EmailDeliveryService() {
+        throw new UnsupportedOperationException("EmailDeliveryService is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Delivers the message synchronously on the calling thread.
+     *
+     * @param session the Keycloak session owned by the calling thread
+     * @param realm   the realm model
+     * @param user    the user to send email to
+     * @param config  configuration map containing provider-specific settings
+     * @param message the email message to send
+     * @throws EmailException if the primary provider fails and no fallback is
+     *                        available, or the fallback fails as well
+     */
+    public static void deliver(KeycloakSession session, RealmModel realm, UserModel user,
+            Map<String, String> config, EmailMessage message) throws EmailException {
+        EmailProviderType providerType = providerType(config);
+
+        EmailSender emailSender = EmailSenderFactory.createEmailSender(providerType, config, session, realm, user);
+        EmailMessage localized = localize(session, realm, user, emailSender, message);
+        try {
+            emailSender.sendEmail(localized);
+            logger.infof("Email sent successfully via %s to %s", emailSender.getProviderName(), message.getTo());
+        } catch (EmailException e) {
+            if (!isFallbackApplicable(config, emailSender)) {
+                throw e;
+            }
+            logger.warnf(e, "Primary email provider (%s) failed, falling back to Keycloak SMTP",
+                    providerType.getDisplayName());
+            deliverFallback(session, realm, user, message);
+        }
+    }
+
+    /**
+     * Starts delivery through the configured provider without waiting for the
+     * provider to accept the message.
+     * <p>
+     * When the primary provider fails and the Keycloak SMTP fallback applies,
+     * {@code fallback} is run and the returned future completes normally. The
+     * fallback must not use the session passed here, since it may be closed
+     * by then; it is not run when the sender already is Keycloak SMTP, e.g.
+     * because the circuit breaker is open. Providers without a non-blocking
+     * client complete the send on the calling thread while the session is
+     * still open.
+     * </p>
+     *
+     * @param session  the Keycloak session owned by the calling thread
+     * @param realm    the realm model
+     * @param user     the user to send email to
+     * @param config   configuration map containing provider-specific settings
+     * @param message  the email message to send
+     * @param fallback starts the Keycloak SMTP fallback in a session of its own
+     * @return a future completed once the primary provider accepted the message
+     *         or the fallback was started
+     */
+    public static CompletableFuture<Void> deliverAsync(KeycloakSession session, RealmModel realm, UserModel user,
+            Map<String, String> config, EmailMessage message, Runnable fallback) {
+        EmailProviderType providerType = providerType(config);
+        EmailSender emailSender = EmailSenderFactory.createEmailSender(providerType, config, session, realm, user);
+        EmailMessage localized = localize(session, realm, user, emailSender, message);
+        boolean fallbackApplicable = isFallbackApplicable(config, emailSender);
+
+        return emailSender.sendEmailAsync(localized).handle((result, error) -> {
+            if (error == null) {
+                logger.infof("Email sent successfully via %s to %s", emailSender.getProviderName(), message.getTo());
+                return null;
+            }
+            if (!fallbackApplicable) {
+                if (error instanceof CompletionException completion) {
+                    throw completion;
+                }
+                throw new CompletionException(error);
+            }
+            logger.warnf(error, "Primary email provider (%s) failed, falling back to Keycloak SMTP",
+                    providerType.getDisplayName());
+            fallback.run();
+            return null;
+        });
+    }
+
+    /**
+     * Renders the realm's localized code email for the API providers, which
+     * cannot reach the session once the send has been handed to another
+     * thread. Keycloak SMTP renders the theme itself.
+     */
+    private static EmailMessage localize(KeycloakSession session, RealmModel realm, UserModel user,
+            EmailSender emailSender, EmailMessage message) {
+        if (emailSender instanceof KeycloakEmailSender) {
+            return message;
+        }
+        LocalizedEmailRenderer renderer = LocalizedEmailRenderer.create(session, realm, user);
+        return renderer != null ? renderer.localize(message) : message;
+    }
+
+    /**
+     * Returns whether a failed primary delivery should be retried through
+     * Keycloak SMTP.
+     *
+     * @param config configuration map
+     * @param sender the sender the delivery used
+     * @return true if fallback is enabled, the primary provider is not
+     *         Keycloak SMTP itself, the sender did not already route to it and
+     *         hedging has not already covered it
+     */
+    static boolean isFallbackApplicable(Map<String, String> config, EmailSender sender) {
+        return providerType(config) != EmailProviderType.KEYCLOAK && EmailSenderFactory.isFallbackEnabled(config)
+                && !EmailSenderFactory.isHedgingEnabled(config)
+                && !(sender instanceof KeycloakEmailSender) && !(sender instanceof HedgingEmailSender);
+    }
+
+    private static EmailProviderType providerType(Map<String, String> config) {
+        return EmailProviderType.fromString(
+                config.getOrDefault(EmailConstants.EMAIL_PROVIDER_TYPE, EmailConstants.DEFAULT_EMAIL_PROVIDER));
+    }
+
+    /**
+     * Delivers the message through Keycloak SMTP.
+     *
+     * @param session the Keycloak session owned by the calling thread
+     * @param realm   the realm model
+     * @param user    the user to send email to
+     * @param message the email message to send
+     * @throws EmailException if Keycloak SMTP fails
+     */
+    public static void deliverFallback(KeycloakSession session, RealmModel realm, UserModel user,
+            EmailMessage message) throws EmailException {
+        EmailSender fallbackSender = new KeycloakEmailSender(session, realm, user);
+        fallbackSender.sendEmail(message);
+        logger.infof("Email sent successfully via fallback Keycloak SMTP to %s", message.getTo());
+    }
+}
@@ -3,6 +3,8 @@ package com.mesutpiskin.keycloak.auth.email.service;
 import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
 import org.keycloak.email.EmailException;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Email sender abstraction interface for supporting multiple email providers.
  * <p>
@@ -33,6 +35,28 @@ public interface EmailSender {
      */
     void sendEmail(EmailMessage message) throws EmailException;
 
+    /**
+     * Sends an email message without blocking the caller until the provider
+     * has accepted it.
+     * <p>
+     * The default implementation bridges to {@link #sendEmail(EmailMessage)}
+     * on the calling thread and returns an already completed future.
+     * Providers with a non-blocking client override this method.
+     * </p>
+     *
+     * @param message the email message to send
+     * @return a future completed when the provider accepted the message, or
+     *         completed exceptionally with an {@link EmailException}
+     */
+    default CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        try {
+            sendEmail(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (EmailException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Returns the name of the email provider implementation.
      * <p>
@@ -1,7 +1,11 @@
 package com.mesutpiskin.keycloak.auth.email.service;
 
+import com.mesutpiskin.keycloak.auth.email.EmailConstants;
 import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import com.mesutpiskin.keycloak.auth.email.service.impl.EmailProviderClients;
 import com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.PooledSmtpEmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.SendGridBatchingEmailSender;
 import com.mesutpiskin.keycloak.auth.email.service.impl.SendGridEmailSender;
 import org.jboss.logging.Logger;
 import org.keycloak.models.KeycloakSession;
@@ -51,6 +55,126 @@ public final class EmailSenderFactory {
             RealmModel realm,
             UserModel user) {
 
+        if (providerType == EmailProviderType.ROUTED) {
+            return createRoutingSender(config, session, realm, user);
+        }
+
+        EmailSender sender = createRouteSender(providerType, config, session, realm, user);
+        if (sender == null) {
+            if (isFallbackEnabled(config)) {
+                logger.debugf("Circuit breaker for %s is open; routing directly to Keycloak SMTP",
+                        providerType.getDisplayName());
+                return new KeycloakEmailSender(session, realm, user);
+            }
+            logger.debugf("Circuit breaker for %s is open but fallback is disabled; trying it anyway",
+                    providerType.getDisplayName());
+            sender = throttled(createProviderSender(providerType, config, session, realm, user), providerType,
+                    config);
+        }
+        if (sender instanceof KeycloakEmailSender) {
+            return sender;
+        }
+
+        if (isHedgingEnabled(config)) {
+            sender = new HedgingEmailSender(sender, session.getKeycloakSessionFactory(), realm, user,
+                    providerKey(providerType, config, realm),
+                    Math.min(100, positiveInt(config, "hedgingPercentile", EmailConstants.DEFAULT_HEDGING_PERCENTILE)),
+                    positiveInt(config, "hedgingDelayMillis", EmailConstants.DEFAULT_HEDGING_DELAY));
+        }
+        return sender;
+    }
+
+    /**
+     * Creates the sender of a single provider guarded by its circuit breaker.
+     *
+     * @return the guarded sender, or null if the provider's circuit breaker is
+     *         open
+     */
+    static EmailSender createRouteSender(
+            EmailProviderType providerType,
+            Map<String, String> config,
+            KeycloakSession session,
+            RealmModel realm,
+            UserModel user) {
+
+        EmailSender sender = createProviderSender(providerType, config, session, realm, user);
+        if (sender instanceof KeycloakEmailSender) {
+            return sender;
+        }
+        if (isCircuitBreakerEnabled(config)) {
+            CircuitBreaker breaker = CircuitBreakerRegistry.get(providerKey(providerType, config, realm),
+                    providerType.getDisplayName(), circuitBreakerSettings(config));
+            if (!breaker.isCallPermitted()) {
+                return null;
+            }
+            sender = new CircuitBreakingEmailSender(sender, breaker);
+        }
+        return throttled(sender, providerType, config);
+    }
+
+    /**
+     * Paces the sender through the token bucket of its provider account when a
+     * send rate limit is configured. The throttle wraps the circuit breaker,
+     * which takes its permission only once the throttle has admitted a send.
+     */
+    private static EmailSender throttled(EmailSender sender, EmailProviderType providerType,
+            Map<String, String> config) {
+        int rate = positiveInt(config, "providerRateLimit", 0);
+        String account = accountKey(providerType, config);
+        if (rate <= 0 || account == null) {
+            return sender;
+        }
+        TokenBucket bucket = TokenBucketRegistry.get(account,
+                new TokenBucket.Settings(rate, positiveInt(config, "providerRateBurst", rate)));
+        return new ThrottlingEmailSender(sender, bucket,
+                positiveInt(config, "providerRateMaxWaitMillis", EmailConstants.DEFAULT_PROVIDER_RATE_MAX_WAIT));
+    }
+
+    /**
+     * Identifies the provider account whose send rate is limited, so that all
+     * configurations sending through the same account share one bucket.
+     *
+     * @return the account key, or null if the provider has no rate limit
+     */
+    private static String accountKey(EmailProviderType providerType, Map<String, String> config) {
+        return switch (providerType) {
+            case SENDGRID -> "SENDGRID:" + EmailProviderClients.fingerprint(config.get("sendgridApiKey"));
+            case AWS_SES -> "AWS_SES:" + EmailProviderClients.fingerprint(config.get("awsSesRegion"),
+                    config.get("awsAccessKeyId"));
+            default -> null;
+        };
+    }
+
+    /**
+     * Creates a sender spreading emails across the providers listed in the
+     * routing configuration.
+     */
+    private static EmailSender createRoutingSender(
+            Map<String, String> config,
+            KeycloakSession session,
+            RealmModel realm,
+            UserModel user) {
+
+        String routes = config.get("routingProviders");
+        if (routes == null || routes.trim().isEmpty()) {
+            throw new IllegalArgumentException("Routing providers are required but not configured");
+        }
+        ProviderRouter router = ProviderRouter.forConfig(providerKey(EmailProviderType.ROUTED, config, realm),
+                routes);
+        return new RoutingEmailSender(router,
+                type -> createRouteSender(type, config, session, realm, user));
+    }
+
+    /**
+     * Creates the sender of the configured provider without circuit breaking.
+     */
+    private static EmailSender createProviderSender(
+            EmailProviderType providerType,
+            Map<String, String> config,
+            KeycloakSession session,
+            RealmModel realm,
+            UserModel user) {
+
         logger.debugf("Creating email sender for provider type: %s", providerType.getDisplayName());
 
         switch (providerType) {
@@ -66,6 +190,9 @@ public final class EmailSenderFactory {
 
             case KEYCLOAK:
             default:
+                if (Boolean.parseBoolean(config.get("smtpConnectionPool"))) {
+                    return new PooledSmtpEmailSender(session, realm, user);
+                }
                 return new KeycloakEmailSender(session, realm, user);
         }
     }
@@ -91,8 +218,45 @@ public final class EmailSenderFactory {
             throw new IllegalArgumentException("SendGrid from email is required but not configured");
         }
 
+        SendGridEmailSender.PoolSettings poolSettings = new SendGridEmailSender.PoolSettings(
+                positiveInt(config, "sendgridMaxConnections", EmailConstants.DEFAULT_SENDGRID_MAX_CONNECTIONS),
+                positiveInt(config, "sendgridConnectTimeoutMillis", EmailConstants.DEFAULT_SENDGRID_CONNECT_TIMEOUT),
+                positiveInt(config, "sendgridSocketTimeoutMillis", EmailConstants.DEFAULT_SENDGRID_SOCKET_TIMEOUT));
+        String owner = config.get(EmailConstants.AUTHENTICATOR_CONFIG_ID);
+
+        int lingerMillis = positiveInt(config, "sendgridBatchLingerMillis", 0);
+        if (lingerMillis > 0) {
+            logger.infof("Creating batching SendGrid email sender with from address: %s", fromEmail);
+            return new SendGridBatchingEmailSender(apiKey, fromEmail, fromName, poolSettings, owner,
+                    positiveInt(config, "sendgridBatchSize", SendGridBatchingEmailSender.MAX_PERSONALIZATIONS),
+                    lingerMillis);
+        }
+
         logger.infof("Creating SendGrid email sender with from address: %s", fromEmail);
-        return new SendGridEmailSender(apiKey, fromEmail, fromName);
+        return new SendGridEmailSender(apiKey, fromEmail, fromName, poolSettings, owner);
+    }
+
+    /**
+     * Reads a positive integer setting, returning the default when it is
+     * missing or invalid.
+     *
+     * @param config       the configuration map
+     * @param key          the setting key
+     * @param defaultValue the value used when the setting is missing or invalid
+     * @return the parsed value or the default
+     */
+    private static int positiveInt(Map<String, String> config, String key, int defaultValue) {
+        String value = config.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid value '%s' for %s; using default %d", value, key, defaultValue);
+            return defaultValue;
+        }
     }
 
     /**
@@ -108,6 +272,7 @@ public final class EmailSenderFactory {
         String secretAccessKey = config.get("awsSecretAccessKey");
         String fromEmail = config.get("awsSesFromEmail");
         String fromName = config.get("awsSesFromName");
+        String endpoint = config.get("awsSesEndpoint");
 
         if (region == null || region.trim().isEmpty()) {
             throw new IllegalArgumentException("AWS SES region is required but not configured");
@@ -125,9 +290,86 @@ public final class EmailSenderFactory {
             throw new IllegalArgumentException("AWS SES from email is required but not configured");
         }
 
+        int bulkLingerMillis = positiveInt(config, "awsSesBulkLingerMillis", 0);
+        if (bulkLingerMillis > 0) {
+            logger.infof("Creating bulk AWS SES email sender in region %s with from address: %s", region, fromEmail);
+            return new com.mesutpiskin.keycloak.auth.email.service.impl.AwsSesBulkEmailSender(
+                    region, accessKeyId, secretAccessKey, fromEmail, fromName, endpoint,
+                    config.get("awsSesTemplateName"),
+                    positiveInt(config, "awsSesBulkBatchSize",
+                            com.mesutpiskin.keycloak.auth.email.service.impl.AwsSesBulkEmailSender.MAX_DESTINATIONS),
+                    bulkLingerMillis);
+        }
+
+        if (Boolean.parseBoolean(config.get("awsSesAsyncClient"))) {
+            logger.infof("Creating async AWS SES email sender in region %s with from address: %s", region, fromEmail);
+            return new com.mesutpiskin.keycloak.auth.email.service.impl.AwsSesAsyncEmailSender(
+                    region, accessKeyId, secretAccessKey, fromEmail, fromName, endpoint);
+        }
+
         logger.infof("Creating AWS SES email sender in region %s with from address: %s", region, fromEmail);
         return new com.mesutpiskin.keycloak.auth.email.service.impl.AwsSesEmailSender(
-                region, accessKeyId, secretAccessKey, fromEmail, fromName);
+                region, accessKeyId, secretAccessKey, fromEmail, fromName, endpoint);
+    }
+
+    /**
+     * Determines whether the circuit breaker guards the primary provider.
+     *
+     * @param config configuration map
+     * @return true if the circuit breaker is enabled
+     */
+    public static boolean isCircuitBreakerEnabled(Map<String, String> config) {
+        return config != null && Boolean.parseBoolean(config.get("circuitBreakerEnabled"));
+    }
+
+    /**
+     * Determines whether slow primary sends are hedged with Keycloak SMTP.
+     * Hedging requires the fallback to be enabled.
+     *
+     * @param config configuration map
+     * @return true if hedging is enabled
+     */
+    public static boolean isHedgingEnabled(Map<String, String> config) {
+        return config != null && Boolean.parseBoolean(config.get("hedgingEnabled")) && isFallbackEnabled(config);
+    }
+
+    private static CircuitBreaker.Settings circuitBreakerSettings(Map<String, String> config) {
+        CircuitBreaker.Settings defaults = CircuitBreaker.Settings.DEFAULT;
+        return new CircuitBreaker.Settings(defaults.windowSize(), defaults.minimumCalls(),
+                Math.min(100, positiveInt(config, "circuitBreakerFailureRate", defaults.failureRateThreshold())),
+                positiveInt(config, "circuitBreakerSlowCallMillis", (int) defaults.slowCallThresholdMillis()),
+                defaults.slowCallRateThreshold(),
+                1000L * positiveInt(config, "circuitBreakerOpenSeconds", (int) (defaults.openDurationMillis() / 1000L)),
+                defaults.halfOpenTrialCalls());
+    }
+
+    /**
+     * Identifies the provider account a configuration sends through, so that
+     * configurations sharing credentials share a breaker and latency history.
+     * Only the credentials and endpoint count; settings such as the code
+     * lifetime or the sender name do not reset the shared state. A routed
+     * configuration is identified by its provider list and the accounts of
+     * the providers it may route to.
+     */
+    private static String providerKey(EmailProviderType providerType, Map<String, String> config,
+            RealmModel realm) {
+        return switch (providerType) {
+            case SENDGRID -> accountKey(providerType, config);
+            case AWS_SES -> "AWS_SES:" + EmailProviderClients.fingerprint(config.get("awsSesRegion"),
+                    config.get("awsAccessKeyId"), config.get("awsSesEndpoint"));
+            case ROUTED -> "ROUTED:" + EmailProviderClients.fingerprint(config.get("routingProviders"),
+                    providerKey(EmailProviderType.SENDGRID, config, realm),
+                    providerKey(EmailProviderType.AWS_SES, config, realm),
+                    providerKey(EmailProviderType.KEYCLOAK, config, realm));
+            default -> {
+                Map<String, String> smtp = realm != null ? realm.getSmtpConfig() : null;
+                yield providerType.name() + ":" + EmailProviderClients.fingerprint(
+                        realm != null ? realm.getId() : null,
+                        smtp != null ? smtp.get("host") : null,
+                        smtp != null ? smtp.get("port") : null,
+                        smtp != null ? smtp.get("user") : null);
+            }
+        };
     }
 
     /**
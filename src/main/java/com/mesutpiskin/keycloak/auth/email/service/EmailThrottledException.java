@@ -0,0 +1,40 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import org.keycloak.email.EmailException;
+
+/**
+ * Signals that an email provider rejected a send because its rate limit was
+ * exceeded, or that the local throttle could not admit the send in time.
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class EmailThrottledException extends EmailException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs a new EmailThrottledException.
+     *
+     * @param message          the detail message
+     * @param retryAfterMillis how long the provider asked to wait, or -1 if it
+     *                         did not say
+     * @param cause            the provider error, may be null
+     */
+    public EmailThrottledException(String message, long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns how long the provider asked to wait before the next send.
+     *
+     * @return the delay in milliseconds, or -1 if unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
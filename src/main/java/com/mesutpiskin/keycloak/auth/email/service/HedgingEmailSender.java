@@ -0,0 +1,334 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Sender that hedges a slow primary provider with Keycloak SMTP.
+ * <p>
+ * The primary send is started immediately. If it has not completed after the
+ * hedge delay, which is derived from a percentile of the primary's recent
+ * latencies, the same message is also sent through Keycloak SMTP and the
+ * first success wins; the other send is cancelled where the provider allows
+ * it. A primary failure starts the fallback right away, so this sender
+ * already covers the regular fallback.
+ * </p>
+ * <p>
+ * The primary's latency is also recorded when its send is cancelled because
+ * the hedge won, as the time it had taken until then. Recording only
+ * completed sends would drop exactly the slow ones and let the hedge delay
+ * drift down.
+ * </p>
+ * <p>
+ * Both sends run on a shared worker pool. Because a {@code KeycloakSession}
+ * is bound to the request thread, the fallback opens a session of its own.
+ * The send fails once both providers have failed, whichever of them started
+ * the fallback, and a blocking send gives up after {@link #SEND_TIMEOUT_MILLIS}.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class HedgingEmailSender implements EmailSender {
+
+    private static final Logger logger = Logger.getLogger(HedgingEmailSender.class);
+
+    /**
+     * Lower bound of the hedge delay, so that hedging does not turn into
+     * sending every email twice.
+     */
+    static final long MINIMUM_DELAY_MILLIS = 50L;
+
+    /**
+     * Upper bound for a blocking send, so that a send neither provider ever
+     * settles cannot pin the calling thread.
+     */
+    static final long SEND_TIMEOUT_MILLIS = 60_000L;
+
+    private static final int MAX_WORKERS = 64;
+    private static final Map<String, LatencyTracker> TRACKERS = BoundedMaps.lru(BoundedMaps.DEFAULT_MAX_ENTRIES);
+    private static volatile Executors executors;
+
+    private final EmailSender primary;
+    private final EmailSender fallback;
+    private final LatencyTracker tracker;
+    private final long delayMillis;
+
+    private record Executors(ExecutorService workers, ScheduledExecutorService timer) {
+    }
+
+    /**
+     * Constructs a new HedgingEmailSender.
+     *
+     * @param primary            the primary sender
+     * @param sessionFactory     the session factory used for the fallback send
+     * @param realm              the realm model
+     * @param user               the user receiving the email
+     * @param providerKey        identity of the primary provider account
+     * @param percentile         latency percentile of the primary used as hedge delay
+     * @param defaultDelayMillis hedge delay until enough latencies are recorded
+     */
+    public HedgingEmailSender(EmailSender primary, KeycloakSessionFactory sessionFactory, RealmModel realm,
+            UserModel user, String providerKey, int percentile, long defaultDelayMillis) {
+        this(primary, new SessionFallbackSender(sessionFactory, realm.getId(), user.getId()),
+                TRACKERS.computeIfAbsent(providerKey, key -> new LatencyTracker()), percentile, defaultDelayMillis);
+    }
+
+    HedgingEmailSender(EmailSender primary, EmailSender fallback, LatencyTracker tracker, int percentile,
+            long defaultDelayMillis) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.tracker = tracker;
+        long observed = tracker.percentile(percentile);
+        this.delayMillis = Math.max(MINIMUM_DELAY_MILLIS, observed >= 0 ? observed : defaultDelayMillis);
+    }
+
+    /**
+     * Sends through Keycloak SMTP in a session of its own.
+     */
+    private static final class SessionFallbackSender implements EmailSender {
+        private final KeycloakSessionFactory sessionFactory;
+        private final String realmId;
+        private final String userId;
+
+        private SessionFallbackSender(KeycloakSessionFactory sessionFactory, String realmId, String userId) {
+            this.sessionFactory = sessionFactory;
+            this.realmId = realmId;
+            this.userId = userId;
+        }
+
+        @Override
+        public void sendEmail(EmailMessage message) throws EmailException {
+            AtomicReference<EmailException> failure = new AtomicReference<>();
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                UserModel user = realm != null ? session.users().getUserById(realm, userId) : null;
+                if (user == null) {
+                    failure.set(new EmailException("User no longer exists; fallback skipped"));
+                    return;
+                }
+                session.getContext().setRealm(realm);
+                try {
+                    new KeycloakEmailSender(session, realm, user).sendEmail(message);
+                } catch (EmailException e) {
+                    failure.set(e);
+                }
+            });
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        @Override
+        public String getProviderName() {
+            return "Keycloak SMTP";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        CompletableFuture<Void> send = sendEmailAsync(message);
+        try {
+            send.get(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            send.cancel(true);
+            throw new EmailException("Timed out after " + SEND_TIMEOUT_MILLIS + "ms sending email to "
+                    + message.getTo(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EmailException emailException) {
+                throw emailException;
+            }
+            throw new EmailException("Failed to send email to " + message.getTo(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailException("Interrupted while sending email to " + message.getTo(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        Executors pools = executors();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<Void>> primarySend = new AtomicReference<>();
+        AtomicReference<CompletableFuture<Void>> fallbackSend = new AtomicReference<>();
+        AtomicBoolean fallbackStarted = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.currentTimeMillis();
+
+        Consumer<Throwable> failed = error -> {
+            if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        };
+        Runnable startFallback = () -> {
+            if (result.isDone() || !fallbackStarted.compareAndSet(false, true)) {
+                return;
+            }
+            CompletableFuture<Void> hedgedSend = CompletableFuture.runAsync(() -> sendViaFallback(message),
+                    pools.workers());
+            fallbackSend.set(hedgedSend);
+            hedgedSend.whenComplete((ignored, error) -> {
+                if (error == null) {
+                    if (result.complete(null)) {
+                        logger.infof("Hedged fallback via %s won for %s after %dms", fallback.getProviderName(),
+                                message.getTo(), System.currentTimeMillis() - start);
+                        cancel(primarySend.get());
+                    }
+                } else {
+                    failed.accept(unwrap(error));
+                }
+            });
+        };
+
+        ScheduledFuture<?> hedge = pools.timer().schedule(() -> {
+            logger.debugf("%s has not acknowledged %s within %dms; hedging with %s",
+                    primary.getProviderName(), message.getTo(), delayMillis, fallback.getProviderName());
+            startFallback.run();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((ignored, error) -> {
+            if (error instanceof CancellationException) {
+                hedge.cancel(false);
+                cancel(primarySend.get());
+                cancel(fallbackSend.get());
+            }
+        });
+
+        CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<Void> send = primary.sendEmailAsync(message);
+            primarySend.set(send);
+            if (result.isCancelled()) {
+                send.cancel(true);
+            }
+            return send;
+        }, pools.workers()).thenCompose(send -> send).whenComplete((ignored, error) -> {
+            long elapsed = System.currentTimeMillis() - start;
+            hedge.cancel(false);
+            if (error == null) {
+                tracker.record(elapsed);
+                if (result.complete(null)) {
+                    cancel(fallbackSend.get());
+                }
+            } else if (unwrap(error) instanceof CancellationException) {
+                // The hedge won; the primary took at least this long
+                tracker.record(elapsed);
+                logger.debugf("Cancelled %s send to %s after %dms; the hedge won", primary.getProviderName(),
+                        message.getTo(), elapsed);
+            } else if (result.isDone()) {
+                logger.debugf(unwrap(error), "%s send to %s failed after the hedge won", primary.getProviderName(),
+                        message.getTo());
+            } else {
+                logger.warnf(unwrap(error), "Primary email provider (%s) failed, falling back to %s",
+                        primary.getProviderName(), fallback.getProviderName());
+                failed.accept(unwrap(error));
+                startFallback.run();
+            }
+        });
+        return result;
+    }
+
+    private void sendViaFallback(EmailMessage message) {
+        try {
+            fallback.sendEmail(message);
+        } catch (EmailException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void cancel(CompletableFuture<Void> send) {
+        if (send != null) {
+            send.cancel(true);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static Executors executors() {
+        Executors current = executors;
+        if (current == null) {
+            synchronized (HedgingEmailSender.class) {
+                current = executors;
+                if (current == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    ThreadPoolExecutor workers = new ThreadPoolExecutor(0, MAX_WORKERS, 60L, TimeUnit.SECONDS,
+                            new SynchronousQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, "email-otp-hedge-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }, new ThreadPoolExecutor.CallerRunsPolicy());
+                    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "email-otp-hedge-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer.setRemoveOnCancelPolicy(true);
+                    current = new Executors(workers, timer);
+                    executors = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Stops the shared hedging threads.
+     */
+    public static synchronized void shutdown() {
+        if (executors != null) {
+            executors.timer().shutdownNow();
+            executors.workers().shutdown();
+            executors = null;
+        }
+        TRACKERS.clear();
+    }
+
+    /**
+     * Returns the hedge delay used by this sender.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    @Override
+    public String getProviderName() {
+        return primary.getProviderName() + " (hedged)";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return primary.isAvailable();
+    }
+}
@@ -0,0 +1,77 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import java.util.Arrays;
+
+/**
+ * Rolling sample of recent send latencies used to derive percentiles.
+ * <p>
+ * Keeps the most recent latencies in a fixed-size ring buffer; percentiles
+ * are computed on demand from a sorted copy, which is cheap for the small
+ * sample sizes involved.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class LatencyTracker {
+
+    /**
+     * Default number of samples kept.
+     */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Samples required before a percentile is reported.
+     */
+    public static final int MINIMUM_SAMPLES = 20;
+
+    private final long[] samples;
+    private int position;
+    private int size;
+
+    /**
+     * Creates a tracker keeping {@link #DEFAULT_CAPACITY} samples.
+     */
+    public LatencyTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Records the latency of a send.
+     *
+     * @param millis the latency in milliseconds
+     */
+    public synchronized void record(long millis) {
+        samples[position] = millis;
+        position = (position + 1) % samples.length;
+        if (size < samples.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Returns the latency below which the given percentage of recorded sends
+     * completed.
+     *
+     * @param percentile the percentile, between 1 and 100
+     * @return the latency in milliseconds, or -1 if fewer than
+     *         {@link #MINIMUM_SAMPLES} sends were recorded
+     */
+    public long percentile(int percentile) {
+        long[] copy;
+        synchronized (this) {
+            if (size < MINIMUM_SAMPLES) {
+                return -1L;
+            }
+            copy = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(copy);
+        int rank = (int) Math.ceil(percentile / 100.0 * copy.length) - 1;
+        return copy[Math.min(Math.max(rank, 0), copy.length - 1)];
+    }
+}
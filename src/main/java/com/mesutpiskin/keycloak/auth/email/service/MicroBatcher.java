@@ -0,0 +1,227 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces items submitted within a short window into batches.
+ * <p>
+ * The first item of a batch starts the linger timer; the batch is flushed when
+ * the timer fires or as soon as it reaches the maximum size, whichever comes
+ * first. Flushes run on shared background threads and wait in a queue while
+ * all of them are busy, so neither the linger timer nor the submitting caller
+ * ever sends a batch itself. The handler completes
+ * the future of every item individually so that one failed item does not fail
+ * the whole batch. Items whose future the handler leaves incomplete are failed
+ * with the handler's exception, or completed if it returned normally.
+ * </p>
+ *
+ * @param <T> the item type
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class MicroBatcher<T> {
+
+    private static final Logger logger = Logger.getLogger(MicroBatcher.class);
+
+    private static final int MAX_WORKERS = 32;
+    private static volatile Executors executors;
+
+    /**
+     * An item waiting in a batch together with the future of its caller.
+     *
+     * @param item   the submitted item
+     * @param future completed by the handler with the outcome of the item
+     * @param <T>    the item type
+     */
+    public record Batched<T>(T item, CompletableFuture<Void> future) {
+    }
+
+    /**
+     * Processes a flushed batch.
+     *
+     * @param <T> the item type
+     */
+    @FunctionalInterface
+    public interface BatchHandler<T> {
+
+        /**
+         * Processes the batch, completing the future of each item.
+         *
+         * @param batch the items in submission order
+         * @throws Exception if the batch as a whole failed
+         */
+        void flush(List<Batched<T>> batch) throws Exception;
+    }
+
+    private record Executors(ExecutorService workers, ScheduledExecutorService timer) {
+    }
+
+    private final String name;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final BatchHandler<T> handler;
+    private final Executor workers;
+    private final ScheduledExecutorService timer;
+    private final Object lock = new Object();
+    private List<Batched<T>> pending = new ArrayList<>();
+    private ScheduledFuture<?> lingerTimer;
+
+    /**
+     * Creates a batcher running on the shared batching threads.
+     *
+     * @param name         a short name used in log messages
+     * @param batchSize    the maximum number of items per batch
+     * @param lingerMillis how long the first item of a batch waits for more
+     * @param handler      processes each batch
+     */
+    public MicroBatcher(String name, int batchSize, long lingerMillis, BatchHandler<T> handler) {
+        this(name, batchSize, lingerMillis, handler, executors().workers(), executors().timer());
+    }
+
+    MicroBatcher(String name, int batchSize, long lingerMillis, BatchHandler<T> handler, Executor workers,
+            ScheduledExecutorService timer) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.handler = handler;
+        this.workers = workers;
+        this.timer = timer;
+    }
+
+    /**
+     * Adds an item to the current batch.
+     *
+     * @param item the item
+     * @return a future completed once the item has been processed
+     */
+    public CompletableFuture<Void> submit(T item) {
+        Batched<T> batched = new Batched<>(item, new CompletableFuture<>());
+        List<Batched<T>> full = null;
+        synchronized (lock) {
+            pending.add(batched);
+            if (pending.size() >= batchSize) {
+                full = takeLocked();
+            } else if (pending.size() == 1) {
+                lingerTimer = timer.schedule(this::flushPending, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return batched.future();
+    }
+
+    private List<Batched<T>> takeLocked() {
+        List<Batched<T>> batch = pending;
+        pending = new ArrayList<>();
+        if (lingerTimer != null) {
+            lingerTimer.cancel(false);
+            lingerTimer = null;
+        }
+        return batch;
+    }
+
+    private void flushPending() {
+        List<Batched<T>> batch;
+        synchronized (lock) {
+            lingerTimer = null;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = takeLocked();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(List<Batched<T>> batch) {
+        try {
+            workers.execute(() -> run(batch));
+        } catch (RejectedExecutionException e) {
+            logger.warnf("Batching threads are shut down; failing batch of %d item(s) for %s", batch.size(), name);
+            for (Batched<T> batched : batch) {
+                batched.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void run(List<Batched<T>> batch) {
+        logger.debugf("Flushing batch of %d item(s) for %s", batch.size(), name);
+        Throwable failure = null;
+        try {
+            handler.flush(batch);
+        } catch (Exception e) {
+            logger.warnf(e, "Batch of %d item(s) for %s failed", batch.size(), name);
+            failure = e;
+        }
+        for (Batched<T> batched : batch) {
+            if (failure != null) {
+                batched.future().completeExceptionally(failure);
+            } else {
+                batched.future().complete(null);
+            }
+        }
+    }
+
+    /**
+     * Flushes the items currently waiting, without waiting for the linger
+     * timer.
+     */
+    public void flush() {
+        flushPending();
+    }
+
+    private static Executors executors() {
+        Executors current = executors;
+        if (current == null) {
+            synchronized (MicroBatcher.class) {
+                current = executors;
+                if (current == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    ThreadPoolExecutor workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 60L,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, "email-otp-batch-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    workers.allowCoreThreadTimeOut(true);
+                    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "email-otp-batch-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer.setRemoveOnCancelPolicy(true);
+                    current = new Executors(workers, timer);
+                    executors = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Stops the shared batching threads. Batchers created afterwards start new
+     * ones.
+     */
+    public static synchronized void shutdown() {
+        if (executors != null) {
+            executors.timer().shutdownNow();
+            executors.workers().shutdown();
+            executors = null;
+        }
+    }
+}
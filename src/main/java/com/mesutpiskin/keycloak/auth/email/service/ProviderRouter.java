@@ -0,0 +1,340 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+/**
+ * Chooses among several email providers by weight, health and latency.
+ * <p>
+ * For every provider the router keeps an exponentially weighted moving
+ * average (EWMA) of its send latency and success rate together with the
+ * number of sends in flight. A send picks two candidates at random in
+ * proportion to their configured weights and routes to the one with the lower
+ * expected cost (latency times load, divided by success rate). Weights thus
+ * spread traffic across providers, while slow or failing providers are
+ * avoided. The remaining providers, cheapest first, serve as failover.
+ * </p>
+ * <p>
+ * Routers are shared by all configurations routing over the same provider
+ * list and accounts, and expose their counters through {@link #snapshot()}.
+ * At most once per {@link #SUMMARY_INTERVAL_MILLIS} a completed send also logs
+ * a summary of every provider's moving averages and in-flight sends at
+ * {@code INFO} level.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class ProviderRouter {
+
+    private static final Logger logger = Logger.getLogger(ProviderRouter.class);
+
+    /**
+     * Weight of the newest observation in the moving averages.
+     */
+    static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * Success rate below which a provider's cost grows steeply.
+     */
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    /**
+     * Minimum time between two logged summaries of a router.
+     */
+    static final long SUMMARY_INTERVAL_MILLIS = 60_000L;
+
+    private static final Map<String, ProviderRouter> ROUTERS = BoundedMaps.lru(BoundedMaps.DEFAULT_MAX_ENTRIES);
+
+    /**
+     * A provider the router may send through.
+     *
+     * @param type   the provider type
+     * @param weight the relative share of traffic
+     */
+    public record Route(EmailProviderType type, int weight) {
+    }
+
+    /**
+     * Counters and moving averages of a single provider.
+     *
+     * @param routed         number of sends routed to the provider
+     * @param succeeded      number of successful sends
+     * @param failed         number of failed sends
+     * @param latencyMillis  moving average of the send latency, or -1 if unknown
+     * @param successRate    moving average of the success rate
+     * @param inFlight       number of sends currently in flight
+     */
+    public record Stats(long routed, long succeeded, long failed, double latencyMillis, double successRate,
+            int inFlight) {
+    }
+
+    private static final class ProviderState {
+        private final AtomicLong routed = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double latency = Double.NaN;
+        private double successRate = 1.0;
+
+        private synchronized void observe(long millis, boolean success) {
+            latency = Double.isNaN(latency) ? millis : EWMA_ALPHA * millis + (1 - EWMA_ALPHA) * latency;
+            successRate = EWMA_ALPHA * (success ? 1.0 : 0.0) + (1 - EWMA_ALPHA) * successRate;
+        }
+
+        private synchronized double cost() {
+            double expectedLatency = Double.isNaN(latency) ? 0.0 : latency;
+            return expectedLatency * (inFlight.get() + 1) / Math.max(successRate, MIN_SUCCESS_RATE);
+        }
+
+        private synchronized Stats stats() {
+            return new Stats(routed.get(), succeeded.get(), failed.get(), Double.isNaN(latency) ? -1 : latency,
+                    successRate, inFlight.get());
+        }
+    }
+
+    private final String spec;
+    private final List<Route> routes;
+    private final Map<EmailProviderType, ProviderState> states = new EnumMap<>(EmailProviderType.class);
+    private final AtomicLong lastSummary = new AtomicLong(System.currentTimeMillis());
+
+    ProviderRouter(String spec) {
+        this.spec = spec;
+        this.routes = parseRoutes(spec);
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("No valid routing providers configured: " + spec);
+        }
+        for (Route route : routes) {
+            states.put(route.type(), new ProviderState());
+        }
+    }
+
+    /**
+     * Returns the shared router of a configuration, rebuilding it when the
+     * provider list changed.
+     *
+     * @param key  the identity of the routed provider accounts
+     * @param spec the routing provider list, e.g. {@code SENDGRID:3,AWS_SES:1}
+     * @return the shared router
+     */
+    public static ProviderRouter forConfig(String key, String spec) {
+        return ROUTERS.compute(key, (k, existing) -> existing != null && existing.spec.equals(spec)
+                ? existing
+                : new ProviderRouter(spec));
+    }
+
+    /**
+     * Removes every router.
+     */
+    public static void clear() {
+        ROUTERS.clear();
+    }
+
+    /**
+     * Parses a routing provider list of {@code TYPE[:weight]} entries
+     * separated by commas. Entries without a weight get weight 1; unknown
+     * types, non-positive weights and nested routing are skipped.
+     *
+     * @param spec the provider list
+     * @return the routes in configured order
+     */
+    static List<Route> parseRoutes(String spec) {
+        Map<EmailProviderType, Route> routes = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String[] parts = trimmed.split(":", 2);
+            try {
+                EmailProviderType type = EmailProviderType.valueOf(parts[0].trim().toUpperCase());
+                int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                if (type == EmailProviderType.ROUTED || weight <= 0) {
+                    throw new IllegalArgumentException();
+                }
+                routes.putIfAbsent(type, new Route(type, weight));
+            } catch (IllegalArgumentException e) {
+                logger.warnf("Ignoring invalid routing provider entry '%s'", trimmed);
+            }
+        }
+        return List.copyOf(routes.values());
+    }
+
+    /**
+     * Orders the providers for a single send: the chosen provider first,
+     * followed by the others from cheapest to most expensive.
+     *
+     * @return the providers to try in order
+     */
+    public List<EmailProviderType> plan() {
+        return plan(ThreadLocalRandom.current());
+    }
+
+    List<EmailProviderType> plan(RandomGenerator random) {
+        List<Route> candidates = new ArrayList<>(routes);
+        Route first = pickWeighted(candidates, random);
+        Route chosen = first;
+        if (candidates.size() > 1) {
+            List<Route> rest = new ArrayList<>(candidates);
+            rest.remove(first);
+            Route second = pickWeighted(rest, random);
+            if (states.get(second.type()).cost() < states.get(first.type()).cost()) {
+                chosen = second;
+            }
+        }
+
+        List<EmailProviderType> order = new ArrayList<>(candidates.size());
+        order.add(chosen.type());
+        candidates.remove(chosen);
+        candidates.sort(Comparator.comparingDouble(route -> states.get(route.type()).cost()));
+        for (Route route : candidates) {
+            order.add(route.type());
+        }
+        return Collections.unmodifiableList(order);
+    }
+
+    private static Route pickWeighted(List<Route> candidates, RandomGenerator random) {
+        int total = 0;
+        for (Route route : candidates) {
+            total += route.weight();
+        }
+        int ticket = random.nextInt(total);
+        for (Route route : candidates) {
+            ticket -= route.weight();
+            if (ticket < 0) {
+                return route;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * Records that a send was routed to the provider.
+     *
+     * @param type the provider type
+     */
+    public void onStart(EmailProviderType type) {
+        ProviderState state = states.get(type);
+        state.routed.incrementAndGet();
+        state.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records the outcome of a send started with {@link #onStart}.
+     *
+     * @param type          the provider type
+     * @param latencyMillis the duration of the send
+     * @param success       whether the send succeeded
+     */
+    public void onComplete(EmailProviderType type, long latencyMillis, boolean success) {
+        ProviderState state = states.get(type);
+        state.inFlight.decrementAndGet();
+        (success ? state.succeeded : state.failed).incrementAndGet();
+        state.observe(latencyMillis, success);
+        logSummaryIfDue(System.currentTimeMillis());
+    }
+
+    /**
+     * Logs {@link #summary()} if the last summary is older than
+     * {@link #SUMMARY_INTERVAL_MILLIS}.
+     *
+     * @param now the current time in milliseconds
+     * @return true if the summary was logged
+     */
+    boolean logSummaryIfDue(long now) {
+        long last = lastSummary.get();
+        if (now - last < SUMMARY_INTERVAL_MILLIS || !lastSummary.compareAndSet(last, now)) {
+            return false;
+        }
+        logger.infof("Email routing over %s: %s", spec, summary());
+        return true;
+    }
+
+    /**
+     * Describes the moving averages, success rate and in-flight sends of
+     * every provider.
+     *
+     * @return the summary, in configured order
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        snapshot().forEach((type, stats) -> {
+            if (!summary.isEmpty()) {
+                summary.append("; ");
+            }
+            summary.append(describe(type, stats));
+        });
+        return summary.toString();
+    }
+
+    /**
+     * Describes the state of a single provider for log messages.
+     *
+     * @param type  the provider type
+     * @param stats the provider's statistics
+     * @return the description
+     */
+    static String describe(EmailProviderType type, Stats stats) {
+        return String.format(Locale.ROOT,
+                "%s latency=%s success=%.0f%% inFlight=%d routed=%d failed=%d", type.getDisplayName(),
+                stats.latencyMillis() < 0 ? "n/a" : String.format(Locale.ROOT, "%.0fms", stats.latencyMillis()),
+                100 * stats.successRate(), stats.inFlight(), stats.routed(), stats.failed());
+    }
+
+    /**
+     * Records that a provider was skipped, for example because its circuit
+     * breaker is open.
+     *
+     * @param type the provider type
+     */
+    public void onSkipped(EmailProviderType type) {
+        states.get(type).observe(0L, false);
+    }
+
+    /**
+     * Returns the counters of every provider.
+     *
+     * @return the statistics per provider, in configured order
+     */
+    public Map<EmailProviderType, Stats> snapshot() {
+        Map<EmailProviderType, Stats> snapshot = new LinkedHashMap<>();
+        for (Route route : routes) {
+            snapshot.put(route.type(), states.get(route.type()).stats());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the counters of a single provider.
+     *
+     * @param type the provider type
+     * @return the statistics, or null if the provider is not routed to
+     */
+    public Stats stats(EmailProviderType type) {
+        ProviderState state = states.get(type);
+        return state != null ? state.stats() : null;
+    }
+
+    /**
+     * Returns the configured routes.
+     *
+     * @return the routes in configured order
+     */
+    public List<Route> getRoutes() {
+        return routes;
+    }
+}
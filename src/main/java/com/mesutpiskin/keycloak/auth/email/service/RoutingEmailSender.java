@@ -0,0 +1,85 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Sender that routes each email through a {@link ProviderRouter} and fails
+ * over to the next provider when a send fails.
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class RoutingEmailSender implements EmailSender {
+
+    private static final Logger logger = Logger.getLogger(RoutingEmailSender.class);
+
+    private final ProviderRouter router;
+    private final Function<EmailProviderType, EmailSender> senders;
+
+    /**
+     * Constructs a new RoutingEmailSender.
+     *
+     * @param router  the router choosing the provider
+     * @param senders creates the sender of a provider, returning null when the
+     *                provider is currently unavailable
+     */
+    public RoutingEmailSender(ProviderRouter router, Function<EmailProviderType, EmailSender> senders) {
+        this.router = router;
+        this.senders = senders;
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        List<EmailProviderType> plan = router.plan();
+        EmailException lastError = null;
+        for (EmailProviderType type : plan) {
+            EmailSender sender;
+            try {
+                sender = senders.apply(type);
+            } catch (IllegalArgumentException e) {
+                logger.warnf("Routing provider %s is not configured: %s", type.getDisplayName(), e.getMessage());
+                router.onSkipped(type);
+                continue;
+            }
+            if (sender == null) {
+                logger.debugf("Routing provider %s is unavailable; skipping it", type.getDisplayName());
+                router.onSkipped(type);
+                continue;
+            }
+
+            logger.infof("Routing email to %s via %s (plan=%s, %s)", message.getTo(), type.getDisplayName(),
+                    plan, ProviderRouter.describe(type, router.stats(type)));
+            router.onStart(type);
+            long start = System.currentTimeMillis();
+            try {
+                sender.sendEmail(message);
+                router.onComplete(type, System.currentTimeMillis() - start, true);
+                return;
+            } catch (EmailException | RuntimeException e) {
+                router.onComplete(type, System.currentTimeMillis() - start, false);
+                logger.warnf(e, "Routed send via %s failed; trying the next provider", type.getDisplayName());
+                lastError = e instanceof EmailException emailException
+                        ? emailException
+                        : new EmailException("Routed send via " + type.getDisplayName() + " failed", e);
+            }
+        }
+        throw lastError != null ? lastError : new EmailException("No routing provider is available");
+    }
+
+    @Override
+    public String getProviderName() {
+        return "Weighted Routing";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !router.getRoutes().isEmpty();
+    }
+}
@@ -0,0 +1,151 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decorator that paces sends through a {@link TokenBucket} and adapts the
+ * bucket to throttling responses of the provider.
+ * <p>
+ * When the bucket is briefly empty a send waits for its token instead of
+ * failing; only a send that would have to wait longer than the configured
+ * maximum fails with an {@link EmailThrottledException}, which lets the
+ * fallback take over.
+ * </p>
+ * <p>
+ * This decorator sits in front of the {@link CircuitBreakingEmailSender}, so a
+ * send refused here never reaches the breaker and is not counted as a
+ * provider failure. Delayed asynchronous sends are started on a small
+ * dedicated pool, because providers without a non-blocking client send on the
+ * calling thread.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class ThrottlingEmailSender implements EmailSender {
+
+    private static final Logger logger = Logger.getLogger(ThrottlingEmailSender.class);
+    private static final int DELAYED_SEND_THREADS = 4;
+    private static final Executor DELAYED_SENDS = delayedSendExecutor();
+
+    private final EmailSender delegate;
+    private final TokenBucket bucket;
+    private final long maxWaitNanos;
+
+    /**
+     * Constructs a new ThrottlingEmailSender.
+     *
+     * @param delegate      the paced sender
+     * @param bucket        the bucket of the provider account
+     * @param maxWaitMillis the longest a send waits for a token
+     */
+    public ThrottlingEmailSender(EmailSender delegate, TokenBucket bucket, long maxWaitMillis) {
+        this.delegate = delegate;
+        this.bucket = bucket;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        long wait = reserve(message);
+        if (wait > 0) {
+            long deadline = System.nanoTime() + wait;
+            for (long remaining = wait; remaining > 0; remaining = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new EmailException("Interrupted while waiting to send email via "
+                            + delegate.getProviderName());
+                }
+            }
+        }
+
+        try {
+            delegate.sendEmail(message);
+        } catch (EmailThrottledException e) {
+            onThrottled(e);
+            throw e;
+        }
+        bucket.onSuccess();
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        long wait;
+        try {
+            wait = reserve(message);
+        } catch (EmailThrottledException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> send = wait > 0
+                ? CompletableFuture.runAsync(() -> {
+                }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, DELAYED_SENDS))
+                        .thenCompose(ignored -> delegate.sendEmailAsync(message))
+                : delegate.sendEmailAsync(message);
+        return send.whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            if (cause == null) {
+                bucket.onSuccess();
+            } else if (cause instanceof EmailThrottledException throttled) {
+                onThrottled(throttled);
+            }
+        });
+    }
+
+    private long reserve(EmailMessage message) throws EmailThrottledException {
+        long wait = bucket.reserve(maxWaitNanos);
+        if (wait < 0) {
+            throw new EmailThrottledException(String.format(
+                    "Send rate limit of %s reached; not sending email to %s", delegate.getProviderName(),
+                    message.getTo()), -1L, null);
+        }
+        if (wait > 0) {
+            logger.debugf("Delaying email to %s via %s by %d ms to respect its rate limit", message.getTo(),
+                    delegate.getProviderName(), TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        return wait;
+    }
+
+    private void onThrottled(EmailThrottledException e) {
+        bucket.onThrottled(e.getRetryAfterMillis());
+        logger.warnf("%s throttled a send; reducing rate to %.1f/s", delegate.getProviderName(),
+                bucket.getCurrentRate());
+    }
+
+    private static Executor delayedSendExecutor() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DELAYED_SEND_THREADS, DELAYED_SEND_THREADS,
+                30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "email-otp-throttled-send-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return delegate.isAvailable();
+    }
+}
@@ -0,0 +1,143 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket limiting the send rate of a provider account.
+ * <p>
+ * The bucket is kept as a single theoretical arrival time (the generic cell
+ * rate algorithm): each send moves it forward by one token interval, and a
+ * send may start once the arrival time is no more than {@code burst}
+ * intervals ahead of the clock. Reservations are made with a single
+ * compare-and-set, so callers never block each other; a caller that has to
+ * wait is told how long instead of being rejected.
+ * </p>
+ * <p>
+ * The rate adapts to the provider: a throttling response halves it and
+ * pauses the bucket for the requested retry delay, and every successful send
+ * raises it again by a twentieth of the configured rate (additive increase,
+ * multiplicative decrease).
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class TokenBucket {
+
+    /**
+     * Lowest rate the bucket adapts down to, as a fraction of the configured
+     * rate.
+     */
+    static final double MIN_RATE_FRACTION = 0.1;
+
+    /**
+     * Pause applied when a provider throttles without saying for how long.
+     */
+    static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L;
+
+    /**
+     * Configured limits.
+     *
+     * @param sendsPerSecond the sustained send rate
+     * @param burst          the number of sends allowed back to back
+     */
+    public record Settings(int sendsPerSecond, int burst) {
+    }
+
+    private final Settings settings;
+    private final LongSupplier nanoClock;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final AtomicLong intervalNanos;
+    private final AtomicLong arrival;
+
+    /**
+     * Creates a bucket using the system clock.
+     *
+     * @param settings the configured limits
+     */
+    public TokenBucket(Settings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    TokenBucket(Settings settings, LongSupplier nanoClock) {
+        this.settings = settings;
+        this.nanoClock = nanoClock;
+        this.minIntervalNanos = TimeUnit.SECONDS.toNanos(1) / settings.sendsPerSecond();
+        this.maxIntervalNanos = (long) (minIntervalNanos / MIN_RATE_FRACTION);
+        this.intervalNanos = new AtomicLong(minIntervalNanos);
+        this.arrival = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * Reserves a token, waiting at most the given time for it.
+     *
+     * @param maxWaitNanos the longest acceptable wait
+     * @return the time to wait before sending, or -1 if no token becomes
+     *         available in time; nothing is reserved in that case
+     */
+    public long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = nanoClock.getAsLong();
+            long interval = intervalNanos.get();
+            long current = arrival.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - settings.burst() * interval;
+            if (wait > maxWaitNanos) {
+                return -1L;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return Math.max(0L, wait);
+            }
+        }
+    }
+
+    /**
+     * Adapts to a throttling response: halves the rate and holds back every
+     * send until the retry delay has passed.
+     *
+     * @param retryAfterMillis the delay requested by the provider, or a
+     *                         negative value if unknown
+     */
+    public void onThrottled(long retryAfterMillis) {
+        long interval = intervalNanos.updateAndGet(current -> Math.min(maxIntervalNanos, current * 2));
+        long pause = TimeUnit.MILLISECONDS.toNanos(retryAfterMillis >= 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS);
+        long resumeAt = nanoClock.getAsLong() + pause + (settings.burst() - 1) * interval;
+        arrival.accumulateAndGet(resumeAt, Math::max);
+    }
+
+    /**
+     * Records a successful send, moving the rate back towards the configured
+     * one.
+     */
+    public void onSuccess() {
+        intervalNanos.updateAndGet(current -> {
+            if (current <= minIntervalNanos) {
+                return current;
+            }
+            double rate = 1.0 / current + 1.0 / (minIntervalNanos * 20.0);
+            return Math.max(minIntervalNanos, (long) (1.0 / rate));
+        });
+    }
+
+    /**
+     * Returns the currently effective rate.
+     *
+     * @return sends per second
+     */
+    public double getCurrentRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos.get();
+    }
+
+    /**
+     * Returns the configured limits.
+     *
+     * @return the settings
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+}
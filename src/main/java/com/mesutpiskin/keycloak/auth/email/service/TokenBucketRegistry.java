@@ -0,0 +1,45 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holder of the token buckets shared by all sender instances, keyed by
+ * provider account.
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class TokenBucketRegistry {
+
+    private static final Map<String, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private TokenBucketRegistry() {
+        throw new UnsupportedOperationException("TokenBucketRegistry is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Returns the bucket for the key, creating it on first use. A bucket whose
+     * limits no longer match the configuration is replaced.
+     *
+     * @param key      the provider account identity
+     * @param settings the configured limits
+     * @return the shared bucket
+     */
+    public static TokenBucket get(String key, TokenBucket.Settings settings) {
+        return BUCKETS.compute(key, (k, existing) -> existing != null && existing.getSettings().equals(settings)
+                ? existing
+                : new TokenBucket(settings));
+    }
+
+    /**
+     * Removes every bucket.
+     */
+    public static void clear() {
+        BUCKETS.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.EmailThrottledException;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ses.SesAsyncClient;
+import software.amazon.awssdk.services.ses.SesAsyncClientBuilder;
+import software.amazon.awssdk.services.ses.model.SesException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * AWS SES email sender backed by the non-blocking {@link SesAsyncClient}.
+ * <p>
+ * Requests are written by a small Netty event loop instead of a thread blocked
+ * per send, and {@link #sendEmailAsync(EmailMessage)} returns as soon as the
+ * request has been handed to the client. Configuration is the same as for
+ * {@link AwsSesEmailSender}.
+ * </p>
+ * <p>
+ * The underlying client is shared through
+ * {@link EmailProviderClients#SES_ASYNC}.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class AwsSesAsyncEmailSender extends AwsSesEmailSender {
+
+    private static final Logger logger = Logger.getLogger(AwsSesAsyncEmailSender.class);
+
+    /**
+     * Number of Netty event loop threads per shared client.
+     */
+    static final int EVENT_LOOP_THREADS = 2;
+
+    private final String region;
+
+    /**
+     * Constructs a new AwsSesAsyncEmailSender.
+     *
+     * @param region          AWS region (e.g., "us-east-1")
+     * @param accessKeyId     AWS access key ID
+     * @param secretAccessKey AWS secret access key
+     * @param fromEmail       verified sender email address
+     * @param fromName        sender display name (optional)
+     * @param endpoint        endpoint override (optional, e.g. a VPC endpoint)
+     */
+    public AwsSesAsyncEmailSender(String region, String accessKeyId, String secretAccessKey,
+            String fromEmail, String fromName, String endpoint) {
+        super(region, accessKeyId, secretAccessKey, fromEmail, fromName, endpoint);
+        this.region = region;
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        try {
+            sendEmailAsync(message).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EmailException emailException) {
+                throw emailException;
+            }
+            throw new EmailException("Failed to send email via AWS SES to " + message.getTo(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailException("Interrupted while sending email via AWS SES to " + message.getTo(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        if (!isAvailable()) {
+            return CompletableFuture.failedFuture(new EmailException("AWS SES is not properly configured"));
+        }
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            SesAsyncClient client = EmailProviderClients.SES_ASYNC.get(clientKey(), credentialsFingerprint(),
+                    this::buildAsyncClient);
+            client.sendEmail(buildRequest(message)).whenComplete((response, error) -> {
+                if (error == null) {
+                    logger.debugf("Email sent successfully via AWS SES (async) to %s (MessageId: %s)",
+                            message.getTo(), response.messageId());
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(toEmailException(message, error));
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(toEmailException(message, e));
+        }
+        return result;
+    }
+
+    private static EmailException toEmailException(EmailMessage message, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String errorMsg;
+        if (cause instanceof SesException sesException && sesException.awsErrorDetails() != null) {
+            errorMsg = String.format("AWS SES error sending email to %s: %s",
+                    message.getTo(), sesException.awsErrorDetails().errorMessage());
+        } else {
+            errorMsg = String.format("Failed to send email via AWS SES to %s", message.getTo());
+        }
+        if (cause instanceof SesException sesException && isThrottling(sesException)) {
+            logger.warn(errorMsg);
+            return new EmailThrottledException(errorMsg, -1L, cause);
+        }
+        logger.errorf(cause, errorMsg);
+        return new EmailException(errorMsg, cause);
+    }
+
+    /**
+     * Builds a new async SES client on the Netty NIO transport. Only called on
+     * a cache miss.
+     *
+     * @return a new async SES client
+     */
+    private SesAsyncClient buildAsyncClient() {
+        SesAsyncClientBuilder builder = SesAsyncClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .eventLoopGroupBuilder(SdkEventLoopGroup.builder().numberOfThreads(EVENT_LOOP_THREADS)));
+        if (endpointOverride() != null) {
+            builder.endpointOverride(endpointOverride());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String getProviderName() {
+        return "AWS SES (async)";
+    }
+}
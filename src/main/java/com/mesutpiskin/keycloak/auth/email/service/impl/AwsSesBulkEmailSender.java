@@ -0,0 +1,291 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.EmailThrottledException;
+import com.mesutpiskin.keycloak.auth.email.service.MicroBatcher;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.util.JsonSerialization;
+import software.amazon.awssdk.services.ses.SesClient;
+import software.amazon.awssdk.services.ses.model.AlreadyExistsException;
+import software.amazon.awssdk.services.ses.model.BulkEmailDestination;
+import software.amazon.awssdk.services.ses.model.BulkEmailDestinationStatus;
+import software.amazon.awssdk.services.ses.model.BulkEmailStatus;
+import software.amazon.awssdk.services.ses.model.SendBulkTemplatedEmailRequest;
+import software.amazon.awssdk.services.ses.model.SendBulkTemplatedEmailResponse;
+import software.amazon.awssdk.services.ses.model.SesException;
+import software.amazon.awssdk.services.ses.model.Template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * AWS SES sender that delivers codes with {@code SendBulkTemplatedEmail}.
+ * <p>
+ * The code email is registered once as an SES template with
+ * {@code {{username}}} and {@code {{code}}} placeholders: one template per
+ * realm, locale and code lifetime (named after the configured template name
+ * and the compiled email's family, and updated in place when the theme or
+ * messages change, so templates do not pile up against the account's template
+ * quota), or a plain
+ * text template with {@code {{subject}}} and {@code {{ttl}}} as well when no
+ * theme rendering is available. Codes sent
+ * within the linger time for the same template are then
+ * delivered together, up to {@value #MAX_DESTINATIONS} destinations per
+ * request, each with a small JSON document of replacement data instead of a
+ * full message. SES reports a status per destination, so a rejected address
+ * fails only its own code. Messages with their own HTML or text body are sent
+ * individually.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class AwsSesBulkEmailSender extends AwsSesEmailSender {
+
+    private static final Logger logger = Logger.getLogger(AwsSesBulkEmailSender.class);
+
+    /**
+     * Maximum number of destinations SES accepts per bulk request.
+     */
+    public static final int MAX_DESTINATIONS = 50;
+
+    /**
+     * Template name used when none is configured.
+     */
+    public static final String DEFAULT_TEMPLATE_NAME = "keycloak-email-otp-code";
+
+    private static final Map<String, MicroBatcher<EmailMessage>> BATCHERS = new ConcurrentHashMap<>();
+    private static final Map<String, String> REGISTERED_TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String templateName;
+    private final String name;
+    private final int batchSize;
+    private final long lingerMillis;
+
+    /**
+     * Constructs a new AwsSesBulkEmailSender.
+     *
+     * @param region          AWS region (e.g., "us-east-1")
+     * @param accessKeyId     AWS access key ID
+     * @param secretAccessKey AWS secret access key
+     * @param fromEmail       verified sender email address
+     * @param fromName        sender display name (optional)
+     * @param endpoint        endpoint override (optional)
+     * @param templateName    name of the SES template (optional)
+     * @param batchSize       the maximum number of destinations per request
+     * @param lingerMillis    the longest a code waits for others to join its
+     *                        batch
+     */
+    public AwsSesBulkEmailSender(String region, String accessKeyId, String secretAccessKey, String fromEmail,
+            String fromName, String endpoint, String templateName, int batchSize, long lingerMillis) {
+        super(region, accessKeyId, secretAccessKey, fromEmail, fromName, endpoint);
+        this.templateName = templateName != null && !templateName.isBlank() ? templateName.trim()
+                : DEFAULT_TEMPLATE_NAME;
+        this.name = "AWS SES " + fromEmail;
+        this.batchSize = Math.min(batchSize, MAX_DESTINATIONS);
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Removes every batcher and forgets which templates were registered.
+     */
+    public static void clear() {
+        BATCHERS.clear();
+        REGISTERED_TEMPLATES.clear();
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        if (!message.hasSharedBody()) {
+            super.sendEmail(message);
+            return;
+        }
+        try {
+            sendEmailAsync(message).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EmailException emailException) {
+                throw emailException;
+            }
+            throw new EmailException("Failed to send email via AWS SES to " + message.getTo(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailException("Interrupted while sending email via AWS SES to " + message.getTo(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        if (!message.hasSharedBody()) {
+            return super.sendEmailAsync(message);
+        }
+        if (!isAvailable()) {
+            return CompletableFuture.failedFuture(new EmailException("AWS SES is not properly configured"));
+        }
+        CompiledEmail compiled = message.getCompiledEmail();
+        String batchKey = EmailProviderClients.fingerprint(String.valueOf(clientKey()), credentialsFingerprint(),
+                source(), templateName, String.valueOf(batchSize), String.valueOf(lingerMillis));
+        String key = compiled != null ? batchKey + "/" + compiled.id() : batchKey;
+        return BATCHERS.computeIfAbsent(key, k -> new MicroBatcher<>(name, batchSize, lingerMillis, this::flush))
+                .submit(message);
+    }
+
+    private void flush(List<MicroBatcher.Batched<EmailMessage>> batch) throws EmailException {
+        List<EmailMessage> messages = batch.stream().map(MicroBatcher.Batched::item).toList();
+        SendBulkTemplatedEmailResponse response;
+        try {
+            SesClient client = sharedClient();
+            ensureTemplate(client, messages.get(0).getCompiledEmail());
+            response = client.sendBulkTemplatedEmail(buildBulkRequest(messages));
+        } catch (SesException e) {
+            String errorMsg = String.format("AWS SES error sending %d code email(s): %s", messages.size(),
+                    e.awsErrorDetails() != null ? e.awsErrorDetails().errorMessage() : e.getMessage());
+            if (isThrottling(e)) {
+                logger.warn(errorMsg);
+                throw new EmailThrottledException(errorMsg, -1L, e);
+            }
+            logger.errorf(e, errorMsg);
+            throw new EmailException(errorMsg, e);
+        } catch (IOException | RuntimeException e) {
+            String errorMsg = String.format("Failed to send %d code email(s) via AWS SES", messages.size());
+            logger.errorf(e, errorMsg);
+            throw new EmailException(errorMsg, e);
+        }
+
+        List<BulkEmailDestinationStatus> statuses = response.status();
+        for (int i = 0; i < batch.size(); i++) {
+            BulkEmailDestinationStatus status = i < statuses.size() ? statuses.get(i) : null;
+            EmailMessage message = messages.get(i);
+            if (status != null && status.status() == BulkEmailStatus.SUCCESS) {
+                logger.debugf("Email sent successfully via AWS SES bulk send to %s (MessageId: %s)",
+                        message.getTo(), status.messageId());
+                batch.get(i).future().complete(null);
+            } else {
+                String errorMsg = String.format("AWS SES rejected email to %s: %s", message.getTo(),
+                        status != null ? status.statusAsString() + " " + status.error() : "no status returned");
+                logger.error(errorMsg);
+                batch.get(i).future().completeExceptionally(new EmailException(errorMsg));
+            }
+        }
+    }
+
+    /**
+     * Builds the bulk request with one destination per message.
+     *
+     * @param messages the batched messages
+     * @return the request
+     * @throws IOException if the replacement data cannot be serialized
+     */
+    SendBulkTemplatedEmailRequest buildBulkRequest(List<EmailMessage> messages) throws IOException {
+        List<BulkEmailDestination> destinations = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            Map<String, String> data = new LinkedHashMap<>();
+            data.put("subject", message.getSubject());
+            data.put("username", String.valueOf(message.getTemplateData().get("username")));
+            data.put("code", String.valueOf(message.getTemplateData().get("code")));
+            data.put("ttl", String.valueOf(message.getTemplateData().get("ttl")));
+            destinations.add(BulkEmailDestination.builder()
+                    .destination(destination -> destination.toAddresses(message.getTo()))
+                    .replacementTemplateData(JsonSerialization.writeValueAsString(data))
+                    .build());
+        }
+        return SendBulkTemplatedEmailRequest.builder()
+                .source(source())
+                .template(templateName(messages.get(0).getCompiledEmail()))
+                .defaultTemplateData(JsonSerialization.writeValueAsString(
+                        Map.of("subject", messages.get(0).getSubject(), "username", "", "code", "", "ttl", "")))
+                .destinations(destinations)
+                .build();
+    }
+
+    /**
+     * Returns the name of the SES template of a compiled email.
+     *
+     * @param compiled the compiled email, or null for the plain text template
+     * @return the template name
+     */
+    String templateName(CompiledEmail compiled) {
+        if (compiled == null) {
+            return templateName;
+        }
+        String base = templateName.length() > 47 ? templateName.substring(0, 47) : templateName;
+        return base + "-" + compiled.family();
+    }
+
+    /**
+     * Builds the SES template of the code email.
+     *
+     * @param compiled the compiled email, or null for the plain text template
+     * @return the template
+     */
+    Template buildTemplate(CompiledEmail compiled) {
+        if (compiled != null) {
+            String[] placeholders = { "{{username}}", "{{code}}" };
+            return Template.builder()
+                    .templateName(templateName(compiled))
+                    .subjectPart(compiled.subject().render(placeholders))
+                    .textPart(compiled.text() != null ? compiled.text().render(placeholders) : null)
+                    .htmlPart(compiled.html() != null ? compiled.html().render(placeholders) : null)
+                    .build();
+        }
+        return Template.builder()
+                .templateName(templateName)
+                .subjectPart("{{subject}}")
+                .textPart(buildTextFromTemplateData(EmailMessage.builder()
+                        .to("{{email}}")
+                        .subject("{{subject}}")
+                        .templateData(Map.of("username", "{{username}}", "code", "{{code}}", "ttl", "{{ttl}}"))
+                        .build()))
+                .build();
+    }
+
+    /**
+     * Creates the template on first use, or updates it when it already exists
+     * or was registered for an older version of the email.
+     * <p>
+     * Configurations that differ in their code lifetime compile to different
+     * families and never share a template, so an update only ever replaces a
+     * template with another rendering of the same email. Nodes pick up a
+     * changed theme independently, so for a short while after the change a
+     * batch may go out with either rendering.
+     * </p>
+     */
+    void ensureTemplate(SesClient client, CompiledEmail compiled) {
+        String key = clientKey() + "/" + templateName(compiled);
+        String version = compiled != null ? compiled.id() : "";
+        String registered = REGISTERED_TEMPLATES.get(key);
+        if (version.equals(registered)) {
+            return;
+        }
+        Template template = buildTemplate(compiled);
+        if (registered != null) {
+            updateTemplate(client, template);
+        } else {
+            try {
+                client.createTemplate(request -> request.template(template));
+                logger.infof("Registered AWS SES template %s", template.templateName());
+            } catch (AlreadyExistsException e) {
+                updateTemplate(client, template);
+            }
+        }
+        REGISTERED_TEMPLATES.put(key, version);
+    }
+
+    private static void updateTemplate(SesClient client, Template template) {
+        client.updateTemplate(request -> request.template(template));
+        logger.debugf("Updated AWS SES template %s", template.templateName());
+    }
+
+    @Override
+    public String getProviderName() {
+        return "AWS SES (bulk)";
+    }
+}
@@ -2,14 +2,18 @@ package com.mesutpiskin.keycloak.auth.email.service.impl;
 
 import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
 import com.mesutpiskin.keycloak.auth.email.service.EmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.EmailThrottledException;
 import org.jboss.logging.Logger;
 import org.keycloak.email.EmailException;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ses.SesClient;
+import software.amazon.awssdk.services.ses.SesClientBuilder;
 import software.amazon.awssdk.services.ses.model.*;
 
+import java.net.URI;
+
 /**
  * AWS SES email sender implementation using AWS SDK v2.
  * <p>
@@ -28,6 +32,11 @@ import software.amazon.awssdk.services.ses.model.*;
  * </ul>
  * </p>
  *
+ * <p>
+ * The underlying {@link SesClient} is shared through
+ * {@link EmailProviderClients#SES} and reused across sends.
+ * </p>
+ *
  * @author Mesut Pişkin
  * @version 26.1.1
  * @since 1.1.0
@@ -41,6 +50,17 @@ public class AwsSesEmailSender implements EmailSender {
     private final String secretAccessKey;
     private final String fromEmail;
     private final String fromName;
+    private final String endpoint;
+
+    /**
+     * Identity of a shared SES client.
+     *
+     * @param region      AWS region
+     * @param accessKeyId AWS access key ID
+     * @param endpoint    endpoint override, or null for the regional endpoint
+     */
+    public record ClientKey(String region, String accessKeyId, String endpoint) {
+    }
 
     /**
      * Constructs a new AwsSesEmailSender.
@@ -53,6 +73,22 @@ public class AwsSesEmailSender implements EmailSender {
      */
     public AwsSesEmailSender(String region, String accessKeyId, String secretAccessKey,
             String fromEmail, String fromName) {
+        this(region, accessKeyId, secretAccessKey, fromEmail, fromName, null);
+    }
+
+    /**
+     * Constructs a new AwsSesEmailSender with an endpoint override.
+     *
+     * @param region          AWS region (e.g., "us-east-1")
+     * @param accessKeyId     AWS access key ID
+     * @param secretAccessKey AWS secret access key
+     * @param fromEmail       verified sender email address
+     * @param fromName        sender display name (optional)
+     * @param endpoint        endpoint override (optional, e.g. a VPC endpoint)
+     */
+    public AwsSesEmailSender(String region, String accessKeyId, String secretAccessKey,
+            String fromEmail, String fromName, String endpoint) {
+        this.endpoint = endpoint != null && !endpoint.trim().isEmpty() ? endpoint.trim() : null;
         this.region = region;
         this.accessKeyId = accessKeyId;
         this.secretAccessKey = secretAccessKey;
@@ -67,69 +103,23 @@ public class AwsSesEmailSender implements EmailSender {
         }
 
         try {
-            // Build AWS credentials
-            AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKeyId, secretAccessKey);
-            StaticCredentialsProvider credentialsProvider = StaticCredentialsProvider.create(awsCredentials);
-
-            // Create SES client
-            try (SesClient sesClient = SesClient.builder()
-                    .region(Region.of(region))
-                    .credentialsProvider(credentialsProvider)
-                    .build()) {
-
-                // Build email content
-                Content subject = Content.builder()
-                        .data(message.getSubject())
-                        .build();
-
-                Content bodyContent;
-                if (message.getHtmlBody() != null && !message.getHtmlBody().isEmpty()) {
-                    bodyContent = Content.builder()
-                            .data(message.getHtmlBody())
-                            .build();
-                } else if (message.getTextBody() != null && !message.getTextBody().isEmpty()) {
-                    bodyContent = Content.builder()
-                            .data(message.getTextBody())
-                            .build();
-                } else {
-                    // Build from template data
-                    bodyContent = Content.builder()
-                            .data(buildTextFromTemplateData(message))
-                            .build();
-                }
-
-                // Build message body
-                Body body = Body.builder()
-                        .text(bodyContent)
-                        .build();
-
-                Message sesMessage = Message.builder()
-                        .subject(subject)
-                        .body(body)
-                        .build();
-
-                // Build destination
-                Destination destination = Destination.builder()
-                        .toAddresses(message.getTo())
-                        .build();
-
-                // Build send request
-                SendEmailRequest emailRequest = SendEmailRequest.builder()
-                        .destination(destination)
-                        .message(sesMessage)
-                        .source(fromName.equals(fromEmail) ? fromEmail : fromName + " <" + fromEmail + ">")
-                        .build();
-
-                // Send email
-                SendEmailResponse response = sesClient.sendEmail(emailRequest);
-
-                logger.debugf("Email sent successfully via AWS SES to %s (MessageId: %s)",
-                        message.getTo(), response.messageId());
-            }
+            SesClient sesClient = sharedClient();
+
+            SendEmailRequest emailRequest = buildRequest(message);
+
+            // Send email
+            SendEmailResponse response = sesClient.sendEmail(emailRequest);
+
+            logger.debugf("Email sent successfully via AWS SES to %s (MessageId: %s)",
+                    message.getTo(), response.messageId());
 
         } catch (SesException e) {
             String errorMsg = String.format("AWS SES error sending email to %s: %s",
                     message.getTo(), e.awsErrorDetails().errorMessage());
+            if (isThrottling(e)) {
+                logger.warn(errorMsg);
+                throw new EmailThrottledException(errorMsg, -1L, e);
+            }
             logger.errorf(e, errorMsg);
             throw new EmailException(errorMsg, e);
         } catch (Exception e) {
@@ -139,6 +129,139 @@ public class AwsSesEmailSender implements EmailSender {
         }
     }
 
+    /**
+     * Determines whether SES rejected a send because the account's maximum
+     * send rate was exceeded.
+     *
+     * @param e the SES error
+     * @return true for throttling errors
+     */
+    protected static boolean isThrottling(SesException e) {
+        return e.isThrottlingException() || (e.awsErrorDetails() != null
+                && "Throttling".equals(e.awsErrorDetails().errorCode()));
+    }
+
+    /**
+     * Builds the SES send request for the message.
+     *
+     * @param message the email message to send
+     * @return the SES request
+     */
+    protected SendEmailRequest buildRequest(EmailMessage message) {
+        // Build email content
+        Content subject = content(message.getSubject());
+
+        Body.Builder body = Body.builder();
+        boolean hasText = message.getTextBody() != null && !message.getTextBody().isEmpty();
+        boolean hasHtml = message.getHtmlBody() != null && !message.getHtmlBody().isEmpty();
+        if (hasText) {
+            body.text(content(message.getTextBody()));
+        }
+        if (hasHtml) {
+            body.html(content(message.getHtmlBody()));
+        }
+        if (!hasText && !hasHtml) {
+            // Build from template data
+            body.text(content(buildTextFromTemplateData(message)));
+        }
+
+        Message sesMessage = Message.builder()
+                .subject(subject)
+                .body(body.build())
+                .build();
+
+        // Build destination
+        Destination destination = Destination.builder()
+                .toAddresses(message.getTo())
+                .build();
+
+        return SendEmailRequest.builder()
+                .destination(destination)
+                .message(sesMessage)
+                .source(source())
+                .build();
+    }
+
+    /**
+     * Builds UTF-8 content, since SES assumes 7-bit ASCII otherwise and the
+     * localized emails are not.
+     */
+    private static Content content(String data) {
+        return Content.builder().data(data).charset("UTF-8").build();
+    }
+
+    /**
+     * Returns the source address, including the display name when one is
+     * configured.
+     *
+     * @return the source address
+     */
+    protected String source() {
+        return fromName.equals(fromEmail) ? fromEmail : fromName + " <" + fromEmail + ">";
+    }
+
+    /**
+     * Returns the shared SES client of this sender's region and credentials.
+     *
+     * @return the SES client
+     */
+    protected SesClient sharedClient() {
+        return EmailProviderClients.SES.get(clientKey(), credentialsFingerprint(), this::buildClient);
+    }
+
+    /**
+     * Returns the identity of the shared client used by this sender.
+     *
+     * @return the client key
+     */
+    protected ClientKey clientKey() {
+        return new ClientKey(region, accessKeyId, endpoint);
+    }
+
+    /**
+     * Returns a digest of the secret key, used to rebuild the shared client
+     * when the secret is rotated.
+     *
+     * @return the credentials fingerprint
+     */
+    protected String credentialsFingerprint() {
+        return EmailProviderClients.fingerprint(secretAccessKey);
+    }
+
+    /**
+     * Returns the static credentials of this sender.
+     *
+     * @return the credentials provider
+     */
+    protected StaticCredentialsProvider credentialsProvider() {
+        return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKeyId, secretAccessKey));
+    }
+
+    /**
+     * Returns the configured endpoint override.
+     *
+     * @return the endpoint, or null for the regional endpoint
+     */
+    protected URI endpointOverride() {
+        return endpoint != null ? URI.create(endpoint) : null;
+    }
+
+    /**
+     * Builds a new SES client for this sender's region, credentials and
+     * endpoint. Only called on a cache miss.
+     *
+     * @return a new SES client
+     */
+    private SesClient buildClient() {
+        SesClientBuilder builder = SesClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider());
+        if (endpoint != null) {
+            builder.endpointOverride(endpointOverride());
+        }
+        return builder.build();
+    }
+
     @Override
     public String getProviderName() {
         return "AWS SES";
@@ -172,27 +295,8 @@ public class AwsSesEmailSender implements EmailSender {
      * @param message the email message containing template data
      * @return the constructed email text
      */
-    private String buildTextFromTemplateData(EmailMessage message) {
-        StringBuilder textContent = new StringBuilder();
-
-        Object username = message.getTemplateData().get("username");
-        Object code = message.getTemplateData().get("code");
-        Object ttl = message.getTemplateData().get("ttl");
-
-        if (username != null) {
-            textContent.append("Hello ").append(username).append(",\n\n");
-        }
-
-        if (code != null) {
-            textContent.append("Your verification code is: ").append(code).append("\n\n");
-        }
-
-        if (ttl != null) {
-            textContent.append("This code will expire in ").append(ttl).append(" minutes.\n\n");
-        }
-
-        textContent.append("If you did not request this code, please ignore this email.");
-
-        return textContent.toString();
+    protected String buildTextFromTemplateData(EmailMessage message) {
+        return EmailBodyCache.defaultText(message.getTemplateData().get("username"),
+                message.getTemplateData().get("code"), message.getTemplateData().get("ttl"));
     }
 }
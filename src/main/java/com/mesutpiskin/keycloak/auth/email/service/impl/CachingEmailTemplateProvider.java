@@ -0,0 +1,252 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmailBody;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.keycloak.common.Version;
+import org.keycloak.email.EmailException;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Email theme renderer that serves code emails from {@link EmailBodyCache}.
+ * <p>
+ * On a miss the email is rendered twice through FreeMarker: once with markers
+ * in place of the username and code to compile it, and once with sample values
+ * to check that splicing reproduces the template's output. Later emails for
+ * the same realm, locale and theme are built by splicing the values into the
+ * compiled bodies.
+ * </p>
+ * <p>
+ * Keycloak also exposes the recipient's profile to the template as
+ * {@code user}. The sample rendering therefore uses a synthetic user as well,
+ * so that a template reading e.g. {@code ${user.firstName}} renders
+ * differently and is never cached.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class CachingEmailTemplateProvider extends FreeMarkerEmailTemplateProvider {
+
+    private static final String MARKER_PREFIX = "kc" + UUID.randomUUID().toString().replace("-", "");
+    private static final String[] MARKERS = { MARKER_PREFIX + "u", MARKER_PREFIX + "c" };
+    private static final String[] PROBES = { "probe.user", "0123456789" };
+    private static final String PROBE_NAME = MARKER_PREFIX + "p";
+
+    /**
+     * Constructs a new CachingEmailTemplateProvider.
+     *
+     * @param session the Keycloak session
+     */
+    public CachingEmailTemplateProvider(KeycloakSession session) {
+        super(session);
+    }
+
+    @Override
+    protected EmailTemplate processTemplate(String subjectKey, List<Object> subjectAttributes, String template,
+            Map<String, Object> attributes) throws EmailException {
+        CompiledEmail compiled = compiled(subjectKey, subjectAttributes, template, attributes);
+        String[] values = CompiledEmail.values(attributes);
+        if (compiled == null || !compiled.accepts(values)) {
+            return renderTemplate(subjectKey, subjectAttributes, template, attributes);
+        }
+        return render(compiled, values);
+    }
+
+    /**
+     * Returns the compiled email for the current realm and user's locale,
+     * compiling it on a miss.
+     *
+     * @param subjectKey        the message key of the subject
+     * @param subjectAttributes the subject parameters
+     * @param template          the template name
+     * @param attributes        the template attributes
+     * @return the compiled email, or null if caching is disabled or the
+     *         template cannot be compiled
+     * @throws EmailException if the template cannot be rendered
+     */
+    public CompiledEmail compiled(String subjectKey, List<Object> subjectAttributes, String template,
+            Map<String, Object> attributes) throws EmailException {
+        if (!EmailBodyCache.isEnabled() || realm == null) {
+            return null;
+        }
+        Locale locale = session.getContext().resolveLocale(user,
+                Boolean.parseBoolean(String.valueOf(this.attributes.get("IGNORE_ACCEPT_LANGUAGE_HEADER"))));
+        String key = realm.getId() + '/' + template + '/' + subjectKey + '/' + locale.toLanguageTag() + '/'
+                + EmailProviderClients.fingerprint(constants(attributes)).substring(0, 16);
+        String version = version(locale, subjectAttributes);
+        return EmailBodyCache.get(key, version,
+                () -> compile(EmailProviderClients.fingerprint(key, version).substring(0, 16),
+                        EmailProviderClients.fingerprint(key).substring(0, 16), subjectKey, subjectAttributes,
+                        template, attributes));
+    }
+
+    /**
+     * Renders a code email built from template data into its subject and
+     * bodies.
+     * <p>
+     * When the values could be spliced into the compiled email, the returned
+     * message carries it as well.
+     * </p>
+     *
+     * @param message           the message carrying the template data
+     * @param subjectKey        the message key of the subject
+     * @param subjectAttributes the subject parameters
+     * @param template          the template name
+     * @return the rendered message
+     * @throws EmailException if the template cannot be rendered
+     */
+    public EmailMessage localize(EmailMessage message, String subjectKey, List<Object> subjectAttributes,
+            String template) throws EmailException {
+        CompiledEmail compiled = compiled(subjectKey, subjectAttributes, template,
+                new HashMap<>(message.getTemplateData()));
+        String[] values = CompiledEmail.values(message.getTemplateData());
+        boolean shared = compiled != null && compiled.accepts(values);
+        EmailTemplate rendered = shared
+                ? render(compiled, values)
+                : renderTemplate(subjectKey, subjectAttributes, template,
+                        new HashMap<>(message.getTemplateData()));
+        return EmailMessage.builder()
+                .to(message.getTo())
+                .from(message.getFrom())
+                .subject(rendered.getSubject())
+                .textBody(rendered.getTextBody())
+                .htmlBody(rendered.getHtmlBody())
+                .templateData(message.getTemplateData())
+                .compiledEmail(shared ? compiled : null)
+                .build();
+    }
+
+    private CompiledEmail compile(String id, String family, String subjectKey, List<Object> subjectAttributes,
+            String template, Map<String, Object> attributes) throws EmailException {
+        EmailTemplate marked = renderTemplate(subjectKey, subjectAttributes, template,
+                withSlots(attributes, MARKERS));
+        CompiledEmail compiled = new CompiledEmail(id, family,
+                CompiledEmailBody.compile(marked.getSubject(), MARKERS),
+                CompiledEmailBody.compile(marked.getTextBody(), MARKERS),
+                CompiledEmailBody.compile(marked.getHtmlBody(), MARKERS));
+
+        UserModel recipient = user;
+        EmailTemplate probe;
+        try {
+            user = probeUser(recipient);
+            probe = renderTemplate(subjectKey, subjectAttributes, template, withSlots(attributes, PROBES));
+        } finally {
+            user = recipient;
+        }
+        EmailTemplate spliced = render(compiled, PROBES);
+        boolean reproducible = probe.getSubject().equals(spliced.getSubject())
+                && String.valueOf(probe.getTextBody()).equals(String.valueOf(spliced.getTextBody()))
+                && String.valueOf(probe.getHtmlBody()).equals(String.valueOf(spliced.getHtmlBody()));
+        return reproducible ? compiled : null;
+    }
+
+    /**
+     * Renders the template through FreeMarker.
+     */
+    EmailTemplate renderTemplate(String subjectKey, List<Object> subjectAttributes, String template,
+            Map<String, Object> attributes) throws EmailException {
+        return super.processTemplate(subjectKey, subjectAttributes, template, attributes);
+    }
+
+    /**
+     * Returns a user whose profile differs from the recipient's in every field
+     * a template can print, but who resolves to the same locale.
+     */
+    private static UserModel probeUser(UserModel recipient) {
+        Map<String, List<String>> profile = new HashMap<>();
+        profile.put(UserModel.USERNAME, List.of(PROBES[0]));
+        profile.put(UserModel.FIRST_NAME, List.of(PROBE_NAME));
+        profile.put(UserModel.LAST_NAME, List.of(PROBE_NAME));
+        profile.put(UserModel.EMAIL, List.of(PROBE_NAME + "@probe.invalid"));
+        String locale = recipient != null ? recipient.getFirstAttribute(UserModel.LOCALE) : null;
+        if (locale != null) {
+            profile.put(UserModel.LOCALE, List.of(locale));
+        }
+        InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+            case "getId" -> PROBE_NAME;
+            case "getUsername" -> PROBES[0];
+            case "getFirstName", "getLastName" -> PROBE_NAME;
+            case "getEmail" -> PROBE_NAME + "@probe.invalid";
+            case "getAttributes" -> profile;
+            case "getFirstAttribute" -> profile.containsKey(args[0]) ? profile.get(args[0]).get(0) : null;
+            case "getAttributeStream" -> profile.getOrDefault(args[0], List.of()).stream();
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            case "toString" -> "ProbeUser";
+            default -> defaultValue(method.getReturnType());
+        };
+        return (UserModel) Proxy.newProxyInstance(UserModel.class.getClassLoader(), new Class<?>[] { UserModel.class },
+                handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == Stream.class) {
+            return Stream.empty();
+        }
+        return null;
+    }
+
+    private static EmailTemplate render(CompiledEmail compiled, String[] values) {
+        return new EmailTemplate(compiled.subject().render(values),
+                compiled.text() != null ? compiled.text().render(values) : null,
+                compiled.html() != null ? compiled.html().render(values) : null);
+    }
+
+    private static Map<String, Object> withSlots(Map<String, Object> attributes, String[] values) {
+        Map<String, Object> copy = new HashMap<>(attributes);
+        for (int i = 0; i < values.length; i++) {
+            if (copy.containsKey(CompiledEmail.SLOTS.get(i))) {
+                copy.put(CompiledEmail.SLOTS.get(i), values[i]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the template attributes other than the slot values, such as the
+     * code lifetime, in a stable order.
+     */
+    private static String constants(Map<String, Object> attributes) {
+        Map<String, Object> constants = new TreeMap<>(attributes);
+        constants.keySet().removeAll(CompiledEmail.SLOTS);
+        return String.valueOf(constants);
+    }
+
+    /**
+     * Builds the version of a cached email from the theme and localization it
+     * is rendered with. The template attributes are part of the key instead.
+     */
+    private String version(Locale locale, List<Object> subjectAttributes) {
+        return String.join("\u0000",
+                Version.RESOURCES_VERSION,
+                String.valueOf(realm.getEmailTheme()),
+                getRealmName(),
+                String.valueOf(subjectAttributes),
+                Integer.toHexString(Objects.hashCode(realm.getRealmLocalizationTextsByLocale(locale.toLanguageTag()))),
+                Integer.toHexString(Objects.hashCode(realm.getRealmLocalizationTextsByLocale(locale.getLanguage()))));
+    }
+}
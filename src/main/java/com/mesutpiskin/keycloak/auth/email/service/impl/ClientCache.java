@@ -0,0 +1,214 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe cache of long-lived provider clients shared across Keycloak
+ * sessions.
+ * <p>
+ * Clients are keyed by their connection identity (for example region and
+ * access key) and carry a fingerprint of the remaining settings such as the
+ * secret. When a lookup presents a different fingerprint for the same key the
+ * cached client is retired and rebuilt, which handles credential rotation.
+ * Clients unused for longer than the idle timeout are evicted.
+ * </p>
+ * <p>
+ * Retired and evicted clients are not closed immediately, since a concurrent
+ * send may still be using them; they are closed on a later sweep once the
+ * idle timeout has passed again.
+ * </p>
+ *
+ * @param <K> the client key type
+ * @param <C> the client type
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class ClientCache<K, C extends AutoCloseable> {
+
+    private static final Logger logger = Logger.getLogger(ClientCache.class);
+
+    /**
+     * Default time after which an unused client is evicted (15 minutes).
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 15L * 60L * 1000L;
+
+    private final String name;
+    private final LongSupplier clock;
+    private final Map<K, Entry<C>> clients = new ConcurrentHashMap<>();
+    private final Queue<Retired<C>> retired = new ConcurrentLinkedQueue<>();
+    private final Map<String, K> keysByOwner = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+    private static final class Entry<C> {
+        private final C client;
+        private final String fingerprint;
+        private volatile long lastUsed;
+
+        private Entry(C client, String fingerprint, long now) {
+            this.client = client;
+            this.fingerprint = fingerprint;
+            this.lastUsed = now;
+        }
+    }
+
+    private record Retired<C>(C client, long retiredAt) {
+    }
+
+    /**
+     * Creates a cache using the system clock.
+     *
+     * @param name a short name used in log messages
+     */
+    public ClientCache(String name) {
+        this(name, System::currentTimeMillis);
+    }
+
+    ClientCache(String name, LongSupplier clock) {
+        this.name = name;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the cached client for the key, building a new one when none is
+     * cached or the fingerprint changed.
+     *
+     * @param key         the client identity
+     * @param fingerprint digest of the settings the client was built with
+     * @param factory     builds a new client
+     * @return the shared client
+     */
+    public C get(K key, String fingerprint, Supplier<C> factory) {
+        long now = clock.getAsLong();
+        sweepIfDue(now);
+
+        Entry<C> entry = clients.compute(key, (k, existing) -> {
+            if (existing != null && existing.fingerprint.equals(fingerprint)) {
+                return existing;
+            }
+            if (existing != null) {
+                logger.infof("Settings for %s client %s changed; rebuilding client", name, k);
+                retired.add(new Retired<>(existing.client, now));
+            } else {
+                logger.debugf("Creating %s client %s", name, k);
+            }
+            return new Entry<>(factory.get(), fingerprint, now);
+        });
+        entry.lastUsed = now;
+        return entry.client;
+    }
+
+    /**
+     * Records that the owner (for example an authenticator configuration) now
+     * uses the given key. If the owner previously used a different key that no
+     * other owner references, that client is retired right away instead of
+     * waiting for idle eviction.
+     *
+     * @param owner the owner identity
+     * @param key   the key the owner currently uses
+     */
+    public void bindOwner(String owner, K key) {
+        K previous = keysByOwner.put(owner, key);
+        if (previous != null && !previous.equals(key) && !keysByOwner.containsValue(previous)) {
+            logger.infof("%s client %s is no longer used by %s; retiring it", name, previous, owner);
+            invalidate(previous);
+        }
+    }
+
+    /**
+     * Retires the client cached for the key, if any.
+     *
+     * @param key the client identity
+     */
+    public void invalidate(K key) {
+        Entry<C> removed = clients.remove(key);
+        if (removed != null) {
+            retired.add(new Retired<>(removed.client, clock.getAsLong()));
+        }
+    }
+
+    /**
+     * Sets the time after which an unused client is evicted.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of clients currently cached.
+     *
+     * @return the cache size
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        long interval = Math.max(1000L, idleTimeoutMillis / 4);
+        if (now - last < interval || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        sweep(now);
+    }
+
+    void sweep(long now) {
+        long timeout = idleTimeoutMillis;
+        for (Iterator<Map.Entry<K, Entry<C>>> it = clients.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<K, Entry<C>> e = it.next();
+            Entry<C> entry = e.getValue();
+            if (now - entry.lastUsed >= timeout && clients.remove(e.getKey(), entry)) {
+                logger.debugf("Evicting idle %s client %s", name, e.getKey());
+                retired.add(new Retired<>(entry.client, now));
+            }
+        }
+
+        List<Retired<C>> pending = new ArrayList<>();
+        Retired<C> candidate;
+        while ((candidate = retired.poll()) != null) {
+            if (now - candidate.retiredAt() >= timeout) {
+                closeQuietly(candidate.client());
+            } else {
+                pending.add(candidate);
+            }
+        }
+        retired.addAll(pending);
+    }
+
+    /**
+     * Closes every cached and retired client.
+     */
+    public void close() {
+        keysByOwner.clear();
+        for (Iterator<Entry<C>> it = clients.values().iterator(); it.hasNext();) {
+            closeQuietly(it.next().client);
+            it.remove();
+        }
+        Retired<C> candidate;
+        while ((candidate = retired.poll()) != null) {
+            closeQuietly(candidate.client());
+        }
+    }
+
+    private void closeQuietly(C client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            logger.debugf(e, "Failed to close %s client", name);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmailBody;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of compiled code emails.
+ * <p>
+ * Entries are keyed by realm, template, locale and the values that are the
+ * same for every code (such as the TTL), so configurations with different
+ * lifetimes keep an entry each. They carry a version built from the realm's
+ * email theme and name, its localization overrides and the Keycloak resources
+ * version. A lookup with a different version recompiles the entry, so a
+ * changed theme or translation takes effect on the next email.
+ * </p>
+ * <p>
+ * The username and code are the only per-message values; they are spliced
+ * into the compiled bodies as long as they need no escaping. Templates whose
+ * output cannot be reproduced by splicing are remembered as not cacheable and
+ * rendered normally.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailBodyCache {
+
+    private static final Logger logger = Logger.getLogger(EmailBodyCache.class);
+
+    /**
+     * Default maximum number of cached entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /**
+     * Plain text body used by the API providers when a message carries only
+     * template data.
+     */
+    private static final CompiledEmailBody DEFAULT_TEXT = CompiledEmailBody.compile(
+            "Hello {0},\n\nYour verification code is: {1}\n\nThis code will expire in {2} minutes.\n\n"
+                    + "If you did not request this code, please ignore this email.",
+            "{0}", "{1}", "{2}");
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Compiles an email on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Compiler {
+
+        /**
+         * Compiles the email.
+         *
+         * @return the compiled email, or null if it cannot be cached
+         * @throws EmailException if the email cannot be rendered
+         */
+        CompiledEmail compile() throws EmailException;
+    }
+
+    private record Entry(String version, CompiledEmail compiled) {
+    }
+
+    private EmailBodyCache() {
+        throw new UnsupportedOperationException("EmailBodyCache is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Applies the cache settings.
+     *
+     * @param cacheEnabled false to always render through the template engine,
+     *                     for example while theme caching is disabled
+     * @param entries      the maximum number of cached entries
+     */
+    public static void configure(boolean cacheEnabled, int entries) {
+        enabled = cacheEnabled;
+        maxEntries = entries;
+        ENTRIES.clear();
+    }
+
+    /**
+     * Tells whether compiled emails are cached.
+     *
+     * @return true if the cache is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the compiled email for {@code key}, compiling it when missing or
+     * when the cached entry has a different version.
+     *
+     * @param key      the realm, template, locale and constant values
+     * @param version  the theme and localization the email is rendered with
+     * @param compiler compiles the email on a miss
+     * @return the compiled email, or null if it cannot be cached
+     * @throws EmailException if the email cannot be rendered
+     */
+    public static CompiledEmail get(String key, String version, Compiler compiler) throws EmailException {
+        Entry entry = ENTRIES.get(key);
+        if (entry != null && entry.version().equals(version)) {
+            return entry.compiled();
+        }
+        CompiledEmail compiled = compiler.compile();
+        if (compiled == null) {
+            logger.debugf("Email %s cannot be compiled and will be rendered for every message", key);
+        }
+        if (ENTRIES.size() >= maxEntries && !ENTRIES.containsKey(key)) {
+            ENTRIES.clear();
+        }
+        ENTRIES.put(key, new Entry(version, compiled));
+        return compiled;
+    }
+
+    /**
+     * Removes every cached entry.
+     */
+    public static void clear() {
+        ENTRIES.clear();
+    }
+
+    /**
+     * Renders the default plain text body from a message's template data.
+     *
+     * @param username the username, or null
+     * @param code     the code, or null
+     * @param ttl      the code lifetime, or null
+     * @return the text body
+     */
+    public static String defaultText(Object username, Object code, Object ttl) {
+        if (username != null && code != null && ttl != null) {
+            return DEFAULT_TEXT.render(username.toString(), code.toString(), ttl.toString());
+        }
+        StringBuilder textContent = new StringBuilder();
+        if (username != null) {
+            textContent.append("Hello ").append(username).append(",\n\n");
+        }
+        if (code != null) {
+            textContent.append("Your verification code is: ").append(code).append("\n\n");
+        }
+        if (ttl != null) {
+            textContent.append("This code will expire in ").append(ttl).append(" minutes.\n\n");
+        }
+        textContent.append("If you did not request this code, please ignore this email.");
+        return textContent.toString();
+    }
+}
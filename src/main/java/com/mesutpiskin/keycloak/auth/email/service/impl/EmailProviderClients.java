@@ -0,0 +1,97 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import software.amazon.awssdk.services.ses.SesAsyncClient;
+import software.amazon.awssdk.services.ses.SesClient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Holder of the provider client caches shared by all sender instances.
+ * <p>
+ * Senders are created per email, while the underlying SDK clients (HTTP
+ * connection pools, TLS sessions, worker threads) live here for the lifetime
+ * of the authenticator factory, which closes them on shutdown.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailProviderClients {
+
+    /**
+     * Shared AWS SES clients keyed by region, access key and endpoint.
+     */
+    public static final ClientCache<AwsSesEmailSender.ClientKey, SesClient> SES = new ClientCache<>("AWS SES");
+
+    /**
+     * Shared non-blocking AWS SES clients keyed by region, access key and
+     * endpoint.
+     */
+    public static final ClientCache<AwsSesEmailSender.ClientKey, SesAsyncClient> SES_ASYNC =
+            new ClientCache<>("AWS SES async");
+
+    /**
+     * Shared SendGrid clients keyed by a digest of the API key.
+     */
+    public static final ClientCache<String, SendGridEmailSender.PooledClient> SENDGRID = new ClientCache<>("SendGrid");
+
+    /**
+     * Shared SMTP connection pools keyed by realm id.
+     */
+    public static final ClientCache<String, SmtpTransportPool> SMTP = new ClientCache<>("SMTP");
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private EmailProviderClients() {
+        throw new UnsupportedOperationException("EmailProviderClients is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Applies the idle timeout to every client cache.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds
+     */
+    public static void configure(long idleTimeoutMillis) {
+        SES.setIdleTimeoutMillis(idleTimeoutMillis);
+        SES_ASYNC.setIdleTimeoutMillis(idleTimeoutMillis);
+        SENDGRID.setIdleTimeoutMillis(idleTimeoutMillis);
+        SMTP.setIdleTimeoutMillis(idleTimeoutMillis);
+    }
+
+    /**
+     * Closes every cached client.
+     */
+    public static void closeAll() {
+        SES.close();
+        SES_ASYNC.close();
+        SENDGRID.close();
+        SMTP.close();
+    }
+
+    /**
+     * Computes a SHA-256 digest of the given settings, used to detect changed
+     * credentials without keeping them as map keys.
+     *
+     * @param parts the settings to digest; null values are allowed
+     * @return the hex encoded digest
+     */
+    public static String fingerprint(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                if (part != null) {
+                    digest.update(part.getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
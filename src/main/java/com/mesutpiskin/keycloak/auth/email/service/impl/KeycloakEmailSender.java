@@ -5,6 +5,7 @@ import com.mesutpiskin.keycloak.auth.email.service.EmailSender;
 import org.jboss.logging.Logger;
 import org.keycloak.email.EmailException;
 import org.keycloak.email.EmailTemplateProvider;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
@@ -22,6 +23,10 @@ import java.util.Map;
  * backward compatibility with existing SMTP configurations. It uses the email
  * settings configured in Keycloak's Realm Settings.
  * </p>
+ * <p>
+ * When the realm uses Keycloak's default FreeMarker renderer, code emails are
+ * served from {@link EmailBodyCache} instead of being rendered for every send.
+ * </p>
  * 
  * <p>
  * This is the default provider and requires no additional configuration beyond
@@ -57,6 +62,10 @@ public class KeycloakEmailSender implements EmailSender {
     public void sendEmail(EmailMessage message) throws EmailException {
         try {
             EmailTemplateProvider emailProvider = session.getProvider(EmailTemplateProvider.class);
+            if (emailProvider != null && emailProvider.getClass() == FreeMarkerEmailTemplateProvider.class) {
+                // Same renderer, but code emails are served from the compiled body cache
+                emailProvider = new CachingEmailTemplateProvider(session);
+            }
             emailProvider.setRealm(realm);
             emailProvider.setUser(user);
 
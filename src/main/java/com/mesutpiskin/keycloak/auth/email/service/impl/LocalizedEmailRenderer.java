@@ -0,0 +1,107 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.email.EmailTemplateProvider;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Renders code emails for the API providers from the realm's email theme.
+ * <p>
+ * SendGrid and AWS SES receive the same localized subject, text and HTML
+ * bodies ({@code code-email.ftl} and the {@code emailCodeSubject} and
+ * {@code emailCodeBody} messages) that Keycloak SMTP sends, in the user's
+ * locale. Rendering goes through {@link CachingEmailTemplateProvider}, so
+ * after the first email per realm and locale no template is evaluated.
+ * </p>
+ * <p>
+ * A renderer belongs to the session it was created with and must be used on
+ * that session's thread, before the send is handed to another thread; the
+ * localized message itself needs no session.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class LocalizedEmailRenderer {
+
+    private static final Logger logger = Logger.getLogger(LocalizedEmailRenderer.class);
+
+    private static final String SUBJECT_KEY = "emailCodeSubject";
+    private static final String TEMPLATE = "code-email.ftl";
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final UserModel user;
+
+    private LocalizedEmailRenderer(KeycloakSession session, RealmModel realm, UserModel user) {
+        this.session = session;
+        this.realm = realm;
+        this.user = user;
+    }
+
+    /**
+     * Creates a renderer for the realm and user, unless the realm's emails
+     * are rendered by a custom {@link EmailTemplateProvider}.
+     *
+     * @param session the Keycloak session
+     * @param realm   the realm model
+     * @param user    the user the email is sent to
+     * @return the renderer, or null if the API providers should keep their
+     *         built-in text
+     */
+    public static LocalizedEmailRenderer create(KeycloakSession session, RealmModel realm, UserModel user) {
+        if (session == null || realm == null) {
+            return null;
+        }
+        EmailTemplateProvider provider = session.getProvider(EmailTemplateProvider.class);
+        if (provider == null || provider.getClass() != FreeMarkerEmailTemplateProvider.class) {
+            return null;
+        }
+        return new LocalizedEmailRenderer(session, realm, user);
+    }
+
+    /**
+     * Returns the message with its localized subject and bodies, if it is a
+     * code email built from template data.
+     * <p>
+     * When the values could be spliced into the compiled email, the message
+     * carries it as well, so that batching providers can send it as a shared
+     * template.
+     * </p>
+     *
+     * @param message the message
+     * @return the localized message, or the message itself if it has its own
+     *         body or cannot be rendered
+     */
+    public EmailMessage localize(EmailMessage message) {
+        if (!message.isRenderedFromTemplateData()) {
+            return message;
+        }
+        try {
+            return provider().localize(message, SUBJECT_KEY, subjectAttributes(), TEMPLATE);
+        } catch (EmailException | RuntimeException e) {
+            logger.warnf(e, "Failed to render localized email for %s; sending the default text", message.getTo());
+            return message;
+        }
+    }
+
+    private CachingEmailTemplateProvider provider() {
+        CachingEmailTemplateProvider provider = new CachingEmailTemplateProvider(session);
+        provider.setRealm(realm);
+        provider.setUser(user);
+        return provider;
+    }
+
+    private List<Object> subjectAttributes() {
+        return List.of(realm.getDisplayName() != null ? realm.getDisplayName() : realm.getName());
+    }
+}
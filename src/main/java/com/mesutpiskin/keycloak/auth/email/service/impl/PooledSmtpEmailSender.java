@@ -0,0 +1,269 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.jboss.logging.Logger;
+import org.keycloak.common.enums.HostnameVerificationPolicy;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.truststore.JSSETruststoreConfigurator;
+import org.keycloak.vault.VaultStringSecret;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Keycloak SMTP sender that reuses pooled SMTP connections.
+ * <p>
+ * The email is rendered from the realm's email theme exactly as
+ * {@link KeycloakEmailSender} does, and sent with the realm's SMTP settings,
+ * but over a connection from the realm's {@link SmtpTransportPool} instead of
+ * a new connection per message. Realms using token (XOAUTH2) authentication
+ * are sent through Keycloak's own path, since their tokens are short-lived.
+ * </p>
+ * <p>
+ * Pools are shared through {@link EmailProviderClients#SMTP} and rebuilt when
+ * the realm's SMTP settings or password change.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class PooledSmtpEmailSender extends KeycloakEmailSender {
+
+    private static final Logger logger = Logger.getLogger(PooledSmtpEmailSender.class);
+
+    private static final String SSL_PROTOCOLS = "TLSv1.3 TLSv1.2";
+    private static final String DEFAULT_TIMEOUT = "10000";
+
+    private static volatile SmtpTransportPool.Settings poolSettings = SmtpTransportPool.Settings.DEFAULT;
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final UserModel user;
+
+    /**
+     * Constructs a new PooledSmtpEmailSender.
+     *
+     * @param session the Keycloak session
+     * @param realm   the realm model
+     * @param user    the user to send email to
+     */
+    public PooledSmtpEmailSender(KeycloakSession session, RealmModel realm, UserModel user) {
+        super(session, realm, user);
+        this.session = session;
+        this.realm = realm;
+        this.user = user;
+    }
+
+    /**
+     * Applies the pool limits to pools created from now on.
+     *
+     * @param settings the pool limits
+     */
+    public static void configure(SmtpTransportPool.Settings settings) {
+        poolSettings = settings;
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        Map<String, String> smtpConfig = realm.getSmtpConfig();
+        if ("token".equals(smtpConfig.get("authType"))) {
+            super.sendEmail(message);
+            return;
+        }
+
+        String realmName = realm.getDisplayName() != null ? realm.getDisplayName() : realm.getName();
+        PooledTemplateProvider templates = new PooledTemplateProvider(session, message.getTo());
+        templates.setRealm(realm);
+        templates.setUser(user);
+        templates.send("emailCodeSubject", List.of(realmName), "code-email.ftl",
+                new HashMap<>(message.getTemplateData()));
+
+        logger.debugf("Email sent successfully via pooled Keycloak SMTP to %s", message.getTo());
+    }
+
+    @Override
+    public String getProviderName() {
+        return "Keycloak SMTP (pooled)";
+    }
+
+    /**
+     * Sends a rendered email over the realm's connection pool.
+     */
+    private void sendPooled(Map<String, String> smtpConfig, String address, String subject, String textBody,
+            String htmlBody) throws EmailException {
+        String password = resolvePassword(smtpConfig.get("password"));
+        SmtpTransportPool.Settings settings = poolSettings;
+        String fingerprint = EmailProviderClients.fingerprint(configFingerprint(smtpConfig), password,
+                settings.toString());
+        SmtpTransportPool pool = EmailProviderClients.SMTP.get(realm.getId(), fingerprint,
+                () -> buildPool(smtpConfig, password, settings));
+
+        try {
+            MimeMessage mimeMessage = buildMessage(smtpConfig, address, subject, textBody, htmlBody);
+            pool.send(mimeMessage, new Address[] { new InternetAddress(address) });
+        } catch (MessagingException | UnsupportedEncodingException e) {
+            logger.errorf(e, "Failed to send email via pooled Keycloak SMTP to %s", address);
+            throw new EmailException("Error when attempting to send the email to the server", e);
+        }
+    }
+
+    private SmtpTransportPool buildPool(Map<String, String> smtpConfig, String password,
+            SmtpTransportPool.Settings settings) {
+        Session mailSession = Session.getInstance(buildProperties(smtpConfig));
+        boolean auth = "true".equals(smtpConfig.get("auth"));
+        String username = smtpConfig.get("user");
+        String host = smtpConfig.get("host");
+        logger.infof("Creating pooled SMTP connections to %s for realm %s", host, realm.getName());
+        return new SmtpTransportPool("realm " + realm.getName(), () -> {
+            Transport transport = mailSession.getTransport("smtp");
+            if (auth) {
+                transport.connect(username, password);
+            } else {
+                transport.connect();
+            }
+            return transport;
+        }, settings);
+    }
+
+    /**
+     * Builds the JavaMail properties from the realm's SMTP settings, following
+     * Keycloak's own SMTP sender.
+     */
+    private Properties buildProperties(Map<String, String> smtpConfig) {
+        Properties props = new Properties();
+        if (smtpConfig.containsKey("host")) {
+            props.setProperty("mail.smtp.host", smtpConfig.get("host"));
+        }
+        if (smtpConfig.get("port") != null) {
+            props.setProperty("mail.smtp.port", smtpConfig.get("port"));
+        }
+        boolean auth = "true".equals(smtpConfig.get("auth"));
+        boolean ssl = "true".equals(smtpConfig.get("ssl"));
+        boolean starttls = "true".equals(smtpConfig.get("starttls"));
+        if (auth) {
+            props.setProperty("mail.smtp.auth", "true");
+        }
+        if (ssl) {
+            props.setProperty("mail.smtp.ssl.enable", "true");
+        }
+        if (starttls) {
+            props.setProperty("mail.smtp.starttls.enable", "true");
+        }
+        if ((ssl || starttls) && auth) {
+            props.setProperty("mail.smtp.ssl.protocols", SSL_PROTOCOLS);
+        }
+        if (ssl || starttls) {
+            setupTruststore(props);
+        }
+        props.setProperty("mail.smtp.timeout", smtpConfig.getOrDefault("timeout", DEFAULT_TIMEOUT));
+        props.setProperty("mail.smtp.connectiontimeout",
+                smtpConfig.getOrDefault("connectionTimeout", DEFAULT_TIMEOUT));
+        props.setProperty("mail.smtp.writetimeout", smtpConfig.getOrDefault("writeTimeout", DEFAULT_TIMEOUT));
+        String envelopeFrom = smtpConfig.get("envelopeFrom");
+        if (envelopeFrom != null && !envelopeFrom.isBlank()) {
+            props.setProperty("mail.smtp.from", envelopeFrom);
+        }
+        if ("true".equals(smtpConfig.get("allowutf8"))) {
+            props.setProperty("mail.mime.allowutf8", "true");
+        }
+        return props;
+    }
+
+    private void setupTruststore(Properties props) {
+        JSSETruststoreConfigurator configurator = new JSSETruststoreConfigurator(session);
+        SSLSocketFactory factory = configurator.getSSLSocketFactory();
+        if (factory != null) {
+            props.put("mail.smtp.ssl.socketFactory", factory);
+            if (configurator.getProvider().getPolicy() == HostnameVerificationPolicy.ANY) {
+                props.setProperty("mail.smtp.ssl.trust", "*");
+            } else {
+                props.setProperty("mail.smtp.ssl.checkserveridentity", "true");
+            }
+        }
+    }
+
+    private static MimeMessage buildMessage(Map<String, String> smtpConfig, String address, String subject,
+            String textBody, String htmlBody) throws MessagingException, UnsupportedEncodingException {
+        MimeMessage message = new MimeMessage((Session) null);
+        message.setFrom(new InternetAddress(smtpConfig.get("from"), smtpConfig.get("fromDisplayName"),
+                StandardCharsets.UTF_8.name()));
+        String replyTo = smtpConfig.get("replyTo");
+        if (replyTo != null && !replyTo.isBlank()) {
+            message.setReplyTo(new Address[] {
+                    new InternetAddress(replyTo, smtpConfig.get("replyToDisplayName"), StandardCharsets.UTF_8.name()) });
+        }
+        message.setHeader("To", address);
+        message.setSubject(subject, StandardCharsets.UTF_8.name());
+
+        Multipart multipart = new MimeMultipart("alternative");
+        if (textBody != null) {
+            MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setText(textBody, StandardCharsets.UTF_8.name());
+            multipart.addBodyPart(textPart);
+        }
+        if (htmlBody != null) {
+            MimeBodyPart htmlPart = new MimeBodyPart();
+            htmlPart.setContent(htmlBody, "text/html; charset=UTF-8");
+            multipart.addBodyPart(htmlPart);
+        }
+        message.setContent(multipart);
+        message.setSentDate(new Date());
+        message.saveChanges();
+        return message;
+    }
+
+    private String resolvePassword(String password) {
+        if (password == null) {
+            return null;
+        }
+        try (VaultStringSecret secret = session.vault().getStringSecret(password)) {
+            return secret.get().orElse(password);
+        }
+    }
+
+    private static String configFingerprint(Map<String, String> smtpConfig) {
+        Map<String, String> sorted = new TreeMap<>(smtpConfig);
+        sorted.remove("password");
+        return sorted.toString();
+    }
+
+    /**
+     * Email theme renderer that hands the rendered email to the pool instead
+     * of Keycloak's sender.
+     */
+    private final class PooledTemplateProvider extends CachingEmailTemplateProvider {
+
+        private final String address;
+
+        private PooledTemplateProvider(KeycloakSession session, String address) {
+            super(session);
+            this.address = address;
+        }
+
+        @Override
+        protected void send(Map<String, String> config, String subject, String textBody, String htmlBody, String to)
+                throws EmailException {
+            sendPooled(config, to != null ? to : address, subject, textBody, htmlBody);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.MicroBatcher;
+import com.sendgrid.helpers.mail.Mail;
+import com.sendgrid.helpers.mail.objects.Content;
+import com.sendgrid.helpers.mail.objects.Email;
+import com.sendgrid.helpers.mail.objects.Personalization;
+import org.keycloak.email.EmailException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * SendGrid sender that combines the codes sent within a short window into a
+ * single {@code mail/send} request.
+ * <p>
+ * Codes rendered from the same compiled, localized email (or built from the
+ * template data when no theme rendering is available) share one body with
+ * substitution tags; each recipient becomes a personalization carrying its
+ * own subject, username, code and validity. Codes in different locales are
+ * batched separately. A batch is sent once it holds the configured number of
+ * recipients (at most {@value #MAX_PERSONALIZATIONS}, SendGrid's limit) or
+ * once its first code has waited for the linger time, which bounds the added
+ * latency. Messages with their own HTML or text body are sent individually.
+ * </p>
+ * <p>
+ * Batches are shared by every configuration using the same API key and sender
+ * address. SendGrid accepts or rejects a request as a whole, so a failed
+ * request fails every code in the batch, and each caller falls back on its
+ * own.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class SendGridBatchingEmailSender extends SendGridEmailSender {
+
+    /**
+     * Maximum number of personalizations SendGrid accepts per request.
+     */
+    public static final int MAX_PERSONALIZATIONS = 1000;
+
+    static final String USERNAME_TAG = "-username-";
+    static final String CODE_TAG = "-code-";
+    static final String TTL_TAG = "-ttl-";
+
+    private static final Map<String, MicroBatcher<EmailMessage>> BATCHERS = new ConcurrentHashMap<>();
+
+    private final String batchKey;
+    private final String name;
+    private final int batchSize;
+    private final long lingerMillis;
+
+    /**
+     * Constructs a new SendGridBatchingEmailSender.
+     *
+     * @param apiKey       the SendGrid API key
+     * @param fromEmail    the sender email address
+     * @param fromName     the sender display name (optional)
+     * @param poolSettings the connection pool settings
+     * @param owner        identity of the configuration using the API key
+     *                     (optional)
+     * @param batchSize    the maximum number of recipients per request
+     * @param lingerMillis the longest a code waits for others to join its batch
+     */
+    public SendGridBatchingEmailSender(String apiKey, String fromEmail, String fromName, PoolSettings poolSettings,
+            String owner, int batchSize, long lingerMillis) {
+        super(apiKey, fromEmail, fromName, poolSettings, owner);
+        int size = Math.min(batchSize, MAX_PERSONALIZATIONS);
+        this.batchKey = EmailProviderClients.fingerprint(apiKey, fromEmail, fromName, String.valueOf(poolSettings),
+                String.valueOf(size), String.valueOf(lingerMillis));
+        this.name = "SendGrid " + fromEmail;
+        this.batchSize = size;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Removes every batcher.
+     */
+    public static void clear() {
+        BATCHERS.clear();
+    }
+
+    @Override
+    public void sendEmail(EmailMessage message) throws EmailException {
+        if (!message.hasSharedBody()) {
+            super.sendEmail(message);
+            return;
+        }
+        try {
+            sendEmailAsync(message).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EmailException emailException) {
+                throw emailException;
+            }
+            throw new EmailException("Failed to send email via SendGrid to " + message.getTo(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailException("Interrupted while sending email via SendGrid to " + message.getTo(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+        if (!message.hasSharedBody()) {
+            return super.sendEmailAsync(message);
+        }
+        if (!isAvailable()) {
+            return CompletableFuture.failedFuture(new EmailException("SendGrid is not properly configured"));
+        }
+        CompiledEmail compiled = message.getCompiledEmail();
+        String key = compiled != null ? batchKey + "/" + compiled.id() : batchKey;
+        return BATCHERS.computeIfAbsent(key, k -> new MicroBatcher<>(name, batchSize, lingerMillis, this::flush))
+                .submit(message);
+    }
+
+    private void flush(List<MicroBatcher.Batched<EmailMessage>> batch) throws EmailException {
+        List<EmailMessage> messages = batch.stream().map(MicroBatcher.Batched::item).toList();
+        post(buildBatch(messages), messages.size() + " recipient(s)");
+    }
+
+    /**
+     * Builds one mail with a personalization per message. The messages share
+     * the first message's compiled email, or its absence.
+     *
+     * @param messages the batched messages
+     * @return the mail
+     */
+    Mail buildBatch(List<EmailMessage> messages) {
+        EmailMessage first = messages.get(0);
+        Mail mail = new Mail();
+        mail.setFrom(sender());
+        mail.setSubject(first.getSubject());
+        CompiledEmail compiled = first.getCompiledEmail();
+        if (compiled != null) {
+            if (compiled.text() != null) {
+                mail.addContent(new Content("text/plain", compiled.text().render(USERNAME_TAG, CODE_TAG)));
+            }
+            if (compiled.html() != null) {
+                mail.addContent(new Content("text/html", compiled.html().render(USERNAME_TAG, CODE_TAG)));
+            }
+        } else {
+            mail.addContent(buildContentFromTemplateData(EmailMessage.builder()
+                    .to(first.getTo())
+                    .subject(first.getSubject())
+                    .templateData(Map.of("username", USERNAME_TAG, "code", CODE_TAG, "ttl", TTL_TAG))
+                    .build()));
+        }
+        for (EmailMessage message : messages) {
+            Personalization personalization = new Personalization();
+            personalization.addTo(new Email(message.getTo()));
+            personalization.setSubject(message.getSubject());
+            personalization.addSubstitution(USERNAME_TAG, String.valueOf(message.getTemplateData().get("username")));
+            personalization.addSubstitution(CODE_TAG, String.valueOf(message.getTemplateData().get("code")));
+            personalization.addSubstitution(TTL_TAG, String.valueOf(message.getTemplateData().get("ttl")));
+            mail.addPersonalization(personalization);
+        }
+        return mail;
+    }
+
+    @Override
+    public String getProviderName() {
+        return "SendGrid (batched)";
+    }
+}
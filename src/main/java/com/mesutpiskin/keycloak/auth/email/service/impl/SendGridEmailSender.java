@@ -1,7 +1,10 @@
 package com.mesutpiskin.keycloak.auth.email.service.impl;
 
+import com.mesutpiskin.keycloak.auth.email.EmailConstants;
 import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
 import com.mesutpiskin.keycloak.auth.email.service.EmailSender;
+import com.mesutpiskin.keycloak.auth.email.service.EmailThrottledException;
+import com.sendgrid.Client;
 import com.sendgrid.Method;
 import com.sendgrid.Request;
 import com.sendgrid.Response;
@@ -9,10 +12,19 @@ import com.sendgrid.SendGrid;
 import com.sendgrid.helpers.mail.Mail;
 import com.sendgrid.helpers.mail.objects.Content;
 import com.sendgrid.helpers.mail.objects.Email;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.jboss.logging.Logger;
 import org.keycloak.email.EmailException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SendGrid email sender implementation using SendGrid's REST API.
@@ -28,6 +40,11 @@ import java.io.IOException;
  * <li>From Email Address (required)</li>
  * </ul>
  * </p>
+ * <p>
+ * The underlying HTTP client is shared through
+ * {@link EmailProviderClients#SENDGRID}, keyed by a digest of the API key, so
+ * consecutive sends reuse pooled keep-alive connections to the SendGrid API.
+ * </p>
  *
  * @author Mesut Pişkin
  * @version 26.1.1
@@ -37,21 +54,94 @@ public class SendGridEmailSender implements EmailSender {
 
     private static final Logger logger = Logger.getLogger(SendGridEmailSender.class);
 
+    private static final long IDLE_CONNECTION_EVICTION_SECONDS = 30L;
+
     private final String apiKey;
     private final String fromEmail;
     private final String fromName;
+    private final PoolSettings poolSettings;
+    private final String owner;
 
     /**
-     * Constructs a new SendGridEmailSender.
+     * Connection pool settings of the shared SendGrid HTTP client.
+     *
+     * @param maxConnections      maximum pooled connections to the SendGrid API
+     * @param connectTimeoutMillis connect timeout in milliseconds
+     * @param socketTimeoutMillis  socket read timeout in milliseconds
+     */
+    public record PoolSettings(int maxConnections, int connectTimeoutMillis, int socketTimeoutMillis) {
+
+        /**
+         * Pool settings used when none are configured.
+         */
+        public static final PoolSettings DEFAULT = new PoolSettings(
+                EmailConstants.DEFAULT_SENDGRID_MAX_CONNECTIONS,
+                EmailConstants.DEFAULT_SENDGRID_CONNECT_TIMEOUT,
+                EmailConstants.DEFAULT_SENDGRID_SOCKET_TIMEOUT);
+
+        public PoolSettings {
+            if (maxConnections <= 0 || connectTimeoutMillis <= 0 || socketTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("SendGrid pool settings must be positive");
+            }
+        }
+    }
+
+    /**
+     * A SendGrid API client together with its pooled HTTP client.
+     */
+    public static final class PooledClient implements AutoCloseable {
+        private final SendGrid sendGrid;
+        private final Client client;
+
+        PooledClient(SendGrid sendGrid, Client client) {
+            this.sendGrid = sendGrid;
+            this.client = client;
+        }
+
+        /**
+         * Returns the SendGrid API client.
+         *
+         * @return the SendGrid client
+         */
+        public SendGrid getSendGrid() {
+            return sendGrid;
+        }
+
+        @Override
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    /**
+     * Constructs a new SendGridEmailSender with the default pool settings.
      *
      * @param apiKey    the SendGrid API key
      * @param fromEmail the sender email address
      * @param fromName  the sender display name (optional)
      */
     public SendGridEmailSender(String apiKey, String fromEmail, String fromName) {
+        this(apiKey, fromEmail, fromName, PoolSettings.DEFAULT, null);
+    }
+
+    /**
+     * Constructs a new SendGridEmailSender.
+     *
+     * @param apiKey       the SendGrid API key
+     * @param fromEmail    the sender email address
+     * @param fromName     the sender display name (optional)
+     * @param poolSettings the connection pool settings
+     * @param owner        identity of the configuration using the API key, used
+     *                     to retire the old client when the key is changed
+     *                     (optional)
+     */
+    public SendGridEmailSender(String apiKey, String fromEmail, String fromName, PoolSettings poolSettings,
+            String owner) {
         this.apiKey = apiKey;
         this.fromEmail = fromEmail;
         this.fromName = fromName != null ? fromName : fromEmail;
+        this.poolSettings = poolSettings != null ? poolSettings : PoolSettings.DEFAULT;
+        this.owner = owner;
     }
 
     @Override
@@ -60,25 +150,53 @@ public class SendGridEmailSender implements EmailSender {
             throw new EmailException("SendGrid is not properly configured");
         }
 
-        try {
-            SendGrid sendGrid = new SendGrid(apiKey);
-
-            Email from = new Email(fromEmail, fromName);
-            Email to = new Email(message.getTo());
-            String subject = message.getSubject();
-
-            // Build email content - prefer HTML over text
-            Content content;
-            if (message.getHtmlBody() != null && !message.getHtmlBody().isEmpty()) {
-                content = new Content("text/html", message.getHtmlBody());
-            } else if (message.getTextBody() != null && !message.getTextBody().isEmpty()) {
-                content = new Content("text/plain", message.getTextBody());
-            } else {
-                // Fallback: build simple text from template data
-                content = buildContentFromTemplateData(message);
-            }
+        List<Content> contents = buildContents(message);
+        Mail mail = new Mail(sender(), message.getSubject(), new Email(message.getTo()), contents.get(0));
+        contents.stream().skip(1).forEach(mail::addContent);
+        post(mail, message.getTo());
+    }
 
-            Mail mail = new Mail(from, subject, to, content);
+    /**
+     * Returns the configured sender address.
+     *
+     * @return the from address
+     */
+    protected Email sender() {
+        return new Email(fromEmail, fromName);
+    }
+
+    /**
+     * Builds the email contents: the text body and the HTML body when present
+     * (SendGrid requires the plain text first), falling back to a simple text
+     * built from the template data.
+     *
+     * @param message the email message
+     * @return the contents
+     */
+    protected List<Content> buildContents(EmailMessage message) {
+        List<Content> contents = new ArrayList<>(2);
+        if (message.getTextBody() != null && !message.getTextBody().isEmpty()) {
+            contents.add(new Content("text/plain", message.getTextBody()));
+        }
+        if (message.getHtmlBody() != null && !message.getHtmlBody().isEmpty()) {
+            contents.add(new Content("text/html", message.getHtmlBody()));
+        }
+        if (contents.isEmpty()) {
+            contents.add(buildContentFromTemplateData(message));
+        }
+        return contents;
+    }
+
+    /**
+     * Posts a mail to the SendGrid {@code mail/send} endpoint.
+     *
+     * @param mail       the mail
+     * @param recipients the recipients, for log messages
+     * @throws EmailException if SendGrid did not accept the mail
+     */
+    protected void post(Mail mail, String recipients) throws EmailException {
+        try {
+            SendGrid sendGrid = sharedClient().getSendGrid();
 
             Request request = new Request();
             request.setMethod(Method.POST);
@@ -90,7 +208,13 @@ public class SendGridEmailSender implements EmailSender {
             // SendGrid returns 202 for successful queuing
             if (response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
                 logger.debugf("Email sent successfully via SendGrid to %s (status: %d)",
-                        message.getTo(), response.getStatusCode());
+                        recipients, response.getStatusCode());
+            } else if (response.getStatusCode() == 429) {
+                long retryAfter = retryAfterMillis(response.getHeaders(), System.currentTimeMillis());
+                String errorMsg = String.format("SendGrid rate limit exceeded sending email to %s (retry after %d ms)",
+                        recipients, retryAfter);
+                logger.warn(errorMsg);
+                throw new EmailThrottledException(errorMsg, retryAfter, null);
             } else {
                 String errorMsg = String.format("SendGrid API returned error status %d: %s",
                         response.getStatusCode(), response.getBody());
@@ -99,12 +223,74 @@ public class SendGridEmailSender implements EmailSender {
             }
 
         } catch (IOException e) {
-            String errorMsg = String.format("Failed to send email via SendGrid to %s", message.getTo());
+            String errorMsg = String.format("Failed to send email via SendGrid to %s", recipients);
             logger.errorf(e, errorMsg);
             throw new EmailException(errorMsg, e);
         }
     }
 
+    /**
+     * Reads how long SendGrid asked to wait from a rate limited response,
+     * using {@code Retry-After} (seconds) or {@code X-RateLimit-Reset} (epoch
+     * seconds).
+     *
+     * @param headers    the response headers
+     * @param nowMillis  the current time
+     * @return the delay in milliseconds, or -1 if the response does not say
+     */
+    static long retryAfterMillis(Map<String, String> headers, long nowMillis) {
+        if (headers == null) {
+            return -1L;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            try {
+                if ("Retry-After".equalsIgnoreCase(header.getKey())) {
+                    return Math.max(0L, TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim())));
+                }
+                if ("X-RateLimit-Reset".equalsIgnoreCase(header.getKey())) {
+                    return Math.max(0L, TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim())) - nowMillis);
+                }
+            } catch (NumberFormatException e) {
+                logger.debugf("Ignoring unparseable %s header '%s'", header.getKey(), header.getValue());
+            }
+        }
+        return -1L;
+    }
+
+    private PooledClient sharedClient() {
+        String key = EmailProviderClients.fingerprint(apiKey);
+        if (owner != null) {
+            EmailProviderClients.SENDGRID.bindOwner(owner, key);
+        }
+        String settings = EmailProviderClients.fingerprint(String.valueOf(poolSettings.maxConnections()),
+                String.valueOf(poolSettings.connectTimeoutMillis()),
+                String.valueOf(poolSettings.socketTimeoutMillis()));
+        return EmailProviderClients.SENDGRID.get(key, settings, this::buildClient);
+    }
+
+    private PooledClient buildClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(poolSettings.maxConnections());
+        connectionManager.setDefaultMaxPerRoute(poolSettings.maxConnections());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(poolSettings.connectTimeoutMillis())
+                .setConnectionRequestTimeout(poolSettings.connectTimeoutMillis())
+                .setSocketTimeout(poolSettings.socketTimeoutMillis())
+                .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_CONNECTION_EVICTION_SECONDS, TimeUnit.SECONDS)
+                .build();
+
+        Client client = new Client(httpClient);
+        return new PooledClient(new SendGrid(apiKey, client), client);
+    }
+
     @Override
     public String getProviderName() {
         return "SendGrid";
@@ -131,27 +317,8 @@ public class SendGridEmailSender implements EmailSender {
      * @param message the email message containing template data
      * @return the constructed email content
      */
-    private Content buildContentFromTemplateData(EmailMessage message) {
-        StringBuilder textContent = new StringBuilder();
-
-        Object username = message.getTemplateData().get("username");
-        Object code = message.getTemplateData().get("code");
-        Object ttl = message.getTemplateData().get("ttl");
-
-        if (username != null) {
-            textContent.append("Hello ").append(username).append(",\n\n");
-        }
-
-        if (code != null) {
-            textContent.append("Your verification code is: ").append(code).append("\n\n");
-        }
-
-        if (ttl != null) {
-            textContent.append("This code will expire in ").append(ttl).append(" minutes.\n\n");
-        }
-
-        textContent.append("If you did not request this code, please ignore this email.");
-
-        return new Content("text/plain", textContent.toString());
+    protected Content buildContentFromTemplateData(EmailMessage message) {
+        return new Content("text/plain", EmailBodyCache.defaultText(message.getTemplateData().get("username"),
+                message.getTemplateData().get("code"), message.getTemplateData().get("ttl")));
     }
 }
@@ -0,0 +1,384 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.service.MicroBatcher;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Pool of connected, authenticated SMTP {@link Transport}s of one realm.
+ * <p>
+ * Keycloak's own email path opens a new connection, including the TLS
+ * handshake and authentication, for every message. The pool keeps a few
+ * connections open and reuses them: idle connections are checked with a
+ * {@code NOOP} before reuse, recycled after a maximum number of messages and
+ * closed once they have been idle for longer than the idle timeout, checked
+ * on every send (a pool that is not used at all is closed as a whole by its
+ * {@link ClientCache}). A send
+ * that fails on a reused connection is retried once on a fresh one, since the
+ * server may have dropped the connection in the meantime; a message whose
+ * recipients the server rejects fails on its own and keeps the connection.
+ * </p>
+ * <p>
+ * With a batch size above 1, messages arriving within the linger time are
+ * coalesced by a {@link MicroBatcher} and sent back to back over one
+ * connection, so that bursts of codes scale with connections rather than
+ * with handshakes. Each sender is released as soon as its own message has
+ * been handed to the server, not when the whole batch is done.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class SmtpTransportPool implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SmtpTransportPool.class);
+
+    /**
+     * Longest time a send waits for a free connection.
+     */
+    static final long BORROW_TIMEOUT_MILLIS = 10_000L;
+
+    /**
+     * Pool limits.
+     *
+     * @param maxConnections           connections open at the same time
+     * @param maxMessagesPerConnection messages sent before a connection is
+     *                                 recycled
+     * @param idleTimeoutMillis        time after which an idle connection is
+     *                                 closed
+     * @param batchSize                messages coalesced onto one connection;
+     *                                 1 disables batching
+     * @param batchLingerMillis        how long a message waits for others to
+     *                                 join its batch
+     */
+    public record Settings(int maxConnections, int maxMessagesPerConnection, long idleTimeoutMillis,
+            int batchSize, long batchLingerMillis) {
+
+        /**
+         * Default limits: 4 connections, 100 messages each, 60 seconds idle, no
+         * batching.
+         */
+        public static final Settings DEFAULT = new Settings(4, 100, 60_000L, 1, 20L);
+    }
+
+    /**
+     * Opens and authenticates a new connection.
+     */
+    @FunctionalInterface
+    public interface Connector {
+
+        /**
+         * Returns a connected transport.
+         *
+         * @return the transport
+         * @throws MessagingException if the connection cannot be established
+         */
+        Transport connect() throws MessagingException;
+    }
+
+    /**
+     * A message together with its envelope recipients.
+     *
+     * @param message    the message
+     * @param recipients the envelope recipients
+     */
+    public record Envelope(Message message, Address[] recipients) {
+    }
+
+    private static final class PooledTransport {
+        private final Transport transport;
+        private int messages;
+        private long lastUsed;
+
+        private PooledTransport(Transport transport, long now) {
+            this.transport = transport;
+            this.lastUsed = now;
+        }
+    }
+
+    private final String name;
+    private final Connector connector;
+    private final Settings settings;
+    private final LongSupplier clock;
+    private final Deque<PooledTransport> idle = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final MicroBatcher<Envelope> batcher;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool using the system clock.
+     *
+     * @param name      a short name used in log messages
+     * @param connector opens new connections
+     * @param settings  the pool limits
+     */
+    public SmtpTransportPool(String name, Connector connector, Settings settings) {
+        this(name, connector, settings, System::currentTimeMillis);
+    }
+
+    SmtpTransportPool(String name, Connector connector, Settings settings, LongSupplier clock) {
+        this.name = name;
+        this.connector = connector;
+        this.settings = settings;
+        this.clock = clock;
+        this.permits = new Semaphore(settings.maxConnections(), true);
+        this.batcher = settings.batchSize() > 1
+                ? new MicroBatcher<>("SMTP " + name, settings.batchSize(), settings.batchLingerMillis(), this::flush)
+                : null;
+    }
+
+    /**
+     * Sends a message over a pooled connection.
+     *
+     * @param message    the message
+     * @param recipients the envelope recipients
+     * @throws MessagingException if the message cannot be sent
+     */
+    public void send(Message message, Address[] recipients) throws MessagingException {
+        Envelope envelope = new Envelope(message, recipients);
+        if (batcher == null) {
+            MessagingException error = sendAll(List.of(envelope)).get(0);
+            if (error != null) {
+                throw error;
+            }
+            return;
+        }
+
+        try {
+            batcher.submit(envelope).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof MessagingException messagingException
+                    ? messagingException
+                    : new MessagingException("Failed to send message via " + name,
+                            e.getCause() instanceof Exception cause ? cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending message via " + name, e);
+        }
+    }
+
+    private void flush(List<MicroBatcher.Batched<Envelope>> batch) {
+        List<Envelope> envelopes = new ArrayList<>(batch.size());
+        for (MicroBatcher.Batched<Envelope> batched : batch) {
+            envelopes.add(batched.item());
+        }
+        sendAll(envelopes, (i, error) -> {
+            if (error != null) {
+                batch.get(i).future().completeExceptionally(error);
+            } else {
+                batch.get(i).future().complete(null);
+            }
+        });
+    }
+
+    /**
+     * Sends several messages back to back over a single pooled connection,
+     * so that a burst costs one health check and at most one handshake
+     * instead of one per message.
+     *
+     * @param envelopes the messages in sending order
+     * @return for each message, null if it was sent or the error it failed with
+     */
+    public List<MessagingException> sendAll(List<Envelope> envelopes) {
+        List<MessagingException> results = new ArrayList<>(Collections.nCopies(envelopes.size(), null));
+        sendAll(envelopes, results::set);
+        return results;
+    }
+
+    /**
+     * Sends several messages back to back over a single pooled connection,
+     * reporting the outcome of each message as soon as it is known.
+     *
+     * @param envelopes the messages in sending order
+     * @param sent      called with the index of each message and null if it was
+     *                  sent, or the error it failed with
+     */
+    private void sendAll(List<Envelope> envelopes, BiConsumer<Integer, MessagingException> sent) {
+        if (closed) {
+            failAll(envelopes, new MessagingException("SMTP connection pool " + name + " is closed"), sent);
+            return;
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                failAll(envelopes, new MessagingException("Timed out waiting for an SMTP connection of " + name),
+                        sent);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failAll(envelopes,
+                    new MessagingException("Interrupted while waiting for an SMTP connection of " + name, e), sent);
+            return;
+        }
+
+        PooledTransport current = null;
+        try {
+            current = borrowIdle();
+            for (int i = 0; i < envelopes.size(); i++) {
+                Envelope envelope = envelopes.get(i);
+                boolean reused = current != null;
+                PooledTransport connection = null;
+                MessagingException error = null;
+                try {
+                    connection = current != null ? current : open();
+                    current = deliver(connection, envelope);
+                } catch (SendFailedException e) {
+                    // The server rejected the recipients; the connection stays usable
+                    current = connection;
+                    error = e;
+                } catch (MessagingException e) {
+                    current = null;
+                    error = e;
+                    if (reused) {
+                        logger.debugf(e, "Send on reused SMTP connection of %s failed; retrying on a new one", name);
+                        PooledTransport fresh = null;
+                        try {
+                            fresh = open();
+                            current = deliver(fresh, envelope);
+                            error = null;
+                        } catch (SendFailedException retryRejected) {
+                            current = fresh;
+                            error = retryRejected;
+                        } catch (MessagingException retryError) {
+                            error = retryError;
+                        }
+                    }
+                }
+                sent.accept(i, error);
+            }
+        } finally {
+            if (current != null) {
+                if (closed) {
+                    closeQuietly(current);
+                } else {
+                    idle.offerFirst(current);
+                }
+            }
+            permits.release();
+        }
+    }
+
+    private static void failAll(List<Envelope> envelopes, MessagingException error,
+            BiConsumer<Integer, MessagingException> sent) {
+        for (int i = 0; i < envelopes.size(); i++) {
+            sent.accept(i, error);
+        }
+    }
+
+    private PooledTransport open() throws MessagingException {
+        return new PooledTransport(connector.connect(), clock.getAsLong());
+    }
+
+    /**
+     * Sends one message over the connection.
+     *
+     * @return the connection to continue with, or null if it was recycled
+     * @throws SendFailedException if the server rejected the recipients; the
+     *                             connection stays open in that case
+     * @throws MessagingException  if the message cannot be sent; the
+     *                             connection is closed in that case
+     */
+    private PooledTransport deliver(PooledTransport pooled, Envelope envelope) throws MessagingException {
+        try {
+            pooled.transport.sendMessage(envelope.message(), envelope.recipients());
+        } catch (SendFailedException e) {
+            throw e;
+        } catch (MessagingException e) {
+            closeQuietly(pooled);
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly(pooled);
+            throw new MessagingException("Failed to send message via " + name, e);
+        }
+        pooled.messages++;
+        pooled.lastUsed = clock.getAsLong();
+        if (pooled.messages >= settings.maxMessagesPerConnection()) {
+            closeQuietly(pooled);
+            return null;
+        }
+        return pooled;
+    }
+
+    /**
+     * Takes the most recently used healthy connection, closing connections
+     * that have been idle for too long or no longer answer.
+     */
+    private PooledTransport borrowIdle() {
+        evictIdle();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isHealthy(pooled)) {
+                return pooled;
+            }
+            closeQuietly(pooled);
+        }
+        return null;
+    }
+
+    private boolean isHealthy(PooledTransport pooled) {
+        try {
+            // SMTPTransport.isConnected() sends a NOOP to verify the connection
+            return pooled.transport.isConnected();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle
+     * timeout.
+     */
+    void evictIdle() {
+        long cutoff = clock.getAsLong() - settings.idleTimeoutMillis();
+        Iterator<PooledTransport> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledTransport pooled = iterator.next();
+            if (pooled.lastUsed < cutoff && idle.removeFirstOccurrence(pooled)) {
+                closeQuietly(pooled);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of idle connections.
+     *
+     * @return the idle connection count
+     */
+    int idleCount() {
+        return idle.size();
+    }
+
+    private void closeQuietly(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException | RuntimeException e) {
+            logger.debugf(e, "Failed to close SMTP connection of %s", name);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.EmailAuthenticatorSettings;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryService;
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Durable delivery outbox for access code emails.
+ * <p>
+ * The login request records the email in an {@link EmailOutboxStore} and
+ * returns. A single background worker drains due entries, delivers them
+ * through {@link EmailDeliveryService} (including the Keycloak SMTP fallback)
+ * and retries failures with exponential backoff. Entries whose code expires
+ * before the next attempt are dropped rather than delivered late, and a newer
+ * code for the same authentication session replaces the pending one.
+ * </p>
+ * <p>
+ * The worker polls periodically and is additionally woken up when a login
+ * transaction that enqueued an email commits. Polling only begins with the
+ * first email this node enqueues, so nodes and realms that do not use the
+ * outbox never query the outbox table. Entries left behind by a stopped node
+ * are picked up by any node that polls.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public final class EmailOutbox {
+
+    private static final Logger logger = Logger.getLogger(EmailOutbox.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    /**
+     * Time for which a claimed entry is reserved for the worker that claimed
+     * it; after that another worker may pick it up again.
+     */
+    static final long LEASE_MILLIS = 60_000L;
+
+    private static volatile EmailOutbox instance;
+
+    /**
+     * Available outbox stores.
+     */
+    public enum StoreType {
+        /**
+         * Entries are stored in the Keycloak database.
+         */
+        JPA,
+
+        /**
+         * Entries are kept in memory on the local node (development only).
+         */
+        MEMORY;
+
+        /**
+         * Parses a store type name, returning JPA for unknown values.
+         *
+         * @param value the store type name
+         * @return the matching store type or JPA as default
+         */
+        public static StoreType fromString(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return JPA;
+            }
+            try {
+                return StoreType.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warnf("Unknown outbox store '%s'; falling back to %s", value, JPA);
+                return JPA;
+            }
+        }
+    }
+
+    /**
+     * Outbox settings.
+     *
+     * @param storeType            the store holding pending entries
+     * @param pollIntervalMillis   time between two drains of the outbox
+     * @param batchSize            maximum number of entries claimed per drain
+     * @param initialBackoffMillis delay before the first retry
+     * @param maxBackoffMillis     upper bound of the retry delay
+     */
+    public record Settings(StoreType storeType, long pollIntervalMillis, int batchSize, long initialBackoffMillis,
+            long maxBackoffMillis) {
+
+        public Settings {
+            if (pollIntervalMillis <= 0 || batchSize <= 0 || initialBackoffMillis <= 0 || maxBackoffMillis <= 0) {
+                throw new IllegalArgumentException("Outbox settings must be positive");
+            }
+            if (storeType == null) {
+                storeType = StoreType.JPA;
+            }
+        }
+    }
+
+    private final Settings settings;
+    private final EmailOutboxStore store;
+    private final KeycloakSessionFactory sessionFactory;
+    private final LongSupplier clock;
+    private final Delivery delivery;
+    private final ScheduledExecutorService worker;
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+    EmailOutbox(Settings settings, EmailOutboxStore store, KeycloakSessionFactory sessionFactory, LongSupplier clock,
+            Delivery delivery) {
+        this.settings = settings;
+        this.store = store;
+        this.sessionFactory = sessionFactory;
+        this.clock = clock;
+        this.delivery = delivery;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "email-otp-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.worker = executor;
+    }
+
+    /**
+     * Delivers a claimed entry.
+     */
+    @FunctionalInterface
+    interface Delivery {
+        void deliver(KeycloakSession session, RealmModel realm, UserModel user, Map<String, String> config,
+                EmailMessage message) throws EmailException;
+    }
+
+    /**
+     * Creates the shared outbox. Its worker starts polling with the first
+     * enqueued email. Subsequent calls are ignored while an outbox is running.
+     *
+     * @param settings       the outbox settings
+     * @param sessionFactory the session factory used to open worker sessions
+     */
+    public static synchronized void start(Settings settings, KeycloakSessionFactory sessionFactory) {
+        if (instance != null) {
+            logger.debug("Email outbox already running");
+            return;
+        }
+        EmailOutboxStore store = settings.storeType() == StoreType.MEMORY
+                ? new InMemoryEmailOutboxStore()
+                : new JpaEmailOutboxStore();
+        instance = new EmailOutbox(settings, store, sessionFactory, System::currentTimeMillis,
+                EmailDeliveryService::deliver);
+        logger.infof("Started email outbox (store=%s, pollInterval=%dms, batchSize=%d)", settings.storeType(),
+                settings.pollIntervalMillis(), settings.batchSize());
+    }
+
+    /**
+     * Returns the shared outbox.
+     *
+     * @return the running outbox, or null if it has not been started
+     */
+    public static EmailOutbox getInstance() {
+        return instance;
+    }
+
+    /**
+     * Stops the shared outbox worker. Pending entries of a persistent store are
+     * picked up again after restart.
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.close();
+        instance = null;
+    }
+
+    /**
+     * Records an access code email in the outbox as part of the current
+     * session's transaction.
+     *
+     * @param session     the Keycloak session of the login request
+     * @param authSession the authentication session the code belongs to
+     * @param realm       the realm model
+     * @param user        the user receiving the code
+     * @param configId    the id of the authenticator configuration, or null
+     * @param message     the email message to deliver
+     * @param ttlSeconds  the lifetime of the code in seconds
+     */
+    public void enqueue(KeycloakSession session, AuthenticationSessionModel authSession, RealmModel realm,
+            UserModel user, String configId, EmailMessage message, int ttlSeconds) {
+        long now = clock.getAsLong();
+        String dedupeKey = authSession.getParentSession().getId() + "/" + authSession.getTabId();
+        store.enqueue(session, new OutboxEntry(UUID.randomUUID().toString(), dedupeKey, realm.getId(),
+                user.getId(), configId, message, now, now + ttlSeconds * 1000L, 0, now));
+        startPolling();
+
+        session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                wakeUp();
+            }
+
+            @Override
+            protected void rollbackImpl() {
+                // Nothing was recorded
+            }
+        });
+    }
+
+    private void startPolling() {
+        if (polling.compareAndSet(false, true)) {
+            try {
+                worker.scheduleWithFixedDelay(this::drainSafely, settings.pollIntervalMillis(),
+                        settings.pollIntervalMillis(), TimeUnit.MILLISECONDS);
+                logger.debug("Email outbox worker started polling");
+            } catch (RuntimeException e) {
+                logger.debug("Email outbox worker is not accepting tasks", e);
+            }
+        }
+    }
+
+    boolean isPolling() {
+        return polling.get();
+    }
+
+    private void wakeUp() {
+        if (wakeUpPending.compareAndSet(false, true)) {
+            try {
+                worker.execute(() -> {
+                    wakeUpPending.set(false);
+                    drainSafely();
+                });
+            } catch (RuntimeException e) {
+                wakeUpPending.set(false);
+                logger.debug("Email outbox worker is not accepting tasks", e);
+            }
+        }
+    }
+
+    private void drainSafely() {
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            logger.errorf(e, "Failed to drain email outbox");
+        }
+    }
+
+    /**
+     * Claims due entries and attempts to deliver each of them.
+     *
+     * @return the number of entries attempted
+     */
+    int drain() {
+        long now = clock.getAsLong();
+        List<OutboxEntry> claimed = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            int purged = store.purgeExpired(session, now);
+            if (purged > 0) {
+                logger.warnf("Dropped %d access code emails from the outbox because their codes expired", purged);
+            }
+            return store.claimDue(session, now, now + LEASE_MILLIS, settings.batchSize());
+        });
+        for (OutboxEntry entry : claimed) {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> attempt(session, entry));
+        }
+        return claimed.size();
+    }
+
+    private void attempt(KeycloakSession session, OutboxEntry entry) {
+        RealmModel realm = session.realms().getRealm(entry.realmId());
+        UserModel user = realm != null ? session.users().getUserById(realm, entry.userId()) : null;
+        if (user == null) {
+            logger.warnf("User %s of realm %s no longer exists; dropping access code email", entry.userId(),
+                    entry.realmId());
+            store.remove(session, entry.id());
+            return;
+        }
+        session.getContext().setRealm(realm);
+
+        AuthenticatorConfigModel config = entry.configId() != null
+                ? realm.getAuthenticatorConfigById(entry.configId())
+                : null;
+        Map<String, String> configMap = config != null && config.getConfig() != null
+                ? EmailAuthenticatorSettings.withConfigId(config.getConfig(), config.getId())
+                : Map.of();
+
+        try {
+            delivery.deliver(session, realm, user, configMap, entry.message());
+            store.remove(session, entry.id());
+        } catch (EmailException | RuntimeException e) {
+            int attempts = entry.attempts() + 1;
+            long nextAttemptAt = clock.getAsLong()
+                    + backoffMillis(attempts, settings.initialBackoffMillis(), settings.maxBackoffMillis());
+            if (nextAttemptAt >= entry.expiresAt()) {
+                logger.errorf(e, "Failed to send access code email after %d attempts; code expires before the "
+                        + "next retry, dropping it. realm=%s user=%s", attempts, realm.getId(), user.getUsername());
+                store.remove(session, entry.id());
+            } else {
+                logger.warnf(e, "Failed to send access code email (attempt %d); retrying in %dms. realm=%s user=%s",
+                        attempts, nextAttemptAt - clock.getAsLong(), realm.getId(), user.getUsername());
+                store.reschedule(session, entry.id(), attempts, nextAttemptAt);
+            }
+        }
+    }
+
+    /**
+     * Computes the delay before the next attempt: the initial backoff doubled
+     * for every failed attempt, capped at the maximum.
+     *
+     * @param attempts the number of failed attempts so far (at least 1)
+     * @param initial  the delay after the first failure
+     * @param max      the upper bound of the delay
+     * @return the delay in milliseconds
+     */
+    static long backoffMillis(int attempts, long initial, long max) {
+        int shift = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = initial << shift;
+        return delay <= 0 || delay > max ? max : delay;
+    }
+
+    void close() {
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+import java.util.List;
+
+/**
+ * Registers the outbox entity and its Liquibase changelog with Keycloak's
+ * JPA persistence unit.
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class EmailOutboxJpaEntityProvider implements JpaEntityProvider {
+
+    @Override
+    public List<Class<?>> getEntities() {
+        return List.of(EmailOutboxEntity.class);
+    }
+
+    @Override
+    public String getChangelogLocation() {
+        return "META-INF/email-otp-outbox-changelog.xml";
+    }
+
+    @Override
+    public String getFactoryId() {
+        return EmailOutboxJpaEntityProviderFactory.PROVIDER_ID;
+    }
+
+    @Override
+    public void close() {
+        // NOOP
+    }
+}
@@ -0,0 +1,67 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.List;
+
+/**
+ * Storage of pending access code emails.
+ * <p>
+ * Every method receives the {@code KeycloakSession} of the calling thread so
+ * that persistent implementations take part in its transaction.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public interface EmailOutboxStore {
+
+    /**
+     * Records an entry, replacing any pending entry with the same dedupe key.
+     *
+     * @param session the Keycloak session
+     * @param entry   the entry to record
+     */
+    void enqueue(KeycloakSession session, OutboxEntry entry);
+
+    /**
+     * Claims up to {@code limit} entries that are due, moving their next attempt
+     * to {@code leaseUntil} so that no other worker picks them up meanwhile.
+     *
+     * @param session    the Keycloak session
+     * @param now        the current time in epoch milliseconds
+     * @param leaseUntil the time until which claimed entries are reserved
+     * @param limit      the maximum number of entries to claim
+     * @return the claimed entries, as they were before the lease was applied
+     */
+    List<OutboxEntry> claimDue(KeycloakSession session, long now, long leaseUntil, int limit);
+
+    /**
+     * Schedules another attempt for an entry.
+     *
+     * @param session       the Keycloak session
+     * @param id            the entry id
+     * @param attempts      the new number of failed attempts
+     * @param nextAttemptAt the time of the next attempt in epoch milliseconds
+     */
+    void reschedule(KeycloakSession session, String id, int attempts, long nextAttemptAt);
+
+    /**
+     * Removes an entry after delivery or when it is dropped.
+     *
+     * @param session the Keycloak session
+     * @param id      the entry id
+     */
+    void remove(KeycloakSession session, String id);
+
+    /**
+     * Removes every entry whose code has expired.
+     *
+     * @param session the Keycloak session
+     * @param now     the current time in epoch milliseconds
+     * @return the number of removed entries
+     */
+    int purgeExpired(KeycloakSession session, long now);
+}
@@ -0,0 +1,75 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import org.keycloak.models.KeycloakSession;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outbox store kept in the memory of the current node.
+ * <p>
+ * Intended for development and single-node setups: entries are lost on
+ * restart and are not shared across a cluster. Entries are recorded
+ * immediately rather than with the login transaction.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class InMemoryEmailOutboxStore implements EmailOutboxStore {
+
+    private final Map<String, OutboxEntry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public void enqueue(KeycloakSession session, OutboxEntry entry) {
+        entries.put(entry.dedupeKey(), entry);
+    }
+
+    @Override
+    public List<OutboxEntry> claimDue(KeycloakSession session, long now, long leaseUntil, int limit) {
+        List<OutboxEntry> due = entries.values().stream()
+                .filter(entry -> entry.nextAttemptAt() <= now)
+                .sorted(Comparator.comparingLong(OutboxEntry::nextAttemptAt))
+                .limit(limit)
+                .toList();
+
+        List<OutboxEntry> claimed = new ArrayList<>(due.size());
+        for (OutboxEntry entry : due) {
+            if (entries.replace(entry.dedupeKey(), entry, entry.withSchedule(entry.attempts(), leaseUntil))) {
+                claimed.add(entry);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void reschedule(KeycloakSession session, String id, int attempts, long nextAttemptAt) {
+        entries.replaceAll((key, entry) -> entry.id().equals(id) ? entry.withSchedule(attempts, nextAttemptAt) : entry);
+    }
+
+    @Override
+    public void remove(KeycloakSession session, String id) {
+        entries.values().removeIf(entry -> entry.id().equals(id));
+    }
+
+    @Override
+    public int purgeExpired(KeycloakSession session, long now) {
+        int before = entries.size();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        return before - entries.size();
+    }
+
+    /**
+     * Returns the number of pending entries.
+     *
+     * @return the outbox size
+     */
+    public int size() {
+        return entries.size();
+    }
+}
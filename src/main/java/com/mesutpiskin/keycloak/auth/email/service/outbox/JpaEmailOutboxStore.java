@@ -0,0 +1,254 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.KeyUse;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.util.JsonSerialization;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Outbox store backed by the Keycloak database.
+ * <p>
+ * Entries are written with the transaction of the login request, so an email
+ * is only queued if the request that generated the code commits. Due entries
+ * are claimed with {@code SELECT ... FOR UPDATE SKIP LOCKED} where the
+ * database supports it, which lets every cluster node run a worker.
+ * </p>
+ * <p>
+ * The message, including the access code, is encrypted with AES-GCM under the
+ * realm's active AES key, so the outbox table does not undo {@link
+ * com.mesutpiskin.keycloak.auth.email.EmailConstants#HASH_CODE hashed codes}.
+ * The key id is stored alongside, so entries written before a key rotation
+ * stay readable while the old key is available. Realms without an AES key
+ * store the message unencrypted.
+ * </p>
+ *
+ * @author Mesut Pişkin
+ * @version 26.2.0
+ * @since 26.2.0
+ */
+public class JpaEmailOutboxStore implements EmailOutboxStore {
+
+    private static final Logger logger = Logger.getLogger(JpaEmailOutboxStore.class);
+
+    /**
+     * Lock timeout hint value that makes Hibernate skip locked rows.
+     */
+    private static final int SKIP_LOCKED = -2;
+
+    static final String ENCRYPTED_PREFIX = "aes$";
+    private static final char SEPARATOR = '$';
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Set<String> UNENCRYPTED_REALMS = ConcurrentHashMap.newKeySet();
+
+    private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE = new TypeReference<>() {
+    };
+
+    private static EntityManager em(KeycloakSession session) {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+
+    @Override
+    public void enqueue(KeycloakSession session, OutboxEntry entry) {
+        EntityManager em = em(session);
+        em.createNamedQuery("emailOutboxDeleteByDedupeKey")
+                .setParameter("dedupeKey", entry.dedupeKey())
+                .executeUpdate();
+
+        EmailOutboxEntity entity = new EmailOutboxEntity();
+        entity.setId(entry.id());
+        entity.setDedupeKey(entry.dedupeKey());
+        entity.setRealmId(entry.realmId());
+        entity.setUserId(entry.userId());
+        entity.setConfigId(entry.configId());
+        entity.setPayload(writePayload(session, entry.realmId(), entry.message()));
+        entity.setCreatedAt(entry.createdAt());
+        entity.setExpiresAt(entry.expiresAt());
+        entity.setAttempts(entry.attempts());
+        entity.setNextAttemptAt(entry.nextAttemptAt());
+        em.persist(entity);
+    }
+
+    @Override
+    public List<OutboxEntry> claimDue(KeycloakSession session, long now, long leaseUntil, int limit) {
+        List<EmailOutboxEntity> due = em(session)
+                .createNamedQuery("emailOutboxDue", EmailOutboxEntity.class)
+                .setParameter("now", now)
+                .setMaxResults(limit)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("jakarta.persistence.lock.timeout", SKIP_LOCKED)
+                .getResultList();
+
+        List<OutboxEntry> claimed = new ArrayList<>(due.size());
+        for (EmailOutboxEntity entity : due) {
+            EmailMessage message = readPayload(session, entity.getRealmId(), entity.getPayload());
+            if (message != null) {
+                claimed.add(new OutboxEntry(entity.getId(), entity.getDedupeKey(), entity.getRealmId(),
+                        entity.getUserId(), entity.getConfigId(), message, entity.getCreatedAt(),
+                        entity.getExpiresAt(), entity.getAttempts(), entity.getNextAttemptAt()));
+                entity.setNextAttemptAt(leaseUntil);
+            } else {
+                em(session).remove(entity);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void reschedule(KeycloakSession session, String id, int attempts, long nextAttemptAt) {
+        EmailOutboxEntity entity = em(session).find(EmailOutboxEntity.class, id);
+        if (entity != null) {
+            entity.setAttempts(attempts);
+            entity.setNextAttemptAt(nextAttemptAt);
+        }
+    }
+
+    @Override
+    public void remove(KeycloakSession session, String id) {
+        EmailOutboxEntity entity = em(session).find(EmailOutboxEntity.class, id);
+        if (entity != null) {
+            em(session).remove(entity);
+        }
+    }
+
+    @Override
+    public int purgeExpired(KeycloakSession session, long now) {
+        return em(session).createNamedQuery("emailOutboxDeleteExpired")
+                .setParameter("now", now)
+                .executeUpdate();
+    }
+
+    private static String writePayload(KeycloakSession session, String realmId, EmailMessage message) {
+        RealmModel realm = session.realms().getRealm(realmId);
+        KeyWrapper key = realm != null ? activeKey(session, realm) : null;
+        if (key == null && UNENCRYPTED_REALMS.add(realmId)) {
+            logger.warnf("Realm %s has no active AES key; storing outbox emails unencrypted", realmId);
+        }
+        return writePayload(message, key);
+    }
+
+    private static EmailMessage readPayload(KeycloakSession session, String realmId, String payload) {
+        RealmModel realm = session.realms().getRealm(realmId);
+        return readPayload(payload, kid -> realm != null ? key(session, realm, kid) : null);
+    }
+
+    /**
+     * Serializes a message, encrypting it if a key is given.
+     *
+     * @param message the message
+     * @param key     the realm's AES key, or null
+     * @return the payload to store
+     */
+    static String writePayload(EmailMessage message, KeyWrapper key) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("to", message.getTo());
+        payload.put("from", message.getFrom());
+        payload.put("subject", message.getSubject());
+        payload.put("htmlBody", message.getHtmlBody());
+        payload.put("textBody", message.getTextBody());
+        payload.put("templateData", message.getTemplateData());
+        try {
+            byte[] json = JsonSerialization.writeValueAsBytes(payload);
+            if (key == null) {
+                return new String(json, StandardCharsets.UTF_8);
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            RANDOM.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key.getSecretKey(), new GCMParameterSpec(TAG_BITS, iv));
+            byte[] sealed = ByteBuffer.allocate(IV_LENGTH + cipher.getOutputSize(json.length))
+                    .put(iv)
+                    .put(cipher.doFinal(json))
+                    .array();
+            return ENCRYPTED_PREFIX + key.getKid() + SEPARATOR + Base64.getEncoder().encodeToString(sealed);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to serialize outbox message", e);
+        }
+    }
+
+    /**
+     * Reads a payload written by {@link #writePayload(EmailMessage, KeyWrapper)}.
+     *
+     * @param payload the stored payload
+     * @param keys    looks up the realm's AES key by id
+     * @return the message, or null if the payload cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    static EmailMessage readPayload(String payload, Function<String, SecretKey> keys) {
+        try {
+            byte[] json;
+            if (payload.startsWith(ENCRYPTED_PREFIX)) {
+                int sealedStart = payload.indexOf(SEPARATOR, ENCRYPTED_PREFIX.length()) + 1;
+                if (sealedStart == 0) {
+                    throw new IllegalArgumentException("Malformed encrypted outbox payload");
+                }
+                SecretKey key = keys.apply(payload.substring(ENCRYPTED_PREFIX.length(), sealedStart - 1));
+                if (key == null) {
+                    logger.warn("Dropping outbox entry encrypted with a key that is no longer available");
+                    return null;
+                }
+                byte[] sealed = Base64.getDecoder().decode(payload.substring(sealedStart));
+                Cipher cipher = Cipher.getInstance(CIPHER);
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_LENGTH));
+                json = cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+            } else {
+                json = payload.getBytes(StandardCharsets.UTF_8);
+            }
+            Map<String, Object> message = JsonSerialization.readValue(json, PAYLOAD_TYPE);
+            return EmailMessage.builder()
+                    .to((String) message.get("to"))
+                    .from((String) message.get("from"))
+                    .subject((String) message.get("subject"))
+                    .htmlBody((String) message.get("htmlBody"))
+                    .textBody((String) message.get("textBody"))
+                    .templateData((Map<String, Object>) message.get("templateData"))
+                    .build();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            logger.warnf(e, "Dropping unreadable outbox entry");
+            return null;
+        }
+    }
+
+    private static KeyWrapper activeKey(KeycloakSession session, RealmModel realm) {
+        try {
+            KeyWrapper key = session.keys().getActiveKey(realm, KeyUse.ENC, Algorithm.AES);
+            return key != null && key.getSecretKey() != null ? key : null;
+        } catch (RuntimeException e) {
+            logger.debugf("No active AES key in realm %s: %s", realm.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static SecretKey key(KeycloakSession session, RealmModel realm, String kid) {
+        KeyWrapper key = session.keys().getKey(realm, kid, KeyUse.ENC, Algorithm.AES);
+        return key != null ? key.getSecretKey() : null;
+    }
+}
@@ -0,0 +1,125 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.AuthenticationExecutionModel;
+import org.keycloak.models.AuthenticationFlowModel;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link AuthenticatorConfigIndex}.
+ */
+@DisplayName("AuthenticatorConfigIndex Tests")
+class AuthenticatorConfigIndexTest {
+
+    private RealmModel realm;
+    private AuthenticatorConfigModel config;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("realm-1");
+
+        AuthenticationFlowModel browser = new AuthenticationFlowModel();
+        browser.setId("browser");
+        AuthenticationFlowModel other = new AuthenticationFlowModel();
+        other.setId("other");
+        when(realm.getAuthenticationFlowsStream()).thenAnswer(invocation -> Stream.of(browser, other));
+        AuthenticationExecutionModel cookie = execution("exec-1", "auth-cookie", null);
+        AuthenticationExecutionModel email = execution("exec-2", EmailAuthenticatorFormFactory.PROVIDER_ID, "config-1");
+        AuthenticationExecutionModel otherEmail = execution("exec-3", EmailAuthenticatorFormFactory.PROVIDER_ID,
+                "config-2");
+        when(realm.getAuthenticationExecutionsStream("browser")).thenAnswer(invocation -> Stream.of(cookie, email));
+        when(realm.getAuthenticationExecutionsStream("other")).thenAnswer(invocation -> Stream.of(otherEmail));
+        for (AuthenticationExecutionModel execution : new AuthenticationExecutionModel[] { cookie, email, otherEmail }) {
+            when(realm.getAuthenticationExecutionById(execution.getId())).thenReturn(execution);
+        }
+
+        config = new AuthenticatorConfigModel();
+        config.setId("config-1");
+        when(realm.getAuthenticatorConfigById("config-1")).thenReturn(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        AuthenticatorConfigIndex.clear();
+    }
+
+    @Test
+    @DisplayName("Should walk the flows once and return the first execution's configuration")
+    void testIndexedLookup() {
+        assertSame(config, AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        assertSame(config, AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        assertNull(AuthenticatorConfigIndex.find(realm, "auth-cookie"));
+        assertNull(AuthenticatorConfigIndex.find(realm, "unknown"));
+
+        verify(realm, times(1)).getAuthenticationFlowsStream();
+    }
+
+    @Test
+    @DisplayName("Should rebuild after invalidation")
+    void testInvalidate() {
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+        AuthenticatorConfigIndex.invalidate("realm-1");
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+
+        verify(realm, times(2)).getAuthenticationFlowsStream();
+    }
+
+    @Test
+    @DisplayName("Should rebuild when the indexed configuration was removed")
+    void testRemovedConfig() {
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+        when(realm.getAuthenticatorConfigById("config-1")).thenReturn(null);
+
+        assertNull(AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        verify(realm, times(2)).getAuthenticationFlowsStream();
+    }
+
+    @Test
+    @DisplayName("Should rebuild when the indexed execution points to another configuration")
+    void testRepointedExecution() {
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+        AuthenticatorConfigModel other = new AuthenticatorConfigModel();
+        other.setId("config-3");
+        when(realm.getAuthenticatorConfigById("config-3")).thenReturn(other);
+        realm.getAuthenticationExecutionById("exec-2").setAuthenticatorConfig("config-3");
+
+        assertSame(other, AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        assertSame(other, AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        verify(realm, times(2)).getAuthenticationFlowsStream();
+    }
+
+    @Test
+    @DisplayName("Should not keep an index built while the realm was invalidated")
+    void testInvalidatedDuringBuild() {
+        AuthenticationFlowModel browser = new AuthenticationFlowModel();
+        browser.setId("browser");
+        when(realm.getAuthenticationFlowsStream()).thenAnswer(invocation -> {
+            AuthenticatorConfigIndex.invalidate("realm-1");
+            return Stream.of(browser);
+        }).thenAnswer(invocation -> Stream.of(browser));
+
+        assertSame(config, AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID));
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+        AuthenticatorConfigIndex.find(realm, EmailAuthenticatorFormFactory.PROVIDER_ID);
+
+        verify(realm, times(2)).getAuthenticationFlowsStream();
+    }
+
+    private static AuthenticationExecutionModel execution(String id, String authenticator, String configId) {
+        AuthenticationExecutionModel execution = new AuthenticationExecutionModel();
+        execution.setId(id);
+        execution.setAuthenticator(authenticator);
+        execution.setAuthenticatorConfig(configId);
+        return execution;
+    }
+}
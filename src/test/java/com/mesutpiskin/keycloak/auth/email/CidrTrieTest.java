@@ -0,0 +1,83 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CidrTrie}.
+ */
+@DisplayName("CidrTrie Tests")
+class CidrTrieTest {
+
+    @Test
+    @DisplayName("Should match IPv4 and IPv6 networks")
+    void testContains() {
+        CidrTrie trie = CidrTrie.parse("10.0.0.0/8, 192.168.1.7\n2001:db8::/32 ## 172.16.0.0/12");
+
+        assertEquals(4, trie.size());
+        assertTrue(trie.contains(CidrTrie.parseAddress("10.20.30.40")));
+        assertTrue(trie.contains(CidrTrie.parseAddress("192.168.1.7")));
+        assertFalse(trie.contains(CidrTrie.parseAddress("192.168.1.8")));
+        assertTrue(trie.contains(CidrTrie.parseAddress("172.31.255.255")));
+        assertFalse(trie.contains(CidrTrie.parseAddress("172.32.0.0")));
+        assertTrue(trie.contains(CidrTrie.parseAddress("2001:db8:ffff::1")));
+        assertFalse(trie.contains(CidrTrie.parseAddress("2001:db9::1")));
+        assertTrue(trie.contains(CidrTrie.parseAddress("::ffff:10.1.1.1")));
+    }
+
+    @Test
+    @DisplayName("Should parse address literals only")
+    void testParseAddress() {
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, CidrTrie.parseAddress(" 1.2.3.4:8080 "));
+        assertEquals(16, CidrTrie.parseAddress("[2001:db8::1]:443").length);
+        assertNull(CidrTrie.parseAddress("1.2.3"));
+        assertNull(CidrTrie.parseAddress("1.2.3.256"));
+        assertNull(CidrTrie.parseAddress("localhost"));
+        assertNull(CidrTrie.parseAddress("example.com:80"));
+        assertNull(CidrTrie.parseAddress("not:an:address"));
+    }
+
+    @Test
+    @DisplayName("Should skip invalid networks")
+    void testInvalidNetworks() {
+        assertNull(CidrTrie.parse("10.0.0.0/33, bogus, 1.2.3.4/x"));
+        assertNull(CidrTrie.parse(" "));
+        assertEquals(1, CidrTrie.parse("0.0.0.0/0").size());
+        assertTrue(CidrTrie.parse("0.0.0.0/0").contains(CidrTrie.parseAddress("8.8.8.8")));
+    }
+
+    @Test
+    @DisplayName("Should agree with a linear scan of overlapping random networks")
+    void testAgainstLinearScan() {
+        Random random = new Random(42);
+        List<int[]> networks = new ArrayList<>();
+        CidrTrie trie = new CidrTrie();
+        for (int i = 0; i < 300; i++) {
+            int address = random.nextInt() & 0x0F0F_FFFF;
+            int length = 4 + random.nextInt(29);
+            networks.add(new int[] { address, length });
+            assertTrue(trie.add(toLiteral(address) + "/" + length));
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            int address = random.nextInt() & 0x0F0F_FFFF;
+            boolean expected = false;
+            for (int[] network : networks) {
+                int mask = network[1] == 0 ? 0 : -1 << (32 - network[1]);
+                expected |= (address & mask) == (network[0] & mask);
+            }
+            assertEquals(expected, trie.contains(CidrTrie.parseAddress(toLiteral(address))), toLiteral(address));
+        }
+    }
+
+    private static String toLiteral(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+}
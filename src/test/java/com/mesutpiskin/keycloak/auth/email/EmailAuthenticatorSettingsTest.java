@@ -0,0 +1,88 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link EmailAuthenticatorSettings}.
+ */
+@DisplayName("EmailAuthenticatorSettings Tests")
+class EmailAuthenticatorSettingsTest {
+
+    @AfterEach
+    void tearDown() {
+        EmailAuthenticatorSettings.clear();
+    }
+
+    @Test
+    @DisplayName("Should use defaults without configuration")
+    void testDefaults() {
+        EmailAuthenticatorSettings settings = EmailAuthenticatorSettings.of(null);
+
+        assertSame(EmailAuthenticatorSettings.DEFAULTS, settings);
+        assertEquals(EmailConstants.DEFAULT_LENGTH, settings.getCodeLength());
+        assertEquals(EmailConstants.DEFAULT_TTL, settings.getTtl());
+        assertEquals(EmailConstants.DEFAULT_RESEND_COOLDOWN, settings.getResendCooldown());
+        assertEquals(EmailConstants.DEFAULT_MAX_ATTEMPTS, settings.getMaxAttempts());
+        assertFalse(settings.isSimulationMode());
+        assertFalse(settings.isHashCode());
+    }
+
+    @Test
+    @DisplayName("Should parse values and fall back on invalid ones")
+    void testParse() {
+        Map<String, String> config = new HashMap<>();
+        config.put(EmailConstants.CODE_LENGTH, " 8 ");
+        config.put(EmailConstants.CODE_TTL, "-5");
+        config.put(EmailConstants.RESEND_COOLDOWN, "soon");
+        config.put(EmailConstants.MAX_ATTEMPTS, "3");
+        config.put(EmailConstants.SIMULATION_MODE, "true");
+
+        EmailAuthenticatorSettings settings = EmailAuthenticatorSettings.of("config-1", config);
+
+        assertEquals(8, settings.getCodeLength());
+        assertEquals(EmailConstants.DEFAULT_TTL, settings.getTtl());
+        assertEquals(EmailConstants.DEFAULT_RESEND_COOLDOWN, settings.getResendCooldown());
+        assertEquals(3, settings.getMaxAttempts());
+        assertTrue(settings.isSimulationMode());
+    }
+
+    @Test
+    @DisplayName("Should hand the configuration id to the delivery path")
+    void testDeliveryConfig() {
+        Map<String, String> config = Map.of(EmailConstants.CODE_LENGTH, "8");
+
+        EmailAuthenticatorSettings settings = EmailAuthenticatorSettings.of("config-1", config);
+
+        assertEquals("config-1", settings.getDeliveryConfig().get(EmailConstants.AUTHENTICATOR_CONFIG_ID));
+        assertEquals("8", settings.getDeliveryConfig().get(EmailConstants.CODE_LENGTH));
+        assertEquals(config, settings.getConfig());
+        assertNull(EmailAuthenticatorSettings.of(null, config).getDeliveryConfig()
+                .get(EmailConstants.AUTHENTICATOR_CONFIG_ID));
+    }
+
+    @Test
+    @DisplayName("Should reuse parsed settings until the configuration changes")
+    void testCache() {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setId("config-1");
+        model.setConfig(new HashMap<>(Map.of(EmailConstants.CODE_LENGTH, "6")));
+
+        EmailAuthenticatorSettings first = EmailAuthenticatorSettings.of(model);
+        assertSame(first, EmailAuthenticatorSettings.of(model));
+
+        model.getConfig().put(EmailConstants.CODE_LENGTH, "8");
+        EmailAuthenticatorSettings changed = EmailAuthenticatorSettings.of(model);
+
+        assertNotSame(first, changed);
+        assertEquals(8, changed.getCodeLength());
+        assertEquals(6, first.getCodeLength());
+    }
+}
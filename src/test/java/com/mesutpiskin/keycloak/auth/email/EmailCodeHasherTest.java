@@ -0,0 +1,68 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link EmailCodeHasher}.
+ */
+@DisplayName("EmailCodeHasher Tests")
+class EmailCodeHasherTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(
+            "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+    private static final SecretKey OTHER_KEY = new SecretKeySpec(
+            "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+
+    @Test
+    @DisplayName("Should not contain the code and should verify only the right code")
+    void testHashAndMatch() {
+        String stored = EmailCodeHasher.hash("kid-1", KEY, EmailCodeHasher.newSalt(), "482913");
+
+        assertTrue(stored.startsWith(EmailCodeHasher.PREFIX + "kid-1$"));
+        assertFalse(stored.contains("482913"));
+        assertTrue(EmailCodeHasher.matches(stored, "482913", Map.of("kid-1", KEY)::get));
+        assertFalse(EmailCodeHasher.matches(stored, "482914", Map.of("kid-1", KEY)::get));
+    }
+
+    @Test
+    @DisplayName("Should salt every hash")
+    void testSalted() {
+        String first = EmailCodeHasher.hash("kid-1", KEY, EmailCodeHasher.newSalt(), "482913");
+        String second = EmailCodeHasher.hash("kid-1", KEY, EmailCodeHasher.newSalt(), "482913");
+
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    @DisplayName("Should reject codes whose key is missing or different")
+    void testUnknownKey() {
+        String stored = EmailCodeHasher.hash("kid-1", KEY, EmailCodeHasher.newSalt(), "482913");
+
+        assertFalse(EmailCodeHasher.matches(stored, "482913", kid -> null));
+        assertFalse(EmailCodeHasher.matches(stored, "482913", kid -> OTHER_KEY));
+    }
+
+    @Test
+    @DisplayName("Should compare codes stored without a hash")
+    void testPlain() {
+        assertTrue(EmailCodeHasher.matches("482913", "482913", kid -> null));
+        assertFalse(EmailCodeHasher.matches("482913", "482914", kid -> null));
+        assertFalse(EmailCodeHasher.matches(null, "482913", kid -> null));
+    }
+
+    @Test
+    @DisplayName("Should reject malformed hashes")
+    void testMalformed() {
+        assertFalse(EmailCodeHasher.matches("hmac$broken", "482913", kid -> KEY));
+        assertFalse(EmailCodeHasher.matches("hmac$kid-1$!!$??", "482913", kid -> KEY));
+    }
+}
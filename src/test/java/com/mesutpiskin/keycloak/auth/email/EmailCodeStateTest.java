@@ -0,0 +1,90 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link EmailCodeState}.
+ */
+@DisplayName("EmailCodeState Tests")
+class EmailCodeStateTest {
+
+    @Test
+    @DisplayName("Should round-trip the packed note value")
+    void testEncodeDecode() {
+        EmailCodeState state = new EmailCodeState("012345", 1_760_000_300_000L, 1_760_000_030_000L, 3);
+
+        String encoded = state.encode();
+
+        assertTrue(encoded.startsWith("1:"));
+        assertTrue(encoded.endsWith(":012345"));
+        assertEquals(state, EmailCodeState.decode(encoded));
+    }
+
+    @Test
+    @DisplayName("Should reject corrupt note values")
+    void testDecodeCorrupt() {
+        assertNull(EmailCodeState.decode(null));
+        assertNull(EmailCodeState.decode("012345"));
+        assertNull(EmailCodeState.decode("1:abc:def"));
+        assertNull(EmailCodeState.decode("1:zz:zz:!:012345"));
+        assertNull(EmailCodeState.decode("1:zz:zz:0:"));
+    }
+
+    @Test
+    @DisplayName("Should compute expiry, cooldown and failed attempts")
+    void testIssue() {
+        EmailCodeState state = EmailCodeState.issue("1234", 10_000L, 300, 30);
+
+        assertEquals(310_000L, state.expiresAt());
+        assertEquals(30L, state.remainingCooldownSeconds(10_000L));
+        assertEquals(1L, state.remainingCooldownSeconds(39_500L));
+        assertEquals(0L, state.remainingCooldownSeconds(50_000L));
+        assertEquals(2, state.withFailedAttempt().withFailedAttempt().attempts());
+    }
+
+    @Test
+    @DisplayName("Should read the state with a single note lookup")
+    void testReadPacked() {
+        AuthenticationSessionModel session = mock(AuthenticationSessionModel.class);
+        EmailCodeState state = EmailCodeState.issue("1234", 10_000L, 300, 30);
+        when(session.getAuthNote(EmailConstants.CODE_STATE)).thenReturn(state.encode());
+
+        assertEquals(state, EmailCodeState.read(session));
+        verify(session).getAuthNote(EmailConstants.CODE_STATE);
+        verifyNoMoreInteractions(session);
+    }
+
+    @Test
+    @DisplayName("Should migrate the legacy notes to the packed note")
+    void testReadLegacy() {
+        AuthenticationSessionModel session = mock(AuthenticationSessionModel.class);
+        when(session.getAuthNote(EmailConstants.CODE)).thenReturn("1234");
+        when(session.getAuthNote(EmailConstants.CODE_TTL)).thenReturn("310000");
+        when(session.getAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER)).thenReturn("40000");
+        when(session.getAuthNote(EmailCodeState.LEGACY_ATTEMPTS)).thenReturn("2");
+
+        EmailCodeState state = EmailCodeState.read(session);
+
+        assertEquals(new EmailCodeState("1234", 310_000L, 40_000L, 2), state);
+        verify(session).setAuthNote(EmailConstants.CODE_STATE, state.encode());
+        verify(session).removeAuthNote(EmailConstants.CODE);
+        verify(session).removeAuthNote(EmailConstants.CODE_TTL);
+        verify(session).removeAuthNote(EmailConstants.CODE_RESEND_AVAILABLE_AFTER);
+        verify(session).removeAuthNote(EmailCodeState.LEGACY_ATTEMPTS);
+    }
+
+    @Test
+    @DisplayName("Should discard a corrupt packed note")
+    void testReadCorrupt() {
+        AuthenticationSessionModel session = mock(AuthenticationSessionModel.class);
+        when(session.getAuthNote(EmailConstants.CODE_STATE)).thenReturn("garbage");
+
+        assertNull(EmailCodeState.read(session));
+        verify(session).removeAuthNote(EmailConstants.CODE_STATE);
+    }
+}
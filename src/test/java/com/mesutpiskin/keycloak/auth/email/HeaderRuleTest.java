@@ -0,0 +1,73 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link HeaderRule}.
+ */
+@DisplayName("HeaderRule Tests")
+class HeaderRuleTest {
+
+    private static final int FLAGS = Pattern.DOTALL | Pattern.CASE_INSENSITIVE;
+
+    @Test
+    @DisplayName("Should scope patterns that start with a header name")
+    void testScopedHeaderName() {
+        assertEquals("X-Forwarded-Host", HeaderRule.scopedHeaderName("X-Forwarded-Host: (1.2.3.4|1.2.3.5)"));
+        assertEquals("X-Custom-Header", HeaderRule.scopedHeaderName("X-Custom-Header:.*[|].*"));
+        assertNull(HeaderRule.scopedHeaderName("X-A: 1|X-B: 2"));
+        assertNull(HeaderRule.scopedHeaderName("X-(A|B): 1"));
+        assertNull(HeaderRule.scopedHeaderName(".*: internal"));
+        assertNull(HeaderRule.scopedHeaderName("X-A: \\Q|\\E"));
+    }
+
+    @Test
+    @DisplayName("Should match like the full header line pattern")
+    void testSameResultAsFullLine() {
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.put("X-Forwarded-Host", List.of(" 1.2.3.5 "));
+        headers.put("User-Agent", List.of("Mozilla/5.0", "curl/8.0"));
+        headers.put("X-Custom-Header", List.of("please force me"));
+
+        List<String> patterns = List.of("X-Forwarded-Host: (1.2.3.4|1.2.3.5)", "x-forwarded-host: 1\\.2\\.3\\.4",
+                "X-Custom-Header:.*force.*", "X-Custom-Header:force.*", "User-Agent: curl/.*",
+                "X-A: 1|User-Agent: curl/8.0", ".*: curl/8\\.0", "Missing-Header: .*");
+
+        PatternCache cache = new PatternCache(PatternCache.DEFAULT_MAX_ENTRIES, FLAGS);
+        for (String pattern : patterns) {
+            HeaderRule rule = HeaderRule.compile(pattern, cache);
+            assertEquals(matchesFullLine(Pattern.compile(pattern, FLAGS), headers), rule.matches(headers), pattern);
+        }
+    }
+
+    @Test
+    @DisplayName("Should ignore blank and invalid patterns")
+    void testBlankAndInvalid() {
+        PatternCache cache = new PatternCache(PatternCache.DEFAULT_MAX_ENTRIES, FLAGS);
+
+        assertNull(HeaderRule.compile(null, cache));
+        assertNull(HeaderRule.compile(" ", cache));
+        assertNull(HeaderRule.compile("X-A: [unclosed", cache));
+    }
+
+    private static boolean matchesFullLine(Pattern pattern, MultivaluedMap<String, String> headers) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (String value : entry.getValue()) {
+                if (pattern.matcher(entry.getKey().trim() + ": " + value.trim()).matches()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
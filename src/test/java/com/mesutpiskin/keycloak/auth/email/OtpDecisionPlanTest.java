@@ -0,0 +1,185 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.common.ClientConnection;
+import org.keycloak.http.HttpRequest;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleContainerModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+import com.mesutpiskin.keycloak.auth.email.ConditionalEmailAuthenticatorForm.OtpDecision;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link OtpDecisionPlan}.
+ */
+@DisplayName("OtpDecisionPlan Tests")
+class OtpDecisionPlanTest {
+
+    private RealmModel realm;
+    private UserModel user;
+    private AuthenticationFlowContext context;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        user = mock(UserModel.class);
+        context = mock(AuthenticationFlowContext.class);
+        when(context.getRealm()).thenReturn(realm);
+        when(context.getUser()).thenReturn(user);
+        when(realm.getId()).thenReturn("realm-1");
+        when(user.getId()).thenReturn("user-1");
+        when(user.getAttributeStream(anyString())).thenAnswer(invocation -> Stream.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        OtpDecisionPlan.clear();
+        RoleMembershipCache.clear();
+    }
+
+    @Test
+    @DisplayName("Should keep only the configured stages")
+    void testSkippedStages() {
+        Map<String, String> config = new HashMap<>();
+        config.put(EmailConstants.CODE_LENGTH, "6");
+        config.put(ConditionalEmailAuthenticatorForm.DEFAULT_OTP_OUTCOME, "unknown");
+
+        assertEquals(0, OtpDecisionPlan.of(realm, model("config-1", config)).size());
+
+        config.put(ConditionalEmailAuthenticatorForm.OTP_CONTROL_USER_ATTRIBUTE, "otp");
+        config.put(ConditionalEmailAuthenticatorForm.DEFAULT_OTP_OUTCOME, ConditionalEmailAuthenticatorForm.SKIP);
+        OtpDecisionPlan plan = OtpDecisionPlan.of(realm, model("config-1", config));
+
+        assertEquals(2, plan.size());
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context));
+    }
+
+    @Test
+    @DisplayName("Should reuse the plan until the configuration changes")
+    void testCache() {
+        Map<String, String> config = new HashMap<>();
+        config.put(ConditionalEmailAuthenticatorForm.DEFAULT_OTP_OUTCOME, ConditionalEmailAuthenticatorForm.FORCE);
+        AuthenticatorConfigModel model = model("config-1", config);
+
+        OtpDecisionPlan first = OtpDecisionPlan.of(realm, model);
+        assertSame(first, OtpDecisionPlan.of(realm, model));
+
+        config.put(ConditionalEmailAuthenticatorForm.DEFAULT_OTP_OUTCOME, ConditionalEmailAuthenticatorForm.SKIP);
+        OtpDecisionPlan changed = OtpDecisionPlan.of(realm, model);
+
+        assertNotSame(first, changed);
+        assertEquals(OtpDecision.SHOW_OTP, first.decide(context));
+        assertEquals(OtpDecision.SKIP_OTP, changed.decide(context));
+    }
+
+    @Test
+    @DisplayName("Should resolve roles once and cache the membership by id")
+    void testRoleResolvedById() {
+        RoleModel role = mock(RoleModel.class);
+        when(role.getId()).thenReturn("role-id");
+        when(realm.getRole("trusted")).thenReturn(role);
+        when(realm.getRoleById("role-id")).thenReturn(role);
+        when(user.hasRole(role)).thenReturn(true);
+
+        Map<String, String> config = new HashMap<>();
+        config.put(ConditionalEmailAuthenticatorForm.SKIP_OTP_ROLE, "trusted");
+        OtpDecisionPlan plan = OtpDecisionPlan.of(realm, model("config-1", config));
+
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context));
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context));
+        verify(realm, times(1)).getRole("trusted");
+        verify(realm, times(1)).getRoleById("role-id");
+        verify(user, times(1)).hasRole(role);
+    }
+
+    @Test
+    @DisplayName("Should find a role that was removed and recreated under the same name")
+    void testRecreatedRole() {
+        RoleModel removed = mock(RoleModel.class);
+        when(removed.getId()).thenReturn("old-id");
+        RoleModel recreated = mock(RoleModel.class);
+        when(recreated.getId()).thenReturn("new-id");
+        when(realm.getRole("trusted")).thenReturn(removed);
+        when(user.hasRole(recreated)).thenReturn(true);
+
+        Map<String, String> config = new HashMap<>();
+        config.put(ConditionalEmailAuthenticatorForm.SKIP_OTP_ROLE, "trusted");
+        OtpDecisionPlan plan = OtpDecisionPlan.of(realm, model("config-1", config));
+        when(realm.getRole("trusted")).thenReturn(recreated);
+        when(realm.getRoleById("new-id")).thenReturn(recreated);
+
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context), "Removed on another node");
+
+        OtpDecisionPlan.onEvent(mock(RoleContainerModel.RoleRemovedEvent.class));
+        OtpDecisionPlan recompiled = OtpDecisionPlan.of(realm, model("config-1", config));
+        assertNotSame(plan, recompiled);
+        assertEquals(OtpDecision.SKIP_OTP, recompiled.decide(context));
+    }
+
+    @Test
+    @DisplayName("Should check the client network with untrusted networks first")
+    void testClientNetwork() {
+        ClientConnection connection = mock(ClientConnection.class);
+        when(context.getConnection()).thenReturn(connection);
+
+        Map<String, String> config = new HashMap<>();
+        config.put(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_NETWORKS, "10.0.0.0/8");
+        config.put(ConditionalEmailAuthenticatorForm.FORCE_OTP_FOR_NETWORKS, "10.66.0.0/16");
+        OtpDecisionPlan plan = OtpDecisionPlan.of(realm, model("config-1", config));
+
+        when(connection.getRemoteAddr()).thenReturn("10.1.2.3");
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context));
+        when(connection.getRemoteAddr()).thenReturn("10.66.2.3");
+        assertEquals(OtpDecision.SHOW_OTP, plan.decide(context));
+        when(connection.getRemoteAddr()).thenReturn("192.168.0.1");
+        assertEquals(OtpDecision.ABSTAIN, plan.decide(context));
+    }
+
+    @Test
+    @DisplayName("Should use the entry added by the proxy, not one sent by the client")
+    void testSpoofedForwardedFor() {
+        MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+        HttpHeaders httpHeaders = mock(HttpHeaders.class);
+        when(httpHeaders.getRequestHeaders()).thenReturn(headers);
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.getHttpHeaders()).thenReturn(httpHeaders);
+        when(context.getHttpRequest()).thenReturn(request);
+
+        Map<String, String> config = new HashMap<>();
+        config.put(ConditionalEmailAuthenticatorForm.SKIP_OTP_FOR_NETWORKS, "10.0.0.0/8");
+        config.put(ConditionalEmailAuthenticatorForm.CLIENT_ADDRESS_HEADER, "X-Forwarded-For");
+        OtpDecisionPlan plan = OtpDecisionPlan.of(realm, model("config-1", config));
+
+        headers.putSingle("X-Forwarded-For", "10.0.0.1, 203.0.113.7");
+        assertEquals(OtpDecision.ABSTAIN, plan.decide(context));
+        headers.put("X-Forwarded-For", new ArrayList<>(List.of("10.0.0.1", "203.0.113.7")));
+        assertEquals(OtpDecision.ABSTAIN, plan.decide(context));
+        headers.putSingle("X-Forwarded-For", "203.0.113.7, 10.0.0.1");
+        assertEquals(OtpDecision.SKIP_OTP, plan.decide(context));
+    }
+
+    private static AuthenticatorConfigModel model(String id, Map<String, String> config) {
+        AuthenticatorConfigModel model = new AuthenticatorConfigModel();
+        model.setId(id);
+        model.setConfig(config);
+        return model;
+    }
+}
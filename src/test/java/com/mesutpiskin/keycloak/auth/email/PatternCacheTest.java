@@ -0,0 +1,72 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link PatternCache}.
+ */
+@DisplayName("PatternCache Tests")
+class PatternCacheTest {
+
+    @Test
+    @DisplayName("Should compile once and count hits and misses")
+    void testHitsAndMisses() {
+        PatternCache cache = new PatternCache(4, Pattern.CASE_INSENSITIVE);
+
+        Pattern first = cache.get("x-env: .*test.*");
+        Pattern second = cache.get("x-env: .*test.*");
+
+        assertSame(first, second);
+        assertTrue(first.matcher("X-Env: staging-TEST").matches());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Should cache invalid expressions")
+    void testNegativeCaching() {
+        PatternCache cache = new PatternCache(4, 0);
+
+        assertNull(cache.get("[unclosed"));
+        assertNull(cache.get("[unclosed"));
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used pattern")
+    void testEviction() {
+        PatternCache cache = new PatternCache(2, 0);
+        Pattern a = cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get("a"));
+        cache.get("b");
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Should clear when a configuration's patterns change")
+    void testInvalidateOnChange() {
+        PatternCache cache = new PatternCache(4, 0);
+        cache.invalidateOnChange("config-1", "a");
+        cache.get("a");
+
+        cache.invalidateOnChange("config-1", "a");
+        cache.invalidateOnChange("config-2", "b");
+        assertEquals(1, cache.size());
+
+        cache.invalidateOnChange("config-1", "c");
+        assertEquals(0, cache.size());
+    }
+}
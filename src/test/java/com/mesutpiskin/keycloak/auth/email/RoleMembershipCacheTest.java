@@ -0,0 +1,84 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link RoleMembershipCache}.
+ */
+@DisplayName("RoleMembershipCache Tests")
+class RoleMembershipCacheTest {
+
+    private RealmModel realm;
+    private UserModel user;
+    private RoleModel trusted;
+    private RoleModel auditor;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        user = mock(UserModel.class);
+        trusted = mock(RoleModel.class);
+        auditor = mock(RoleModel.class);
+        when(realm.getId()).thenReturn("realm-1");
+        when(user.getId()).thenReturn("user-1");
+        when(realm.getRoleById("trusted")).thenReturn(trusted);
+        when(realm.getRoleById("auditor")).thenReturn(auditor);
+        when(user.hasRole(trusted)).thenReturn(true);
+        when(user.hasRole(auditor)).thenReturn(false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RoleMembershipCache.clear();
+    }
+
+    @Test
+    @DisplayName("Should check each role once per user")
+    void testCachedMembership() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(RoleMembershipCache.hasRole(realm, user, "trusted"));
+            assertFalse(RoleMembershipCache.hasRole(realm, user, "auditor"));
+        }
+
+        verify(user, times(1)).hasRole(trusted);
+        verify(user, times(1)).hasRole(auditor);
+    }
+
+    @Test
+    @DisplayName("Should recheck a user after a role revocation")
+    void testRoleRevoked() {
+        assertTrue(RoleMembershipCache.hasRole(realm, user, "trusted"));
+
+        when(user.hasRole(trusted)).thenReturn(false);
+        RoleModel.RoleRevokedEvent event = mock(RoleModel.RoleRevokedEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getUser()).thenReturn(user);
+        RoleMembershipCache.onEvent(event);
+
+        assertFalse(RoleMembershipCache.hasRole(realm, user, "trusted"));
+    }
+
+    @Test
+    @DisplayName("Should recheck a user after a group membership change")
+    void testGroupMembershipChanged() {
+        assertFalse(RoleMembershipCache.hasRole(realm, user, "auditor"));
+
+        when(user.hasRole(auditor)).thenReturn(true);
+        GroupModel.GroupMemberJoinEvent event = mock(GroupModel.GroupMemberJoinEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getUser()).thenReturn(user);
+        RoleMembershipCache.onEvent(event);
+
+        assertTrue(RoleMembershipCache.hasRole(realm, user, "auditor"));
+    }
+}
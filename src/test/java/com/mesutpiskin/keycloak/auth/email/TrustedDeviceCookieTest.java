@@ -0,0 +1,80 @@
+package com.mesutpiskin.keycloak.auth.email;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link TrustedDeviceCookie}.
+ */
+@DisplayName("TrustedDeviceCookie Tests")
+class TrustedDeviceCookieTest {
+
+    private static final SecretKey KEY = new SecretKeySpec(
+            "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+    private static final SecretKey OTHER_KEY = new SecretKeySpec(
+            "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8), "HmacSHA512");
+    private static final Function<String, SecretKey> KEYS = Map.of("kid-1", KEY)::get;
+    private static final long NOW = 1_760_000_000L;
+    private static final long DAY = 86_400L;
+
+    private static String cookie() {
+        return TrustedDeviceCookie.sign("kid-1", KEY, "realm", "user-1", "cred-1", "fingerprint", NOW);
+    }
+
+    @Test
+    @DisplayName("Should verify a cookie for the same user and browser")
+    void testRoundTrip() {
+        String value = cookie();
+
+        assertFalse(value.contains("user-1"));
+        assertTrue(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint", NOW + DAY, 30 * DAY, KEYS));
+    }
+
+    @Test
+    @DisplayName("Should reject a cookie of another user, browser or realm")
+    void testBinding() {
+        String value = cookie();
+
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-2", "fingerprint", NOW, 30 * DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "other", NOW, 30 * DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify(value, "other", "user-1", "fingerprint", NOW, 30 * DAY, KEYS));
+    }
+
+    @Test
+    @DisplayName("Should reject expired cookies and cookies issued in the future")
+    void testExpiry() {
+        String value = cookie();
+
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint", NOW + 30 * DAY, 30 * DAY,
+                KEYS));
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint", NOW + 2 * DAY, DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint",
+                NOW - TrustedDeviceCookie.CLOCK_SKEW_SECONDS - 1, 30 * DAY, KEYS));
+    }
+
+    @Test
+    @DisplayName("Should reject tampered or malformed cookies and unknown keys")
+    void testTampered() {
+        String value = cookie();
+        String[] parts = value.split("\\.");
+        String laterIssue = String.join(".", parts[0], parts[1], parts[2],
+                Long.toString(NOW + DAY, Character.MAX_RADIX), parts[4]);
+
+        assertFalse(TrustedDeviceCookie.verify(laterIssue, "realm", "user-1", "fingerprint", NOW, 30 * DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint", NOW, 30 * DAY,
+                kid -> OTHER_KEY));
+        assertFalse(TrustedDeviceCookie.verify(value, "realm", "user-1", "fingerprint", NOW, 30 * DAY, kid -> null));
+        assertFalse(TrustedDeviceCookie.verify("garbage", "realm", "user-1", "fingerprint", NOW, 30 * DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify("1.!.!.!.!", "realm", "user-1", "fingerprint", NOW, 30 * DAY, KEYS));
+        assertFalse(TrustedDeviceCookie.verify(null, "realm", "user-1", "fingerprint", NOW, 30 * DAY, KEYS));
+    }
+}
@@ -0,0 +1,33 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CompiledEmailBody}.
+ */
+@DisplayName("CompiledEmailBody Tests")
+class CompiledEmailBodyTest {
+
+    @Test
+    @DisplayName("Should splice values into every marker position")
+    void testRender() {
+        CompiledEmailBody body = CompiledEmailBody.compile("<p>Hi #U#, code #C#.</p><p>Again: #C#</p>", "#U#", "#C#");
+
+        assertTrue(body.uses(0));
+        assertTrue(body.uses(1));
+        assertEquals("<p>Hi alice, code 123456.</p><p>Again: 123456</p>", body.render("alice", "123456"));
+    }
+
+    @Test
+    @DisplayName("Should keep bodies without markers as static text")
+    void testStaticBody() {
+        CompiledEmailBody body = CompiledEmailBody.compile("Your code expires soon.", "#U#", "#C#");
+
+        assertFalse(body.uses(0));
+        assertEquals("Your code expires soon.", body.render("alice", "123456"));
+        assertNull(CompiledEmailBody.compile(null, "#U#"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.mesutpiskin.keycloak.auth.email.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CompiledEmail}.
+ */
+@DisplayName("CompiledEmail Tests")
+class CompiledEmailTest {
+
+    private static CompiledEmail compiled(String text) {
+        return new CompiledEmail("id", "family", CompiledEmailBody.compile("Access code", "#U#", "#C#"),
+                CompiledEmailBody.compile(text, "#U#", "#C#"), null);
+    }
+
+    @Test
+    @DisplayName("Should only accept values that need no escaping in the slots the email uses")
+    void testAccepts() {
+        CompiledEmail codeOnly = compiled("Code: #C#");
+
+        assertTrue(codeOnly.accepts(new String[] { "a&b@example.com", "123456" }));
+        assertFalse(codeOnly.accepts(new String[] { "alice", "12<34" }));
+        assertFalse(compiled("Hi #U#").accepts(new String[] { "alice@example.com", "123456" }));
+    }
+
+    @Test
+    @DisplayName("Should read the slot values from template data")
+    void testValues() {
+        assertArrayEquals(new String[] { "alice", "123456" },
+                CompiledEmail.values(Map.of("username", "alice", "code", "123456", "ttl", 300)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.service.CircuitBreaker.Settings;
+import com.mesutpiskin.keycloak.auth.email.service.CircuitBreaker.State;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CircuitBreaker}.
+ */
+@DisplayName("CircuitBreaker Tests")
+class CircuitBreakerTest {
+
+    private static final Settings SETTINGS = new Settings(10, 4, 50, 1000L, 80, 30_000L, 2);
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final CircuitBreaker breaker = new CircuitBreaker("test", SETTINGS, now::get);
+
+    @Test
+    @DisplayName("Should stay closed below the minimum number of calls")
+    void testMinimumCalls() {
+        breaker.onFailure(10);
+        breaker.onFailure(10);
+        breaker.onFailure(10);
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    @DisplayName("Should open when the failure rate reaches the threshold")
+    void testOpensOnFailureRate() {
+        breaker.onSuccess(10);
+        breaker.onSuccess(10);
+        breaker.onFailure(10);
+        breaker.onFailure(10);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    @DisplayName("Should open when most calls are slow")
+    void testOpensOnSlowCalls() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess(2000);
+        }
+
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    @DisplayName("Should allow limited trial calls and close when they succeed")
+    void testHalfOpenRecovery() {
+        tripBreaker();
+        now.addAndGet(SETTINGS.openDurationMillis());
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission(), "Only the configured number of trial calls may pass");
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(10);
+        breaker.onSuccess(10);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    @DisplayName("Should re-open when a trial call fails")
+    void testHalfOpenFailure() {
+        tripBreaker();
+        now.addAndGet(SETTINGS.openDurationMillis());
+
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onFailure(10);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    private void tripBreaker() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(10);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+}
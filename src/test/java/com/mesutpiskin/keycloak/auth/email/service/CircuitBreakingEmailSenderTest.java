@@ -0,0 +1,113 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.CircuitBreaker.Settings;
+import com.mesutpiskin.keycloak.auth.email.service.CircuitBreaker.State;
+import com.mesutpiskin.keycloak.auth.email.service.HedgingEmailSenderTest.FakeSender;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CircuitBreakingEmailSender}.
+ */
+@DisplayName("CircuitBreakingEmailSender Tests")
+class CircuitBreakingEmailSenderTest {
+
+    private static final Settings SETTINGS = new Settings(10, 4, 50, 1000L, 80, 30_000L, 2);
+
+    private final EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final CircuitBreaker breaker = new CircuitBreaker("test", SETTINGS, now::get);
+    private final FakeSender provider = new FakeSender(null, false);
+    private final CircuitBreakingEmailSender sender = new CircuitBreakingEmailSender(provider, breaker);
+
+    private void tripBreaker() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(10);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    @DisplayName("Should not call the provider while the breaker is open")
+    void testRejectsWhenOpen() {
+        tripBreaker();
+
+        assertThrows(EmailException.class, () -> sender.sendEmail(message));
+        ExecutionException async = assertThrows(ExecutionException.class,
+                () -> sender.sendEmailAsync(message).get());
+        assertInstanceOf(EmailException.class, async.getCause());
+        assertEquals(0, provider.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should not use up half-open trials on sends refused by the throttle")
+    void testThrottledSendsKeepTrials() throws Exception {
+        AtomicLong nanos = new AtomicLong(1_000_000_000L);
+        TokenBucket bucket = new TokenBucket(new TokenBucket.Settings(1, 1), nanos::get);
+        assertEquals(0L, bucket.reserve(0L));
+        ThrottlingEmailSender throttled = new ThrottlingEmailSender(sender, bucket, 0L);
+        tripBreaker();
+        now.addAndGet(SETTINGS.openDurationMillis());
+
+        for (int i = 0; i < 2 * SETTINGS.halfOpenTrialCalls(); i++) {
+            assertThrows(EmailThrottledException.class, () -> throttled.sendEmail(message));
+            ExecutionException async = assertThrows(ExecutionException.class,
+                    () -> throttled.sendEmailAsync(message).get());
+            assertInstanceOf(EmailThrottledException.class, async.getCause());
+        }
+        assertTrue(breaker.isCallPermitted());
+        assertEquals(0, provider.calls.get());
+
+        nanos.addAndGet(2_000_000_000L);
+        throttled.sendEmail(message);
+        nanos.addAndGet(2_000_000_000L);
+        throttled.sendEmail(message);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(2, provider.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should cancel the provider send and keep the half-open trial when the caller cancels")
+    void testCancelledSendKeepsTrial() {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        CircuitBreakingEmailSender slow = new CircuitBreakingEmailSender(new EmailSender() {
+            @Override
+            public void sendEmail(EmailMessage message) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+                return pending;
+            }
+
+            @Override
+            public String getProviderName() {
+                return "pending";
+            }
+
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+        }, breaker);
+        tripBreaker();
+        now.addAndGet(SETTINGS.openDurationMillis());
+
+        slow.sendEmailAsync(message).cancel(true);
+
+        assertTrue(pending.isCancelled());
+        assertEquals(State.HALF_OPEN, breaker.getState(), "A cancelled send must not count as a failure");
+        for (int i = 0; i < SETTINGS.halfOpenTrialCalls(); i++) {
+            assertTrue(breaker.tryAcquirePermission());
+        }
+    }
+}
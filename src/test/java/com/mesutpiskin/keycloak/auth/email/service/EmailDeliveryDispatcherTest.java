@@ -0,0 +1,224 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailDeliveryRequest;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryDispatcher.RejectionPolicy;
+import com.mesutpiskin.keycloak.auth.email.service.EmailDeliveryDispatcher.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link EmailDeliveryDispatcher}.
+ */
+@DisplayName("EmailDeliveryDispatcher Tests")
+class EmailDeliveryDispatcherTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private EmailDeliveryDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    private static EmailDeliveryRequest request(String to) {
+        return request(to, "SENDGRID");
+    }
+
+    private static EmailDeliveryRequest request(String to, String providerType) {
+        EmailMessage message = EmailMessage.builder().to(to).subject("code").build();
+        return new EmailDeliveryRequest("realm", "user", Map.of("emailProviderType", providerType), message);
+    }
+
+    private void blockingHandler(CountDownLatch started) {
+        dispatcher = new EmailDeliveryDispatcher(new Settings(1, 1, RejectionPolicy.CALLER_RUNS, 1), (request, executor) -> {
+            started.countDown();
+            awaitRelease();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("Should deliver queued requests on a worker thread")
+    void testDispatchDelivers() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        dispatcher = new EmailDeliveryDispatcher(new Settings(1, 10, RejectionPolicy.CALLER_RUNS, 1),
+                (request, executor) -> {
+                    delivered.countDown();
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        assertTrue(dispatcher.dispatch(request("a@example.com")));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS), "Request should be delivered by the worker");
+    }
+
+    @Test
+    @DisplayName("Should hand the delivery back to the caller when the queue is full")
+    void testCallerRunsWhenSaturated() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        blockingHandler(started);
+
+        assertTrue(dispatcher.dispatch(request("a@example.com")));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.dispatch(request("b@example.com")), "Second request should fill the queue");
+
+        assertFalse(dispatcher.dispatch(request("c@example.com")),
+                "Caller should deliver itself once the queue is full");
+    }
+
+    @Test
+    @DisplayName("Should drop the new delivery with the DISCARD policy")
+    void testDiscardWhenSaturated() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher = new EmailDeliveryDispatcher(new Settings(1, 1, RejectionPolicy.DISCARD, 1), (request, executor) -> {
+            started.countDown();
+            awaitRelease();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        dispatcher.dispatch(request("a@example.com"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(request("b@example.com"));
+
+        assertTrue(dispatcher.dispatch(request("c@example.com")));
+        assertEquals(1, dispatcher.getQueuedCount());
+    }
+
+    @Test
+    @DisplayName("Should cap concurrent deliveries per provider")
+    void testPerProviderConcurrency() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(4);
+        dispatcher = new EmailDeliveryDispatcher(new Settings(4, 10, RejectionPolicy.CALLER_RUNS, 1), (request, executor) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            done.countDown();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(request(i + "@example.com"));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get(), "Only one delivery per provider should run at a time");
+    }
+
+    @Test
+    @DisplayName("Should hold the provider permit until an async delivery completes")
+    void testPermitHeldUntilAsyncCompletion() throws InterruptedException {
+        CompletableFuture<Void> inFlight = new CompletableFuture<>();
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        dispatcher = new EmailDeliveryDispatcher(new Settings(2, 10, RejectionPolicy.CALLER_RUNS, 1),
+                (request, executor) -> {
+                    if (calls.incrementAndGet() == 1) {
+                        return inFlight;
+                    }
+                    secondStarted.countDown();
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        dispatcher.dispatch(request("a@example.com"));
+        dispatcher.dispatch(request("b@example.com"));
+
+        assertFalse(secondStarted.await(200, TimeUnit.MILLISECONDS),
+                "Second delivery should wait while the first is in flight");
+        inFlight.complete(null);
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Should keep workers free for other providers while one is at its limit")
+    void testWaitingDeliveriesDoNotHoldWorkers() throws InterruptedException {
+        CompletableFuture<Void> inFlight = new CompletableFuture<>();
+        CountDownLatch otherProvider = new CountDownLatch(1);
+        CountDownLatch allDelivered = new CountDownLatch(4);
+        dispatcher = new EmailDeliveryDispatcher(new Settings(2, 10, RejectionPolicy.CALLER_RUNS, 1),
+                (request, fallbacks) -> {
+                    allDelivered.countDown();
+                    if (request.message().getTo().equals("a@example.com")) {
+                        return inFlight;
+                    }
+                    if (request.message().getTo().equals("d@example.com")) {
+                        otherProvider.countDown();
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        dispatcher.dispatch(request("a@example.com"));
+        dispatcher.dispatch(request("b@example.com"));
+        dispatcher.dispatch(request("c@example.com"));
+        dispatcher.dispatch(request("d@example.com", "AWS_SES"));
+
+        assertTrue(otherProvider.await(5, TimeUnit.SECONDS),
+                "Deliveries waiting for SendGrid should not block an SES delivery");
+        inFlight.complete(null);
+        assertTrue(allDelivered.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Should queue a fallback instead of running it on the completing thread")
+    void testFallbackNotRunInline() throws InterruptedException {
+        AtomicReference<Executor> fallbacks = new AtomicReference<>();
+        AtomicReference<String> fallbackThread = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch fallbackRan = new CountDownLatch(1);
+        dispatcher = new EmailDeliveryDispatcher(new Settings(1, 1, RejectionPolicy.CALLER_RUNS, 1),
+                (request, executor) -> {
+                    fallbacks.set(executor);
+                    started.countDown();
+                    awaitRelease();
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        dispatcher.dispatch(request("a@example.com"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(request("b@example.com"));
+
+        fallbacks.get().execute(() -> {
+            fallbackThread.set(Thread.currentThread().getName());
+            fallbackRan.countDown();
+        });
+        assertNull(fallbackThread.get(), "Fallback should wait for the saturated pool");
+        release.countDown();
+        assertTrue(fallbackRan.await(5, TimeUnit.SECONDS));
+        assertTrue(fallbackThread.get().startsWith("email-otp-delivery-"), fallbackThread.get());
+    }
+
+    @Test
+    @DisplayName("Should parse rejection policy names")
+    void testRejectionPolicyFromString() {
+        assertEquals(RejectionPolicy.DISCARD_OLDEST, RejectionPolicy.fromString("discard_oldest"));
+        assertEquals(RejectionPolicy.CALLER_RUNS, RejectionPolicy.fromString(null));
+        assertEquals(RejectionPolicy.CALLER_RUNS, RejectionPolicy.fromString("unknown"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.EmailConstants;
+import com.mesutpiskin.keycloak.auth.email.service.HedgingEmailSenderTest.FakeSender;
+import com.mesutpiskin.keycloak.auth.email.service.impl.KeycloakEmailSender;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link EmailDeliveryService}.
+ */
+@DisplayName("EmailDeliveryService Tests")
+class EmailDeliveryServiceTest {
+
+    @Test
+    @DisplayName("Should not fall back when the sender already is Keycloak SMTP")
+    void testFallbackApplicable() {
+        KeycloakEmailSender smtp = new KeycloakEmailSender(null, null, null);
+        FakeSender provider = new FakeSender(null, true);
+        Map<String, String> sendGrid = Map.of(EmailConstants.EMAIL_PROVIDER_TYPE, "SENDGRID");
+        Map<String, String> mailgun = Map.of(EmailConstants.EMAIL_PROVIDER_TYPE, "MAILGUN");
+        Map<String, String> keycloak = Map.of(EmailConstants.EMAIL_PROVIDER_TYPE, "KEYCLOAK");
+        Map<String, String> disabled = Map.of(EmailConstants.EMAIL_PROVIDER_TYPE, "SENDGRID",
+                EmailConstants.ENABLE_FALLBACK, "false");
+
+        assertTrue(EmailDeliveryService.isFallbackApplicable(sendGrid, provider));
+        assertFalse(EmailDeliveryService.isFallbackApplicable(sendGrid, smtp),
+                "An open breaker already routed the send to Keycloak SMTP");
+        assertFalse(EmailDeliveryService.isFallbackApplicable(mailgun, smtp));
+        assertFalse(EmailDeliveryService.isFallbackApplicable(keycloak, provider));
+        assertFalse(EmailDeliveryService.isFallbackApplicable(disabled, provider));
+    }
+}
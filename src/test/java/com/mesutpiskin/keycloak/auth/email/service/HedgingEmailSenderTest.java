@@ -0,0 +1,257 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link HedgingEmailSender}.
+ */
+@DisplayName("HedgingEmailSender Tests")
+class HedgingEmailSenderTest {
+
+    private static final long DELAY = 100L;
+
+    private final EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+
+    /**
+     * Sender that optionally blocks and fails.
+     */
+    static final class FakeSender implements EmailSender {
+        private final CountDownLatch release;
+        private final boolean fail;
+        final AtomicInteger calls = new AtomicInteger();
+
+        FakeSender(CountDownLatch release, boolean fail) {
+            this.release = release;
+            this.fail = fail;
+        }
+
+        @Override
+        public void sendEmail(EmailMessage message) throws EmailException {
+            calls.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fail) {
+                throw new EmailException("failed");
+            }
+        }
+
+        @Override
+        public String getProviderName() {
+            return "fake";
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+    }
+
+    @AfterAll
+    static void tearDown() {
+        HedgingEmailSender.shutdown();
+    }
+
+    private HedgingEmailSender hedging(EmailSender primary, EmailSender fallback) {
+        return new HedgingEmailSender(primary, fallback, new LatencyTracker(), 95, DELAY);
+    }
+
+    @Test
+    @DisplayName("Should not hedge when the primary acknowledges in time")
+    void testFastPrimary() throws Exception {
+        FakeSender primary = new FakeSender(null, false);
+        FakeSender fallback = new FakeSender(null, false);
+
+        hedging(primary, fallback).sendEmail(message);
+        Thread.sleep(2 * DELAY);
+
+        assertEquals(1, primary.calls.get());
+        assertEquals(0, fallback.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should let the fallback win when the primary is slow")
+    void testSlowPrimaryHedged() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        FakeSender primary = new FakeSender(release, false);
+        FakeSender fallback = new FakeSender(null, false);
+
+        try {
+            hedging(primary, fallback).sendEmailAsync(message).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(1, fallback.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should record the latency of a primary cancelled because the hedge won")
+    void testCancelledPrimaryLatencyRecorded() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        EmailSender primary = new EmailSender() {
+            @Override
+            public void sendEmail(EmailMessage message) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+                return pending;
+            }
+
+            @Override
+            public String getProviderName() {
+                return "pending";
+            }
+
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+        };
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 1; i < LatencyTracker.MINIMUM_SAMPLES; i++) {
+            tracker.record(1L);
+        }
+
+        new HedgingEmailSender(primary, new FakeSender(null, false), tracker, 95, DELAY)
+                .sendEmailAsync(message).get(5, TimeUnit.SECONDS);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (tracker.percentile(100) < 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertTrue(pending.isCancelled());
+        assertTrue(tracker.percentile(100) >= DELAY, "Cancelled slow primary was not recorded");
+    }
+
+    @Test
+    @DisplayName("Should fall back immediately when the primary fails")
+    void testPrimaryFailure() throws Exception {
+        FakeSender primary = new FakeSender(null, true);
+        FakeSender fallback = new FakeSender(null, false);
+
+        hedging(primary, fallback).sendEmail(message);
+
+        assertEquals(1, fallback.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should fail when both the primary and the fallback fail")
+    void testBothFail() {
+        FakeSender primary = new FakeSender(null, true);
+        FakeSender fallback = new FakeSender(null, true);
+
+        assertThrows(EmailException.class, () -> hedging(primary, fallback).sendEmail(message));
+    }
+
+    /**
+     * Primary whose async send is settled by the test.
+     */
+    private static EmailSender pendingPrimary(CompletableFuture<Void> pending) {
+        return new EmailSender() {
+            @Override
+            public void sendEmail(EmailMessage message) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<Void> sendEmailAsync(EmailMessage message) {
+                return pending;
+            }
+
+            @Override
+            public String getProviderName() {
+                return "pending";
+            }
+
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should fail when the hedged fallback fails before the primary")
+    void testHedgedFallbackFailsFirst() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        FakeSender fallback = new FakeSender(null, true);
+
+        CompletableFuture<Void> send = hedging(pendingPrimary(pending), fallback).sendEmailAsync(message);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (fallback.calls.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        Thread.sleep(20L);
+        pending.completeExceptionally(new EmailException("primary failed"));
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> send.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(EmailException.class, error.getCause());
+        assertEquals(1, fallback.calls.get());
+    }
+
+    @Test
+    @DisplayName("Should fail when the primary fails while the hedge starts the fallback")
+    void testPrimaryFailsWhileHedging() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            CompletableFuture<Void> pending = new CompletableFuture<>();
+            CompletableFuture.delayedExecutor(HedgingEmailSender.MINIMUM_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                    .execute(() -> pending.completeExceptionally(new EmailException("primary failed")));
+            HedgingEmailSender sender = new HedgingEmailSender(pendingPrimary(pending),
+                    new FakeSender(null, true), new LatencyTracker(), 95, HedgingEmailSender.MINIMUM_DELAY_MILLIS);
+
+            CompletableFuture<Void> send = sender.sendEmailAsync(message);
+
+            assertThrows(ExecutionException.class, () -> send.get(5, TimeUnit.SECONDS), "Send never settled");
+        }
+    }
+
+    @Test
+    @DisplayName("Should cancel both sends when the hedged send is cancelled")
+    void testCancelPropagates() throws Exception {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        CompletableFuture<Void> send = hedging(pendingPrimary(pending), new FakeSender(null, false))
+                .sendEmailAsync(message);
+        send.cancel(true);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!pending.isCancelled() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    @DisplayName("Should derive the delay from observed latencies")
+    void testPercentileDelay() {
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i * 10L);
+        }
+
+        HedgingEmailSender sender = new HedgingEmailSender(new FakeSender(null, false),
+                new FakeSender(null, false), tracker, 95, DELAY);
+
+        assertEquals(950L, sender.getDelayMillis());
+        assertEquals(DELAY, hedging(new FakeSender(null, false), new FakeSender(null, false)).getDelayMillis(),
+                "Initial delay should apply until enough latencies are recorded");
+    }
+}
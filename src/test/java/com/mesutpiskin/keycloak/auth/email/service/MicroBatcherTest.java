@@ -0,0 +1,93 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link MicroBatcher}.
+ */
+@DisplayName("MicroBatcher Tests")
+class MicroBatcherTest {
+
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private MicroBatcher<String> batcher(int batchSize, long lingerMillis) {
+        return new MicroBatcher<>("test", batchSize, lingerMillis,
+                batch -> batches.add(batch.stream().map(MicroBatcher.Batched::item).toList()), Runnable::run, timer);
+    }
+
+    @Test
+    @DisplayName("Should flush as soon as the batch is full")
+    void testFlushOnSize() throws Exception {
+        MicroBatcher<String> batcher = batcher(3, 60_000L);
+
+        CompletableFuture<Void> first = batcher.submit("a");
+        batcher.submit("b");
+        CompletableFuture<Void> last = batcher.submit("c");
+
+        last.get(1, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+        assertEquals(List.of(List.of("a", "b", "c")), batches);
+    }
+
+    @Test
+    @DisplayName("Should flush a partial batch after the linger time")
+    void testFlushOnLinger() throws Exception {
+        MicroBatcher<String> batcher = batcher(10, 20L);
+
+        CompletableFuture<Void> first = batcher.submit("a");
+        batcher.submit("b").get(1, TimeUnit.SECONDS);
+
+        assertTrue(first.isDone());
+        assertEquals(List.of(List.of("a", "b")), batches);
+    }
+
+    @Test
+    @DisplayName("Should fail incomplete items when the handler throws")
+    void testHandlerFailure() {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", 2, 60_000L, batch -> {
+            batch.get(0).future().complete(null);
+            throw new IllegalStateException("relay down");
+        }, Runnable::run, timer);
+
+        CompletableFuture<Void> first = batcher.submit("a");
+        CompletableFuture<Void> second = batcher.submit("b");
+
+        assertFalse(first.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, second::get);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    @DisplayName("Should fail a batch the workers reject instead of flushing it on the timer thread")
+    void testRejectedFlush() {
+        MicroBatcher<String> batcher = new MicroBatcher<>("test", 10, 1L,
+                batch -> batches.add(batch.stream().map(MicroBatcher.Batched::item).toList()),
+                runnable -> {
+                    throw new RejectedExecutionException("shut down");
+                }, timer);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> batcher.submit("a").get(1, TimeUnit.SECONDS));
+
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertTrue(batches.isEmpty());
+    }
+}
@@ -0,0 +1,104 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailProviderType;
+import com.mesutpiskin.keycloak.auth.email.service.ProviderRouter.Route;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link ProviderRouter}.
+ */
+@DisplayName("ProviderRouter Tests")
+class ProviderRouterTest {
+
+    @Test
+    @DisplayName("Should parse weights and skip invalid entries")
+    void testParseRoutes() {
+        List<Route> routes = ProviderRouter.parseRoutes("sendgrid:3, AWS_SES:2, KEYCLOAK, BOGUS:1, MAILGUN:0, ROUTED");
+
+        assertEquals(List.of(
+                new Route(EmailProviderType.SENDGRID, 3),
+                new Route(EmailProviderType.AWS_SES, 2),
+                new Route(EmailProviderType.KEYCLOAK, 1)), routes);
+    }
+
+    @Test
+    @DisplayName("Should reject a configuration without valid providers")
+    void testRejectsEmptySpec() {
+        assertThrows(IllegalArgumentException.class, () -> new ProviderRouter("BOGUS, ROUTED"));
+    }
+
+    @Test
+    @DisplayName("Should include every provider in the plan")
+    void testPlanContainsAllProviders() {
+        ProviderRouter router = new ProviderRouter("SENDGRID:1,AWS_SES:1,KEYCLOAK:1");
+
+        List<EmailProviderType> plan = router.plan(new SplittableRandom(7));
+
+        assertEquals(3, plan.size());
+        assertTrue(plan.containsAll(List.of(EmailProviderType.SENDGRID, EmailProviderType.AWS_SES,
+                EmailProviderType.KEYCLOAK)));
+    }
+
+    @Test
+    @DisplayName("Should spread traffic by weight across healthy providers")
+    void testWeightedSpread() {
+        ProviderRouter router = new ProviderRouter("SENDGRID:9,AWS_SES:1");
+        SplittableRandom random = new SplittableRandom(42);
+        Map<EmailProviderType, Integer> firsts = new EnumMap<>(EmailProviderType.class);
+
+        for (int i = 0; i < 1000; i++) {
+            firsts.merge(router.plan(random).get(0), 1, Integer::sum);
+        }
+
+        // With equal costs the first weighted pick wins, so the split follows the weights
+        assertTrue(firsts.get(EmailProviderType.SENDGRID) > 800);
+        assertTrue(firsts.get(EmailProviderType.AWS_SES) > 50);
+    }
+
+    @Test
+    @DisplayName("Should route away from a failing provider")
+    void testAvoidsFailingProvider() {
+        ProviderRouter router = new ProviderRouter("SENDGRID:1,AWS_SES:1");
+        for (int i = 0; i < 20; i++) {
+            router.onStart(EmailProviderType.SENDGRID);
+            router.onComplete(EmailProviderType.SENDGRID, 200, false);
+            router.onStart(EmailProviderType.AWS_SES);
+            router.onComplete(EmailProviderType.AWS_SES, 200, true);
+        }
+
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(EmailProviderType.AWS_SES, router.plan(random).get(0));
+        }
+
+        ProviderRouter.Stats stats = router.snapshot().get(EmailProviderType.SENDGRID);
+        assertEquals(20, stats.routed());
+        assertEquals(20, stats.failed());
+        assertEquals(0, stats.inFlight());
+    }
+
+    @Test
+    @DisplayName("Should summarize every provider at most once per interval")
+    void testSummary() {
+        ProviderRouter router = new ProviderRouter("SENDGRID:1,AWS_SES:1");
+        router.onStart(EmailProviderType.SENDGRID);
+        router.onComplete(EmailProviderType.SENDGRID, 120, true);
+        router.onStart(EmailProviderType.AWS_SES);
+
+        String summary = router.summary();
+        assertTrue(summary.contains("latency=120ms success=100% inFlight=0 routed=1"), summary);
+        assertTrue(summary.contains("latency=n/a success=100% inFlight=1 routed=1"), summary);
+
+        long now = System.currentTimeMillis() + ProviderRouter.SUMMARY_INTERVAL_MILLIS;
+        assertTrue(router.logSummaryIfDue(now));
+        assertFalse(router.logSummaryIfDue(now + 1));
+    }
+}
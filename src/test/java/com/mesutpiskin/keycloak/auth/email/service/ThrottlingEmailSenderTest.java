@@ -0,0 +1,49 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link ThrottlingEmailSender}.
+ */
+@DisplayName("ThrottlingEmailSender Tests")
+class ThrottlingEmailSenderTest {
+
+    private final EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+
+    @Test
+    @DisplayName("Should start delayed asynchronous sends on its own threads")
+    void testDelayedAsyncSendThread() throws Exception {
+        AtomicReference<String> sendingThread = new AtomicReference<>();
+        EmailSender blocking = new EmailSender() {
+            @Override
+            public void sendEmail(EmailMessage message) throws EmailException {
+                sendingThread.set(Thread.currentThread().getName());
+            }
+
+            @Override
+            public String getProviderName() {
+                return "blocking";
+            }
+
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+        };
+        TokenBucket bucket = new TokenBucket(new TokenBucket.Settings(20, 1));
+        ThrottlingEmailSender sender = new ThrottlingEmailSender(blocking, bucket, 1000L);
+
+        sender.sendEmailAsync(message).get(5, TimeUnit.SECONDS);
+        sender.sendEmailAsync(message).get(5, TimeUnit.SECONDS);
+
+        assertTrue(sendingThread.get().startsWith("email-otp-throttled-send-"), sendingThread.get());
+    }
+}
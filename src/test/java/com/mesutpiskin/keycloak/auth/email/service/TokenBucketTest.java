@@ -0,0 +1,70 @@
+package com.mesutpiskin.keycloak.auth.email.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link TokenBucket}.
+ */
+@DisplayName("TokenBucket Tests")
+class TokenBucketTest {
+
+    private static final long MAX_WAIT = TimeUnit.SECONDS.toNanos(1);
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final TokenBucket bucket = new TokenBucket(new TokenBucket.Settings(10, 3), now::get);
+
+    @Test
+    @DisplayName("Should admit a burst without waiting")
+    void testBurst() {
+        assertEquals(0L, bucket.reserve(MAX_WAIT));
+        assertEquals(0L, bucket.reserve(MAX_WAIT));
+        assertEquals(0L, bucket.reserve(MAX_WAIT));
+        assertEquals(INTERVAL, bucket.reserve(MAX_WAIT));
+    }
+
+    @Test
+    @DisplayName("Should refuse a send that would wait too long")
+    void testMaxWait() {
+        for (int i = 0; i < 3; i++) {
+            bucket.reserve(MAX_WAIT);
+        }
+
+        assertEquals(-1L, bucket.reserve(INTERVAL / 2));
+        // The refused send reserved nothing
+        assertEquals(INTERVAL, bucket.reserve(MAX_WAIT));
+    }
+
+    @Test
+    @DisplayName("Should refill at the configured rate")
+    void testRefill() {
+        for (int i = 0; i < 3; i++) {
+            bucket.reserve(MAX_WAIT);
+        }
+        now.addAndGet(2 * INTERVAL);
+
+        assertEquals(0L, bucket.reserve(MAX_WAIT));
+        assertEquals(0L, bucket.reserve(MAX_WAIT));
+        assertEquals(INTERVAL, bucket.reserve(MAX_WAIT));
+    }
+
+    @Test
+    @DisplayName("Should pause and slow down when throttled, then recover")
+    void testThrottleAdaptation() {
+        bucket.onThrottled(500);
+
+        assertEquals(5.0, bucket.getCurrentRate(), 0.01);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(MAX_WAIT));
+
+        for (int i = 0; i < 20; i++) {
+            bucket.onSuccess();
+        }
+        assertEquals(10.0, bucket.getCurrentRate(), 0.01);
+    }
+}
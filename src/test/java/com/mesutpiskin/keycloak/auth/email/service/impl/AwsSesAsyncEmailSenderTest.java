@@ -0,0 +1,42 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link AwsSesAsyncEmailSender}.
+ */
+@DisplayName("AwsSesAsyncEmailSender Tests")
+class AwsSesAsyncEmailSenderTest {
+
+    private final EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+
+    @Test
+    @DisplayName("Should fail the future instead of throwing when not configured")
+    void testUnconfiguredFailsFuture() {
+        AwsSesAsyncEmailSender sender = new AwsSesAsyncEmailSender("us-east-1", null, null,
+                "noreply@example.com", null, null);
+
+        CompletableFuture<Void> future = sender.sendEmailAsync(message);
+
+        assertTrue(future.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(EmailException.class, e.getCause());
+    }
+
+    @Test
+    @DisplayName("Should unwrap the async failure on a blocking send")
+    void testBlockingSendUnwrapsFailure() {
+        AwsSesAsyncEmailSender sender = new AwsSesAsyncEmailSender(null, "key", "secret",
+                "noreply@example.com", null, null);
+
+        assertThrows(EmailException.class, () -> sender.sendEmail(message));
+    }
+}
@@ -0,0 +1,106 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmailBody;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.ses.SesClient;
+import software.amazon.awssdk.services.ses.model.SendBulkTemplatedEmailRequest;
+import software.amazon.awssdk.services.ses.model.Template;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link AwsSesBulkEmailSender}.
+ */
+@DisplayName("AwsSesBulkEmailSender Tests")
+class AwsSesBulkEmailSenderTest {
+
+    private final AwsSesBulkEmailSender sender = new AwsSesBulkEmailSender("us-east-1", "AKIATEST", "secret",
+            "noreply@example.com", "Example", null, null, 100, 50L);
+
+    @AfterEach
+    void tearDown() {
+        AwsSesBulkEmailSender.clear();
+    }
+
+    private static EmailMessage code(String to, String username, String code) {
+        return EmailMessage.builder()
+                .to(to)
+                .subject("Example access code")
+                .templateData(Map.of("username", username, "code", code, "ttl", 5))
+                .build();
+    }
+
+    @Test
+    @DisplayName("Should build one destination with replacement data per recipient")
+    void testBuildBulkRequest() throws IOException {
+        SendBulkTemplatedEmailRequest request = sender.buildBulkRequest(List.of(
+                code("alice@example.com", "alice", "111111"),
+                code("bob@example.com", "bob", "222222")));
+
+        assertEquals(AwsSesBulkEmailSender.DEFAULT_TEMPLATE_NAME, request.template());
+        assertEquals("Example <noreply@example.com>", request.source());
+        assertEquals(2, request.destinations().size());
+        assertEquals(List.of("bob@example.com"), request.destinations().get(1).destination().toAddresses());
+        assertTrue(request.destinations().get(1).replacementTemplateData().contains("\"code\":\"222222\""));
+        assertFalse(request.destinations().get(1).replacementTemplateData().contains("111111"));
+    }
+
+    @Test
+    @DisplayName("Should register a template with placeholders instead of a code")
+    void testBuildTemplate() {
+        Template template = sender.buildTemplate(null);
+
+        assertEquals("{{subject}}", template.subjectPart());
+        assertTrue(template.textPart().contains("{{code}}"));
+        assertTrue(template.textPart().contains("{{username}}"));
+    }
+
+    @Test
+    @DisplayName("Should register one localized template per compiled email")
+    void testLocalizedTemplate() {
+        CompiledEmail compiled = new CompiledEmail("0123456789abcdef", "fedcba9876543210",
+                CompiledEmailBody.compile("Example Zugangscode", "#U#", "#C#"),
+                CompiledEmailBody.compile("Zugangscode: #C#", "#U#", "#C#"),
+                CompiledEmailBody.compile("<p>Zugangscode: #C#</p>", "#U#", "#C#"));
+
+        Template template = sender.buildTemplate(compiled);
+
+        assertEquals(AwsSesBulkEmailSender.DEFAULT_TEMPLATE_NAME + "-fedcba9876543210", template.templateName());
+        assertEquals("Zugangscode: {{code}}", template.textPart());
+        assertEquals("<p>Zugangscode: {{code}}</p>", template.htmlPart());
+    }
+
+    @Test
+    @DisplayName("Should update the template of a realm and locale in place when its email changes")
+    @SuppressWarnings("unchecked")
+    void testTemplateUpdatedInPlace() {
+        SesClient client = mock(SesClient.class);
+        CompiledEmail first = new CompiledEmail("version-1", "family",
+                CompiledEmailBody.compile("Access code", "#U#", "#C#"),
+                CompiledEmailBody.compile("Code: #C#", "#U#", "#C#"), null);
+        CompiledEmail second = new CompiledEmail("version-2", "family",
+                CompiledEmailBody.compile("Access code", "#U#", "#C#"),
+                CompiledEmailBody.compile("Your code: #C#", "#U#", "#C#"), null);
+
+        sender.ensureTemplate(client, first);
+        sender.ensureTemplate(client, first);
+        sender.ensureTemplate(client, second);
+
+        assertEquals(sender.templateName(first), sender.templateName(second));
+        verify(client, times(1)).createTemplate(any(Consumer.class));
+        verify(client, times(1)).updateTemplate(any(Consumer.class));
+    }
+}
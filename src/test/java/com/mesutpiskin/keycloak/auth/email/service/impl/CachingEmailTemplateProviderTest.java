@@ -0,0 +1,146 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link CachingEmailTemplateProvider}.
+ */
+@DisplayName("CachingEmailTemplateProvider Tests")
+class CachingEmailTemplateProviderTest {
+
+    private KeycloakSession session;
+    private RealmModel realm;
+
+    @BeforeEach
+    void setUp() {
+        EmailBodyCache.clear();
+        session = mock(KeycloakSession.class);
+        KeycloakContext context = mock(KeycloakContext.class);
+        when(session.getContext()).thenReturn(context);
+        when(context.resolveLocale(any(), anyBoolean())).thenReturn(Locale.ENGLISH);
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("realm-id");
+        when(realm.getName()).thenReturn("test");
+        when(realm.getEmailTheme()).thenReturn("keycloak");
+    }
+
+    @AfterEach
+    void tearDown() {
+        EmailBodyCache.clear();
+    }
+
+    private static UserModel user(String firstName) {
+        UserModel user = mock(UserModel.class);
+        when(user.getFirstName()).thenReturn(firstName);
+        return user;
+    }
+
+    private String render(Function<UserModel, String> greeting, UserModel recipient, String username, String code)
+            throws EmailException {
+        StubTemplates provider = new StubTemplates(session, greeting);
+        provider.setRealm(realm);
+        provider.setUser(recipient);
+        Map<String, Object> templateData = new HashMap<>();
+        templateData.put("username", username);
+        templateData.put("code", code);
+        EmailMessage message = EmailMessage.builder().to(username + "@example.com").subject("")
+                .templateData(templateData).build();
+        return provider.localize(message, "emailCodeSubject", List.of(), "code-email.ftl").getTextBody();
+    }
+
+    @Test
+    @DisplayName("Should not reuse one recipient's profile in another recipient's email")
+    void testProfileNotShared() throws Exception {
+        Function<UserModel, String> greeting = user -> "Hi " + user.getFirstName();
+
+        assertEquals("Hi Alice, code 111111", render(greeting, user("Alice"), "alice", "111111"));
+        assertEquals("Hi Bob, code 222222", render(greeting, user("Bob"), "bob", "222222"));
+    }
+
+    @Test
+    @DisplayName("Should splice the values into templates that do not use the profile")
+    void testSpliced() throws Exception {
+        Function<UserModel, String> greeting = user -> "Hi";
+
+        assertEquals("Hi, code 111111", render(greeting, user("Alice"), "alice", "111111"));
+        assertEquals("Hi, code 222222", render(greeting, user("Bob"), "bob", "222222"));
+    }
+
+    @Test
+    @DisplayName("Should compile configurations with different code lifetimes into different families")
+    void testFamilyCoversConstants() throws Exception {
+        StubTemplates provider = new StubTemplates(session, user -> "Hi");
+        provider.setRealm(realm);
+        provider.setUser(user("Alice"));
+
+        String five = provider.compiled("emailCodeSubject", List.of(), "code-email.ftl",
+                new HashMap<>(Map.of("username", "alice", "code", "111111", "ttl", 5))).family();
+        String ten = provider.compiled("emailCodeSubject", List.of(), "code-email.ftl",
+                new HashMap<>(Map.of("username", "alice", "code", "111111", "ttl", 10))).family();
+        String fiveAgain = provider.compiled("emailCodeSubject", List.of(), "code-email.ftl",
+                new HashMap<>(Map.of("username", "bob", "code", "222222", "ttl", 5))).family();
+
+        assertNotEquals(five, ten);
+        assertEquals(five, fiveAgain);
+    }
+
+    @Test
+    @DisplayName("Should keep one entry per code lifetime instead of recompiling on every switch")
+    void testLifetimesCachedSeparately() throws Exception {
+        StubTemplates provider = new StubTemplates(session, user -> "Hi");
+        provider.setRealm(realm);
+        provider.setUser(user("Alice"));
+
+        for (int i = 0; i < 3; i++) {
+            for (int ttl : new int[] { 5, 10 }) {
+                provider.compiled("emailCodeSubject", List.of(), "code-email.ftl",
+                        new HashMap<>(Map.of("username", "alice", "code", "111111", "ttl", ttl)));
+            }
+        }
+
+        assertEquals(4, provider.renders, "Each lifetime should be compiled once with a marked and a probe render");
+    }
+
+    /**
+     * Stands in for FreeMarker, printing a greeting built from the current
+     * user followed by the code.
+     */
+    private static final class StubTemplates extends CachingEmailTemplateProvider {
+
+        private final Function<UserModel, String> greeting;
+        int renders;
+
+        StubTemplates(KeycloakSession session, Function<UserModel, String> greeting) {
+            super(session);
+            this.greeting = greeting;
+        }
+
+        @Override
+        EmailTemplate renderTemplate(String subjectKey, List<Object> subjectAttributes, String template,
+                Map<String, Object> attributes) {
+            renders++;
+            return new EmailTemplate("Access code", greeting.apply(user) + ", code " + attributes.get("code"), null);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link ClientCache}.
+ */
+@DisplayName("ClientCache Tests")
+class ClientCacheTest {
+
+    private static final long IDLE = 60_000L;
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private ClientCache<String, FakeClient> cache;
+
+    static final class FakeClient implements AutoCloseable {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        cache = new ClientCache<>("test", now::get);
+        cache.setIdleTimeoutMillis(IDLE);
+    }
+
+    @Test
+    @DisplayName("Should reuse the client for the same key and fingerprint")
+    void testReuse() {
+        FakeClient first = cache.get("key", "fp", FakeClient::new);
+        FakeClient second = cache.get("key", "fp", FakeClient::new);
+
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should rebuild the client when the fingerprint changes")
+    void testFingerprintChange() {
+        FakeClient first = cache.get("key", "fp-1", FakeClient::new);
+        FakeClient second = cache.get("key", "fp-2", FakeClient::new);
+
+        assertNotSame(first, second);
+        assertFalse(first.closed, "Retired client should not be closed while it may still be in use");
+
+        now.addAndGet(IDLE);
+        cache.sweep(now.get());
+        assertTrue(first.closed, "Retired client should be closed after the grace period");
+        assertFalse(second.closed);
+    }
+
+    @Test
+    @DisplayName("Should evict and close idle clients")
+    void testIdleEviction() {
+        FakeClient client = cache.get("key", "fp", FakeClient::new);
+
+        now.addAndGet(IDLE);
+        cache.sweep(now.get());
+        assertEquals(0, cache.size());
+
+        now.addAndGet(IDLE);
+        cache.sweep(now.get());
+        assertTrue(client.closed);
+    }
+
+    @Test
+    @DisplayName("Should keep clients that are in use")
+    void testActiveClientKept() {
+        FakeClient client = cache.get("key", "fp", FakeClient::new);
+
+        now.addAndGet(IDLE / 2);
+        cache.get("key", "fp", FakeClient::new);
+        now.addAndGet(IDLE / 2);
+        cache.sweep(now.get());
+
+        assertEquals(1, cache.size());
+        assertFalse(client.closed);
+    }
+
+    @Test
+    @DisplayName("Should retire the old client when its owner switches keys")
+    void testBindOwnerRetiresReplacedKey() {
+        FakeClient oldKey = cache.get("key-1", "fp", FakeClient::new);
+        cache.bindOwner("realm/a@example.com", "key-1");
+        cache.bindOwner("realm/b@example.com", "key-2");
+
+        cache.bindOwner("realm/a@example.com", "key-3");
+        assertEquals(0, cache.size(), "Client no longer referenced by any owner should be retired");
+
+        now.addAndGet(IDLE);
+        cache.sweep(now.get());
+        assertTrue(oldKey.closed);
+    }
+
+    @Test
+    @DisplayName("Should keep a client still used by another owner")
+    void testBindOwnerKeepsSharedKey() {
+        FakeClient shared = cache.get("key-1", "fp", FakeClient::new);
+        cache.bindOwner("realm/a@example.com", "key-1");
+        cache.bindOwner("realm/b@example.com", "key-1");
+
+        cache.bindOwner("realm/a@example.com", "key-2");
+
+        assertEquals(1, cache.size());
+        assertFalse(shared.closed);
+    }
+
+    @Test
+    @DisplayName("Should close every client on close")
+    void testClose() {
+        FakeClient a = cache.get("a", "fp", FakeClient::new);
+        FakeClient b = cache.get("b", "fp", FakeClient::new);
+
+        cache.close();
+
+        assertTrue(a.closed);
+        assertTrue(b.closed);
+        assertEquals(0, cache.size());
+    }
+}
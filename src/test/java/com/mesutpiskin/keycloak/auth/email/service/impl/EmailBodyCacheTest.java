@@ -0,0 +1,54 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmailBody;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link EmailBodyCache}.
+ */
+@DisplayName("EmailBodyCache Tests")
+class EmailBodyCacheTest {
+
+    @AfterEach
+    void tearDown() {
+        EmailBodyCache.configure(true, EmailBodyCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    private static CompiledEmail compiled(String text) {
+        return new CompiledEmail("id", "family", CompiledEmailBody.compile("Access code", "#U#", "#C#"),
+                CompiledEmailBody.compile(text, "#U#", "#C#"), null);
+    }
+
+    @Test
+    @DisplayName("Should compile once per version and recompile when the version changes")
+    void testVersioning() throws Exception {
+        AtomicInteger compilations = new AtomicInteger();
+        EmailBodyCache.Compiler compiler = () -> {
+            compilations.incrementAndGet();
+            return compiled("Code: #C#");
+        };
+
+        CompiledEmail first = EmailBodyCache.get("realm/code-email.ftl/en", "theme-a", compiler);
+        assertSame(first, EmailBodyCache.get("realm/code-email.ftl/en", "theme-a", compiler));
+        assertEquals(1, compilations.get());
+
+        assertNotSame(first, EmailBodyCache.get("realm/code-email.ftl/en", "theme-b", compiler));
+        assertEquals(2, compilations.get());
+    }
+
+    @Test
+    @DisplayName("Should build the default text from complete and partial template data")
+    void testDefaultText() {
+        assertEquals("Hello alice,\n\nYour verification code is: 123456\n\nThis code will expire in 5 minutes.\n\n"
+                + "If you did not request this code, please ignore this email.",
+                EmailBodyCache.defaultText("alice", "123456", 5));
+        assertTrue(EmailBodyCache.defaultText(null, "123456", null).startsWith("Your verification code is: 123456"));
+    }
+}
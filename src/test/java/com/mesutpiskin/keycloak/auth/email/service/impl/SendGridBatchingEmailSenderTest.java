@@ -0,0 +1,79 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmail;
+import com.mesutpiskin.keycloak.auth.email.model.CompiledEmailBody;
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.sendgrid.helpers.mail.Mail;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link SendGridBatchingEmailSender}.
+ */
+@DisplayName("SendGridBatchingEmailSender Tests")
+class SendGridBatchingEmailSenderTest {
+
+    private final SendGridBatchingEmailSender sender = new SendGridBatchingEmailSender("SG.test", "noreply@example.com",
+            "Example", SendGridEmailSender.PoolSettings.DEFAULT, null, 100, 50L);
+
+    @AfterEach
+    void tearDown() {
+        SendGridBatchingEmailSender.clear();
+    }
+
+    private static EmailMessage code(String to, String username, String code) {
+        return EmailMessage.builder()
+                .to(to)
+                .subject("Example access code")
+                .templateData(Map.of("username", username, "code", code, "ttl", 5))
+                .build();
+    }
+
+    @Test
+    @DisplayName("Should build one personalization with substitutions per recipient")
+    void testBuildBatch() throws IOException {
+        Mail mail = sender.buildBatch(List.of(
+                code("alice@example.com", "alice", "111111"),
+                code("bob@example.com", "bob", "222222")));
+
+        assertEquals(2, mail.getPersonalization().size());
+        assertEquals("bob@example.com", mail.getPersonalization().get(1).getTos().get(0).getEmail());
+        assertEquals("222222", mail.getPersonalization().get(1).getSubstitutions()
+                .get(SendGridBatchingEmailSender.CODE_TAG));
+        String body = mail.getContent().get(0).getValue();
+        assertTrue(body.contains(SendGridBatchingEmailSender.CODE_TAG));
+        assertFalse(body.contains("111111"));
+        assertTrue(mail.build().contains("\"personalizations\""));
+    }
+
+    @Test
+    @DisplayName("Should send the compiled localized bodies with substitution tags")
+    void testBuildLocalizedBatch() {
+        CompiledEmail compiled = new CompiledEmail("id", "family",
+                CompiledEmailBody.compile("Example Zugangscode", "#U#", "#C#"),
+                CompiledEmailBody.compile("Zugangscode: #C#", "#U#", "#C#"),
+                CompiledEmailBody.compile("<p>Zugangscode: #C#</p>", "#U#", "#C#"));
+        EmailMessage message = EmailMessage.builder()
+                .to("alice@example.com")
+                .subject("Example Zugangscode")
+                .textBody("Zugangscode: 111111")
+                .htmlBody("<p>Zugangscode: 111111</p>")
+                .templateData(Map.of("username", "alice", "code", "111111", "ttl", 300))
+                .compiledEmail(compiled)
+                .build();
+
+        Mail mail = sender.buildBatch(List.of(message));
+
+        assertEquals("text/plain", mail.getContent().get(0).getType());
+        assertEquals("<p>Zugangscode: " + SendGridBatchingEmailSender.CODE_TAG + "</p>",
+                mail.getContent().get(1).getValue());
+        assertEquals("Example Zugangscode", mail.getPersonalization().get(0).getSubject());
+    }
+}
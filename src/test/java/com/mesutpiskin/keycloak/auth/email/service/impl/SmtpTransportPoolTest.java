@@ -0,0 +1,151 @@
+package com.mesutpiskin.keycloak.auth.email.service.impl;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link SmtpTransportPool}.
+ */
+@DisplayName("SmtpTransportPool Tests")
+class SmtpTransportPoolTest {
+
+    private static final SmtpTransportPool.Settings SETTINGS = new SmtpTransportPool.Settings(2, 3, 1000L, 1, 0L);
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final List<Transport> opened = new ArrayList<>();
+    private final MimeMessage message = new MimeMessage((jakarta.mail.Session) null);
+    private final Address[] recipients = new Address[0];
+
+    private final SmtpTransportPool pool = new SmtpTransportPool("test", () -> {
+        Transport transport = mock(Transport.class);
+        when(transport.isConnected()).thenReturn(true);
+        opened.add(transport);
+        return transport;
+    }, SETTINGS, now::get);
+
+    @Test
+    @DisplayName("Should reuse a connection for consecutive sends")
+    void testReuse() throws MessagingException {
+        pool.send(message, recipients);
+        pool.send(message, recipients);
+
+        assertEquals(1, opened.size());
+        verify(opened.get(0), times(2)).sendMessage(message, recipients);
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    @DisplayName("Should recycle a connection after the maximum number of messages")
+    void testRecycle() throws MessagingException {
+        for (int i = 0; i < 4; i++) {
+            pool.send(message, recipients);
+        }
+
+        assertEquals(2, opened.size());
+        verify(opened.get(0)).close();
+    }
+
+    @Test
+    @DisplayName("Should close connections idle for longer than the timeout")
+    void testIdleEviction() throws MessagingException {
+        pool.send(message, recipients);
+        now.addAndGet(2000L);
+
+        pool.send(message, recipients);
+
+        assertEquals(2, opened.size());
+        verify(opened.get(0)).close();
+    }
+
+    @Test
+    @DisplayName("Should retry on a fresh connection when a reused one fails")
+    void testRetryOnStaleConnection() throws MessagingException {
+        pool.send(message, recipients);
+        doThrow(new MessagingException("connection reset")).when(opened.get(0)).sendMessage(any(), any());
+
+        pool.send(message, recipients);
+
+        assertEquals(2, opened.size());
+        verify(opened.get(0)).close();
+        verify(opened.get(1)).sendMessage(message, recipients);
+    }
+
+    @Test
+    @DisplayName("Should replace a connection that fails the health check")
+    void testHealthCheck() throws MessagingException {
+        pool.send(message, recipients);
+        when(opened.get(0).isConnected()).thenReturn(false);
+
+        pool.send(message, recipients);
+
+        assertEquals(2, opened.size());
+        verify(opened.get(0), times(1)).sendMessage(message, recipients);
+    }
+
+    @Test
+    @DisplayName("Should send a batch over one connection and report failures per message")
+    void testSendAll() throws MessagingException {
+        MimeMessage rejected = new MimeMessage((jakarta.mail.Session) null);
+        SmtpTransportPool batchPool = new SmtpTransportPool("batch", () -> {
+            Transport transport = mock(Transport.class);
+            when(transport.isConnected()).thenReturn(true);
+            doThrow(new SendFailedException("550 mailbox unavailable")).when(transport).sendMessage(rejected, recipients);
+            opened.add(transport);
+            return transport;
+        }, new SmtpTransportPool.Settings(1, 100, 1000L, 1, 0L), now::get);
+
+        List<MessagingException> results = batchPool.sendAll(List.of(
+                new SmtpTransportPool.Envelope(message, recipients),
+                new SmtpTransportPool.Envelope(rejected, recipients),
+                new SmtpTransportPool.Envelope(message, recipients)));
+
+        assertNull(results.get(0));
+        assertNotNull(results.get(1));
+        assertNull(results.get(2));
+        assertEquals(1, opened.size());
+        verify(opened.get(0), times(2)).sendMessage(message, recipients);
+    }
+
+    @Test
+    @DisplayName("Should release each batched sender once its own message is sent")
+    void testBatchedSendCompletesPerMessage() throws Exception {
+        MimeMessage slow = new MimeMessage((jakarta.mail.Session) null);
+        CountDownLatch release = new CountDownLatch(1);
+        SmtpTransportPool batchPool = new SmtpTransportPool("batch", () -> {
+            Transport transport = mock(Transport.class);
+            when(transport.isConnected()).thenReturn(true);
+            doAnswer(invocation -> release.await(5, TimeUnit.SECONDS)).when(transport).sendMessage(slow, recipients);
+            return transport;
+        }, new SmtpTransportPool.Settings(1, 100, 1000L, 2, 60_000L), now::get);
+
+        Thread fast = new Thread(() -> assertDoesNotThrow(() -> batchPool.send(message, recipients)));
+        fast.start();
+        while (fast.getState() != Thread.State.WAITING) {
+            Thread.sleep(1L);
+        }
+        CompletableFuture<Void> slowSend = CompletableFuture.runAsync(
+                () -> assertDoesNotThrow(() -> batchPool.send(slow, recipients)));
+
+        fast.join(2000L);
+        assertFalse(fast.isAlive(), "Sender of the first message waited for the whole batch");
+        assertFalse(slowSend.isDone());
+        release.countDown();
+        slowSend.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,180 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.mockito.Answers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EmailOutbox}.
+ */
+@DisplayName("EmailOutbox Tests")
+class EmailOutboxTest {
+
+    private static final long NOW = 1_000_000L;
+    private static final EmailOutbox.Settings SETTINGS =
+            new EmailOutbox.Settings(EmailOutbox.StoreType.MEMORY, 60_000L, 10, 5_000L, 60_000L);
+
+    private final AtomicLong now = new AtomicLong(NOW);
+    private final InMemoryEmailOutboxStore store = new InMemoryEmailOutboxStore();
+    private final AtomicInteger deliveries = new AtomicInteger();
+    private final Deque<Throwable> failures = new ArrayDeque<>();
+    private KeycloakSession session;
+    private EmailOutbox outbox;
+
+    @BeforeEach
+    void setUp() {
+        session = mock(KeycloakSession.class, Answers.RETURNS_DEEP_STUBS);
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn("realm");
+        when(session.realms().getRealm("realm")).thenReturn(realm);
+        UserModel user = mock(UserModel.class);
+        when(user.getId()).thenReturn("user");
+        when(session.users().getUserById(any(), anyString())).thenReturn(user);
+        KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+        when(sessionFactory.create()).thenReturn(session);
+
+        outbox = new EmailOutbox(SETTINGS, store, sessionFactory, now::get, (s, r, u, config, message) -> {
+            deliveries.incrementAndGet();
+            Throwable failure = failures.poll();
+            if (failure instanceof EmailException e) {
+                throw e;
+            }
+            if (failure instanceof Error e) {
+                throw e;
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        outbox.close();
+    }
+
+    private void enqueue(long ttlMillis) {
+        EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+        store.enqueue(session, new OutboxEntry("id", "session/tab", "realm", "user", null, message, NOW,
+                NOW + ttlMillis, 0, NOW));
+    }
+
+    @Test
+    @DisplayName("Should double the backoff per attempt up to the maximum")
+    void testBackoff() {
+        assertEquals(5_000L, EmailOutbox.backoffMillis(1, 5_000L, 60_000L));
+        assertEquals(10_000L, EmailOutbox.backoffMillis(2, 5_000L, 60_000L));
+        assertEquals(40_000L, EmailOutbox.backoffMillis(4, 5_000L, 60_000L));
+        assertEquals(60_000L, EmailOutbox.backoffMillis(5, 5_000L, 60_000L));
+        assertEquals(60_000L, EmailOutbox.backoffMillis(100, 5_000L, 60_000L));
+    }
+
+    @Test
+    @DisplayName("Should parse store type names")
+    void testStoreTypeFromString() {
+        assertEquals(EmailOutbox.StoreType.MEMORY, EmailOutbox.StoreType.fromString("memory"));
+        assertEquals(EmailOutbox.StoreType.JPA, EmailOutbox.StoreType.fromString(null));
+        assertEquals(EmailOutbox.StoreType.JPA, EmailOutbox.StoreType.fromString("redis"));
+    }
+
+    @Test
+    @DisplayName("Should deliver due entries and remove them")
+    void testDeliver() {
+        enqueue(300_000L);
+
+        assertEquals(1, outbox.drain());
+        assertEquals(1, deliveries.get());
+        assertEquals(0, store.size());
+        assertEquals(0, outbox.drain());
+    }
+
+    @Test
+    @DisplayName("Should retry failed deliveries after the backoff")
+    void testRetryAfterBackoff() {
+        enqueue(300_000L);
+        failures.add(new EmailException("first"));
+        failures.add(new EmailException("second"));
+
+        assertEquals(1, outbox.drain());
+        now.addAndGet(4_999L);
+        assertEquals(0, outbox.drain(), "Retried before the first backoff elapsed");
+        now.addAndGet(1L);
+        assertEquals(1, outbox.drain());
+        now.addAndGet(9_999L);
+        assertEquals(0, outbox.drain(), "Retried before the doubled backoff elapsed");
+        now.addAndGet(1L);
+        assertEquals(1, outbox.drain());
+
+        assertEquals(3, deliveries.get());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    @DisplayName("Should drop an entry whose code expires before the next retry")
+    void testDropBeforeExpiry() {
+        enqueue(4_000L);
+        failures.add(new EmailException("down"));
+
+        assertEquals(1, outbox.drain());
+
+        assertEquals(0, store.size());
+        assertEquals(1, deliveries.get());
+    }
+
+    @Test
+    @DisplayName("Should leave an entry to other workers only after the lease of a failed worker")
+    void testLease() {
+        enqueue(300_000L);
+        failures.add(new Error("worker died"));
+
+        assertThrows(Error.class, outbox::drain);
+        now.addAndGet(EmailOutbox.LEASE_MILLIS - 1);
+        assertEquals(0, outbox.drain());
+        now.addAndGet(1L);
+        assertEquals(1, outbox.drain());
+
+        assertEquals(2, deliveries.get());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    @DisplayName("Should only start polling once an email is enqueued")
+    void testPollsAfterFirstEnqueue() {
+        KeycloakSession login = mock(KeycloakSession.class);
+        when(login.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+        AuthenticationSessionModel authSession = mock(AuthenticationSessionModel.class);
+        RootAuthenticationSessionModel root = mock(RootAuthenticationSessionModel.class);
+        when(authSession.getParentSession()).thenReturn(root);
+        when(root.getId()).thenReturn("root");
+        when(authSession.getTabId()).thenReturn("tab");
+        RealmModel realm = session.realms().getRealm("realm");
+        UserModel user = session.users().getUserById(realm, "user");
+
+        assertFalse(outbox.isPolling());
+        outbox.enqueue(login, authSession, realm, user, null,
+                EmailMessage.builder().to("user@example.com").subject("code").build(), 300);
+
+        assertTrue(outbox.isPolling());
+        assertEquals(1, store.size());
+    }
+}
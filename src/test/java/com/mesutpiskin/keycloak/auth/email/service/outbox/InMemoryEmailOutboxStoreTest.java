@@ -0,0 +1,74 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import com.mesutpiskin.keycloak.auth.email.model.OutboxEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link InMemoryEmailOutboxStore}.
+ */
+@DisplayName("InMemoryEmailOutboxStore Tests")
+class InMemoryEmailOutboxStoreTest {
+
+    private static final long NOW = 1_000_000L;
+
+    private final InMemoryEmailOutboxStore store = new InMemoryEmailOutboxStore();
+
+    private static OutboxEntry entry(String id, String dedupeKey, long nextAttemptAt, long expiresAt) {
+        EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code").build();
+        return new OutboxEntry(id, dedupeKey, "realm", "user", null, message, NOW, expiresAt, 0, nextAttemptAt);
+    }
+
+    @Test
+    @DisplayName("Should replace the pending entry of the same authentication session")
+    void testDedupe() {
+        store.enqueue(null, entry("first", "session/tab", NOW, NOW + 300_000L));
+        store.enqueue(null, entry("second", "session/tab", NOW, NOW + 300_000L));
+
+        List<OutboxEntry> claimed = store.claimDue(null, NOW, NOW + 60_000L, 10);
+
+        assertEquals(1, claimed.size());
+        assertEquals("second", claimed.get(0).id());
+    }
+
+    @Test
+    @DisplayName("Should claim due entries only once until the lease expires")
+    void testClaimLeasesEntries() {
+        store.enqueue(null, entry("due", "a", NOW, NOW + 300_000L));
+        store.enqueue(null, entry("later", "b", NOW + 10_000L, NOW + 300_000L));
+
+        assertEquals(List.of("due"), store.claimDue(null, NOW, NOW + 60_000L, 10).stream()
+                .map(OutboxEntry::id).toList());
+        assertTrue(store.claimDue(null, NOW, NOW + 60_000L, 10).isEmpty());
+        assertEquals(2, store.claimDue(null, NOW + 60_000L, NOW + 120_000L, 10).size());
+    }
+
+    @Test
+    @DisplayName("Should reschedule and remove entries by id")
+    void testRescheduleAndRemove() {
+        store.enqueue(null, entry("id", "a", NOW, NOW + 300_000L));
+
+        store.reschedule(null, "id", 1, NOW + 5_000L);
+        assertTrue(store.claimDue(null, NOW, NOW + 60_000L, 10).isEmpty());
+        OutboxEntry retried = store.claimDue(null, NOW + 5_000L, NOW + 65_000L, 10).get(0);
+        assertEquals(1, retried.attempts());
+
+        store.remove(null, "id");
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    @DisplayName("Should purge entries whose code has expired")
+    void testPurgeExpired() {
+        store.enqueue(null, entry("expired", "a", NOW, NOW + 1_000L));
+        store.enqueue(null, entry("valid", "b", NOW, NOW + 300_000L));
+
+        assertEquals(1, store.purgeExpired(null, NOW + 1_000L));
+        assertEquals(1, store.size());
+    }
+}
@@ -0,0 +1,69 @@
+package com.mesutpiskin.keycloak.auth.email.service.outbox;
+
+import com.mesutpiskin.keycloak.auth.email.model.EmailMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.crypto.KeyWrapper;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the payload format of {@link JpaEmailOutboxStore}.
+ */
+@DisplayName("JpaEmailOutboxStore Tests")
+class JpaEmailOutboxStoreTest {
+
+    private final EmailMessage message = EmailMessage.builder().to("user@example.com").subject("code")
+            .templateData(Map.of("code", "123456")).build();
+
+    private static KeyWrapper key(String kid) throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        KeyWrapper key = new KeyWrapper();
+        key.setKid(kid);
+        key.setSecretKey(generator.generateKey());
+        return key;
+    }
+
+    @Test
+    @DisplayName("Should not store the code in plaintext")
+    void testEncryptedPayload() throws Exception {
+        KeyWrapper aes = key("aes-1");
+
+        String payload = JpaEmailOutboxStore.writePayload(message, aes);
+
+        assertTrue(payload.startsWith(JpaEmailOutboxStore.ENCRYPTED_PREFIX + "aes-1$"), payload);
+        assertFalse(payload.contains("123456"));
+        EmailMessage read = JpaEmailOutboxStore.readPayload(payload,
+                kid -> "aes-1".equals(kid) ? aes.getSecretKey() : null);
+        assertNotNull(read);
+        assertEquals("user@example.com", read.getTo());
+        assertEquals("123456", read.getTemplateData().get("code"));
+    }
+
+    @Test
+    @DisplayName("Should drop entries whose key is gone or that were tampered with")
+    void testUnreadablePayload() throws Exception {
+        String payload = JpaEmailOutboxStore.writePayload(message, key("aes-1"));
+        SecretKey other = key("aes-1").getSecretKey();
+        String tampered = payload.substring(0, payload.length() - 4) + "AAA=";
+
+        assertNull(JpaEmailOutboxStore.readPayload(payload, kid -> null));
+        assertNull(JpaEmailOutboxStore.readPayload(payload, kid -> other));
+        assertNull(JpaEmailOutboxStore.readPayload(tampered, kid -> other));
+    }
+
+    @Test
+    @DisplayName("Should read unencrypted payloads")
+    void testPlainPayload() {
+        String payload = JpaEmailOutboxStore.writePayload(message, null);
+
+        EmailMessage read = JpaEmailOutboxStore.readPayload(payload, kid -> null);
+        assertNotNull(read);
+        assertEquals("123456", read.getTemplateData().get("code"));
+    }
+}